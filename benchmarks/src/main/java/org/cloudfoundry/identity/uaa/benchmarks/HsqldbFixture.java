@@ -0,0 +1,82 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.benchmarks;
+
+import org.cloudfoundry.identity.uaa.constants.OriginKeys;
+import org.cloudfoundry.identity.uaa.resources.jdbc.HsqlDbLimitSqlAdapter;
+import org.cloudfoundry.identity.uaa.resources.jdbc.JdbcPagingListFactory;
+import org.cloudfoundry.identity.uaa.resources.jdbc.LimitSqlAdapter;
+import org.cloudfoundry.identity.uaa.scim.ScimUser;
+import org.cloudfoundry.identity.uaa.scim.jdbc.JdbcScimUserProvisioning;
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.MigrationVersion;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.security.crypto.password.NoOpPasswordEncoder;
+
+/**
+ * An in-memory HSQLDB database with the UAA schema, for the benchmarks that
+ * go through JDBC. Each fixture gets its own database, so forks and
+ * parameter combinations never see each other's rows.
+ */
+public class HsqldbFixture {
+
+    private final EmbeddedDatabase database;
+    private final JdbcTemplate jdbcTemplate;
+    private final LimitSqlAdapter limitSqlAdapter = new HsqlDbLimitSqlAdapter();
+
+    public HsqldbFixture() {
+        database = new EmbeddedDatabaseBuilder().generateUniqueName(true).build();
+        Flyway flyway = new Flyway();
+        flyway.setBaselineVersion(MigrationVersion.fromVersion("1.5.2"));
+        flyway.setLocations("classpath:/org/cloudfoundry/identity/uaa/db/hsqldb/");
+        flyway.setDataSource(database);
+        flyway.migrate();
+        jdbcTemplate = new JdbcTemplate(database);
+    }
+
+    public JdbcTemplate getJdbcTemplate() {
+        return jdbcTemplate;
+    }
+
+    public LimitSqlAdapter getLimitSqlAdapter() {
+        return limitSqlAdapter;
+    }
+
+    public JdbcScimUserProvisioning userProvisioning() {
+        JdbcScimUserProvisioning provisioning = new JdbcScimUserProvisioning(jdbcTemplate, new JdbcPagingListFactory(jdbcTemplate, limitSqlAdapter));
+        provisioning.setPasswordEncoder(NoOpPasswordEncoder.getInstance());
+        return provisioning;
+    }
+
+    /**
+     * Creates {@code count} users in the given zone. Every tenth user is
+     * unverified and every fifth comes from the ldap origin, so filters on
+     * those attributes select a realistic fraction of the rows.
+     */
+    public void createUsers(int count, String zoneId) {
+        JdbcScimUserProvisioning provisioning = userProvisioning();
+        for (int i = 0; i < count; i++) {
+            ScimUser user = new ScimUser(null, "user-" + i + "@example.org", "Given" + i, "Family" + (i % 50));
+            user.addEmail("user-" + i + "@example.org");
+            user.setVerified(i % 10 != 0);
+            user.setOrigin(i % 5 == 0 ? OriginKeys.LDAP : OriginKeys.UAA);
+            provisioning.createUser(user, "password", zoneId);
+        }
+    }
+
+    public void shutdown() {
+        database.shutdown();
+    }
+}
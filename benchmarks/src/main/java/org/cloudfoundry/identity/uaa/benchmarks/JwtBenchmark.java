@@ -0,0 +1,74 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.benchmarks;
+
+import org.cloudfoundry.identity.uaa.oauth.KeyInfo;
+import org.cloudfoundry.identity.uaa.oauth.KeyInfoBuilder;
+import org.cloudfoundry.identity.uaa.oauth.jwt.Jwt;
+import org.cloudfoundry.identity.uaa.oauth.jwt.JwtHelper;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.cloudfoundry.identity.uaa.benchmarks.TokenFixtures.ISSUER;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class JwtBenchmark {
+
+    @Param({TokenFixtures.RSA_KEY_ID, TokenFixtures.HMAC_KEY_ID})
+    public String keyId;
+
+    private KeyInfo keyInfo;
+    private String claims;
+    private String token;
+
+    @Setup
+    public void setUp() {
+        keyInfo = KeyInfoBuilder.build(keyId, TokenFixtures.signingKey(keyId), ISSUER);
+        claims = JsonUtils.writeValueAsString(TokenFixtures.accessTokenClaims());
+        token = JwtHelper.encode(claims, keyInfo).getEncoded();
+    }
+
+    @Benchmark
+    public String encode() {
+        return JwtHelper.encode(claims, keyInfo).getEncoded();
+    }
+
+    @Benchmark
+    public Jwt decode() {
+        return JwtHelper.decode(token);
+    }
+
+    @Benchmark
+    public Jwt decodeAndVerify() {
+        Jwt jwt = JwtHelper.decode(token);
+        jwt.verifySignature(keyInfo.getVerifier());
+        return jwt;
+    }
+}
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.benchmarks;
+
+import org.cloudfoundry.identity.uaa.oauth.AntPathRedirectResolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.oauth2.provider.client.BaseClientDetails;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures redirect URI resolution for a client with many registered
+ * redirect URIs. {@code redirectMatches} is called for each registered URI
+ * until one matches, so the requested URI only matches the last one.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class RedirectResolverBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int redirectUris;
+
+    private AntPathRedirectResolver resolver;
+    private BaseClientDetails client;
+    private String exactRedirect;
+    private String wildcardRedirect;
+
+    @Setup
+    public void setUp() {
+        resolver = new AntPathRedirectResolver();
+        Set<String> registered = new LinkedHashSet<>();
+        for (int i = 0; i < redirectUris - 2; i++) {
+            registered.add(i % 2 == 0 ?
+                "https://app-" + i + ".apps.example.com/callback" :
+                "https://*.app-" + i + ".apps.example.com/**");
+        }
+        registered.add("https://last.apps.example.com/login/callback");
+        registered.add("https://*.wildcard.apps.example.com/**");
+        client = new BaseClientDetails("client", null, "openid", "authorization_code", null);
+        client.setRegisteredRedirectUri(registered);
+        exactRedirect = "https://last.apps.example.com/login/callback";
+        wildcardRedirect = "https://tenant.wildcard.apps.example.com/login/callback?state=abc";
+    }
+
+    @Benchmark
+    public String exactMatch() {
+        return resolver.resolveRedirect(exactRedirect, client);
+    }
+
+    @Benchmark
+    public String wildcardMatch() {
+        return resolver.resolveRedirect(wildcardRedirect, client);
+    }
+}
@@ -0,0 +1,77 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.benchmarks;
+
+import org.cloudfoundry.identity.uaa.resources.SimpleAttributeNameMapper;
+import org.cloudfoundry.identity.uaa.resources.jdbc.SearchQueryConverter.ProcessedFilter;
+import org.cloudfoundry.identity.uaa.resources.jdbc.SimpleSearchQueryConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the translation of SCIM filters into SQL, configured the same way
+ * as the converter of the SCIM user endpoints.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ScimFilterBenchmark {
+
+    static final Map<String, String> FILTERS = new HashMap<>();
+
+    static {
+        FILTERS.put("eq", "userName eq \"marissa@test.org\"");
+        FILTERS.put("co", "emails.value co \"example.org\"");
+        FILTERS.put("and", "userName sw \"user-1\" and origin eq \"uaa\" and verified eq true");
+        FILTERS.put("or", "id eq \"a\" or id eq \"b\" or id eq \"c\" or id eq \"d\" or id eq \"e\" or id eq \"f\" or id eq \"g\" or id eq \"h\"");
+        FILTERS.put("nested", "(userName co \"user\" or emails.value co \"user\") and (origin eq \"uaa\" or origin eq \"ldap\") and meta.lastModified gt \"2019-01-01T00:00:00.000Z\" and active pr");
+    }
+
+    @Param({"eq", "co", "and", "or", "nested"})
+    public String filter;
+
+    private SimpleSearchQueryConverter converter;
+    private String scimFilter;
+
+    @Setup
+    public void setUp() {
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("emails\\.value", "email");
+        attributes.put("groups\\.display", "authorities");
+        attributes.put("phoneNumbers\\.value", "phoneNumber");
+        converter = new SimpleSearchQueryConverter();
+        converter.setAttributeNameMapper(new SimpleAttributeNameMapper(attributes));
+        scimFilter = "(" + FILTERS.get(filter) + ") and identity_zone_id eq \"uaa\"";
+    }
+
+    @Benchmark
+    public ProcessedFilter convert() {
+        return converter.convert(scimFilter, "userName", true);
+    }
+}
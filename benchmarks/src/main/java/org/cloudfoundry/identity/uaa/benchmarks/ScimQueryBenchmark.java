@@ -0,0 +1,92 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.benchmarks;
+
+import org.cloudfoundry.identity.uaa.constants.OriginKeys;
+import org.cloudfoundry.identity.uaa.resources.jdbc.JdbcPagingList;
+import org.cloudfoundry.identity.uaa.resources.jdbc.SearchQueryConverter.ProcessedFilter;
+import org.cloudfoundry.identity.uaa.resources.jdbc.SimpleSearchQueryConverter;
+import org.cloudfoundry.identity.uaa.scim.ScimUser;
+import org.cloudfoundry.identity.uaa.scim.jdbc.JdbcScimUserProvisioning;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures SCIM user searches against an embedded HSQLDB database:
+ * {@link JdbcPagingList}, which rewrites the query into a count query when
+ * it is created, and the full path through {@link JdbcScimUserProvisioning}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ScimQueryBenchmark {
+
+    private static final RowMapper<String> ID_MAPPER = (rs, rowNum) -> rs.getString(1);
+
+    @Param({"1000"})
+    public int users;
+
+    @Param({"eq", "and", "nested"})
+    public String filter;
+
+    private HsqldbFixture database;
+    private JdbcScimUserProvisioning provisioning;
+    private String sql;
+    private ProcessedFilter where;
+
+    @Setup
+    public void setUp() {
+        database = new HsqldbFixture();
+        database.createUsers(users, OriginKeys.UAA);
+        provisioning = database.userProvisioning();
+        where = new SimpleSearchQueryConverter().convert(scimFilter(), "userName", true);
+        sql = JdbcScimUserProvisioning.ALL_USERS + " where (" + where.getSql().replace(ProcessedFilter.ORDER_BY, ")" + ProcessedFilter.ORDER_BY);
+    }
+
+    @TearDown
+    public void tearDown() {
+        database.shutdown();
+    }
+
+    private String scimFilter() {
+        return ScimFilterBenchmark.FILTERS.get(filter).replace("emails.value", "email");
+    }
+
+    @Benchmark
+    public int pagingListCount() {
+        return new JdbcPagingList<>(database.getJdbcTemplate(), database.getLimitSqlAdapter(), sql, where.getParams(), ID_MAPPER, 200).size();
+    }
+
+    @Benchmark
+    public ScimUser query() {
+        List<ScimUser> result = provisioning.query(scimFilter(), "userName", true, OriginKeys.UAA);
+        return result.isEmpty() ? null : result.get(0);
+    }
+}
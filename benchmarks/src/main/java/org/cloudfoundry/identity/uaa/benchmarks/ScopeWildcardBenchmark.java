@@ -0,0 +1,99 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.benchmarks;
+
+import org.cloudfoundry.identity.uaa.util.UaaStringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Measures scope wildcard matching as done when a token is requested: the
+ * client scopes are compiled with {@link UaaStringUtils#constructWildcards}
+ * and every requested scope is checked with {@link UaaStringUtils#matches}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ScopeWildcardBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int scopes;
+
+    private Set<String> clientScopes;
+    private List<String> requestedScopes;
+    private Set<Pattern> wildcards;
+
+    @Setup
+    public void setUp() {
+        clientScopes = new LinkedHashSet<>();
+        requestedScopes = new ArrayList<>();
+        for (int i = 0; i < scopes; i++) {
+            if (i % 4 == 0) {
+                clientScopes.add("space." + i + ".*");
+            } else {
+                clientScopes.add("space." + i + ".developer");
+            }
+            requestedScopes.add("space." + i + ".developer");
+        }
+        clientScopes.add("openid");
+        requestedScopes.add("openid");
+        wildcards = UaaStringUtils.constructWildcards(clientScopes);
+    }
+
+    @Benchmark
+    public Set<Pattern> constructWildcards() {
+        return UaaStringUtils.constructWildcards(clientScopes);
+    }
+
+    @Benchmark
+    public int matches() {
+        int matched = 0;
+        for (String scope : requestedScopes) {
+            if (UaaStringUtils.matches(wildcards, scope)) {
+                matched++;
+            }
+        }
+        return matched;
+    }
+
+    @Benchmark
+    public int constructAndMatch() {
+        Set<Pattern> patterns = UaaStringUtils.constructWildcards(clientScopes);
+        int matched = 0;
+        for (String scope : requestedScopes) {
+            if (UaaStringUtils.matches(patterns, scope)) {
+                matched++;
+            }
+        }
+        return matched;
+    }
+}
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.benchmarks;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.cloudfoundry.identity.uaa.constants.OriginKeys;
+import org.cloudfoundry.identity.uaa.oauth.KeyInfoBuilder;
+import org.cloudfoundry.identity.uaa.oauth.client.ClientConstants;
+import org.cloudfoundry.identity.uaa.oauth.jwt.JwtHelper;
+import org.cloudfoundry.identity.uaa.user.UaaUser;
+import org.cloudfoundry.identity.uaa.user.UaaUserPrototype;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
+import org.cloudfoundry.identity.uaa.util.UaaTokenUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.oauth2.provider.client.BaseClientDetails;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.singletonMap;
+import static org.cloudfoundry.identity.uaa.benchmarks.TokenFixtures.HMAC_KEY_ID;
+import static org.cloudfoundry.identity.uaa.benchmarks.TokenFixtures.HMAC_SIGNING_KEY;
+import static org.cloudfoundry.identity.uaa.benchmarks.TokenFixtures.ISSUER;
+
+/**
+ * Measures the claim handling done for every token: the revocation signature
+ * and the JSON serialization and parsing of the claims.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class TokenClaimsBenchmark {
+
+    private static final TypeReference<Map<String, Object>> CLAIMS_TYPE = new TypeReference<Map<String, Object>>() {};
+
+    private BaseClientDetails client;
+    private UaaUser user;
+    private Map<String, Object> claims;
+    private String claimsJson;
+    private String token;
+
+    @Setup
+    public void setUp() {
+        client = new BaseClientDetails("client", "scim,clients", "openid,read,write", "password,refresh_token", "uaa.resource");
+        client.setAdditionalInformation(singletonMap(ClientConstants.TOKEN_SALT, "0b1e8fd2"));
+        user = new UaaUser(new UaaUserPrototype()
+            .withId("12345")
+            .withUsername("marissa")
+            .withPassword("$2a$10$WcQDc1t4SgMKAEmjYmMvF.0KlhIg5dqmEGxn/vaT.1d5ZFvtrLKKu")
+            .withEmail("marissa@test.org")
+            .withGivenName("Marissa")
+            .withFamilyName("Bloggs")
+            .withOrigin(OriginKeys.UAA)
+            .withZoneId(OriginKeys.UAA)
+            .withSalt("12345")
+            .withCreated(new Date(0))
+            .withModified(new Date(0)));
+        claims = TokenFixtures.accessTokenClaims();
+        claimsJson = JsonUtils.writeValueAsString(claims);
+        token = JwtHelper.encode(claimsJson, KeyInfoBuilder.build(HMAC_KEY_ID, HMAC_SIGNING_KEY, ISSUER)).getEncoded();
+    }
+
+    @Benchmark
+    public String revocableTokenSignature() {
+        return UaaTokenUtils.getRevocableTokenSignature(client, "secret", user);
+    }
+
+    @Benchmark
+    public String writeClaims() {
+        return JsonUtils.writeValueAsString(claims);
+    }
+
+    @Benchmark
+    public Map<String, Object> readClaims() {
+        return JsonUtils.readValue(claimsJson, CLAIMS_TYPE);
+    }
+
+    @Benchmark
+    public Map<String, Object> roundTripClaims() {
+        return JsonUtils.readValue(JsonUtils.writeValueAsBytes(claims), CLAIMS_TYPE);
+    }
+
+    @Benchmark
+    public Map<String, Object> claimsFromToken() {
+        return UaaTokenUtils.getClaims(token);
+    }
+}
@@ -0,0 +1,76 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.benchmarks;
+
+import org.cloudfoundry.identity.uaa.oauth.TokenTestSupport;
+import org.cloudfoundry.identity.uaa.oauth.token.CompositeToken;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.cloudfoundry.identity.uaa.oauth.TokenTestSupport.OPENID;
+import static org.cloudfoundry.identity.uaa.oauth.TokenTestSupport.READ;
+import static org.cloudfoundry.identity.uaa.oauth.TokenTestSupport.WRITE;
+
+/**
+ * Measures a password grant through {@code UaaTokenServices.createAccessToken},
+ * which issues an access, refresh and id token. The services are wired by
+ * {@link TokenTestSupport} with in-memory user, client and approval stores,
+ * so no database time is included.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class TokenIssuanceBenchmark {
+
+    @Param({TokenFixtures.RSA_KEY_ID, TokenFixtures.HMAC_KEY_ID})
+    public String keyId;
+
+    private TokenTestSupport tokenSupport;
+    private List<String> scopes;
+
+    @Setup
+    public void setUp() throws Exception {
+        tokenSupport = new TokenTestSupport(null);
+        TokenFixtures.setKeys(IdentityZoneHolder.get().getConfig().getTokenPolicy(), keyId);
+        scopes = Arrays.asList(OPENID, READ, WRITE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        tokenSupport.clear();
+        IdentityZoneHolder.clear();
+    }
+
+    @Benchmark
+    public CompositeToken createAccessToken() {
+        return tokenSupport.getCompositeAccessToken(scopes);
+    }
+}
@@ -0,0 +1,73 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.benchmarks;
+
+import org.cloudfoundry.identity.uaa.oauth.KeyInfoService;
+import org.cloudfoundry.identity.uaa.oauth.jwt.JwtHelper;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
+import org.cloudfoundry.identity.uaa.util.TokenValidation;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.cloudfoundry.identity.uaa.benchmarks.TokenFixtures.ISSUER;
+
+/**
+ * Measures {@link TokenValidation#buildAccessTokenValidator}, which parses
+ * the claims, resolves the signing key of the current zone and verifies the
+ * signature. The state is per thread because the zone is held in a thread local.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class TokenValidationBenchmark {
+
+    @Param({TokenFixtures.RSA_KEY_ID, TokenFixtures.HMAC_KEY_ID})
+    public String keyId;
+
+    private KeyInfoService keyInfoService;
+    private String token;
+
+    @Setup
+    public void setUp() {
+        TokenFixtures.useZoneKeys(keyId);
+        keyInfoService = new KeyInfoService(ISSUER);
+        String claims = JsonUtils.writeValueAsString(TokenFixtures.accessTokenClaims());
+        token = JwtHelper.encode(claims, keyInfoService.getActiveKey()).getEncoded();
+    }
+
+    @TearDown
+    public void tearDown() {
+        IdentityZoneHolder.clear();
+    }
+
+    @Benchmark
+    public TokenValidation buildAccessTokenValidator() {
+        return TokenValidation.buildAccessTokenValidator(token, keyInfoService);
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * ****************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ * ****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.metrics;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with log-linear buckets in the style of
+ * HdrHistogram: values below 64ms are counted exactly, larger values in
+ * buckets no wider than 1/32 of their value, up to {@link #MAX_VALUE}.
+ * Counts are cumulative; the difference between two snapshots taken with
+ * {@link #copy()} gives the histogram of the interval in between.
+ * <p>
+ * Serialized as sparse {@code [index, count, ...]} pairs so the JSON stays
+ * small when only a few buckets are used.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class LatencyHistogram {
+
+    public static final long MAX_VALUE = 3600 * 1000;
+    public static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    static final int SUB_BUCKET_BITS = 5;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    static final int BUCKET_COUNT = indexOf(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong sum;
+    private final AtomicLong max;
+
+    public LatencyHistogram() {
+        this.counts = new AtomicLongArray(BUCKET_COUNT);
+        this.sum = new AtomicLong();
+        this.max = new AtomicLong();
+    }
+
+    @JsonCreator
+    public LatencyHistogram(@JsonProperty("buckets") long[] buckets,
+                            @JsonProperty("sum") long sum,
+                            @JsonProperty("max") long max) {
+        this();
+        if (buckets != null) {
+            for (int i = 0; i + 1 < buckets.length; i += 2) {
+                counts.set((int) buckets[i], buckets[i + 1]);
+            }
+        }
+        this.sum.set(sum);
+        this.max.set(max);
+    }
+
+    public void record(long value) {
+        long bounded = Math.max(0, Math.min(MAX_VALUE, value));
+        counts.incrementAndGet(indexOf(bounded));
+        sum.addAndGet(bounded);
+        if (bounded > max.get()) {
+            max.accumulateAndGet(bounded, Math::max);
+        }
+    }
+
+    public LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy.counts.set(i, counts.get(i));
+        }
+        copy.sum.set(sum.get());
+        copy.max.set(max.get());
+        return copy;
+    }
+
+    /**
+     * @return the values recorded since {@code earlier} was copied from this histogram.
+     * The maximum of the interval is approximated by its highest non-empty bucket.
+     */
+    public LatencyHistogram minus(LatencyHistogram earlier) {
+        LatencyHistogram interval = new LatencyHistogram();
+        long intervalMax = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = counts.get(i) - (earlier == null ? 0 : earlier.counts.get(i));
+            if (count > 0) {
+                interval.counts.set(i, count);
+                intervalMax = highestEquivalentValue(i);
+            }
+        }
+        interval.sum.set(sum.get() - (earlier == null ? 0 : earlier.sum.get()));
+        interval.max.set(Math.min(intervalMax, max.get()));
+        return interval;
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of recorded values in the buckets whose highest
+     * equivalent value is not larger than {@code value}. Values in the bucket
+     * that straddles {@code value} are not included.
+     */
+    public long getCountAtOrBelow(long value) {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT && highestEquivalentValue(i) <= value; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    public long getSum() {
+        return sum.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return the highest value that is equivalent to the value at the
+     * percentile, never more than the recorded maximum; 0 when empty
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestEquivalentValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * @return {@link #PERCENTILES} keyed as {@code p50}, {@code p90}, {@code p99} and {@code p999}
+     */
+    @JsonProperty("percentiles")
+    public Map<String, Long> getPercentiles() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (double percentile : PERCENTILES) {
+            result.put(percentileName(percentile), getValueAtPercentile(percentile));
+        }
+        return result;
+    }
+
+    @JsonProperty("buckets")
+    public long[] getBuckets() {
+        long[] buckets = new long[BUCKET_COUNT * 2];
+        int length = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = counts.get(i);
+            if (count > 0) {
+                buckets[length++] = i;
+                buckets[length++] = count;
+            }
+        }
+        return Arrays.copyOf(buckets, length);
+    }
+
+    public static String percentileName(double percentile) {
+        return "p" + String.valueOf(percentile).replace(".0", "").replace(".", "");
+    }
+
+    static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >> shift) - SUB_BUCKET_COUNT);
+    }
+
+    static long highestEquivalentValue(int index) {
+        if (index < 2 * SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -25,6 +25,7 @@ import org.cloudfoundry.identity.uaa.metrics.MetricsUtil.MutableLong;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.fasterxml.jackson.annotation.JsonInclude.Include.NON_NULL;
 import static java.util.Optional.ofNullable;
@@ -36,50 +37,109 @@ public class MetricsQueue  {
 
     public static final int MAX_ENTRIES = 5;
 
-    private ConcurrentLinkedDeque<RequestMetric> queue;
+    //the most recent requests are copied into preallocated slots, offer does not allocate
+    private final RequestMetric[] lastRequests = new RequestMetric[MAX_ENTRIES];
+    private final AtomicLong offered = new AtomicLong();
     private Map<StatusCodeGroup, RequestMetricSummary> statistics;
+    private Map<StatusCodeGroup, LatencyHistogram> latency;
+    private LatencyHistogram databaseLatency;
 
     public MetricsQueue() {
-        this(null,null);
+        this(null, null, null, null);
+    }
+
+    public MetricsQueue(ConcurrentLinkedDeque<RequestMetric> queue,
+                        Map<StatusCodeGroup, RequestMetricSummary> statistics) {
+        this(queue, statistics, null, null);
     }
 
     @JsonCreator
     public MetricsQueue(@JsonProperty("lastRequests") ConcurrentLinkedDeque<RequestMetric> queue,
-                        @JsonProperty("detailed") Map<StatusCodeGroup, RequestMetricSummary> statistics) {
-        this.queue = ofNullable(queue).orElse(new ConcurrentLinkedDeque<>());
+                        @JsonProperty("detailed") Map<StatusCodeGroup, RequestMetricSummary> statistics,
+                        @JsonProperty("latency") Map<StatusCodeGroup, LatencyHistogram> latency,
+                        @JsonProperty("databaseLatency") LatencyHistogram databaseLatency) {
+        for (int i = 0; i < lastRequests.length; i++) {
+            lastRequests[i] = new RequestMetric();
+        }
+        if (queue != null) {
+            for (RequestMetric metric : queue) {
+                addLastRequest(metric);
+            }
+        }
         this.statistics = ofNullable(statistics).orElse(new ConcurrentHashMap<>());
+        this.latency = ofNullable(latency).orElse(new ConcurrentHashMap<>());
+        this.databaseLatency = ofNullable(databaseLatency).orElse(new LatencyHistogram());
     }
 
     public boolean offer(RequestMetric metric) {
-        queue.offer(metric);
-        //remove earliest entries
-        while (queue.size() > MAX_ENTRIES) {
-            queue.removeFirst();
-        }
+        addLastRequest(metric);
 
         StatusCodeGroup statusCode = StatusCodeGroup.valueOf(metric.getStatusCode());
-        if (!statistics.containsKey(statusCode)) {
+        RequestMetricSummary totals = statistics.get(statusCode);
+        if (totals == null) {
             statistics.putIfAbsent(statusCode, new RequestMetricSummary());
+            totals = statistics.get(statusCode);
+        }
+        LatencyHistogram histogram = latency.get(statusCode);
+        if (histogram == null) {
+            histogram = latency.computeIfAbsent(statusCode, k -> new LatencyHistogram());
         }
-        RequestMetricSummary totals = statistics.get(statusCode);
         long time = metric.getRequestCompleteTime() - metric.getRequestStartTime();
+        histogram.record(time);
+        for (int i = 0; i < metric.getNrOfDatabaseQueries(); i++) {
+            databaseLatency.record(metric.getQueryTime(i));
+        }
         totals.add(time,
                    time < metric.getUriGroup().getLimit(),
                    metric.getNrOfDatabaseQueries(),
                    metric.getDatabaseQueryTime(),
-                   metric.getQueries().stream().filter(q -> q.isIntolerable()).count(),
-                   metric.getQueries().stream().filter(q -> q.isIntolerable()).mapToLong(q -> q.getRequestCompleteTime()-q.getRequestStartTime()).sum()
+                   metric.getIntolerableQueryCount(),
+                   metric.getIntolerableQueryTime()
         );
         return true;
     }
 
+    private void addLastRequest(RequestMetric metric) {
+        RequestMetric slot = lastRequests[(int) (offered.getAndIncrement() % MAX_ENTRIES)];
+        synchronized (slot) {
+            slot.copyFrom(metric);
+        }
+    }
+
     public Map<StatusCodeGroup, RequestMetricSummary> getDetailed() {
         return statistics;
     }
 
 
+    /**
+     * @return a copy of the most recent requests, oldest first
+     */
     public ConcurrentLinkedDeque<RequestMetric> getLastRequests() {
-        return queue;
+        ConcurrentLinkedDeque<RequestMetric> result = new ConcurrentLinkedDeque<>();
+        long last = offered.get();
+        for (long i = Math.max(0, last - MAX_ENTRIES); i < last; i++) {
+            RequestMetric slot = lastRequests[(int) (i % MAX_ENTRIES)];
+            RequestMetric copy = new RequestMetric();
+            synchronized (slot) {
+                copy.copyFrom(slot);
+            }
+            result.add(copy);
+        }
+        return result;
+    }
+
+    /**
+     * @return cumulative request latency histograms per status code family
+     */
+    public Map<StatusCodeGroup, LatencyHistogram> getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return cumulative latency histogram of the database queries made by the requests
+     */
+    public LatencyHistogram getDatabaseLatency() {
+        return databaseLatency;
     }
 
     @JsonProperty("summary")
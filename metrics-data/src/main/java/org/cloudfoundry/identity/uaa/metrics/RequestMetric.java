@@ -18,24 +18,54 @@ package org.cloudfoundry.identity.uaa.metrics;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Arrays;
 
+/**
+ * The measurements of a single request. The database queries are kept as
+ * primitive totals and a reusable array of query times, so that an instance
+ * can be {@link #restart(String, UrlGroup, long) restarted} for the next
+ * request on the same thread without allocating.
+ */
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class RequestMetric {
+    private static final int INITIAL_QUERY_CAPACITY = 16;
+    private static final int MAX_RETAINED_QUERY_CAPACITY = 1024;
+
     private String uri;
     private UrlGroup uriGroup;
     private int statusCode;
     private long requestStartTime;
     private long requestCompleteTime;
-    private List<QueryMetric> queries = new LinkedList<>();
+    private long nrOfDatabaseQueries;
+    private long databaseQueryTime;
+    private long intolerableQueryCount;
+    private long intolerableQueryTime;
+    private long[] queryTimes = new long[INITIAL_QUERY_CAPACITY];
+    private String[] queryStatements = new String[INITIAL_QUERY_CAPACITY];
 
     public static RequestMetric start(String uri, UrlGroup group, long start) {
-        RequestMetric metric = new RequestMetric();
-        metric.requestStartTime = start;
-        metric.uri = uri;
-        metric.uriGroup = group;
-        return metric;
+        return new RequestMetric().restart(uri, group, start);
+    }
+
+    /**
+     * Clears all measurements so this instance can measure another request.
+     */
+    public RequestMetric restart(String uri, UrlGroup group, long start) {
+        this.uri = uri;
+        this.uriGroup = group;
+        this.requestStartTime = start;
+        this.requestCompleteTime = 0;
+        this.statusCode = 0;
+        Arrays.fill(queryStatements, 0, (int) Math.min(nrOfDatabaseQueries, queryStatements.length), null);
+        this.nrOfDatabaseQueries = 0;
+        this.databaseQueryTime = 0;
+        this.intolerableQueryCount = 0;
+        this.intolerableQueryTime = 0;
+        if (queryTimes.length > MAX_RETAINED_QUERY_CAPACITY) {
+            queryTimes = new long[INITIAL_QUERY_CAPACITY];
+            queryStatements = new String[INITIAL_QUERY_CAPACITY];
+        }
+        return this;
     }
 
     public void stop(int statusCode, long stop) {
@@ -44,12 +74,73 @@ public class RequestMetric {
     }
 
     public void addQuery(QueryMetric query) {
-        queries.add(query);
+        addQuery(query.getRequestStartTime(), query.getRequestCompleteTime() - query.getRequestStartTime(), query.isIntolerable());
+    }
+
+    public void addQuery(long start, long delta, boolean intolerable) {
+        addQuery(start, delta, intolerable, null);
+    }
+
+    /**
+     * @param statement the statement, or its fingerprint, kept by reference to list the queries of this request
+     */
+    public void addQuery(long start, long delta, boolean intolerable, String statement) {
+        int index = (int) nrOfDatabaseQueries;
+        if (index == queryTimes.length) {
+            queryTimes = Arrays.copyOf(queryTimes, index * 2);
+            queryStatements = Arrays.copyOf(queryStatements, index * 2);
+        }
+        queryTimes[index] = delta;
+        queryStatements[index] = statement;
+        nrOfDatabaseQueries++;
+        databaseQueryTime += delta;
+        if (intolerable) {
+            intolerableQueryCount++;
+            intolerableQueryTime += delta;
+        }
+    }
+
+    /**
+     * @return the duration of the query at the given position, in the order the queries were made
+     */
+    protected long getQueryTime(int index) {
+        if (index < 0 || index >= nrOfDatabaseQueries) {
+            throw new IndexOutOfBoundsException("Query index: " + index + ", queries: " + nrOfDatabaseQueries);
+        }
+        return queryTimes[index];
     }
 
+    /**
+     * @return the statement of the query at the given position, or null if it was not recorded
+     */
+    protected String getQueryStatement(int index) {
+        if (index < 0 || index >= nrOfDatabaseQueries) {
+            throw new IndexOutOfBoundsException("Query index: " + index + ", queries: " + nrOfDatabaseQueries);
+        }
+        return queryStatements[index];
+    }
+
+    /**
+     * @return true if the request made more database queries than the budget of its url group
+     */
     @JsonIgnore
-    protected List<QueryMetric> getQueries() {
-        return queries;
+    public boolean isQueryLimitExceeded() {
+        return uriGroup != null && uriGroup.getQueryLimit() > 0 && nrOfDatabaseQueries > uriGroup.getQueryLimit();
+    }
+
+    /**
+     * Copies the measurements, except the individual query times, from another metric.
+     */
+    protected void copyFrom(RequestMetric other) {
+        this.uri = other.uri;
+        this.uriGroup = other.uriGroup;
+        this.statusCode = other.statusCode;
+        this.requestStartTime = other.requestStartTime;
+        this.requestCompleteTime = other.requestCompleteTime;
+        this.nrOfDatabaseQueries = other.nrOfDatabaseQueries;
+        this.databaseQueryTime = other.databaseQueryTime;
+        this.intolerableQueryCount = other.intolerableQueryCount;
+        this.intolerableQueryTime = other.intolerableQueryTime;
     }
 
     public String getUri() {
@@ -69,11 +160,21 @@ public class RequestMetric {
     }
 
     public long getNrOfDatabaseQueries() {
-        return queries.size();
+        return nrOfDatabaseQueries;
     }
 
     public long getDatabaseQueryTime() {
-        return queries.stream().mapToLong(q -> q.getRequestCompleteTime() - q.getRequestStartTime()).sum();
+        return databaseQueryTime;
+    }
+
+    @JsonIgnore
+    public long getIntolerableQueryCount() {
+        return intolerableQueryCount;
+    }
+
+    @JsonIgnore
+    public long getIntolerableQueryTime() {
+        return intolerableQueryTime;
     }
 
     public UrlGroup getUriGroup() {
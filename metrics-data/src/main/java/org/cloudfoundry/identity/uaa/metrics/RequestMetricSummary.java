@@ -18,18 +18,23 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
-import static org.cloudfoundry.identity.uaa.metrics.MetricsUtil.addToAverage;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Running totals of the requests in one status code family. The counts and
+ * times are kept in striped {@link LongAdder}s so that concurrent requests do
+ * not contend on a lock; the averages are derived when they are read.
+ */
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class RequestMetricSummary {
-    long count = 0;
-    double averageTime = 0;
-    long intolerableCount = 0;
-    double averageIntolerableTime = 0;
-    long databaseQueryCount = 0;
-    double averageDatabaseQueryTime = 0;
-    long databaseIntolerableQueryCount = 0;
-    double averageDatabaseIntolerableQueryTime = 0;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder time = new LongAdder();
+    private final LongAdder intolerableCount = new LongAdder();
+    private final LongAdder intolerableTime = new LongAdder();
+    private final LongAdder databaseQueryCount = new LongAdder();
+    private final LongAdder databaseQueryTime = new LongAdder();
+    private final LongAdder databaseIntolerableQueryCount = new LongAdder();
+    private final LongAdder databaseIntolerableQueryTime = new LongAdder();
 
     public RequestMetricSummary() {
     }
@@ -43,59 +48,71 @@ public class RequestMetricSummary {
                                 @JsonProperty("averageDatabaseQueryTime") double averageDatabaseQueryTime,
                                 @JsonProperty("databaseIntolerableQueryCount") long databaseIntolerableQueryCount,
                                 @JsonProperty("averageDatabaseIntolerableQueryTime") double averageDatabaseIntolerableQueryTime) {
-        this.count = count;
-        this.averageTime = averageTime;
-        this.intolerableCount = intolerableCount;
-        this.averageIntolerableTime = averageIntolerableTime;
-        this.databaseQueryCount = databaseQueryCount;
-        this.averageDatabaseQueryTime = averageDatabaseQueryTime;
-        this.databaseIntolerableQueryCount = databaseIntolerableQueryCount;
-        this.averageDatabaseIntolerableQueryTime = averageDatabaseIntolerableQueryTime;
+        this.count.add(count);
+        this.time.add(total(count, averageTime));
+        this.intolerableCount.add(intolerableCount);
+        this.intolerableTime.add(total(intolerableCount, averageIntolerableTime));
+        this.databaseQueryCount.add(databaseQueryCount);
+        this.databaseQueryTime.add(total(databaseQueryCount, averageDatabaseQueryTime));
+        this.databaseIntolerableQueryCount.add(databaseIntolerableQueryCount);
+        this.databaseIntolerableQueryTime.add(total(databaseIntolerableQueryCount, averageDatabaseIntolerableQueryTime));
     }
 
-    public synchronized void add(long time, boolean tolerable, long dbQueries, long dbTime, long failedDbQueries, long failedDbQueryTime) {
-        averageTime = addToAverage(count, averageTime, 1, time);
-        count++;
+    public void add(long time, boolean tolerable, long dbQueries, long dbTime, long failedDbQueries, long failedDbQueryTime) {
+        this.count.increment();
+        this.time.add(time);
         if (!tolerable) {
-            averageIntolerableTime = addToAverage(intolerableCount, averageIntolerableTime, 1, time);
-            ++intolerableCount;
+            intolerableCount.increment();
+            intolerableTime.add(time);
+        }
+        if (dbQueries > 0) {
+            databaseQueryCount.add(dbQueries);
+            databaseQueryTime.add(dbTime);
+        }
+        if (failedDbQueries > 0) {
+            databaseIntolerableQueryCount.add(failedDbQueries);
+            databaseIntolerableQueryTime.add(failedDbQueryTime);
         }
-        averageDatabaseQueryTime = addToAverage(databaseQueryCount, averageDatabaseQueryTime, dbQueries, dbTime);
-        databaseQueryCount += dbQueries;
-
-        averageDatabaseIntolerableQueryTime = addToAverage(databaseIntolerableQueryCount, averageDatabaseIntolerableQueryTime, failedDbQueries, failedDbQueryTime);
-        databaseIntolerableQueryCount += failedDbQueries;
     }
 
     public long getCount() {
-        return count;
+        return count.sum();
     }
 
     public double getAverageTime() {
-        return averageTime;
+        return average(time, count);
     }
 
     public long getIntolerableCount() {
-        return intolerableCount;
+        return intolerableCount.sum();
     }
 
     public double getAverageIntolerableTime() {
-        return averageIntolerableTime;
+        return average(intolerableTime, intolerableCount);
     }
 
     public long getDatabaseQueryCount() {
-        return databaseQueryCount;
+        return databaseQueryCount.sum();
     }
 
     public double getAverageDatabaseQueryTime() {
-        return averageDatabaseQueryTime;
+        return average(databaseQueryTime, databaseQueryCount);
     }
 
     public long getDatabaseIntolerableQueryCount() {
-        return databaseIntolerableQueryCount;
+        return databaseIntolerableQueryCount.sum();
     }
 
     public double getAverageDatabaseIntolerableQueryTime() {
-        return averageDatabaseIntolerableQueryTime;
+        return average(databaseIntolerableQueryTime, databaseIntolerableQueryCount);
+    }
+
+    private static double average(LongAdder total, LongAdder count) {
+        long n = count.sum();
+        return n == 0 ? 0 : ((double) total.sum()) / n;
+    }
+
+    private static long total(long count, double average) {
+        return Math.round(average * count);
     }
 }
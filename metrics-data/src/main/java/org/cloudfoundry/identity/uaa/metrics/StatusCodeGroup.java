@@ -22,6 +22,9 @@ public enum StatusCodeGroup {
     CLIENT_ERROR("4xx",4),
     SERVER_ERROR("5xx",5);
 
+    //values() returns a new array on every call
+    private static final StatusCodeGroup[] SERIES = values();
+
     private final String name;
     private final int value;
 
@@ -36,7 +39,7 @@ public enum StatusCodeGroup {
 
     public static StatusCodeGroup valueOf(int statusCode) {
         int seriesCode = statusCode / 100;
-        for (StatusCodeGroup series : values()) {
+        for (StatusCodeGroup series : SERIES) {
             if (series.value == seriesCode) {
                 return series;
             }
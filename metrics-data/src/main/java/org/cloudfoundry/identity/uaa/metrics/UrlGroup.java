@@ -27,6 +27,7 @@ public class UrlGroup {
     private String group;
     private long limit;
     private String category;
+    private long queryLimit;
 
     public String getPattern() {
         return pattern;
@@ -64,6 +65,18 @@ public class UrlGroup {
         return this;
     }
 
+    /**
+     * @return the maximum number of database queries a request in this group is expected to make, 0 for no limit
+     */
+    public long getQueryLimit() {
+        return queryLimit;
+    }
+
+    public UrlGroup setQueryLimit(long queryLimit) {
+        this.queryLimit = queryLimit;
+        return this;
+    }
+
     @JsonIgnore
     public Map<String,Object> getMap() {
         HashMap<String, Object> map = new HashMap<>();
@@ -71,6 +84,7 @@ public class UrlGroup {
         map.put("group", getGroup());
         map.put("limit", getLimit());
         map.put("category", getCategory());
+        map.put("queryLimit", getQueryLimit());
         return map;
     }
 
@@ -79,6 +93,7 @@ public class UrlGroup {
             .setPattern((String) map.get("pattern"))
             .setGroup((String) map.get("group"))
             .setCategory((String) map.get("category"))
-            .setLimit(((Number) map.get("limit")).longValue());
+            .setLimit(((Number) map.get("limit")).longValue())
+            .setQueryLimit(map.get("queryLimit") instanceof Number ? ((Number) map.get("queryLimit")).longValue() : 0);
     }
 }
@@ -0,0 +1,114 @@
+package org.cloudfoundry.identity.uaa.metrics;
+
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+
+    @Test
+    void bucketsAreContiguousAndBounded() {
+        for (long value = 0; value < 100000; value++) {
+            int index = LatencyHistogram.indexOf(value);
+            long highest = LatencyHistogram.highestEquivalentValue(index);
+            assertTrue(highest >= value, "value " + value);
+            assertTrue(highest - value <= Math.max(1, value / LatencyHistogram.SUB_BUCKET_COUNT), "value " + value);
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.indexOf(LatencyHistogram.MAX_VALUE));
+    }
+
+    @Test
+    void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500500, histogram.getSum());
+        assertEquals(500, histogram.getValueAtPercentile(50), 500 / 32);
+        assertEquals(990, histogram.getValueAtPercentile(99), 990 / 32);
+        assertEquals(1000, histogram.getValueAtPercentile(99.9), 1000 / 32);
+        assertEquals(0, new LatencyHistogram().getValueAtPercentile(99));
+    }
+
+    @Test
+    void cumulativeCounts() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value : new long[] {1, 5, 10, 100, 1000}) {
+            histogram.record(value);
+        }
+        assertEquals(0, histogram.getCountAtOrBelow(0));
+        assertEquals(3, histogram.getCountAtOrBelow(10));
+        assertEquals(3, histogram.getCountAtOrBelow(99));
+        assertEquals(4, histogram.getCountAtOrBelow(101));
+        assertEquals(5, histogram.getCountAtOrBelow(LatencyHistogram.MAX_VALUE));
+    }
+
+    @Test
+    void outOfRangeValuesAreClamped() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(LatencyHistogram.MAX_VALUE * 2);
+
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(LatencyHistogram.MAX_VALUE, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    void intervalIsDifferenceOfSnapshots() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10);
+        histogram.record(20);
+        LatencyHistogram previous = histogram.copy();
+        histogram.record(30);
+
+        LatencyHistogram interval = histogram.minus(previous);
+        assertEquals(1, interval.getCount());
+        assertEquals(30, interval.getSum());
+        assertEquals(30, interval.getValueAtPercentile(50));
+        assertEquals(3, histogram.minus(null).getCount());
+    }
+
+    @Test
+    void jsonRoundTrip() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(5);
+        histogram.record(5);
+        histogram.record(2000);
+
+        String json = JsonUtils.writeValueAsString(histogram);
+        LatencyHistogram deserialized = JsonUtils.readValue(json, LatencyHistogram.class);
+
+        assertEquals(3, deserialized.getCount());
+        assertEquals(2000, deserialized.getMax());
+        assertEquals(2010, deserialized.getSum());
+        assertEquals(histogram.getPercentiles(), deserialized.getPercentiles());
+        Map<String, Long> percentiles = deserialized.getPercentiles();
+        assertEquals(5L, (long) percentiles.get("p50"));
+        assertEquals(2000L, (long) percentiles.get("p999"));
+    }
+
+    @Test
+    void concurrentRecordingLosesNothing() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    histogram.record(i % 500);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, histogram.getCount());
+    }
+}
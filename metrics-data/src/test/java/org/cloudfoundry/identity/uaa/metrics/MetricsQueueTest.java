@@ -66,7 +66,7 @@ class MetricsQueueTest {
         String json = JsonUtils.writeValueAsString(queue);
         Map<String,Object> object = JsonUtils.readValue(json, new TypeReference<Map<String, Object>>() {});
         assertNotNull(object);
-        assertEquals(3, object.size());
+        assertEquals(5, object.size());
         MetricsQueue deserialized = JsonUtils.readValue(json, MetricsQueue.class);
         assertNotNull(deserialized);
         validateMetricsQueue(deserialized);
@@ -109,6 +109,34 @@ class MetricsQueueTest {
         assertEquals(2, totals.getDatabaseIntolerableQueryCount());
     }
 
+    @Test
+    void offeredMetricCanBeReused() {
+        queue = new MetricsQueue();
+        RequestMetric metric = RequestMetric.start("first", uriGroup, 0);
+        metric.addQuery(new QueryMetric("query1", 0, 2, true));
+        metric.stop(200, 2);
+        queue.offer(metric);
+        metric.restart("second", uriGroup, 10);
+        metric.stop(500, 15);
+        queue.offer(metric);
+
+        RequestMetric first = queue.getLastRequests().getFirst();
+        assertEquals("first", first.getUri());
+        assertEquals(200, first.getStatusCode());
+        assertEquals(1, first.getNrOfDatabaseQueries());
+        assertEquals("second", queue.getLastRequests().getLast().getUri());
+        assertEquals(0, queue.getDetailed().get(StatusCodeGroup.SERVER_ERROR).getDatabaseQueryCount());
+    }
+
+    @Test
+    void latencyHistograms() {
+        assertEquals(2, queue.getLatency().get(StatusCodeGroup.SUCCESS).getCount());
+        assertEquals(MAX_TIME + 1, queue.getLatency().get(StatusCodeGroup.SUCCESS).getMax());
+        assertEquals(1, queue.getLatency().get(StatusCodeGroup.SERVER_ERROR).getCount());
+        assertEquals(3, queue.getDatabaseLatency().getCount());
+        assertEquals(5, queue.getDatabaseLatency().getMax());
+    }
+
     private static void validateMetricsQueue(MetricsQueue queue) {
         Map<StatusCodeGroup, RequestMetricSummary> summary = queue.getDetailed();
         assertNotNull(summary);
@@ -134,6 +162,8 @@ class MetricsQueueTest {
         assertEquals(0, fiveHundredResponses.getAverageDatabaseIntolerableQueryTime(), DELTA);
 
         assertEquals(3, queue.getLastRequests().size());
+        assertEquals(2, queue.getLatency().get(StatusCodeGroup.SUCCESS).getCount());
+        assertEquals(3, queue.getDatabaseLatency().getCount());
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,270 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.audit;
+
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.cloudfoundry.identity.uaa.util.TimeServiceImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Maintains the daily partitions of {@code sec_audit_daily} on PostgreSQL
+ * (11 and later) and MySQL. Partitions are created a few days ahead of time
+ * and expired partitions are dropped whole, so retention never deletes
+ * individual rows. On other databases, or when the table was created without
+ * partitions, {@link #periodicMaintenance(long)} returns false and the caller
+ * falls back to deleting rows.
+ * <p>
+ * Day boundaries are in UTC.
+ * <p>
+ * On PostgreSQL, rows without a daily partition land in the
+ * {@code sec_audit_daily_default} partition, which only happens when
+ * maintenance did not run for longer than
+ * {@link #setDaysAhead(int) daysAhead}. PostgreSQL refuses to create a
+ * partition for a day the default partition holds rows for, so those rows are
+ * moved into the new partition as part of creating it, and a warning is
+ * logged.
+ */
+public class AuditPartitionManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuditPartitionManager.class);
+
+    public static final String TABLE_NAME = "sec_audit_daily";
+
+    public static final String DEFAULT_PARTITION_NAME = TABLE_NAME + "_default";
+
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final Pattern PARTITION_NAME = Pattern.compile("(?:" + TABLE_NAME + "_)?p(\\d{8})");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Dialect dialect;
+    private TimeService timeService = new TimeServiceImpl();
+    private int daysAhead = 7;
+    private long maintenanceIntervalMillis = 3600 * 1000;
+    private boolean detachOnly = false;
+
+    private final AtomicLong lastMaintenance = new AtomicLong(0);
+    private volatile Boolean partitioned;
+
+    public AuditPartitionManager(JdbcTemplate jdbcTemplate, String platform) {
+        this.jdbcTemplate = jdbcTemplate;
+        if ("postgresql".equals(platform)) {
+            this.dialect = new PostgresDialect();
+        } else if ("mysql".equals(platform)) {
+            this.dialect = new MySqlDialect();
+        } else {
+            this.dialect = null;
+        }
+    }
+
+    public boolean isPartitioned() {
+        if (partitioned == null) {
+            boolean result = false;
+            if (dialect != null) {
+                try {
+                    result = dialect.isPartitioned(jdbcTemplate);
+                } catch (DataAccessException e) {
+                    logger.debug("Unable to determine whether " + TABLE_NAME + " is partitioned", e);
+                }
+            }
+            partitioned = result;
+        }
+        return partitioned;
+    }
+
+    /**
+     * Creates upcoming partitions and drops the partitions that only hold
+     * events older than the retention period, at most once per
+     * {@link #setMaintenanceIntervalMillis(long) maintenanceIntervalMillis}.
+     *
+     * @return false if the table is not partitioned and rows have to be deleted instead
+     */
+    public boolean periodicMaintenance(long retentionMillis) {
+        if (!isPartitioned()) {
+            return false;
+        }
+        long now = timeService.getCurrentTimeMillis();
+        long lastCheck = lastMaintenance.get();
+        if (now - lastCheck > maintenanceIntervalMillis && lastMaintenance.compareAndSet(lastCheck, now)) {
+            maintain(now, now - retentionMillis);
+        }
+        return true;
+    }
+
+    protected void maintain(long now, long cutoff) {
+        List<String> existing;
+        try {
+            existing = dialect.listPartitions(jdbcTemplate);
+        } catch (DataAccessException e) {
+            logger.warn("Unable to list partitions of " + TABLE_NAME, e);
+            return;
+        }
+        LocalDate today = toDay(now);
+        for (int i = 0; i <= daysAhead; i++) {
+            LocalDate day = today.plusDays(i);
+            if (!existing.contains(dialect.partitionName(day))) {
+                try {
+                    dialect.createPartition(jdbcTemplate, day);
+                } catch (DataAccessException e) {
+                    logger.warn("Unable to create partition " + dialect.partitionName(day) + " of " + TABLE_NAME, e);
+                }
+            }
+        }
+        for (String name : existing) {
+            Matcher matcher = PARTITION_NAME.matcher(name);
+            if (matcher.matches() && endOf(LocalDate.parse(matcher.group(1), DAY_FORMAT)) <= cutoff) {
+                try {
+                    dialect.dropPartition(jdbcTemplate, name, detachOnly);
+                } catch (DataAccessException e) {
+                    logger.warn("Unable to drop partition " + name + " of " + TABLE_NAME, e);
+                }
+            }
+        }
+    }
+
+    static LocalDate toDay(long millis) {
+        return Instant.ofEpochMilli(millis).atZone(ZoneOffset.UTC).toLocalDate();
+    }
+
+    static long endOf(LocalDate day) {
+        return day.plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+    }
+
+    public void setTimeService(TimeService timeService) {
+        this.timeService = timeService;
+    }
+
+    public void setDaysAhead(int daysAhead) {
+        this.daysAhead = daysAhead;
+    }
+
+    public void setMaintenanceIntervalMillis(long maintenanceIntervalMillis) {
+        this.maintenanceIntervalMillis = maintenanceIntervalMillis;
+    }
+
+    /**
+     * On PostgreSQL, expired partitions are detached into standalone tables
+     * instead of being dropped so they can be archived. MySQL always drops.
+     */
+    public void setDetachOnly(boolean detachOnly) {
+        this.detachOnly = detachOnly;
+    }
+
+    interface Dialect {
+        boolean isPartitioned(JdbcTemplate jdbcTemplate);
+
+        List<String> listPartitions(JdbcTemplate jdbcTemplate);
+
+        String partitionName(LocalDate day);
+
+        void createPartition(JdbcTemplate jdbcTemplate, LocalDate day);
+
+        void dropPartition(JdbcTemplate jdbcTemplate, String name, boolean detachOnly);
+    }
+
+    static class PostgresDialect implements Dialect {
+        @Override
+        public boolean isPartitioned(JdbcTemplate jdbcTemplate) {
+            return jdbcTemplate.queryForObject("select count(*) from pg_partitioned_table pt join pg_class c on c.oid = pt.partrelid where c.relname = ?",
+                Integer.class, TABLE_NAME) > 0;
+        }
+
+        @Override
+        public List<String> listPartitions(JdbcTemplate jdbcTemplate) {
+            return jdbcTemplate.queryForList("select c.relname from pg_inherits i join pg_class c on c.oid = i.inhrelid join pg_class p on p.oid = i.inhparent where p.relname = ?",
+                String.class, TABLE_NAME);
+        }
+
+        @Override
+        public String partitionName(LocalDate day) {
+            return TABLE_NAME + "_p" + day.format(DAY_FORMAT);
+        }
+
+        /**
+         * Creates the partition as a standalone table, moves the rows of that
+         * day out of the default partition and attaches it, in one statement
+         * so concurrent inserts never see the day without a partition.
+         */
+        @Override
+        public void createPartition(JdbcTemplate jdbcTemplate, LocalDate day) {
+            String name = partitionName(day);
+            Integer stray = jdbcTemplate.queryForObject(String.format("select count(*) from %s where created >= '%s' and created < '%s'",
+                DEFAULT_PARTITION_NAME, day, day.plusDays(1)), Integer.class);
+            if (stray != null && stray > 0) {
+                logger.warn("Moving " + stray + " rows from " + DEFAULT_PARTITION_NAME + " into " + name + ", partitions of " + TABLE_NAME + " were not created ahead of time");
+            }
+            jdbcTemplate.execute(String.format("do $$ begin " +
+                    "if not exists (select 1 from pg_class where relname = '%1$s') then " +
+                    "create table %1$s (like %2$s including defaults including constraints); " +
+                    "with moved as (delete from %3$s where created >= '%4$s' and created < '%5$s' returning *) insert into %1$s select * from moved; " +
+                    "alter table %2$s attach partition %1$s for values from ('%4$s') to ('%5$s'); " +
+                    "end if; " +
+                    "end $$",
+                name, TABLE_NAME, DEFAULT_PARTITION_NAME, day, day.plusDays(1)));
+        }
+
+        @Override
+        public void dropPartition(JdbcTemplate jdbcTemplate, String name, boolean detachOnly) {
+            if (detachOnly) {
+                jdbcTemplate.execute(String.format("alter table %s detach partition %s", TABLE_NAME, name));
+            } else {
+                jdbcTemplate.execute(String.format("drop table if exists %s", name));
+            }
+        }
+    }
+
+    static class MySqlDialect implements Dialect {
+        private static final String LIST_PARTITIONS_SQL = "select partition_name from information_schema.partitions where table_schema = database() and table_name = ? and partition_name is not null";
+
+        @Override
+        public boolean isPartitioned(JdbcTemplate jdbcTemplate) {
+            return !listPartitions(jdbcTemplate).isEmpty();
+        }
+
+        @Override
+        public List<String> listPartitions(JdbcTemplate jdbcTemplate) {
+            return jdbcTemplate.queryForList(LIST_PARTITIONS_SQL, String.class, TABLE_NAME);
+        }
+
+        @Override
+        public String partitionName(LocalDate day) {
+            return "p" + day.format(DAY_FORMAT);
+        }
+
+        /**
+         * Splits the catch-all {@code p_future} partition, so partitions have
+         * to be created in ascending order.
+         */
+        @Override
+        public void createPartition(JdbcTemplate jdbcTemplate, LocalDate day) {
+            jdbcTemplate.execute(String.format("alter table %s reorganize partition p_future into (partition %s values less than (%d), partition p_future values less than maxvalue)",
+                TABLE_NAME, partitionName(day), endOf(day) / 1000));
+        }
+
+        @Override
+        public void dropPartition(JdbcTemplate jdbcTemplate, String name, boolean detachOnly) {
+            jdbcTemplate.execute(String.format("alter table %s drop partition %s", TABLE_NAME, name));
+        }
+    }
+}
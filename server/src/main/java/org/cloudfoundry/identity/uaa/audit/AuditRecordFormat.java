@@ -0,0 +1,193 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.audit;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Record formats understood by {@link FileAuditService} and
+ * {@link FileAuditReader}. A torn record at the end of a file, left behind
+ * by a crash in the middle of a write, is ignored when reading.
+ */
+public enum AuditRecordFormat {
+
+    /**
+     * Each record is a four byte length followed by the event time, the event
+     * type code and the string fields, each string being a four byte length
+     * (-1 for null) followed by its UTF-8 bytes.
+     */
+    BINARY("bin") {
+        @Override
+        public byte[] encode(AuditEvent auditEvent, String zoneId) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeInt(0);
+                out.writeLong(auditEvent.getTime());
+                out.writeInt(auditEvent.getType().getCode());
+                writeString(out, auditEvent.getPrincipalId());
+                writeString(out, auditEvent.getOrigin());
+                writeString(out, auditEvent.getData());
+                writeString(out, zoneId);
+                writeString(out, auditEvent.getAuthenticationType());
+                writeString(out, auditEvent.getDescription());
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            byte[] record = bytes.toByteArray();
+            int length = record.length - 4;
+            record[0] = (byte) (length >>> 24);
+            record[1] = (byte) (length >>> 16);
+            record[2] = (byte) (length >>> 8);
+            record[3] = (byte) length;
+            return record;
+        }
+
+        @Override
+        public void read(InputStream input, Consumer<AuditEvent> consumer) throws IOException {
+            DataInputStream in = new DataInputStream(input);
+            while (true) {
+                byte[] payload;
+                try {
+                    payload = new byte[in.readInt()];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    return;
+                }
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                long time = record.readLong();
+                AuditEventType type = AuditEventType.fromCode(record.readInt());
+                String principalId = readString(record);
+                String origin = readString(record);
+                String data = readString(record);
+                String zoneId = readString(record);
+                String authenticationType = readString(record);
+                String description = readString(record);
+                consumer.accept(new AuditEvent(type, principalId, origin, data, time, zoneId, authenticationType, description));
+            }
+        }
+    },
+
+    /**
+     * Each record is a JSON object on its own line, which most log shippers
+     * and SIEM agents can ingest directly.
+     */
+    NDJSON("ndjson") {
+        @Override
+        public byte[] encode(AuditEvent auditEvent, String zoneId) {
+            Map<String, Object> record = new LinkedHashMap<>();
+            record.put("time", auditEvent.getTime());
+            record.put("type", auditEvent.getType().name());
+            record.put("principalId", auditEvent.getPrincipalId());
+            record.put("origin", auditEvent.getOrigin());
+            record.put("data", auditEvent.getData());
+            record.put("identityZoneId", zoneId);
+            record.put("authenticationType", auditEvent.getAuthenticationType());
+            record.put("description", auditEvent.getDescription());
+            byte[] json = JsonUtils.writeValueAsBytes(record);
+            byte[] line = new byte[json.length + 1];
+            System.arraycopy(json, 0, line, 0, json.length);
+            line[json.length] = '\n';
+            return line;
+        }
+
+        @Override
+        public void read(InputStream input, Consumer<AuditEvent> consumer) throws IOException {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                Map<String, Object> record;
+                try {
+                    record = JsonUtils.readValue(line, new TypeReference<Map<String, Object>>() {});
+                } catch (JsonUtils.JsonUtilException e) {
+                    logger.warn("Skipping unreadable audit record");
+                    continue;
+                }
+                consumer.accept(new AuditEvent(
+                    AuditEventType.valueOf((String) record.get("type")),
+                    (String) record.get("principalId"),
+                    (String) record.get("origin"),
+                    (String) record.get("data"),
+                    ((Number) record.get("time")).longValue(),
+                    (String) record.get("identityZoneId"),
+                    (String) record.get("authenticationType"),
+                    (String) record.get("description")
+                ));
+            }
+        }
+    };
+
+    private static final Logger logger = LoggerFactory.getLogger(AuditRecordFormat.class);
+
+    private final String extension;
+
+    AuditRecordFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public abstract byte[] encode(AuditEvent auditEvent, String zoneId);
+
+    public abstract void read(InputStream input, Consumer<AuditEvent> consumer) throws IOException;
+
+    public static AuditRecordFormat fromExtension(String extension) {
+        for (AuditRecordFormat format : values()) {
+            if (format.extension.equals(extension)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
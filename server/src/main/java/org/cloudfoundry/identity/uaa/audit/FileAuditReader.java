@@ -0,0 +1,124 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.audit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the files written by {@link FileAuditService}. Files are named after
+ * their sequence number and creation time, so a query for a time range only
+ * opens the files that can hold events in that range.
+ */
+public class FileAuditReader {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileAuditReader.class);
+
+    static final Pattern FILE_NAME = Pattern.compile(FileAuditService.FILE_PREFIX + "(\\d+)-(\\d+)\\.(\\w+)");
+
+    private final File directory;
+    private long clockSkewMillis = 60 * 1000;
+
+    public FileAuditReader(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Passes every event with a time in {@code (after, before]} to the
+     * consumer, oldest file first.
+     */
+    public void replay(long after, long before, Consumer<AuditEvent> consumer) {
+        List<AuditFile> files = listFiles();
+        for (int i = 0; i < files.size(); i++) {
+            AuditFile file = files.get(i);
+            if (file.created - clockSkewMillis > before) {
+                break;
+            }
+            if (i + 1 < files.size() && files.get(i + 1).created + clockSkewMillis <= after) {
+                continue;
+            }
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(file.file.toPath()))) {
+                file.format.read(in, event -> {
+                    if (event.getTime() > after && event.getTime() <= before) {
+                        consumer.accept(event);
+                    }
+                });
+            } catch (IOException e) {
+                logger.error("Unable to read audit file " + file.file, e);
+            }
+        }
+    }
+
+    /**
+     * @return the events for the principal in the time range, most recent first
+     */
+    public List<AuditEvent> find(String principalId, long after, long before, String zoneId) {
+        List<AuditEvent> events = new ArrayList<>();
+        replay(after, before, event -> {
+            if (principalId.equals(event.getPrincipalId()) && zoneId.equals(event.getIdentityZoneId())) {
+                events.add(event);
+            }
+        });
+        events.sort(Comparator.comparingLong(AuditEvent::getTime).reversed());
+        return events;
+    }
+
+    List<AuditFile> listFiles() {
+        List<AuditFile> files = new ArrayList<>();
+        File[] candidates = directory.listFiles();
+        if (candidates == null) {
+            return files;
+        }
+        for (File candidate : candidates) {
+            Matcher matcher = FILE_NAME.matcher(candidate.getName());
+            if (matcher.matches()) {
+                AuditRecordFormat format = AuditRecordFormat.fromExtension(matcher.group(3));
+                if (format != null) {
+                    files.add(new AuditFile(candidate, Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2)), format));
+                }
+            }
+        }
+        files.sort(Comparator.comparingLong(f -> f.sequence));
+        return files;
+    }
+
+    public void setClockSkewMillis(long clockSkewMillis) {
+        this.clockSkewMillis = clockSkewMillis;
+    }
+
+    static class AuditFile {
+        final File file;
+        final long sequence;
+        final long created;
+        final AuditRecordFormat format;
+
+        AuditFile(File file, long sequence, long created, AuditRecordFormat format) {
+            this.file = file;
+            this.sequence = sequence;
+            this.created = created;
+            this.format = format;
+        }
+    }
+}
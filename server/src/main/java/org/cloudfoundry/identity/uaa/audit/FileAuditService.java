@@ -0,0 +1,260 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.audit;
+
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.cloudfoundry.identity.uaa.util.TimeServiceImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Audit service that appends events to rolling files in a directory, so that
+ * audit consumers can read the files instead of querying {@code sec_audit}.
+ * A new file is started when the current one reaches
+ * {@link #setMaxFileBytes(long) maxFileBytes} and on every restart; files are
+ * never modified once written.
+ * <p>
+ * By default {@link #log} returns once the record is handed to the operating
+ * system, and between {@link #start()} and {@link #close()} a background
+ * thread forces the records appended since the previous sync to disk with a
+ * single {@code fsync} every {@link #setSyncIntervalMillis(long) syncIntervalMillis}.
+ * Records survive a crash of the UAA process, and at most one interval of
+ * records can be lost if the host itself goes down.
+ * When {@link #setSyncOnLog(boolean) syncOnLog} is set, {@link #log} returns
+ * only after the record is on disk, at the cost of an {@code fsync} on the
+ * login path. Concurrent callers share a single {@code fsync}: whoever syncs
+ * first makes the records of all the threads waiting behind it durable as well.
+ */
+public class FileAuditService implements UaaAuditService, Flushable, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileAuditService.class);
+
+    public static final String FILE_PREFIX = "audit-";
+
+    private final File directory;
+    private final AuditRecordFormat format;
+    private final FileAuditReader reader;
+    private TimeService timeService = new TimeServiceImpl();
+    private long maxFileBytes = 64 * 1024 * 1024;
+    private boolean syncOnLog = false;
+    private long syncIntervalMillis = 1000;
+    private ScheduledExecutorService syncExecutor;
+
+    private final Object writeLock = new Object();
+    private final Object syncLock = new Object();
+    private FileChannel channel;
+    private File currentFile;
+    private long sequence = -1;
+    private long fileBytes;
+    private long appended;
+    private final AtomicLong synced = new AtomicLong();
+
+    public FileAuditService(File directory, AuditRecordFormat format) {
+        this.directory = directory;
+        this.format = format;
+        this.reader = new FileAuditReader(directory);
+    }
+
+    @Override
+    public List<AuditEvent> find(String principal, long after, String zoneId) {
+        return reader.find(principal, after, Long.MAX_VALUE, zoneId);
+    }
+
+    @Override
+    public void log(AuditEvent auditEvent, String zoneId) {
+        long position = append(format.encode(auditEvent, zoneId));
+        if (syncOnLog) {
+            sync(position);
+        }
+    }
+
+    /**
+     * Forces every record appended so far to disk.
+     */
+    @Override
+    public void flush() {
+        long position;
+        synchronized (writeLock) {
+            position = appended;
+        }
+        sync(position);
+    }
+
+    /**
+     * Starts forcing the appended records to disk once per sync interval.
+     */
+    public synchronized void start() {
+        if (syncExecutor != null || syncIntervalMillis <= 0) {
+            return;
+        }
+        syncExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "uaa-audit-file-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        syncExecutor.scheduleWithFixedDelay(this::flushQuietly, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            logger.warn("Unable to sync audit file", e);
+        }
+    }
+
+    private synchronized void stopSync() {
+        if (syncExecutor != null) {
+            syncExecutor.shutdown();
+            syncExecutor = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        stopSync();
+        synchronized (writeLock) {
+            if (channel != null) {
+                try {
+                    channel.force(false);
+                    channel.close();
+                } catch (IOException e) {
+                    throw new IllegalStateException("Unable to close audit file " + currentFile, e);
+                }
+                channel = null;
+                synced.accumulateAndGet(appended, Math::max);
+            }
+        }
+    }
+
+    private long append(byte[] record) {
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        synchronized (writeLock) {
+            try {
+                if (channel == null || (fileBytes > 0 && fileBytes + record.length > maxFileBytes)) {
+                    roll();
+                }
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to write audit event to " + currentFile, e);
+            }
+            fileBytes += record.length;
+            appended += record.length;
+            return appended;
+        }
+    }
+
+    private void roll() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+            channel.close();
+            synced.accumulateAndGet(appended, Math::max);
+        }
+        if (sequence < 0) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Unable to create audit directory " + directory);
+            }
+            for (FileAuditReader.AuditFile file : reader.listFiles()) {
+                sequence = Math.max(sequence, file.sequence);
+            }
+        }
+        sequence++;
+        currentFile = new File(directory, String.format("%s%010d-%d.%s", FILE_PREFIX, sequence, timeService.getCurrentTimeMillis(), format.getExtension()));
+        channel = FileChannel.open(currentFile.toPath(), CREATE_NEW, WRITE, APPEND);
+        fileBytes = 0;
+    }
+
+    private void sync(long position) {
+        if (synced.get() >= position) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (synced.get() >= position) {
+                return;
+            }
+            long target;
+            FileChannel current;
+            synchronized (writeLock) {
+                target = appended;
+                current = channel;
+            }
+            try {
+                if (current != null) {
+                    current.force(false);
+                }
+            } catch (ClosedChannelException e) {
+                // the file was rolled or closed, which forced it already
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to sync audit file " + currentFile, e);
+            }
+            synced.accumulateAndGet(target, Math::max);
+        }
+    }
+
+    public FileAuditReader getReader() {
+        return reader;
+    }
+
+    /**
+     * @return the number of appended bytes that are not known to be on disk yet
+     */
+    public long getUnsyncedBytes() {
+        synchronized (writeLock) {
+            return Math.max(0, appended - synced.get());
+        }
+    }
+
+    public File getCurrentFile() {
+        synchronized (writeLock) {
+            return currentFile;
+        }
+    }
+
+    public void setTimeService(TimeService timeService) {
+        this.timeService = timeService;
+    }
+
+    public void setMaxFileBytes(long maxFileBytes) {
+        this.maxFileBytes = maxFileBytes;
+    }
+
+    public void setSyncOnLog(boolean syncOnLog) {
+        this.syncOnLog = syncOnLog;
+    }
+
+    /**
+     * @param syncIntervalMillis how often the background thread forces appended records to disk, 0 to sync only on roll and close
+     */
+    public void setSyncIntervalMillis(long syncIntervalMillis) {
+        this.syncIntervalMillis = syncIntervalMillis;
+    }
+}
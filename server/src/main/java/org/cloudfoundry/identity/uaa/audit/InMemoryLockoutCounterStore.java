@@ -0,0 +1,301 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.audit;
+
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.cloudfoundry.identity.uaa.util.TimeServiceImpl;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link LockoutCounterStore} that keeps a small, time-bucketed failure
+ * counter per principal in memory. Recording and reading a failure count are
+ * constant time operations; the number of buckets per principal is bounded, and
+ * when it is exceeded the two oldest buckets are merged so no failure is ever
+ * lost, it just appears slightly more recent than it was.
+ */
+public class InMemoryLockoutCounterStore implements LockoutCounterStore {
+
+    private long bucketMillis = 5 * 1000;
+    private int maxBuckets = 64;
+    private long retentionMillis = 24 * 3600 * 1000; // 24hr
+    private long timeBetweenPurgeMillis = 1000 * 30;
+    private TimeService timeService = new TimeServiceImpl();
+
+    private final AtomicLong lastPurge = new AtomicLong(0);
+    protected final ConcurrentMap<CounterKey, Counter> counters = new ConcurrentHashMap<>();
+
+    @Override
+    public void recordFailure(String principalId, AuditEventType failureType, long time, String zoneId) {
+        periodicPurge();
+        counters.compute(new CounterKey(principalId, zoneId, failureType.getCode()), (key, counter) -> {
+            Counter result = counter == null ? new Counter(maxBuckets) : counter;
+            result.add(time, bucketMillis);
+            return result;
+        });
+    }
+
+    @Override
+    public void reset(String principalId, AuditEventType failureType, long time, String zoneId) {
+        counters.compute(new CounterKey(principalId, zoneId, failureType.getCode()), (key, counter) -> {
+            Counter result = counter == null ? new Counter(maxBuckets) : counter;
+            result.reset(time);
+            return result;
+        });
+    }
+
+    @Override
+    public FailureCount getFailures(String principalId, AuditEventType failureType, long after, String zoneId) {
+        Counter counter = counters.get(new CounterKey(principalId, zoneId, failureType.getCode()));
+        return counter == null ? FailureCount.NONE : counter.count(after, bucketMillis);
+    }
+
+    protected void periodicPurge() {
+        long now = timeService.getCurrentTimeMillis();
+        long lastCheck = lastPurge.get();
+        if (now - lastCheck > timeBetweenPurgeMillis && lastPurge.compareAndSet(lastCheck, now)) {
+            long expired = now - retentionMillis;
+            for (CounterKey key : counters.keySet()) {
+                counters.computeIfPresent(key, (k, counter) -> counter.isExpired(expired) ? null : counter);
+            }
+        }
+    }
+
+    public int size() {
+        return counters.size();
+    }
+
+    public long getBucketMillis() {
+        return bucketMillis;
+    }
+
+    public void setBucketMillis(long bucketMillis) {
+        this.bucketMillis = bucketMillis;
+    }
+
+    public int getMaxBuckets() {
+        return maxBuckets;
+    }
+
+    public void setMaxBuckets(int maxBuckets) {
+        this.maxBuckets = maxBuckets;
+    }
+
+    public long getRetentionMillis() {
+        return retentionMillis;
+    }
+
+    public void setRetentionMillis(long retentionMillis) {
+        this.retentionMillis = retentionMillis;
+    }
+
+    public void setTimeBetweenPurgeMillis(long timeBetweenPurgeMillis) {
+        this.timeBetweenPurgeMillis = timeBetweenPurgeMillis;
+    }
+
+    public TimeService getTimeService() {
+        return timeService;
+    }
+
+    public void setTimeService(TimeService timeService) {
+        this.timeService = timeService;
+    }
+
+    protected static final class CounterKey {
+        private final String principalId;
+        private final String zoneId;
+        private final int eventType;
+
+        CounterKey(String principalId, String zoneId, int eventType) {
+            this.principalId = principalId;
+            this.zoneId = zoneId;
+            this.eventType = eventType;
+        }
+
+        public String getPrincipalId() {
+            return principalId;
+        }
+
+        public String getZoneId() {
+            return zoneId;
+        }
+
+        public int getEventType() {
+            return eventType;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CounterKey)) return false;
+            CounterKey that = (CounterKey) o;
+            return eventType == that.eventType &&
+                Objects.equals(principalId, that.principalId) &&
+                Objects.equals(zoneId, that.zoneId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(principalId, zoneId, eventType);
+        }
+    }
+
+    /**
+     * Failure counts for a single principal and failure type, bucketed by time.
+     * Buckets are ordered oldest first.
+     */
+    protected static final class Counter {
+        private final long[] starts;
+        private final int[] counts;
+        private int size;
+        private long lastFailure;
+        private long resetAt;
+        private long lastModified;
+        private boolean dirty;
+
+        Counter(int maxBuckets) {
+            this.starts = new long[Math.max(2, maxBuckets)];
+            this.counts = new int[starts.length];
+        }
+
+        synchronized void add(long time, long bucketMillis) {
+            if (time <= resetAt) {
+                return;
+            }
+            long start = time - (time % bucketMillis);
+            if (size > 0 && start <= starts[size - 1]) {
+                // same bucket, or a slightly out of order event
+                counts[size - 1]++;
+            } else {
+                if (size == starts.length) {
+                    counts[1] += counts[0];
+                    System.arraycopy(starts, 1, starts, 0, size - 1);
+                    System.arraycopy(counts, 1, counts, 0, size - 1);
+                    size--;
+                }
+                starts[size] = start;
+                counts[size] = 1;
+                size++;
+            }
+            lastFailure = Math.max(lastFailure, time);
+            touch(time);
+        }
+
+        synchronized void reset(long time) {
+            size = 0;
+            lastFailure = 0;
+            resetAt = Math.max(resetAt, time);
+            touch(time);
+        }
+
+        /**
+         * Drops the buckets that lie entirely before the given reset time.
+         * @return true if the reset time was newer than the one already known
+         */
+        synchronized boolean applyReset(long time, long bucketMillis) {
+            if (time <= resetAt) {
+                return false;
+            }
+            resetAt = time;
+            int keep = 0;
+            for (int i = 0; i < size; i++) {
+                if (starts[i] + bucketMillis > time) {
+                    starts[keep] = starts[i];
+                    counts[keep] = counts[i];
+                    keep++;
+                }
+            }
+            size = keep;
+            if (size == 0) {
+                lastFailure = 0;
+            }
+            touch(time);
+            return true;
+        }
+
+        synchronized FailureCount count(long after, long bucketMillis) {
+            int total = 0;
+            for (int i = size - 1; i >= 0 && starts[i] + bucketMillis > after; i--) {
+                total += counts[i];
+            }
+            return total == 0 ? FailureCount.NONE : new FailureCount(total, lastFailure);
+        }
+
+        synchronized boolean isExpired(long before) {
+            return lastModified < before;
+        }
+
+        synchronized long getResetAt() {
+            return resetAt;
+        }
+
+        synchronized long getLastFailure() {
+            return lastFailure;
+        }
+
+        synchronized long getLastModified() {
+            return lastModified;
+        }
+
+        synchronized boolean isDirty() {
+            return dirty;
+        }
+
+        synchronized void setDirty(boolean dirty) {
+            this.dirty = dirty;
+        }
+
+        /**
+         * @return the buckets as a compact {@code start:count,start:count} string
+         */
+        synchronized String getBuckets() {
+            StringBuilder builder = new StringBuilder(size * 18);
+            for (int i = 0; i < size; i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                builder.append(starts[i]).append(':').append(counts[i]);
+            }
+            return builder.toString();
+        }
+
+        static Counter fromBuckets(int maxBuckets, String buckets, long lastFailure, long resetAt, long lastModified) {
+            Counter counter = new Counter(maxBuckets);
+            if (buckets != null && buckets.length() > 0) {
+                for (String bucket : buckets.split(",")) {
+                    int separator = bucket.indexOf(':');
+                    long start = Long.parseLong(bucket.substring(0, separator));
+                    int count = Integer.parseInt(bucket.substring(separator + 1));
+                    if (counter.size == counter.starts.length) {
+                        break;
+                    }
+                    counter.starts[counter.size] = start;
+                    counter.counts[counter.size] = count;
+                    counter.size++;
+                }
+            }
+            counter.lastFailure = lastFailure;
+            counter.resetAt = resetAt;
+            counter.lastModified = lastModified;
+            return counter;
+        }
+
+        private void touch(long time) {
+            lastModified = Math.max(lastModified, time);
+            dirty = true;
+        }
+    }
+}
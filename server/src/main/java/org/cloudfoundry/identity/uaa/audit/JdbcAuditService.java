@@ -23,7 +23,17 @@ import java.util.List;
 
 public class JdbcAuditService implements UaaAuditService {
 
+    public static final String DEFAULT_TABLE_NAME = "sec_audit";
+
+    public static final String INSERT_AUDIT_EVENT_SQL = "insert into %s (principal_id, event_type, origin, event_data, identity_zone_id) values (?,?,?,?,?)";
+
+    public static final String FIND_AUDIT_EVENTS_SQL = "select event_type, principal_id, origin, event_data, created, identity_zone_id from %s where " +
+        "principal_id=? and identity_zone_id=? and created > ? order by created desc";
+
     private final JdbcTemplate template;
+    private String tableName = DEFAULT_TABLE_NAME;
+    private String insertSql = String.format(INSERT_AUDIT_EVENT_SQL, DEFAULT_TABLE_NAME);
+    private String findSql = String.format(FIND_AUDIT_EVENTS_SQL, DEFAULT_TABLE_NAME);
 
     public JdbcAuditService(JdbcTemplate template) {
         this.template = template;
@@ -35,22 +45,36 @@ public class JdbcAuditService implements UaaAuditService {
 
     @Override
     public List<AuditEvent> find(String principalId, long after, String zoneId) {
-        return template.query("select event_type, principal_id, origin, event_data, created, identity_zone_id from sec_audit where " +
-            "principal_id=? and identity_zone_id=? and created > ? order by created desc", new AuditEventRowMapper(), principalId
-            , zoneId, new Timestamp(after));
+        return template.query(findSql, new AuditEventRowMapper(), principalId, zoneId, new Timestamp(after));
+    }
+
+    /**
+     * @param tableName the table events are written to and read from,
+     * {@code sec_audit} unless the partitioned layout is used
+     */
+    public void setTableName(String tableName) {
+        this.tableName = tableName;
+        this.insertSql = String.format(INSERT_AUDIT_EVENT_SQL, tableName);
+        this.findSql = String.format(FIND_AUDIT_EVENTS_SQL, tableName);
+    }
+
+    public String getTableName() {
+        return tableName;
     }
 
     @Override
     public void log(AuditEvent auditEvent, String zoneId) {
+        template.update(insertSql, insertArguments(auditEvent, zoneId));
+    }
+
+    private static Object[] insertArguments(AuditEvent auditEvent, String zoneId) {
         String origin = auditEvent.getOrigin();
         String data = auditEvent.getData();
         origin = origin == null ? "" : origin;
         origin = origin.length() > 255 ? origin.substring(0, 255) : origin;
         data = data == null ? "" : data;
         data = data.length() > 255 ? data.substring(0, 255) : data;
-        template.update("insert into sec_audit (principal_id, event_type, origin, event_data, identity_zone_id) values (?,?,?,?,?)",
-                        auditEvent.getPrincipalId(), auditEvent.getType().getCode(), origin,
-                        data, zoneId);
+        return new Object[] {auditEvent.getPrincipalId(), auditEvent.getType().getCode(), origin, data, zoneId};
     }
 
     private class AuditEventRowMapper implements RowMapper<AuditEvent> {
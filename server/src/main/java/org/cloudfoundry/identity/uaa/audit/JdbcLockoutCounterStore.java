@@ -0,0 +1,217 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.audit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link InMemoryLockoutCounterStore} that periodically checkpoints its
+ * counters to the {@code lockout_counters} table, one row per principal,
+ * failure type and node, and aggregates the rows written by other nodes so
+ * that lockouts are enforced across the cluster. Logins only touch memory;
+ * the checkpoint runs on a background thread between {@link #start()} and
+ * {@link #stop()}, once per checkpoint interval.
+ */
+public class JdbcLockoutCounterStore extends InMemoryLockoutCounterStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(JdbcLockoutCounterStore.class);
+
+    public static final String COUNTER_FIELDS = "principal_id,identity_zone_id,event_type,node_id,buckets,last_failure,reset_at,updated";
+
+    public static final String UPDATE_COUNTER_SQL = "update lockout_counters set buckets=?, last_failure=?, reset_at=?, updated=? where principal_id=? and identity_zone_id=? and event_type=? and node_id=?";
+
+    public static final String INSERT_COUNTER_SQL = "insert into lockout_counters (buckets,last_failure,reset_at,updated,principal_id,identity_zone_id,event_type,node_id) values (?,?,?,?,?,?,?,?)";
+
+    public static final String RESET_COUNTERS_SQL = "update lockout_counters set reset_at=?, updated=? where principal_id=? and identity_zone_id=? and event_type=? and reset_at < ?";
+
+    public static final String SELECT_UPDATED_COUNTERS_SQL = "select " + COUNTER_FIELDS + " from lockout_counters where updated > ?";
+
+    public static final String DELETE_EXPIRED_COUNTERS_SQL = "delete from lockout_counters where updated < ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String nodeId;
+    private long checkpointIntervalMillis = 5 * 1000;
+    private long clockSkewMillis = 10 * 1000;
+
+    private ScheduledExecutorService executor;
+    private volatile long lastRefresh = 0;
+    private final ConcurrentMap<CounterKey, Map<String, Counter>> remoteCounters = new ConcurrentHashMap<>();
+
+    public JdbcLockoutCounterStore(JdbcTemplate jdbcTemplate) {
+        this(jdbcTemplate, UUID.randomUUID().toString());
+    }
+
+    public JdbcLockoutCounterStore(JdbcTemplate jdbcTemplate, String nodeId) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.nodeId = nodeId;
+    }
+
+    public synchronized void start() {
+        if (executor != null || checkpointIntervalMillis <= 0) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "uaa-lockout-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::checkpoint, checkpointIntervalMillis, checkpointIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background checkpoint and writes the counters that changed since the last one.
+     */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+            checkpoint();
+        }
+    }
+
+    /**
+     * Resets the local counter. If other nodes are known to hold failures for
+     * the principal, their rows are marked as reset right away so the reset
+     * takes effect cluster wide without waiting for the next checkpoint.
+     */
+    @Override
+    public void reset(String principalId, AuditEventType failureType, long time, String zoneId) {
+        super.reset(principalId, failureType, time, zoneId);
+        if (remoteCounters.containsKey(new CounterKey(principalId, zoneId, failureType.getCode()))) {
+            jdbcTemplate.update(RESET_COUNTERS_SQL, time, time, principalId, zoneId, failureType.getCode(), time);
+        }
+    }
+
+    @Override
+    public FailureCount getFailures(String principalId, AuditEventType failureType, long after, String zoneId) {
+        CounterKey key = new CounterKey(principalId, zoneId, failureType.getCode());
+        Counter local = counters.get(key);
+        Map<String, Counter> remote = remoteCounters.get(key);
+        if (remote == null) {
+            return local == null ? FailureCount.NONE : local.count(after, getBucketMillis());
+        }
+        // the most recent reset on any node discards the failures recorded before it on all nodes
+        long since = local == null ? after : Math.max(after, local.getResetAt());
+        for (Counter counter : remote.values()) {
+            since = Math.max(since, counter.getResetAt());
+        }
+        int count = 0;
+        long lastFailure = 0;
+        if (local != null) {
+            FailureCount failures = local.count(since, getBucketMillis());
+            count += failures.getCount();
+            lastFailure = failures.getLastFailure();
+        }
+        for (Counter counter : remote.values()) {
+            FailureCount failures = counter.count(since, getBucketMillis());
+            count += failures.getCount();
+            lastFailure = Math.max(lastFailure, failures.getLastFailure());
+        }
+        return count == 0 ? FailureCount.NONE : new FailureCount(count, lastFailure);
+    }
+
+    public void checkpoint() {
+        try {
+            checkpoint(getTimeService().getCurrentTimeMillis());
+        } catch (RuntimeException e) {
+            logger.warn("Unable to checkpoint lockout counters", e);
+        }
+    }
+
+    /**
+     * Reads the rows changed since the last refresh, applies resets made by
+     * other nodes to the local counters and writes all locally changed counters.
+     * A counter that fails to be written stays dirty and is written by the next checkpoint.
+     */
+    protected void checkpoint(long now) {
+        refresh(now);
+        for (Map.Entry<CounterKey, Counter> entry : counters.entrySet()) {
+            Counter counter = entry.getValue();
+            if (counter.isDirty()) {
+                // cleared before writing so that failures recorded during the write mark it dirty again
+                counter.setDirty(false);
+                try {
+                    write(entry.getKey(), counter, now);
+                } catch (DataAccessException e) {
+                    counter.setDirty(true);
+                    throw e;
+                }
+            }
+        }
+        jdbcTemplate.update(DELETE_EXPIRED_COUNTERS_SQL, now - getRetentionMillis());
+    }
+
+    protected void refresh(long now) {
+        long since = lastRefresh == 0 ? now - getRetentionMillis() : lastRefresh - clockSkewMillis;
+        jdbcTemplate.query(SELECT_UPDATED_COUNTERS_SQL, rs -> {
+            CounterKey key = new CounterKey(rs.getString(1), rs.getString(2), rs.getInt(3));
+            String rowNodeId = rs.getString(4);
+            long resetAt = rs.getLong(7);
+            Counter local = counters.get(key);
+            if (local != null) {
+                local.applyReset(resetAt, getBucketMillis());
+            }
+            if (!nodeId.equals(rowNodeId)) {
+                Counter remote = Counter.fromBuckets(getMaxBuckets(), rs.getString(5), rs.getLong(6), 0, rs.getLong(8));
+                remote.applyReset(resetAt, getBucketMillis());
+                remoteCounters.computeIfAbsent(key, k -> new ConcurrentHashMap<>()).put(rowNodeId, remote);
+            }
+        }, since);
+        long expired = now - getRetentionMillis();
+        for (CounterKey key : remoteCounters.keySet()) {
+            remoteCounters.computeIfPresent(key, (k, byNode) -> {
+                byNode.values().removeIf(counter -> counter.isExpired(expired));
+                return byNode.isEmpty() ? null : byNode;
+            });
+        }
+        lastRefresh = now;
+    }
+
+    protected void write(CounterKey key, Counter counter, long now) {
+        Object[] args = new Object[] {
+            counter.getBuckets(), counter.getLastFailure(), counter.getResetAt(), now,
+            key.getPrincipalId(), key.getZoneId(), key.getEventType(), nodeId
+        };
+        if (jdbcTemplate.update(UPDATE_COUNTER_SQL, args) == 0) {
+            try {
+                jdbcTemplate.update(INSERT_COUNTER_SQL, args);
+            } catch (DuplicateKeyException e) {
+                jdbcTemplate.update(UPDATE_COUNTER_SQL, args);
+            }
+        }
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void setCheckpointIntervalMillis(long checkpointIntervalMillis) {
+        this.checkpointIntervalMillis = checkpointIntervalMillis;
+    }
+
+    public void setClockSkewMillis(long clockSkewMillis) {
+        this.clockSkewMillis = clockSkewMillis;
+    }
+}
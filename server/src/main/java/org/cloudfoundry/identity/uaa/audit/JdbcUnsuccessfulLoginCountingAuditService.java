@@ -34,6 +34,8 @@ public class JdbcUnsuccessfulLoginCountingAuditService extends JdbcAuditService
 
     private AtomicLong lastDelete = new AtomicLong(0);
     private TimeService timeService = new TimeServiceImpl();
+    private LockoutCounterStore lockoutCounterStore;
+    private AuditPartitionManager auditPartitionManager;
 
     public JdbcUnsuccessfulLoginCountingAuditService(JdbcTemplate template) {
         super(template);
@@ -50,6 +52,33 @@ public class JdbcUnsuccessfulLoginCountingAuditService extends JdbcAuditService
         this.timeService = timeService;
     }
 
+    /**
+     * When set, failures and resets are kept in the given store instead of
+     * being written to and deleted from the sec_audit table.
+     */
+    public void setLockoutCounterStore(LockoutCounterStore lockoutCounterStore) {
+        this.lockoutCounterStore = lockoutCounterStore;
+    }
+
+    public LockoutCounterStore getLockoutCounterStore() {
+        return lockoutCounterStore;
+    }
+
+    /**
+     * When set, events are kept in the daily partitioned table and expired
+     * partitions are dropped instead of deleting old rows.
+     */
+    public void setAuditPartitionManager(AuditPartitionManager auditPartitionManager) {
+        this.auditPartitionManager = auditPartitionManager;
+        if (auditPartitionManager != null) {
+            setTableName(AuditPartitionManager.TABLE_NAME);
+        }
+    }
+
+    public AuditPartitionManager getAuditPartitionManager() {
+        return auditPartitionManager;
+    }
+
     @Override
     public void log(AuditEvent auditEvent, String zoneId) {
         switch (auditEvent.getType()) {
@@ -67,6 +96,10 @@ public class JdbcUnsuccessfulLoginCountingAuditService extends JdbcAuditService
                 break;
             case UserAuthenticationFailure:
             case MfaAuthenticationFailure:
+                if (lockoutCounterStore != null) {
+                    lockoutCounterStore.recordFailure(auditEvent.getPrincipalId(), auditEvent.getType(), timeService.getCurrentTimeMillis(), zoneId);
+                    break;
+                }
                 periodicDelete();
                 super.log(auditEvent, zoneId);
                 break;
@@ -76,7 +109,18 @@ public class JdbcUnsuccessfulLoginCountingAuditService extends JdbcAuditService
     }
 
     private void resetAuthenticationEvents(AuditEvent auditEvent, String zoneId, AuditEventType eventType) {
-        getJdbcTemplate().update("delete from sec_audit where principal_id=? and identity_zone_id=? and event_type=?", auditEvent.getPrincipalId(), zoneId, eventType.getCode());
+        if (lockoutCounterStore != null) {
+            lockoutCounterStore.reset(auditEvent.getPrincipalId(), eventType, timeService.getCurrentTimeMillis(), zoneId);
+            return;
+        }
+        if (auditPartitionManager != null) {
+            // bound by the retention period so only the recent partitions are searched
+            getJdbcTemplate().update("delete from " + getTableName() + " where principal_id=? and identity_zone_id=? and event_type=? and created > ?",
+                                     auditEvent.getPrincipalId(), zoneId, eventType.getCode(),
+                                     new Timestamp(timeService.getCurrentTimeMillis() - saveDataPeriodMillis));
+            return;
+        }
+        getJdbcTemplate().update("delete from " + getTableName() + " where principal_id=? and identity_zone_id=? and event_type=?", auditEvent.getPrincipalId(), zoneId, eventType.getCode());
     }
 
 
@@ -84,7 +128,10 @@ public class JdbcUnsuccessfulLoginCountingAuditService extends JdbcAuditService
         long now = timeService.getCurrentTimeMillis();
         long lastCheck = lastDelete.get();
         if (now - lastCheck > timeBetweenDeleteMillis && lastDelete.compareAndSet(lastCheck, now)) {
-            getJdbcTemplate().update("delete from sec_audit where created < ?",
+            if (auditPartitionManager != null && auditPartitionManager.periodicMaintenance(saveDataPeriodMillis)) {
+                return;
+            }
+            getJdbcTemplate().update("delete from " + getTableName() + " where created < ?",
                                      new Timestamp(System.currentTimeMillis()
                                                        - saveDataPeriodMillis));
         }
@@ -0,0 +1,73 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.audit;
+
+/**
+ * Keeps track of consecutive authentication failures per principal so that
+ * lockout decisions do not need to query the audit table.
+ */
+public interface LockoutCounterStore {
+
+    /**
+     * Records a single failure for the principal.
+     *
+     * @param principalId the principal that failed to authenticate
+     * @param failureType the type of failure, for example {@link AuditEventType#UserAuthenticationFailure}
+     * @param time epoch in milliseconds
+     * @param zoneId
+     */
+    void recordFailure(String principalId, AuditEventType failureType, long time, String zoneId);
+
+    /**
+     * Discards all failures of the given type recorded for the principal up to
+     * the given time, for example after a successful login.
+     *
+     * @param principalId the principal to reset
+     * @param failureType the type of failure to reset
+     * @param time epoch in milliseconds
+     * @param zoneId
+     */
+    void reset(String principalId, AuditEventType failureType, long time, String zoneId);
+
+    /**
+     * @param principalId the principal to look up
+     * @param failureType the type of failure to count
+     * @param after epoch in milliseconds, older failures are not counted
+     * @param zoneId
+     * @return the failures recorded since the last reset and after the given time
+     */
+    FailureCount getFailures(String principalId, AuditEventType failureType, long after, String zoneId);
+
+    class FailureCount {
+        public static final FailureCount NONE = new FailureCount(0, 0);
+
+        private final int count;
+        private final long lastFailure;
+
+        public FailureCount(int count, long lastFailure) {
+            this.count = count;
+            this.lastFailure = lastFailure;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * @return epoch in milliseconds of the most recent failure, 0 if there is none
+         */
+        public long getLastFailure() {
+            return lastFailure;
+        }
+    }
+}
@@ -24,6 +24,8 @@ import org.cloudfoundry.identity.uaa.authentication.event.UserAuthenticationFail
 import org.cloudfoundry.identity.uaa.authentication.event.UserNotFoundEvent;
 import org.cloudfoundry.identity.uaa.constants.OriginKeys;
 import org.cloudfoundry.identity.uaa.logging.SanitizedLogFactory;
+import org.cloudfoundry.identity.uaa.metrics.Span;
+import org.cloudfoundry.identity.uaa.metrics.Tracer;
 import org.cloudfoundry.identity.uaa.provider.IdentityProvider;
 import org.cloudfoundry.identity.uaa.provider.IdentityProviderProvisioning;
 import org.cloudfoundry.identity.uaa.provider.UaaIdentityProviderDefinition;
@@ -56,6 +58,7 @@ public class AuthzAuthenticationManager implements AuthenticationManager, Applic
     private ApplicationEventPublisher eventPublisher;
     private AccountLoginPolicy accountLoginPolicy;
     private IdentityProviderProvisioning providerProvisioning;
+    private PasswordRehasher passwordRehasher;
 
     private String origin;
     private boolean allowUnverifiedUsers = true;
@@ -68,6 +71,12 @@ public class AuthzAuthenticationManager implements AuthenticationManager, Applic
 
     @Override
     public Authentication authenticate(Authentication req) throws AuthenticationException {
+        try (Span span = Tracer.span("auth.user")) {
+            return doAuthenticate(req);
+        }
+    }
+
+    private Authentication doAuthenticate(Authentication req) throws AuthenticationException {
         logger.debug("Processing authentication request for " + req.getName());
 
         if (req.getCredentials() == null) {
@@ -105,6 +114,10 @@ public class AuthzAuthenticationManager implements AuthenticationManager, Applic
                     throw new AccountNotVerifiedException("Account not verified");
                 }
 
+                if (passwordRehasher != null) {
+                    passwordRehasher.rehashIfOutdated(user.getId(), (CharSequence) req.getCredentials(), user.getPassword(), IdentityZoneHolder.getCurrentZoneId());
+                }
+
                 UaaAuthentication success = new UaaAuthentication(
                         new UaaPrincipal(user),
                         user.getAuthorities(),
@@ -194,6 +207,14 @@ public class AuthzAuthenticationManager implements AuthenticationManager, Applic
         this.accountLoginPolicy = accountLoginPolicy;
     }
 
+    public PasswordRehasher getPasswordRehasher() {
+        return passwordRehasher;
+    }
+
+    public void setPasswordRehasher(PasswordRehasher passwordRehasher) {
+        this.passwordRehasher = passwordRehasher;
+    }
+
     public String getOrigin() {
         return origin;
     }
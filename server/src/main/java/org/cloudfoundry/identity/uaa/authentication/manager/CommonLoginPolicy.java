@@ -14,12 +14,14 @@ package org.cloudfoundry.identity.uaa.authentication.manager;
 
 import org.cloudfoundry.identity.uaa.audit.AuditEvent;
 import org.cloudfoundry.identity.uaa.audit.AuditEventType;
+import org.cloudfoundry.identity.uaa.audit.LockoutCounterStore;
 import org.cloudfoundry.identity.uaa.audit.UaaAuditService;
 import org.cloudfoundry.identity.uaa.provider.LockoutPolicy;
 import org.cloudfoundry.identity.uaa.util.TimeService;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
 
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 
 /**
@@ -33,6 +35,8 @@ public class CommonLoginPolicy implements LoginPolicy {
     private final AuditEventType failureEventType;
     private final TimeService timeService;
     private final boolean enabled;
+    private LockoutCounterStore lockoutCounterStore;
+    private final LongAdder lockedOut = new LongAdder();
 
     public CommonLoginPolicy(UaaAuditService auditService,
                              LockoutPolicyRetriever lockoutPolicyRetriever,
@@ -55,6 +59,9 @@ public class CommonLoginPolicy implements LoginPolicy {
             LockoutPolicy lockoutPolicy = lockoutPolicyRetriever.getLockoutPolicy();
 
             long eventsAfter = timeService.getCurrentTimeMillis() - lockoutPolicy.getCountFailuresWithin() * 1000;
+            if (lockoutCounterStore != null) {
+                return isAllowedByCounter(principalId, lockoutPolicy, eventsAfter);
+            }
             List<AuditEvent> events = auditService.find(principalId, eventsAfter, IdentityZoneHolder.get().getId());
 
             failureCount = sequentialFailureCount(events);
@@ -63,6 +70,7 @@ public class CommonLoginPolicy implements LoginPolicy {
                 // Check whether time of most recent failure is within the lockout period
                 AuditEvent lastFailure = mostRecentFailure(events);
                 if (lastFailure != null && lastFailure.getTime() > timeService.getCurrentTimeMillis() - lockoutPolicy.getLockoutPeriodSeconds() * 1000) {
+                    lockedOut.increment();
                     return new Result(false, failureCount);
                 }
             }
@@ -70,6 +78,18 @@ public class CommonLoginPolicy implements LoginPolicy {
         return new Result(true, failureCount);
     }
 
+    private Result isAllowedByCounter(String principalId, LockoutPolicy lockoutPolicy, long eventsAfter) {
+        // the counter store only holds failures since the last success, so the count is already sequential
+        LockoutCounterStore.FailureCount failures = lockoutCounterStore.getFailures(principalId, failureEventType, eventsAfter, IdentityZoneHolder.get().getId());
+        int failureCount = failures.getCount();
+        if (failureCount > 0 && failureCount >= lockoutPolicy.getLockoutAfterFailures()
+            && failures.getLastFailure() > timeService.getCurrentTimeMillis() - lockoutPolicy.getLockoutPeriodSeconds() * 1000) {
+            lockedOut.increment();
+            return new Result(false, failureCount);
+        }
+        return new Result(true, failureCount);
+    }
+
     /**
      * Counts the number of failures that occurred without an intervening
      * successful login.
@@ -97,7 +117,22 @@ public class CommonLoginPolicy implements LoginPolicy {
         return null;
     }
 
+    /**
+     * @return the number of attempts that were refused because the principal was locked out
+     */
+    public long getLockedOutCount() {
+        return lockedOut.sum();
+    }
+
     public LockoutPolicyRetriever getLockoutPolicyRetriever() {
         return lockoutPolicyRetriever;
     }
+
+    /**
+     * When set, failures are counted from the given store instead of being
+     * queried from the audit service.
+     */
+    public void setLockoutCounterStore(LockoutCounterStore lockoutCounterStore) {
+        this.lockoutCounterStore = lockoutCounterStore;
+    }
 }
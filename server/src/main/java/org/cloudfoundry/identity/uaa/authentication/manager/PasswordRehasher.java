@@ -0,0 +1,119 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.authentication.manager;
+
+import org.cloudfoundry.identity.uaa.scim.jdbc.JdbcScimUserProvisioning;
+import org.cloudfoundry.identity.uaa.util.PasswordEncoderFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Upgrades stored BCrypt password hashes whose cost factor is lower than the
+ * strength currently used by the password encoder. The raw password is only
+ * available during a successful login, so the rehash is triggered from there
+ * and performed on a small background executor to keep it off the login path.
+ */
+public class PasswordRehasher {
+
+    private static final Logger logger = LoggerFactory.getLogger(PasswordRehasher.class);
+
+    private final JdbcScimUserProvisioning userProvisioning;
+    private final PasswordEncoder encoder;
+    private final int targetStrength;
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private ExecutorService executor;
+    private boolean enabled = true;
+
+    public PasswordRehasher(JdbcScimUserProvisioning userProvisioning, PasswordEncoder encoder, int targetStrength) {
+        this.userProvisioning = userProvisioning;
+        this.encoder = encoder;
+        this.targetStrength = targetStrength;
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                                               new LinkedBlockingQueue<>(1000),
+                                               r -> {
+                                                   Thread t = new Thread(r, "uaa-password-rehash");
+                                                   t.setDaemon(true);
+                                                   return t;
+                                               });
+    }
+
+    public boolean isOutdated(String encodedPassword) {
+        int strength = PasswordEncoderFactory.getBcryptStrength(encodedPassword);
+        return enabled && strength > 0 && strength < targetStrength;
+    }
+
+    /**
+     * Schedules a rehash of the user's password if the stored hash is outdated.
+     * At most one rehash per user is queued at a time; if the queue is full the
+     * request is dropped and retried on the next login.
+     */
+    public void rehashIfOutdated(String userId, CharSequence rawPassword, String encodedPassword, String zoneId) {
+        if (!isOutdated(encodedPassword) || !pending.add(userId)) {
+            return;
+        }
+        final String password = rawPassword.toString();
+        try {
+            executor.execute(() -> {
+                try {
+                    rehash(userId, password, encodedPassword, zoneId);
+                } finally {
+                    pending.remove(userId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(userId);
+            logger.debug("Password rehash queue is full, skipping rehash for user " + userId);
+        }
+    }
+
+    protected void rehash(String userId, String rawPassword, String encodedPassword, String zoneId) {
+        try {
+            String newEncodedPassword = encoder.encode(rawPassword);
+            if (userProvisioning.updatePasswordHash(userId, encodedPassword, newEncodedPassword, zoneId)) {
+                logger.debug(String.format("Upgraded password hash strength for user %s from %d to %d",
+                                           userId, PasswordEncoderFactory.getBcryptStrength(encodedPassword), targetStrength));
+            }
+        } catch (Exception e) {
+            logger.warn("Unable to rehash password for user " + userId, e);
+        }
+    }
+
+    public int getTargetStrength() {
+        return targetStrength;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public void destroy() {
+        executor.shutdown();
+    }
+}
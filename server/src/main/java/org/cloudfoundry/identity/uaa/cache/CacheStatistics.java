@@ -0,0 +1,34 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.cache;
+
+/**
+ * Hit and miss counts of a cache, exposed for monitoring.
+ */
+public interface CacheStatistics {
+
+    /**
+     * @return the number of lookups answered from the cache since startup
+     */
+    long getHitCount();
+
+    /**
+     * @return the number of lookups that had to load the value since startup
+     */
+    long getMissCount();
+
+    /**
+     * @return the current number of entries in the cache
+     */
+    long size();
+}
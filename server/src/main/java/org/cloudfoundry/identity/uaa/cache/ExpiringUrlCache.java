@@ -21,28 +21,74 @@ import com.google.common.cache.CacheBuilder;
 import org.cloudfoundry.identity.uaa.util.TimeService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.RequestEntity;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.time.Duration;
-import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
-public class ExpiringUrlCache implements UrlContentCache {
+/**
+ * Caches the content of URLs such as SAML and OpenID Connect metadata.
+ * <ul>
+ * <li>An entry younger than the cache expiration is returned as is. Within
+ * {@link #setRefreshAhead(Duration) refreshAhead} of its expiration it is
+ * also refreshed in the background.</li>
+ * <li>An entry that expired less than {@code maxStaleness} ago is returned
+ * while it is refreshed in the background.</li>
+ * <li>Older entries are fetched on the calling thread.</li>
+ * </ul>
+ * Concurrent fetches of the same URL share a single request. Refreshes send
+ * the ETag and Last-Modified of the cached content, so an unchanged document
+ * is not transferred again. When a refresh fails, the last good copy keeps
+ * being returned and the URL is not requested again for
+ * {@link #setFailureBackoff(Duration) failureBackoff}.
+ */
+public class ExpiringUrlCache implements UrlContentCache, CacheStatistics {
     private static final Logger logger = LoggerFactory.getLogger(ExpiringUrlCache.class);
 
     private final Duration cacheExpiration;
+    private final Duration maxStaleness;
     private final TimeService timeService;
     private final Cache<String, CacheEntry> cache;
+    private final ConcurrentMap<String, CompletableFuture<CacheEntry>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder notModified = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private Duration refreshAhead = Duration.ZERO;
+    private Duration failureBackoff = Duration.ofSeconds(30);
+    private volatile Executor refreshExecutor;
+    private ExecutorService ownRefreshExecutor;
 
     public ExpiringUrlCache(Duration cacheExpiration, TimeService timeService, int maxEntries) {
+        this(cacheExpiration, Duration.ZERO, timeService, maxEntries);
+    }
+
+    public ExpiringUrlCache(Duration cacheExpiration, Duration maxStaleness, TimeService timeService, int maxEntries) {
         this.cacheExpiration = cacheExpiration;
+        this.maxStaleness = maxStaleness;
         this.timeService = timeService;
+        // entries outlive their expiration so they can be revalidated and served when a refresh fails
         cache = CacheBuilder
                 .newBuilder()
-                .expireAfterWrite(this.cacheExpiration.toMillis(), TimeUnit.MILLISECONDS)
+                .expireAfterAccess(this.cacheExpiration.plus(maxStaleness).multipliedBy(2).toMillis(), TimeUnit.MILLISECONDS)
                 .maximumSize(maxEntries)
                 .ticker(Ticker.systemTicker())
                 .build();
@@ -50,28 +96,159 @@ public class ExpiringUrlCache implements UrlContentCache {
 
     @Override
     public byte[] getUrlContent(String uri, final RestTemplate template) {
+        final URI netUri;
         try {
-            final URI netUri = new URI(uri);
-            CacheEntry entry = cache.getIfPresent(uri);
-            byte[] metadata = entry != null ? entry.data : null;
-            if (metadata == null || isEntryExpired(entry)) {
-                logger.debug("Fetching metadata for "+uri);
-                metadata = template.getForObject(netUri, byte[].class);
-                Instant now = Instant.ofEpochMilli(timeService.getCurrentTimeMillis());
-                cache.put(uri, new CacheEntry(now, metadata));
-            }
-            return metadata;
-        } catch (RestClientException x) {
-            logger.warn("Unable to fetch metadata for "+uri, x);
-            throw x;
+            netUri = new URI(uri);
         } catch (URISyntaxException e) {
             throw new IllegalArgumentException(e);
         }
+        long now = timeService.getCurrentTimeMillis();
+        CacheEntry entry = cache.getIfPresent(uri);
+        if (entry != null) {
+            long age = now - entry.timeEntered;
+            if (age <= cacheExpiration.toMillis()) {
+                hits.increment();
+                if (!refreshAhead.isZero() && age > cacheExpiration.minus(refreshAhead).toMillis()) {
+                    refreshInBackground(uri, netUri, template, entry, now);
+                }
+                return entry.data;
+            }
+            if (age <= cacheExpiration.plus(maxStaleness).toMillis() || now < entry.retryAfter) {
+                hits.increment();
+                staleHits.increment();
+                refreshInBackground(uri, netUri, template, entry, now);
+                return entry.data;
+            }
+        }
+        misses.increment();
+        logger.debug("Fetching metadata for " + uri);
+        try {
+            return fetch(uri, netUri, template, entry).data;
+        } catch (RestClientException x) {
+            failures.increment();
+            if (entry == null) {
+                logger.warn("Unable to fetch metadata for " + uri, x);
+                throw x;
+            }
+            logger.warn("Unable to fetch metadata for " + uri + ", using the last good copy", x);
+            entry.retryAfter = now + failureBackoff.toMillis();
+            return entry.data;
+        }
+    }
+
+    /**
+     * Registers the refresh as in flight before it is queued, so a burst of
+     * stale hits queues a single request.
+     */
+    private void refreshInBackground(String uri, URI netUri, RestTemplate template, CacheEntry entry, long now) {
+        if (now < entry.retryAfter) {
+            return;
+        }
+        CompletableFuture<CacheEntry> future = new CompletableFuture<>();
+        if (inFlight.putIfAbsent(uri, future) != null) {
+            return;
+        }
+        try {
+            getRefreshExecutor().execute(() -> {
+                try {
+                    load(uri, netUri, template, entry, future);
+                } catch (RestClientException x) {
+                    failures.increment();
+                    logger.warn("Unable to refresh metadata for " + uri + ", using the last good copy", x);
+                    entry.retryAfter = timeService.getCurrentTimeMillis() + failureBackoff.toMillis();
+                }
+            });
+        } catch (RejectedExecutionException x) {
+            logger.debug("Background refresh of " + uri + " rejected", x);
+            inFlight.remove(uri, future);
+            future.complete(entry);
+        }
+    }
+
+    /**
+     * Fetches the URL, or waits for the fetch another thread already started.
+     */
+    private CacheEntry fetch(String uri, URI netUri, RestTemplate template, CacheEntry previous) {
+        CompletableFuture<CacheEntry> future = new CompletableFuture<>();
+        CompletableFuture<CacheEntry> existing = inFlight.putIfAbsent(uri, future);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        return load(uri, netUri, template, previous, future);
     }
 
-    private boolean isEntryExpired(CacheEntry entry) {
-        Instant now = Instant.ofEpochMilli(timeService.getCurrentTimeMillis());
-        return Duration.between(entry.timeEntered, now).compareTo(cacheExpiration) > 0;
+    /**
+     * Requests the URL on behalf of the future registered as in flight for it.
+     */
+    private CacheEntry load(String uri, URI netUri, RestTemplate template, CacheEntry previous, CompletableFuture<CacheEntry> future) {
+        try {
+            CacheEntry entry = request(netUri, template, previous);
+            cache.put(uri, entry);
+            future.complete(entry);
+            return entry;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(uri, future);
+        }
+    }
+
+    private CacheEntry request(URI netUri, RestTemplate template, CacheEntry previous) {
+        HttpHeaders headers = new HttpHeaders();
+        if (previous != null) {
+            if (previous.etag != null) {
+                headers.setIfNoneMatch(previous.etag);
+            }
+            if (previous.lastModified > 0) {
+                headers.setIfModifiedSince(previous.lastModified);
+            }
+        }
+        ResponseEntity<byte[]> response = template.exchange(new RequestEntity<>(headers, HttpMethod.GET, netUri), byte[].class);
+        long now = timeService.getCurrentTimeMillis();
+        if (previous != null && response.getStatusCode() == HttpStatus.NOT_MODIFIED) {
+            notModified.increment();
+            return new CacheEntry(now, previous.data, previous.etag, previous.lastModified);
+        }
+        return new CacheEntry(now, response.getBody(), response.getHeaders().getETag(), response.getHeaders().getLastModified());
+    }
+
+    private Executor getRefreshExecutor() {
+        if (refreshExecutor == null) {
+            synchronized (this) {
+                if (refreshExecutor == null) {
+                    ownRefreshExecutor = Executors.newFixedThreadPool(2, runnable -> {
+                        Thread thread = new Thread(runnable, "uaa-url-cache-refresh");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    refreshExecutor = ownRefreshExecutor;
+                }
+            }
+        }
+        return refreshExecutor;
+    }
+
+    /**
+     * Stops the refresh threads this cache started once the queued refreshes
+     * are done. Refreshes requested afterwards are skipped and the cached
+     * content keeps being served.
+     */
+    public synchronized void shutdown() {
+        if (ownRefreshExecutor != null) {
+            ownRefreshExecutor.shutdown();
+        } else if (refreshExecutor == null) {
+            refreshExecutor = runnable -> {
+                throw new RejectedExecutionException("URL cache is shut down");
+            };
+        }
     }
 
     @Override
@@ -84,13 +261,58 @@ public class ExpiringUrlCache implements UrlContentCache {
         return cache.size();
     }
 
+    @Override
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of lookups answered with expired content while it was refreshed
+     */
+    public long getStaleHitCount() {
+        return staleHits.sum();
+    }
+
+    /**
+     * @return the number of refreshes answered with 304 Not Modified
+     */
+    public long getNotModifiedCount() {
+        return notModified.sum();
+    }
+
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    public void setRefreshAhead(Duration refreshAhead) {
+        this.refreshAhead = refreshAhead;
+    }
+
+    public void setFailureBackoff(Duration failureBackoff) {
+        this.failureBackoff = failureBackoff;
+    }
+
+    public void setRefreshExecutor(Executor refreshExecutor) {
+        this.refreshExecutor = refreshExecutor;
+    }
+
     static class CacheEntry {
-        final Instant timeEntered;
+        final long timeEntered;
         final byte[] data;
+        final String etag;
+        final long lastModified;
+        volatile long retryAfter;
 
-        CacheEntry(Instant timeEntered, byte[] data) {
+        CacheEntry(long timeEntered, byte[] data, String etag, long lastModified) {
             this.timeEntered = timeEntered;
             this.data = data;
+            this.etag = etag;
+            this.lastModified = lastModified;
         }
     }
 }
@@ -0,0 +1,59 @@
+package org.cloudfoundry.identity.uaa.db.postgresql;
+
+import org.flywaydb.core.api.migration.spring.SpringJdbcMigration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Creates sec_audit_daily, partitioned by day when the server supports
+ * declarative partitioning with primary keys (PostgreSQL 11 and later) and as
+ * a plain table otherwise. The partitions of the coming week are created
+ * right away so that the default partition stays empty as long as
+ * AuditPartitionManager keeps up.
+ */
+public class V4_22_1__AddSecAuditDaily implements SpringJdbcMigration {
+
+    private static final int DAYS_AHEAD = 7;
+
+    private static final Logger logger = LoggerFactory.getLogger(V4_22_1__AddSecAuditDaily.class);
+
+    private static final String CREATE_TABLE_SQL = "CREATE TABLE sec_audit_daily (" +
+        "id serial, " +
+        "principal_id varchar(255) not null, " +
+        "event_type INTEGER not null, " +
+        "origin VARCHAR(255) not null, " +
+        "event_data VARCHAR(255), " +
+        "created TIMESTAMP default current_timestamp not null, " +
+        "identity_zone_id varchar(36) DEFAULT 'uaa', " +
+        "PRIMARY KEY (id, created))";
+
+    @Override
+    public void migrate(JdbcTemplate jdbcTemplate) throws Exception {
+        int majorVersion = jdbcTemplate.execute((ConnectionCallback<Integer>) connection -> connection.getMetaData().getDatabaseMajorVersion());
+        boolean partitioned = majorVersion >= 11;
+        if (partitioned) {
+            jdbcTemplate.execute(CREATE_TABLE_SQL + " PARTITION BY RANGE (created)");
+            // only catches rows when AuditPartitionManager falls behind, it drains them when it creates the partition
+            jdbcTemplate.execute("CREATE TABLE sec_audit_daily_default PARTITION OF sec_audit_daily DEFAULT");
+            LocalDate today = LocalDate.now(ZoneOffset.UTC);
+            for (int i = 0; i <= DAYS_AHEAD; i++) {
+                LocalDate day = today.plusDays(i);
+                jdbcTemplate.execute(String.format("CREATE TABLE sec_audit_daily_p%s PARTITION OF sec_audit_daily FOR VALUES FROM ('%s') TO ('%s')",
+                    day.format(DateTimeFormatter.BASIC_ISO_DATE), day, day.plusDays(1)));
+            }
+        } else {
+            logger.info("PostgreSQL " + majorVersion + " does not support partitioned primary keys, creating sec_audit_daily without partitions");
+            jdbcTemplate.execute(CREATE_TABLE_SQL);
+        }
+        jdbcTemplate.execute("CREATE INDEX sec_audit_daily_principal_idx ON sec_audit_daily (principal_id, identity_zone_id, created)");
+        if (!partitioned) {
+            jdbcTemplate.execute("CREATE INDEX sec_audit_daily_created_idx ON sec_audit_daily (created)");
+        }
+    }
+}
@@ -17,6 +17,8 @@ package org.cloudfoundry.identity.uaa.metrics;
 
 class MetricsAccessor  {
     private static ThreadLocal<RequestMetric> current = ThreadLocal.withInitial(() -> null);
+    private static ThreadLocal<Trace> currentTrace = new ThreadLocal<>();
+    private static ThreadLocal<Boolean> queryLimitEnforced = ThreadLocal.withInitial(() -> Boolean.FALSE);
 
     protected static RequestMetric getCurrent() {
         return current.get();
@@ -27,6 +29,28 @@ class MetricsAccessor  {
     }
 
     protected static void clear() {
-        current.remove();
+        //keeps the thread local entry, so the next request does not allocate a new one
+        current.set(null);
+        queryLimitEnforced.set(Boolean.FALSE);
+    }
+
+    protected static boolean isQueryLimitEnforced() {
+        return queryLimitEnforced.get();
+    }
+
+    protected static void setQueryLimitEnforced(boolean enforced) {
+        queryLimitEnforced.set(enforced);
+    }
+
+    protected static Trace getCurrentTrace() {
+        return currentTrace.get();
+    }
+
+    protected static void setCurrentTrace(Trace trace) {
+        currentTrace.set(trace);
+    }
+
+    protected static void clearTrace() {
+        currentTrace.set(null);
     }
 }
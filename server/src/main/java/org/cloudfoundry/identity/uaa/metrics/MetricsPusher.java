@@ -0,0 +1,205 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.metrics;
+
+import org.cloudfoundry.identity.uaa.audit.LoggingAuditService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes one snapshot of the request, database, audit and JVM metrics to a
+ * {@link MetricsSink} per interval. The values are read directly from the
+ * {@link UaaMetricsFilter} and the audit service, and counters and latency
+ * histograms are reduced to the change since the previous interval. The
+ * metric names match the ones emitted by the statsd application, which is
+ * not needed when the server pushes its metrics itself.
+ */
+public class MetricsPusher {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricsPusher.class);
+
+    private final UaaMetricsFilter metricsFilter;
+    private final MetricsSink sink;
+    private LoggingAuditService auditService;
+    private boolean enabled = true;
+    private long intervalMillis = 5000;
+    private ScheduledExecutorService executor;
+
+    private final Map<String, Long> previousCounts = new HashMap<>();
+    private final Map<String, LatencyHistogram> previousHistograms = new HashMap<>();
+
+    public MetricsPusher(UaaMetricsFilter metricsFilter, MetricsSink sink) {
+        this.metricsFilter = metricsFilter;
+        this.sink = sink;
+    }
+
+    public synchronized void start() {
+        if (!enabled || executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "uaa-metrics-pusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleAtFixedRate(this::pushQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private void pushQuietly() {
+        try {
+            push();
+        } catch (Exception e) {
+            logger.warn("Unable to push metrics", e);
+        }
+    }
+
+    public synchronized void push() {
+        pushServerStats();
+        for (Map.Entry<String, MetricsQueue> entry : metricsFilter.getMetricsQueues().entrySet()) {
+            String group = entry.getKey().startsWith("/") ? entry.getKey().substring(1) : entry.getKey();
+            pushUrlGroup(group, entry.getValue());
+        }
+        MetricsQueue globals = metricsFilter.getMetricsQueues().get(MetricsUtil.GLOBAL_GROUP);
+        if (globals != null) {
+            pushGlobals(globals);
+        }
+        if (auditService != null) {
+            pushAuditCounts(auditService);
+        }
+        pushVitals();
+        sink.flush();
+    }
+
+    private void pushServerStats() {
+        sink.gauge("server.inflight.count", metricsFilter.getInflightCount());
+        sink.gauge("server.up.time", metricsFilter.getUpTime());
+        sink.gauge("server.idle.time", metricsFilter.getIdleTime());
+    }
+
+    private void pushUrlGroup(String group, MetricsQueue queue) {
+        RequestMetricSummary totals = queue.getTotals();
+        sink.gauge("requests." + group + ".completed.count", totals.getCount());
+        sink.gauge("requests." + group + ".completed.time", (long) totals.getAverageTime());
+        for (Map.Entry<StatusCodeGroup, LatencyHistogram> entry : queue.getLatency().entrySet()) {
+            pushPercentiles("requests." + group + ".status_" + entry.getKey().getName() + ".latency", entry.getValue());
+        }
+        pushPercentiles("database." + group + ".latency", queue.getDatabaseLatency());
+    }
+
+    private void pushGlobals(MetricsQueue globals) {
+        RequestMetricSummary totals = globals.getTotals();
+        String prefix = "requests.global.";
+        sink.gauge(prefix + "completed.time", (long) totals.getAverageTime());
+        count(prefix + "completed.count", totals.getCount());
+        count(prefix + "unhealthy.count", totals.getIntolerableCount());
+        sink.gauge(prefix + "unhealthy.time", (long) totals.getAverageIntolerableTime());
+        for (StatusCodeGroup family : StatusCodeGroup.values()) {
+            RequestMetricSummary summary = globals.getDetailed().get(family);
+            count(prefix + "status_" + family.getName() + ".count", summary == null ? 0 : summary.getCount());
+        }
+        prefix = "database.global.";
+        sink.gauge(prefix + "completed.time", (long) totals.getAverageDatabaseQueryTime());
+        count(prefix + "completed.count", totals.getDatabaseQueryCount());
+        count(prefix + "unhealthy.count", totals.getDatabaseIntolerableQueryCount());
+        sink.gauge(prefix + "unhealthy.time", (long) totals.getAverageDatabaseIntolerableQueryTime());
+    }
+
+    private void pushAuditCounts(LoggingAuditService audit) {
+        String prefix = "audit_service.";
+        sink.gauge(prefix + "user_authentication_count", audit.getUserAuthenticationCount());
+        sink.gauge(prefix + "user_authentication_failure_count", audit.getUserAuthenticationFailureCount());
+        sink.gauge(prefix + "client_authentication_count", audit.getClientAuthenticationCount());
+        sink.gauge(prefix + "client_authentication_failure_count", audit.getClientAuthenticationFailureCount());
+        sink.gauge(prefix + "principal_authentication_failure_count", audit.getPrincipalAuthenticationFailureCount());
+        sink.gauge(prefix + "user_not_found_count", audit.getUserNotFoundCount());
+        sink.gauge(prefix + "principal_not_found_count", audit.getPrincipalNotFoundCount());
+        sink.gauge(prefix + "user_password_changes", audit.getUserPasswordChanges());
+        sink.gauge(prefix + "user_password_failures", audit.getUserPasswordFailures());
+    }
+
+    private void pushVitals() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        sink.gauge("vitals.vm.cpu.count", os.getAvailableProcessors());
+        sink.gauge("vitals.vm.cpu.load", (long) (os.getSystemLoadAverage() * 100));
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            com.sun.management.OperatingSystemMXBean sunOs = (com.sun.management.OperatingSystemMXBean) os;
+            gaugeIfPresent("vitals.vm.memory.total", sunOs.getTotalPhysicalMemorySize());
+            gaugeIfPresent("vitals.vm.memory.committed", sunOs.getCommittedVirtualMemorySize());
+            gaugeIfPresent("vitals.vm.memory.free", sunOs.getFreePhysicalMemorySize());
+            double processCpuLoad = sunOs.getProcessCpuLoad();
+            if (processCpuLoad >= 0) {
+                sink.gauge("vitals.jvm.cpu.load", (long) (processCpuLoad * 100));
+            }
+        }
+        sink.gauge("vitals.jvm.thread.count", ManagementFactory.getThreadMXBean().getThreadCount());
+        pushMemory("vitals.jvm.heap.", ManagementFactory.getMemoryMXBean().getHeapMemoryUsage());
+        pushMemory("vitals.jvm.non-heap.", ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage());
+    }
+
+    private void pushMemory(String prefix, MemoryUsage usage) {
+        sink.gauge(prefix + "init", usage.getInit());
+        sink.gauge(prefix + "committed", usage.getCommitted());
+        sink.gauge(prefix + "used", usage.getUsed());
+        sink.gauge(prefix + "max", usage.getMax());
+    }
+
+    private void gaugeIfPresent(String name, long value) {
+        if (value >= 0) {
+            sink.gauge(name, value);
+        }
+    }
+
+    private void count(String name, long total) {
+        Long previous = previousCounts.put(name, total);
+        sink.count(name, previous == null ? total : total - previous);
+    }
+
+    private void pushPercentiles(String name, LatencyHistogram cumulative) {
+        LatencyHistogram snapshot = cumulative.copy();
+        LatencyHistogram interval = snapshot.minus(previousHistograms.put(name, snapshot));
+        if (interval.getCount() <= 0) {
+            return;
+        }
+        for (double percentile : LatencyHistogram.PERCENTILES) {
+            sink.time(name + "." + LatencyHistogram.percentileName(percentile), interval.getValueAtPercentile(percentile));
+        }
+    }
+
+    public void setAuditService(LoggingAuditService auditService) {
+        this.auditService = auditService;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setIntervalMillis(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+}
@@ -0,0 +1,32 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.metrics;
+
+/**
+ * Receives the metrics pushed by the {@link MetricsPusher}. All values of one
+ * interval are written before {@link #flush()} is called, so a sink can send
+ * them in as few packets or requests as possible.
+ */
+public interface MetricsSink {
+
+    void gauge(String name, long value);
+
+    /**
+     * @param delta the change of the counter since the previous interval
+     */
+    void count(String name, long delta);
+
+    void time(String name, long millis);
+
+    void flush();
+}
@@ -0,0 +1,209 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.metrics;
+
+import org.cloudfoundry.identity.uaa.audit.LoggingAuditService;
+import org.cloudfoundry.identity.uaa.authentication.manager.CommonLoginPolicy;
+import org.cloudfoundry.identity.uaa.cache.CacheStatistics;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Serves the request, database, connection pool, cache, token and lockout
+ * metrics of this server at {@code /metrics} in the OpenMetrics text format,
+ * so they can be scraped directly instead of being polled over JMX. Responds
+ * with a 404 unless enabled. Scrapers need a bearer token with the
+ * {@code uaa.admin} scope.
+ */
+@Controller
+public class OpenMetricsEndpoint {
+
+    private final UaaMetricsFilter metricsFilter;
+    private boolean enabled = false;
+    private DataSource dataSource;
+    private Map<String, CacheStatistics> caches = Collections.emptyMap();
+    private TokenMetrics tokenMetrics;
+    private Map<String, CommonLoginPolicy> loginPolicies = Collections.emptyMap();
+    private LoggingAuditService auditService;
+
+    public OpenMetricsEndpoint(UaaMetricsFilter metricsFilter) {
+        this.metricsFilter = metricsFilter;
+    }
+
+    @RequestMapping(value = "/metrics", method = RequestMethod.GET)
+    public void getMetrics(@RequestHeader(value = "Accept", required = false) String accept,
+                           HttpServletResponse response) throws IOException {
+        if (!enabled) {
+            response.sendError(HttpStatus.NOT_FOUND.value());
+            return;
+        }
+        OpenMetricsWriter writer = new OpenMetricsWriter(accept != null && accept.contains("application/openmetrics-text"));
+        String body = write(writer);
+        response.setContentType(writer.getContentType());
+        response.getWriter().write(body);
+    }
+
+    protected String write(OpenMetricsWriter writer) {
+        writeRequests(writer);
+        writeDataSource(writer);
+        writeCaches(writer);
+        writeTokens(writer);
+        writeAuthentications(writer);
+        return writer.finish();
+    }
+
+    private void writeRequests(OpenMetricsWriter writer) {
+        Map<String, MetricsQueue> queues = metricsFilter.getMetricsQueues();
+
+        writer.histogram("uaa_http_server_requests_seconds", "Request latency per url group and status code family");
+        for (Map.Entry<String, MetricsQueue> queue : queues.entrySet()) {
+            if (MetricsUtil.GLOBAL_GROUP.equals(queue.getKey())) {
+                continue;
+            }
+            for (Map.Entry<StatusCodeGroup, LatencyHistogram> latency : queue.getValue().getLatency().entrySet()) {
+                writer.histogramSamples("uaa_http_server_requests_seconds", latency.getValue(),
+                                        "group", queue.getKey(), "status", latency.getKey().getName());
+            }
+        }
+
+        writer.counter("uaa_http_server_requests_intolerable", "Requests slower than the limit of their url group");
+        for (Map.Entry<String, MetricsQueue> queue : queues.entrySet()) {
+            if (MetricsUtil.GLOBAL_GROUP.equals(queue.getKey())) {
+                continue;
+            }
+            for (Map.Entry<StatusCodeGroup, RequestMetricSummary> summary : queue.getValue().getDetailed().entrySet()) {
+                writer.counterSample("uaa_http_server_requests_intolerable", summary.getValue().getIntolerableCount(),
+                                     "group", queue.getKey(), "status", summary.getKey().getName());
+            }
+        }
+
+        writer.histogram("uaa_database_queries_seconds", "Database query latency per url group of the request that made the query");
+        for (Map.Entry<String, MetricsQueue> queue : queues.entrySet()) {
+            if (!MetricsUtil.GLOBAL_GROUP.equals(queue.getKey())) {
+                writer.histogramSamples("uaa_database_queries_seconds", queue.getValue().getDatabaseLatency(), "group", queue.getKey());
+            }
+        }
+
+        writer.counter("uaa_database_queries_intolerable", "Database queries slower than the slow query threshold");
+        for (Map.Entry<String, MetricsQueue> queue : queues.entrySet()) {
+            if (MetricsUtil.GLOBAL_GROUP.equals(queue.getKey())) {
+                continue;
+            }
+            long intolerable = 0;
+            for (RequestMetricSummary summary : queue.getValue().getDetailed().values()) {
+                intolerable += summary.getDatabaseIntolerableQueryCount();
+            }
+            writer.counterSample("uaa_database_queries_intolerable", intolerable, "group", queue.getKey());
+        }
+
+        writer.gauge("uaa_http_server_inflight_requests", "Requests currently being processed")
+              .sample("uaa_http_server_inflight_requests", metricsFilter.getInflightCount());
+        writer.gauge("uaa_http_server_idle_seconds", "Time since startup without any request in flight")
+              .sample("uaa_http_server_idle_seconds", metricsFilter.getIdleTime() / 1000.0);
+        writer.gauge("uaa_uptime_seconds", "Time since startup")
+              .sample("uaa_uptime_seconds", metricsFilter.getUpTime() / 1000.0);
+    }
+
+    private void writeDataSource(OpenMetricsWriter writer) {
+        if (!(dataSource instanceof org.apache.tomcat.jdbc.pool.DataSource)) {
+            return;
+        }
+        org.apache.tomcat.jdbc.pool.DataSource pool = (org.apache.tomcat.jdbc.pool.DataSource) dataSource;
+        writer.gauge("uaa_database_pool_connections", "Open connections in the pool by state")
+              .sample("uaa_database_pool_connections", pool.getActive(), "state", "active")
+              .sample("uaa_database_pool_connections", pool.getIdle(), "state", "idle");
+        writer.gauge("uaa_database_pool_max_connections", "Maximum number of open connections")
+              .sample("uaa_database_pool_max_connections", pool.getMaxActive());
+        writer.gauge("uaa_database_pool_waiting_threads", "Threads waiting for a connection")
+              .sample("uaa_database_pool_waiting_threads", pool.getWaitCount());
+        writer.counter("uaa_database_pool_borrowed", "Connections borrowed from the pool")
+              .counterSample("uaa_database_pool_borrowed", pool.getBorrowedCount());
+        writer.counter("uaa_database_pool_created", "Connections opened by the pool")
+              .counterSample("uaa_database_pool_created", pool.getCreatedCount());
+    }
+
+    private void writeCaches(OpenMetricsWriter writer) {
+        if (caches.isEmpty()) {
+            return;
+        }
+        writer.counter("uaa_cache_hits", "Cache lookups answered from the cache");
+        caches.forEach((name, cache) -> writer.counterSample("uaa_cache_hits", cache.getHitCount(), "cache", name));
+        writer.counter("uaa_cache_misses", "Cache lookups that loaded the value");
+        caches.forEach((name, cache) -> writer.counterSample("uaa_cache_misses", cache.getMissCount(), "cache", name));
+        writer.gauge("uaa_cache_entries", "Entries in the cache");
+        caches.forEach((name, cache) -> writer.sample("uaa_cache_entries", cache.size(), "cache", name));
+    }
+
+    private void writeTokens(OpenMetricsWriter writer) {
+        if (tokenMetrics == null) {
+            return;
+        }
+        writer.counter("uaa_tokens_issued", "Tokens issued per grant type");
+        tokenMetrics.getIssued().forEach((grantType, count) -> writer.counterSample("uaa_tokens_issued", count, "grant_type", grantType));
+        writer.counter("uaa_tokens_validated", "Tokens validated successfully per grant type");
+        tokenMetrics.getValidated().forEach((grantType, count) -> writer.counterSample("uaa_tokens_validated", count, "grant_type", grantType));
+        writer.counter("uaa_token_validation_failures", "Tokens that failed validation")
+              .counterSample("uaa_token_validation_failures", tokenMetrics.getValidationFailures());
+    }
+
+    private void writeAuthentications(OpenMetricsWriter writer) {
+        if (!loginPolicies.isEmpty()) {
+            writer.counter("uaa_lockouts", "Authentication attempts refused because the principal is locked out");
+            loginPolicies.forEach((name, policy) -> writer.counterSample("uaa_lockouts", policy.getLockedOutCount(), "policy", name));
+        }
+        if (auditService != null) {
+            writer.counter("uaa_authentications", "Authentication attempts by principal type and result")
+                  .counterSample("uaa_authentications", auditService.getUserAuthenticationCount(), "principal", "user", "result", "success")
+                  .counterSample("uaa_authentications", auditService.getUserAuthenticationFailureCount(), "principal", "user", "result", "failure")
+                  .counterSample("uaa_authentications", auditService.getClientAuthenticationCount(), "principal", "client", "result", "success")
+                  .counterSample("uaa_authentications", auditService.getClientAuthenticationFailureCount(), "principal", "client", "result", "failure");
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public void setCaches(Map<String, CacheStatistics> caches) {
+        this.caches = caches == null ? Collections.emptyMap() : caches;
+    }
+
+    public void setTokenMetrics(TokenMetrics tokenMetrics) {
+        this.tokenMetrics = tokenMetrics;
+    }
+
+    public void setLoginPolicies(Map<String, CommonLoginPolicy> loginPolicies) {
+        this.loginPolicies = loginPolicies == null ? Collections.emptyMap() : loginPolicies;
+    }
+
+    public void setAuditService(LoggingAuditService auditService) {
+        this.auditService = auditService;
+    }
+}
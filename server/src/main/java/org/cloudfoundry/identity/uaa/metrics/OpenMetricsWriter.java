@@ -0,0 +1,139 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.metrics;
+
+/**
+ * Writes metric families in the OpenMetrics text format, or in the
+ * Prometheus text format 0.0.4 for scrapers that do not ask for OpenMetrics.
+ * The two formats differ in how counter families are named and in the
+ * {@code # EOF} marker that ends an OpenMetrics exposition.
+ */
+public class OpenMetricsWriter {
+
+    public static final String OPENMETRICS_CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+    public static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /** upper bounds of the latency histogram buckets, in milliseconds */
+    static final long[] BUCKET_MILLIS = {5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    private final StringBuilder out = new StringBuilder(4096);
+    private final boolean openMetrics;
+
+    public OpenMetricsWriter(boolean openMetrics) {
+        this.openMetrics = openMetrics;
+    }
+
+    public String getContentType() {
+        return openMetrics ? OPENMETRICS_CONTENT_TYPE : PROMETHEUS_CONTENT_TYPE;
+    }
+
+    public OpenMetricsWriter gauge(String name, String help) {
+        return family(name, "gauge", help);
+    }
+
+    /**
+     * Starts a counter family; its samples are written as {@code <name>_total}.
+     */
+    public OpenMetricsWriter counter(String name, String help) {
+        return family(openMetrics ? name : name + "_total", "counter", help);
+    }
+
+    public OpenMetricsWriter histogram(String name, String help) {
+        return family(name, "histogram", help);
+    }
+
+    /**
+     * @param labels label names and values, alternating
+     */
+    public OpenMetricsWriter sample(String name, long value, String... labels) {
+        name(name, labels);
+        out.append(' ').append(value).append('\n');
+        return this;
+    }
+
+    public OpenMetricsWriter sample(String name, double value, String... labels) {
+        name(name, labels);
+        out.append(' ').append(value).append('\n');
+        return this;
+    }
+
+    public OpenMetricsWriter counterSample(String name, long value, String... labels) {
+        return sample(name + "_total", value, labels);
+    }
+
+    /**
+     * Writes the cumulative buckets, count and sum of a millisecond latency
+     * histogram, converted to seconds.
+     */
+    public OpenMetricsWriter histogramSamples(String name, LatencyHistogram histogram, String... labels) {
+        String[] bucketLabels = new String[labels.length + 2];
+        System.arraycopy(labels, 0, bucketLabels, 0, labels.length);
+        bucketLabels[labels.length] = "le";
+        for (long bound : BUCKET_MILLIS) {
+            bucketLabels[labels.length + 1] = Double.toString(bound / 1000.0);
+            sample(name + "_bucket", histogram.getCountAtOrBelow(bound), bucketLabels);
+        }
+        long count = histogram.getCount();
+        bucketLabels[labels.length + 1] = "+Inf";
+        sample(name + "_bucket", count, bucketLabels);
+        sample(name + "_count", count, labels);
+        sample(name + "_sum", histogram.getSum() / 1000.0, labels);
+        return this;
+    }
+
+    public String finish() {
+        if (openMetrics) {
+            out.append("# EOF\n");
+        }
+        return out.toString();
+    }
+
+    private OpenMetricsWriter family(String name, String type, String help) {
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        out.append("# HELP ").append(name).append(' ');
+        escape(help, false);
+        out.append('\n');
+        return this;
+    }
+
+    private void name(String name, String[] labels) {
+        out.append(name);
+        if (labels.length > 0) {
+            out.append('{');
+            for (int i = 0; i + 1 < labels.length; i += 2) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                out.append(labels[i]).append("=\"");
+                escape(labels[i + 1], true);
+                out.append('"');
+            }
+            out.append('}');
+        }
+    }
+
+    private void escape(String value, boolean quote) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\') {
+                out.append("\\\\");
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else if (c == '"' && quote) {
+                out.append("\\\"");
+            } else {
+                out.append(c);
+            }
+        }
+    }
+}
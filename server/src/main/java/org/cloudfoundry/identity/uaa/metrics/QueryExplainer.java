@@ -0,0 +1,112 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Samples the execution plan of slow queries on PostgreSQL and MySQL. Plans
+ * are requested with a plain {@code EXPLAIN}, so the statement is never
+ * executed again, on a single background thread, and at most once per
+ * fingerprint and {@link #setIntervalMillis(long) interval}. String literals
+ * in the plan are replaced by {@code '?'} before it is kept.
+ */
+public class QueryExplainer {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryExplainer.class);
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean supported;
+    private volatile boolean enabled = false;
+    private long intervalMillis = TimeUnit.MINUTES.toMillis(10);
+    private final ThreadPoolExecutor executor;
+
+    public QueryExplainer(JdbcTemplate jdbcTemplate, String platform) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.supported = "postgresql".equals(platform) || "mysql".equals(platform);
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(16), r -> {
+            Thread thread = new Thread(r, "uaa-query-explainer");
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    public void explain(QueryStatistics statistics, String sql, Object[] parameters) {
+        if (!isEnabled() || !isExplainable(sql)) {
+            return;
+        }
+        if (!statistics.claimExplain(System.currentTimeMillis(), intervalMillis)) {
+            return;
+        }
+        Object[] arguments = parameters == null ? new Object[0] : parameters.clone();
+        executor.execute(() -> {
+            try {
+                statistics.setExplain(explain(sql, arguments));
+            } catch (Exception e) {
+                logger.debug("Unable to explain query: " + statistics.getFingerprint(), e);
+            }
+        });
+    }
+
+    protected String explain(String sql, Object[] arguments) {
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList("EXPLAIN " + sql, arguments);
+        StringBuilder plan = new StringBuilder();
+        for (Map<String, Object> row : rows) {
+            if (plan.length() > 0) {
+                plan.append('\n');
+            }
+            if (row.size() == 1) {
+                plan.append(row.values().iterator().next());
+            } else {
+                plan.append(row);
+            }
+        }
+        return STRING_LITERAL.matcher(plan).replaceAll("'?'");
+    }
+
+    protected boolean isExplainable(String sql) {
+        String statement = sql.trim().toLowerCase(Locale.ENGLISH);
+        return statement.startsWith("select") ||
+            statement.startsWith("update") ||
+            statement.startsWith("delete") ||
+            statement.startsWith("insert");
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return enabled && supported;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setIntervalMillis(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+}
@@ -20,6 +20,13 @@ import org.apache.tomcat.jdbc.pool.interceptor.SlowQueryReport;
 import org.cloudfoundry.identity.uaa.util.TimeService;
 import org.cloudfoundry.identity.uaa.util.TimeServiceImpl;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
 import java.util.Map;
 
 public class QueryFilter extends SlowQueryReport {
@@ -27,10 +34,64 @@ public class QueryFilter extends SlowQueryReport {
     private TimeService timeService = new TimeServiceImpl();
 
     protected void report(String query, long start, long delta) {
+        report(query, start, delta, false);
+    }
+
+    protected void report(String query, long start, long delta, boolean failed) {
+        boolean slow = delta>getThreshold();
+        QueryStatistics statistics = QueryFingerprints.getInstance().record(query, delta, failed, slow);
         RequestMetric metric = MetricsAccessor.getCurrent();
         if (metric!=null) {
-            metric.addQuery(new QueryMetric(query, start, delta, delta>getThreshold()));
+            metric.addQuery(start, delta, slow, statistics == null ? query : statistics.getFingerprint());
+        }
+    }
+
+    /**
+     * Wraps the statement so that update counts, and the bind parameters when
+     * execution plans are sampled, are passed on to the {@link QueryFingerprints}.
+     * Statements are returned as they are unless one of these is switched on,
+     * fingerprints themselves are recorded in {@link #report}.
+     */
+    @Override
+    public Object createStatement(Object proxy, Method method, Object[] args, Object statement, long time) {
+        RequestMetric metric = MetricsAccessor.getCurrent();
+        if (metric != null && MetricsAccessor.isQueryLimitEnforced()) {
+            enforceQueryLimit(metric, method, args, statement);
+        }
+        Object result = super.createStatement(proxy, method, args, statement, time);
+        QueryFingerprints fingerprints = QueryFingerprints.getInstance();
+        if (result == null || !fingerprints.isWrappingStatements()) {
+            return result;
+        }
+        return Proxy.newProxyInstance(
+            QueryFilter.class.getClassLoader(),
+            result.getClass().getInterfaces(),
+            new StatementResultHandler(result, fingerprints, fingerprints.isCapturingParameters())
+        );
+    }
+
+    /**
+     * Rejects a statement before it runs when the current request already made
+     * as many database queries as its url group allows. The rejected statement
+     * is added to the request, so the request is counted as exceeding the limit.
+     */
+    protected void enforceQueryLimit(RequestMetric metric, Method method, Object[] args, Object statement) {
+        UrlGroup group = metric.getUriGroup();
+        if (group == null || group.getQueryLimit() <= 0 || metric.getNrOfDatabaseQueries() < group.getQueryLimit()) {
+            return;
+        }
+        String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : method.getName();
+        metric.addQuery(timeService.getCurrentTimeMillis(), 0, false, sql);
+        if (statement instanceof Statement) {
+            try {
+                ((Statement) statement).close();
+            } catch (SQLException ignored) {
+            }
         }
+        throw new IllegalStateException(String.format(
+            "Request %s exceeded the limit of %d database queries for url group %s with: %s",
+            metric.getUri(), group.getQueryLimit(), group.getGroup(), sql
+        ));
     }
 
     @Override
@@ -45,7 +106,7 @@ public class QueryFilter extends SlowQueryReport {
                                        String name, long start, Throwable t) {
         String sql = super.reportFailedQuery(query, args, name, start, t);
         long delta = timeService.getCurrentTimeMillis() - start;
-        report(sql, start, delta);
+        report(sql, start, delta, true);
         return sql;
     }
 
@@ -66,4 +127,79 @@ public class QueryFilter extends SlowQueryReport {
     public void setTimeService(TimeService timeService) {
         this.timeService = timeService;
     }
+
+    protected static class StatementResultHandler implements InvocationHandler {
+        private final Object delegate;
+        private final QueryFingerprints fingerprints;
+        private Object[] parameters;
+
+        protected StatementResultHandler(Object delegate, QueryFingerprints fingerprints, boolean captureParameters) {
+            this.delegate = delegate;
+            this.fingerprints = fingerprints;
+            this.parameters = captureParameters ? new Object[0] : null;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (parameters != null) {
+                captureParameter(name, args);
+            }
+            boolean execute = name.startsWith("execute");
+            if (execute && parameters != null) {
+                fingerprints.setCurrentParameters(parameters);
+            }
+            try {
+                Object result = method.invoke(delegate, args);
+                if (execute) {
+                    addRowsAffected(name, result);
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            } finally {
+                if (execute) {
+                    fingerprints.clearLastRecorded();
+                    if (parameters != null) {
+                        fingerprints.setCurrentParameters(null);
+                    }
+                }
+            }
+        }
+
+        private void addRowsAffected(String name, Object result) {
+            if (result instanceof Integer && "executeUpdate".equals(name)) {
+                fingerprints.addRowsAffected((Integer) result);
+            } else if (result instanceof Long && "executeLargeUpdate".equals(name)) {
+                fingerprints.addRowsAffected((Long) result);
+            } else if (result instanceof int[]) {
+                long rows = 0;
+                for (int count : (int[]) result) {
+                    rows += Math.max(0, count);
+                }
+                fingerprints.addRowsAffected(rows);
+            } else if (result instanceof long[]) {
+                long rows = 0;
+                for (long count : (long[]) result) {
+                    rows += Math.max(0, count);
+                }
+                fingerprints.addRowsAffected(rows);
+            }
+        }
+
+        private void captureParameter(String name, Object[] args) {
+            if ("clearParameters".equals(name)) {
+                parameters = new Object[0];
+            } else if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                int index = (Integer) args[0];
+                if (index < 1 || index > 1000) {
+                    return;
+                }
+                if (parameters.length < index) {
+                    parameters = Arrays.copyOf(parameters, index);
+                }
+                parameters[index - 1] = "setNull".equals(name) ? null : args[1];
+            }
+        }
+    }
 }
@@ -0,0 +1,346 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.metrics;
+
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Aggregates database timings per query shape. Each SQL statement reported by
+ * the {@link QueryFilter} is reduced to a fingerprint with all literals
+ * replaced by {@code ?}, so that statements that only differ in their values
+ * are counted together. The mapping from raw SQL to its statistics is cached,
+ * so the statement is only normalized the first time it is seen.
+ * <p>
+ * The JDBC interceptors are created by the connection pool, not by Spring, so
+ * there is a single shared instance available through {@link #getInstance()}.
+ */
+@ManagedResource(
+    objectName="cloudfoundry.identity:name=QueryFingerprints",
+    description = "UAA Database Query Statistics"
+)
+public class QueryFingerprints {
+
+    public static final String OTHER_FINGERPRINT = "other";
+
+    private static final QueryFingerprints INSTANCE = new QueryFingerprints();
+
+    private final ConcurrentMap<String, QueryStatistics> bySql = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, QueryStatistics> byFingerprint = new ConcurrentHashMap<>();
+    private final ThreadLocal<QueryStatistics> lastRecorded = new ThreadLocal<>();
+    private final ThreadLocal<Object[]> currentParameters = new ThreadLocal<>();
+    private volatile boolean enabled = true;
+    private volatile boolean countingRows = false;
+    private volatile int maxFingerprints = 1000;
+    private volatile int maxStatements = 5000;
+    private volatile int topCount = 20;
+    private volatile QueryExplainer explainer;
+
+    public static QueryFingerprints getInstance() {
+        return INSTANCE;
+    }
+
+    QueryFingerprints() {
+    }
+
+    /**
+     * Records one execution of the given statement. When statements are
+     * wrapped, the statistics are remembered for the current thread so that
+     * the rows affected by the statement can be added once the driver has
+     * returned them.
+     *
+     * @return the statistics the statement was added to, or null if nothing was recorded
+     */
+    public QueryStatistics record(String sql, long time, boolean failed, boolean slow) {
+        if (!enabled || sql == null) {
+            return null;
+        }
+        QueryStatistics statistics = getStatistics(sql);
+        statistics.record(time, failed);
+        if (isWrappingStatements()) {
+            lastRecorded.set(statistics);
+        }
+        QueryExplainer explainer = this.explainer;
+        if (slow && !failed && explainer != null) {
+            explainer.explain(statistics, sql, currentParameters.get());
+        }
+        return statistics;
+    }
+
+    /**
+     * Adds the update count of the statement last recorded on this thread.
+     */
+    public void addRowsAffected(long rows) {
+        QueryStatistics statistics = lastRecorded.get();
+        if (statistics != null) {
+            lastRecorded.remove();
+            statistics.addRowsAffected(rows);
+        }
+    }
+
+    void clearLastRecorded() {
+        lastRecorded.remove();
+    }
+
+    void setCurrentParameters(Object[] parameters) {
+        if (parameters == null) {
+            currentParameters.remove();
+        } else {
+            currentParameters.set(parameters);
+        }
+    }
+
+    /**
+     * @return true if the bind parameters of prepared statements are needed to sample execution plans
+     */
+    public boolean isCapturingParameters() {
+        QueryExplainer explainer = this.explainer;
+        return enabled && explainer != null && explainer.isEnabled();
+    }
+
+    /**
+     * @return true if the {@link QueryFilter} has to wrap every statement, to
+     * count the rows affected or to capture bind parameters. Fingerprints
+     * alone are recorded without wrapping.
+     */
+    public boolean isWrappingStatements() {
+        return enabled && (countingRows || isCapturingParameters());
+    }
+
+    protected QueryStatistics getStatistics(String sql) {
+        QueryStatistics statistics = bySql.get(sql);
+        if (statistics != null) {
+            return statistics;
+        }
+        String fingerprint = fingerprint(sql);
+        statistics = byFingerprint.get(fingerprint);
+        if (statistics == null) {
+            String key = byFingerprint.size() < maxFingerprints ? fingerprint : OTHER_FINGERPRINT;
+            statistics = byFingerprint.computeIfAbsent(key, QueryStatistics::new);
+        }
+        if (bySql.size() < maxStatements) {
+            bySql.putIfAbsent(sql, statistics);
+        }
+        return statistics;
+    }
+
+    /**
+     * Reduces a SQL statement to its shape: quoted strings and numeric
+     * literals become {@code ?}, runs of whitespace become a single space,
+     * keywords are lower cased and lists of placeholders such as
+     * {@code in (?, ?, ?)} are collapsed to {@code in (?)}.
+     */
+    public static String fingerprint(String sql) {
+        int length = sql.length();
+        StringBuilder result = new StringBuilder(length);
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                i = skipQuoted(sql, i, '\'');
+                append(result, '?');
+            } else if (c == '"' || c == '`') {
+                int end = skipQuoted(sql, i, c);
+                result.append(sql, i, end);
+                i = end;
+            } else if (Character.isWhitespace(c)) {
+                while (i < length && Character.isWhitespace(sql.charAt(i))) {
+                    i++;
+                }
+                if (result.length() > 0) {
+                    result.append(' ');
+                }
+            } else if (isNumberStart(sql, i)) {
+                i++;
+                while (i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+                    i++;
+                }
+                append(result, '?');
+            } else if (Character.isLetter(c) || c == '_') {
+                int start = i;
+                while (i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_' || sql.charAt(i) == '$')) {
+                    i++;
+                }
+                for (int j = start; j < i; j++) {
+                    result.append(Character.toLowerCase(sql.charAt(j)));
+                }
+            } else {
+                append(result, c);
+                i++;
+            }
+        }
+        int end = result.length();
+        while (end > 0 && result.charAt(end - 1) == ' ') {
+            end--;
+        }
+        result.setLength(end);
+        return result.toString();
+    }
+
+    /**
+     * Appends a character, collapsing {@code ?, ?} into a single {@code ?}.
+     */
+    private static void append(StringBuilder result, char c) {
+        if (c == '?') {
+            int end = result.length();
+            while (end > 0 && result.charAt(end - 1) == ' ') {
+                end--;
+            }
+            if (end > 1 && result.charAt(end - 1) == ',' && lastNonSpace(result, end - 1) == '?') {
+                int previous = end - 1;
+                while (result.charAt(previous - 1) == ' ') {
+                    previous--;
+                }
+                result.setLength(previous);
+                return;
+            }
+        }
+        result.append(c);
+    }
+
+    private static char lastNonSpace(StringBuilder result, int end) {
+        while (end > 0 && result.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return end == 0 ? 0 : result.charAt(end - 1);
+    }
+
+    private static int skipQuoted(String sql, int start, char quote) {
+        int i = start + 1;
+        while (i < sql.length()) {
+            char c = sql.charAt(i);
+            if (c == '\\' && quote == '\'') {
+                i += 2;
+            } else if (c == quote) {
+                if (i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+                    i += 2;
+                } else {
+                    return i + 1;
+                }
+            } else {
+                i++;
+            }
+        }
+        return sql.length();
+    }
+
+    private static boolean isNumberStart(String sql, int i) {
+        char c = sql.charAt(i);
+        boolean digit = Character.isDigit(c) || (c == '-' && i + 1 < sql.length() && Character.isDigit(sql.charAt(i + 1)) && !endsOperand(sql, i));
+        if (!digit) {
+            return false;
+        }
+        if (i == 0) {
+            return true;
+        }
+        char previous = sql.charAt(i - 1);
+        return !(Character.isLetterOrDigit(previous) || previous == '_' || previous == '$' || previous == '.');
+    }
+
+    /**
+     * @return true if the minus sign at the given position is a binary operator, such as in {@code a-1}
+     */
+    private static boolean endsOperand(String sql, int i) {
+        int j = i - 1;
+        while (j >= 0 && Character.isWhitespace(sql.charAt(j))) {
+            j--;
+        }
+        if (j < 0) {
+            return false;
+        }
+        char previous = sql.charAt(j);
+        return Character.isLetterOrDigit(previous) || previous == '_' || previous == ')' || previous == '?';
+    }
+
+    /**
+     * @return the statistics of the {@code count} fingerprints with the highest total time
+     */
+    public List<QueryStatistics> getTopQueries(int count) {
+        List<QueryStatistics> result = new ArrayList<>(byFingerprint.values());
+        result.sort(Comparator.comparingLong(QueryStatistics::getTotalTime).reversed());
+        return result.size() > count ? new ArrayList<>(result.subList(0, count)) : result;
+    }
+
+    public Map<String, QueryStatistics> getStatistics() {
+        return new LinkedHashMap<>(byFingerprint);
+    }
+
+    @ManagedMetric(category = "performance", displayName = "Slowest Database Queries by Total Time")
+    public Map<String, String> getTopQueries() {
+        Map<String, String> data = new LinkedHashMap<>();
+        getTopQueries(topCount).forEach(statistics -> data.put(statistics.getFingerprint(), JsonUtils.writeValueAsString(statistics)));
+        return data;
+    }
+
+    @ManagedOperation(description = "Returns the database queries with the highest total time as JSON")
+    public String topQueries(int count) {
+        return JsonUtils.writeValueAsString(getTopQueries(count));
+    }
+
+    @ManagedOperation(description = "Discards all collected query statistics")
+    public void reset() {
+        bySql.clear();
+        byFingerprint.clear();
+    }
+
+    @ManagedMetric(category = "performance", displayName = "Distinct Query Fingerprints")
+    public int getFingerprintCount() {
+        return byFingerprint.size();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isCountingRows() {
+        return countingRows;
+    }
+
+    public void setCountingRows(boolean countingRows) {
+        this.countingRows = countingRows;
+    }
+
+    public void setMaxFingerprints(int maxFingerprints) {
+        this.maxFingerprints = maxFingerprints;
+    }
+
+    public void setMaxStatements(int maxStatements) {
+        this.maxStatements = maxStatements;
+    }
+
+    public void setTopCount(int topCount) {
+        this.topCount = topCount;
+    }
+
+    public QueryExplainer getExplainer() {
+        return explainer;
+    }
+
+    public void setExplainer(QueryExplainer explainer) {
+        this.explainer = explainer;
+    }
+}
@@ -0,0 +1,117 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.metrics;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregated timings of all database queries that share a fingerprint.
+ */
+@JsonPropertyOrder({"fingerprint", "count", "totalTime", "averageTime", "maxTime", "failures", "rowsAffected", "percentiles", "explain"})
+public class QueryStatistics {
+
+    private final String fingerprint;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder rowsAffected = new LongAdder();
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private volatile String explain;
+    private volatile long explainedAt;
+
+    public QueryStatistics(String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    public void record(long time, boolean failed) {
+        count.increment();
+        if (failed) {
+            failures.increment();
+        }
+        histogram.record(time);
+    }
+
+    public void addRowsAffected(long rows) {
+        if (rows > 0) {
+            rowsAffected.add(rows);
+        }
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalTime() {
+        return histogram.getSum();
+    }
+
+    public double getAverageTime() {
+        long n = getCount();
+        return n == 0 ? 0 : ((double) getTotalTime()) / n;
+    }
+
+    public long getMaxTime() {
+        return histogram.getMax();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public long getRowsAffected() {
+        return rowsAffected.sum();
+    }
+
+    public Map<String, Long> getPercentiles() {
+        return histogram.getPercentiles();
+    }
+
+    @JsonIgnore
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * @return the most recent execution plan sampled for this fingerprint, or null
+     */
+    public String getExplain() {
+        return explain;
+    }
+
+    @JsonIgnore
+    public long getExplainedAt() {
+        return explainedAt;
+    }
+
+    /**
+     * Claims the right to sample a new plan; only one caller per interval succeeds.
+     */
+    synchronized boolean claimExplain(long now, long intervalMillis) {
+        if (explainedAt != 0 && now - explainedAt < intervalMillis) {
+            return false;
+        }
+        explainedAt = now;
+        return true;
+    }
+
+    void setExplain(String explain) {
+        this.explain = explain;
+    }
+}
@@ -0,0 +1,30 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.metrics;
+
+/**
+ * A timed section of a traced request, ended by {@link #close()}. Spans are
+ * meant to be used in a try-with-resources block:
+ * <pre>
+ * try (Span span = Tracer.span("token.sign")) {
+ *     ...
+ * }
+ * </pre>
+ */
+public interface Span extends AutoCloseable {
+
+    Span NOOP = () -> {};
+
+    @Override
+    void close();
+}
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes metrics in the statsd line protocol and sends them over UDP, packing
+ * as many lines as fit into each datagram.
+ */
+public class StatsdMetricsSink implements MetricsSink, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(StatsdMetricsSink.class);
+
+    public static final int DEFAULT_MAX_PACKET_SIZE = 1432;
+
+    private final String prefix;
+    private final InetSocketAddress address;
+    private final int maxPacketSize;
+    private final StringBuilder packet = new StringBuilder();
+    private DatagramChannel channel;
+
+    public StatsdMetricsSink(String prefix, String host, int port) {
+        this(prefix, new InetSocketAddress(host, port), DEFAULT_MAX_PACKET_SIZE);
+    }
+
+    public StatsdMetricsSink(String prefix, InetSocketAddress address, int maxPacketSize) {
+        this.prefix = prefix == null || prefix.isEmpty() || prefix.endsWith(".") ? prefix : prefix + ".";
+        this.address = address;
+        this.maxPacketSize = maxPacketSize;
+    }
+
+    @Override
+    public void gauge(String name, long value) {
+        write(name, value, "g");
+    }
+
+    @Override
+    public void count(String name, long delta) {
+        write(name, delta, "c");
+    }
+
+    @Override
+    public void time(String name, long millis) {
+        write(name, millis, "ms");
+    }
+
+    private synchronized void write(String name, long value, String type) {
+        int start = packet.length();
+        if (start > 0) {
+            packet.append('\n');
+        }
+        if (prefix != null) {
+            packet.append(prefix);
+        }
+        packet.append(name).append(':').append(value).append('|').append(type);
+        if (packet.length() > maxPacketSize && start > 0) {
+            String line = packet.substring(start + 1);
+            packet.setLength(start);
+            send();
+            packet.append(line);
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (packet.length() > 0) {
+            send();
+        }
+    }
+
+    private void send() {
+        try {
+            if (channel == null) {
+                channel = DatagramChannel.open();
+            }
+            channel.send(ByteBuffer.wrap(packet.toString().getBytes(StandardCharsets.UTF_8)), address);
+        } catch (IOException e) {
+            logger.debug("Unable to send metrics to " + address, e);
+        } finally {
+            packet.setLength(0);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts issued and validated tokens per grant type since startup.
+ */
+public class TokenMetrics {
+
+    public static final String UNKNOWN_GRANT_TYPE = "unknown";
+    public static final String OTHER_GRANT_TYPE = "other";
+    //bounds the number of label values if a custom grant type is used
+    static final int MAX_GRANT_TYPES = 32;
+
+    private final ConcurrentMap<String, LongAdder> issued = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> validated = new ConcurrentHashMap<>();
+    private final LongAdder validationFailures = new LongAdder();
+
+    public void tokenIssued(String grantType) {
+        counter(issued, grantType).increment();
+    }
+
+    public void tokenValidated(String grantType) {
+        counter(validated, grantType).increment();
+    }
+
+    public void tokenValidationFailed() {
+        validationFailures.increment();
+    }
+
+    /**
+     * @return the number of issued tokens keyed by grant type
+     */
+    public Map<String, Long> getIssued() {
+        return snapshot(issued);
+    }
+
+    /**
+     * @return the number of successfully validated tokens keyed by the grant type they were issued with
+     */
+    public Map<String, Long> getValidated() {
+        return snapshot(validated);
+    }
+
+    public long getValidationFailures() {
+        return validationFailures.sum();
+    }
+
+    private static LongAdder counter(ConcurrentMap<String, LongAdder> counters, String grantType) {
+        String key = grantType == null ? UNKNOWN_GRANT_TYPE : grantType;
+        LongAdder counter = counters.get(key);
+        if (counter == null) {
+            if (counters.size() >= MAX_GRANT_TYPES) {
+                key = OTHER_GRANT_TYPE;
+            }
+            counter = counters.computeIfAbsent(key, k -> new LongAdder());
+        }
+        return counter;
+    }
+
+    private static Map<String, Long> snapshot(ConcurrentMap<String, LongAdder> counters) {
+        Map<String, Long> result = new TreeMap<>();
+        counters.forEach((key, counter) -> result.put(key, counter.sum()));
+        return result;
+    }
+}
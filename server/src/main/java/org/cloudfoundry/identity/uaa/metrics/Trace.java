@@ -0,0 +1,175 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.metrics;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The spans of one sampled request. Spans nest: a span started while another
+ * one is open becomes its child. The trace is only ever used by the thread
+ * that handles the request, and it is also the {@link Span} returned for each
+ * started span, so starting and ending a span does not allocate.
+ */
+@JsonPropertyOrder({"traceId", "parentId", "spanId", "uri", "startTime", "duration", "droppedSpans", "spans"})
+public class Trace implements Span {
+
+    public static final int MAX_SPANS = 256;
+
+    private final String traceId;
+    private final String parentId;
+    private final String spanId;
+    private final String uri;
+    private final long startTime;
+    private final long startNanos;
+    private final String[] names = new String[MAX_SPANS];
+    private final int[] parents = new int[MAX_SPANS];
+    private final long[] starts = new long[MAX_SPANS];
+    private final long[] durations = new long[MAX_SPANS];
+    private int count = 0;
+    private int current = -1;
+    private int depth = 0;
+    private int openDroppedSpans = 0;
+    private int droppedSpans = 0;
+    private long durationNanos = -1;
+
+    public Trace(String traceId, String parentId, String spanId, String uri, long startTime, long startNanos) {
+        this.traceId = traceId;
+        this.parentId = parentId;
+        this.spanId = spanId;
+        this.uri = uri;
+        this.startTime = startTime;
+        this.startNanos = startNanos;
+    }
+
+    public Span start(String name, long nanos) {
+        depth++;
+        if (count == MAX_SPANS) {
+            droppedSpans++;
+            openDroppedSpans++;
+            return this;
+        }
+        names[count] = name;
+        parents[count] = current;
+        starts[count] = nanos;
+        durations[count] = -1;
+        current = count++;
+        return this;
+    }
+
+    public void end(long nanos) {
+        if (depth == 0) {
+            return;
+        }
+        depth--;
+        if (openDroppedSpans > 0) {
+            openDroppedSpans--;
+            return;
+        }
+        durations[current] = nanos - starts[current];
+        current = parents[current];
+    }
+
+    @Override
+    public void close() {
+        end(System.nanoTime());
+    }
+
+    public void finish(long nanos) {
+        while (depth > 0) {
+            end(nanos);
+        }
+        durationNanos = nanos - startNanos;
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public String getParentId() {
+        return parentId;
+    }
+
+    public String getSpanId() {
+        return spanId;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return the duration of the request in microseconds
+     */
+    public long getDuration() {
+        return TimeUnit.NANOSECONDS.toMicros(durationNanos);
+    }
+
+    public int getDroppedSpans() {
+        return droppedSpans;
+    }
+
+    @JsonIgnore
+    public int getSpanCount() {
+        return count;
+    }
+
+    /**
+     * @return the spans in the order they were started, with their offset
+     * from the start of the request and their duration in microseconds
+     */
+    public List<Map<String, Object>> getSpans() {
+        List<Map<String, Object>> spans = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> span = new LinkedHashMap<>();
+            span.put("name", names[i]);
+            span.put("parent", parents[i]);
+            span.put("offset", TimeUnit.NANOSECONDS.toMicros(starts[i] - startNanos));
+            span.put("duration", durations[i] < 0 ? -1 : TimeUnit.NANOSECONDS.toMicros(durations[i]));
+            spans.add(span);
+        }
+        return spans;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("trace ")
+            .append(traceId).append(' ').append(uri).append(' ')
+            .append(getDuration()).append("us");
+        for (int i = 0; i < count; i++) {
+            int level = 0;
+            for (int parent = parents[i]; parent >= 0; parent = parents[parent]) {
+                level++;
+            }
+            char[] indent = new char[level * 2];
+            Arrays.fill(indent, ' ');
+            result.append("\n  ").append(indent).append(names[i]).append(' ')
+                .append(durations[i] < 0 ? -1 : TimeUnit.NANOSECONDS.toMicros(durations[i])).append("us");
+        }
+        if (droppedSpans > 0) {
+            result.append("\n  (").append(droppedSpans).append(" spans dropped)");
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,183 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.metrics;
+
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Samples requests for tracing and keeps the most recent traces. Code on
+ * the request path marks its sections with {@link #span(String)}, which
+ * returns a no-op span when the current request is not traced.
+ * <p>
+ * With {@link #setPropagation(boolean) propagation} enabled, a request that
+ * carries a sampled W3C {@code traceparent} header is always traced and the
+ * trace continues the caller's trace id.
+ */
+@ManagedResource(
+    objectName="cloudfoundry.identity:name=Traces",
+    description = "UAA Request Traces"
+)
+public class Tracer {
+
+    public static final String TRACEPARENT_HEADER = "traceparent";
+
+    private static final Logger logger = LoggerFactory.getLogger(Tracer.class);
+
+    private final Deque<Trace> traces = new ArrayDeque<>();
+    private final LongAdder sampled = new LongAdder();
+    private volatile double sampleRate = 0;
+    private volatile boolean propagation = false;
+    private volatile boolean logTraces = false;
+    private volatile int capacity = 100;
+
+    /**
+     * Starts a span of the trace of the current request.
+     */
+    public static Span span(String name) {
+        Trace trace = MetricsAccessor.getCurrentTrace();
+        return trace == null ? Span.NOOP : trace.start(name, System.nanoTime());
+    }
+
+    /**
+     * @return a new trace if the request is sampled, otherwise null
+     */
+    public Trace begin(HttpServletRequest request, long startTime) {
+        String traceId = null;
+        String parentId = null;
+        if (propagation) {
+            String traceparent = request.getHeader(TRACEPARENT_HEADER);
+            if (isSampledTraceparent(traceparent)) {
+                traceId = traceparent.substring(3, 35);
+                parentId = traceparent.substring(36, 52);
+            }
+        }
+        if (traceId == null) {
+            double rate = sampleRate;
+            if (rate <= 0 || (rate < 1 && ThreadLocalRandom.current().nextDouble() >= rate)) {
+                return null;
+            }
+            traceId = randomHex(32);
+        }
+        sampled.increment();
+        return new Trace(traceId, parentId, randomHex(16), request.getRequestURI(), startTime, System.nanoTime());
+    }
+
+    public void end(Trace trace) {
+        trace.finish(System.nanoTime());
+        if (logTraces) {
+            logger.info(trace.toString());
+        }
+        synchronized (traces) {
+            while (traces.size() >= capacity && !traces.isEmpty()) {
+                traces.removeFirst();
+            }
+            if (capacity > 0) {
+                traces.addLast(trace);
+            }
+        }
+    }
+
+    /**
+     * @return true for a version 00 {@code traceparent} header with the sampled flag set
+     */
+    static boolean isSampledTraceparent(String traceparent) {
+        if (traceparent == null || traceparent.length() != 55 || !traceparent.startsWith("00-")
+            || traceparent.charAt(35) != '-' || traceparent.charAt(52) != '-') {
+            return false;
+        }
+        boolean traceIdIsZero = true;
+        boolean parentIdIsZero = true;
+        for (int i = 3; i < 55; i++) {
+            if (i == 35 || i == 52) {
+                continue;
+            }
+            char c = traceparent.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                return false;
+            }
+            if (c != '0' && i < 35) {
+                traceIdIsZero = false;
+            } else if (c != '0' && i < 52) {
+                parentIdIsZero = false;
+            }
+        }
+        return !traceIdIsZero && !parentIdIsZero && (Character.digit(traceparent.charAt(54), 16) & 1) == 1;
+    }
+
+    private static String randomHex(int length) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        StringBuilder result = new StringBuilder(length);
+        while (result.length() < length) {
+            String part = Long.toHexString(random.nextLong());
+            for (int i = part.length(); i < 16; i++) {
+                result.append('0');
+            }
+            result.append(part);
+        }
+        result.setLength(length);
+        return result.toString();
+    }
+
+    public List<Trace> getTraces() {
+        synchronized (traces) {
+            return new ArrayList<>(traces);
+        }
+    }
+
+    @ManagedOperation(description = "Returns the most recent request traces as JSON")
+    public String traces() {
+        return JsonUtils.writeValueAsString(getTraces());
+    }
+
+    @ManagedMetric(category = "performance", displayName = "Sampled Requests")
+    public long getSampledCount() {
+        return sampled.sum();
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    public void setSampleRate(double sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    public boolean isPropagation() {
+        return propagation;
+    }
+
+    public void setPropagation(boolean propagation) {
+        this.propagation = propagation;
+    }
+
+    public void setLogTraces(boolean logTraces) {
+        this.logTraces = logTraces;
+    }
+
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+}
@@ -26,6 +26,7 @@ import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.jmx.export.notification.NotificationPublisher;
 import org.springframework.jmx.export.notification.NotificationPublisherAware;
 import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+import org.springframework.util.StringUtils;
 import org.springframework.web.filter.OncePerRequestFilter;
 import org.yaml.snakeyaml.Yaml;
 
@@ -35,12 +36,13 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
 @ManagedResource(
@@ -61,8 +63,14 @@ public class UaaMetricsFilter extends OncePerRequestFilter implements UaaMetrics
     private IdleTimer inflight = new IdleTimer();
     private Map<String,MetricsQueue> perUriMetrics = new ConcurrentHashMap<>();
     private LinkedHashMap<AntPathRequestMatcher, UrlGroup> urlGroups;
+    private UrlGroupMatcher urlGroupMatcher;
+    //each thread measures its requests with the same metric instance
+    private final ThreadLocal<RequestMetric> threadMetric = ThreadLocal.withInitial(RequestMetric::new);
     private boolean enabled = true;
     private boolean perRequestMetrics = false;
+    private boolean queryLimitEnforced = false;
+    private Tracer tracer;
+    private final Map<String, LongAdder> queryLimitViolations = new ConcurrentHashMap<>();
 
     private NotificationPublisher notificationPublisher;
 
@@ -73,6 +81,7 @@ public class UaaMetricsFilter extends OncePerRequestFilter implements UaaMetrics
         groups.stream().forEach(
             group -> urlGroups.put(new AntPathRequestMatcher(group.getPattern()), group)
         );
+        urlGroupMatcher = UrlGroupMatcher.compile(groups);
     }
 
 
@@ -80,21 +89,30 @@ public class UaaMetricsFilter extends OncePerRequestFilter implements UaaMetrics
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
         UrlGroup uriGroup = enabled ? getUriGroup(request) : null;
         if (uriGroup != null) {
-            RequestMetric metric = RequestMetric.start(request.getRequestURI(), uriGroup, timeService.getCurrentTimeMillis());
+            RequestMetric metric = MetricsAccessor.getCurrent() == null ? threadMetric.get() : new RequestMetric();
+            metric.restart(request.getRequestURI(), uriGroup, timeService.getCurrentTimeMillis());
+            Trace trace = tracer == null ? null : tracer.begin(request, metric.getRequestStartTime());
             try {
                 MetricsAccessor.setCurrent(metric);
+                MetricsAccessor.setQueryLimitEnforced(queryLimitEnforced);
+                MetricsAccessor.setCurrentTrace(trace);
                 inflight.startRequest();
                 filterChain.doFilter(request, response);
             } finally {
                 MetricsAccessor.clear();
+                MetricsAccessor.clearTrace();
+                if (trace != null) {
+                    tracer.end(trace);
+                }
                 inflight.endRequest();
                 metric.stop(response.getStatus(), timeService.getCurrentTimeMillis());
                 if (isPerRequestMetrics()) {
                     sendRequestTime(uriGroup.getGroup(), metric.getRequestCompleteTime() - metric.getRequestStartTime());
                 }
-                for (String group : Arrays.asList(uriGroup.getGroup(), MetricsUtil.GLOBAL_GROUP)) {
-                    MetricsQueue queue = getMetricsQueue(group);
-                    queue.offer(metric);
+                getMetricsQueue(uriGroup.getGroup()).offer(metric);
+                getMetricsQueue(MetricsUtil.GLOBAL_GROUP).offer(metric);
+                if (metric.isQueryLimitExceeded()) {
+                    queryLimitExceeded(metric);
                 }
             }
         } else {
@@ -102,6 +120,29 @@ public class UaaMetricsFilter extends OncePerRequestFilter implements UaaMetrics
         }
     }
 
+    /**
+     * Counts a request that made more database queries than its url group
+     * allows and, at debug level, logs the queries it made. This runs after
+     * the request completed and never throws; when the limit is enforced, as
+     * in tests, the {@link QueryFilter} rejects the offending statement before
+     * it runs.
+     */
+    protected void queryLimitExceeded(RequestMetric metric) {
+        UrlGroup group = metric.getUriGroup();
+        queryLimitViolations.computeIfAbsent(group.getGroup(), k -> new LongAdder()).increment();
+        if (!logger.isDebugEnabled()) {
+            return;
+        }
+        StringBuilder message = new StringBuilder(String.format(
+            "Request %s made %d database queries, the limit for url group %s is %d:",
+            metric.getUri(), metric.getNrOfDatabaseQueries(), group.getGroup(), group.getQueryLimit()
+        ));
+        for (int i = 0; i < metric.getNrOfDatabaseQueries(); i++) {
+            message.append("\n  ").append(metric.getQueryStatement(i)).append(" (").append(metric.getQueryTime(i)).append("ms)");
+        }
+        logger.debug(message.toString());
+    }
+
     public void setEnabled(boolean enabled) {
         this.enabled = enabled;
     }
@@ -111,10 +152,19 @@ public class UaaMetricsFilter extends OncePerRequestFilter implements UaaMetrics
     }
 
     protected MetricsQueue getMetricsQueue(String uri) {
-        if (!perUriMetrics.containsKey(uri)) {
+        MetricsQueue queue = perUriMetrics.get(uri);
+        if (queue == null) {
             perUriMetrics.putIfAbsent(uri, new MetricsQueue());
+            queue = perUriMetrics.get(uri);
         }
-        return perUriMetrics.get(uri);
+        return queue;
+    }
+
+    /**
+     * @return the metrics of each url group and of {@link MetricsUtil#GLOBAL_GROUP}, keyed by group name
+     */
+    public Map<String, MetricsQueue> getMetricsQueues() {
+        return Collections.unmodifiableMap(perUriMetrics);
     }
 
     /**
@@ -124,11 +174,16 @@ public class UaaMetricsFilter extends OncePerRequestFilter implements UaaMetrics
      */
     protected UrlGroup getUriGroup(HttpServletRequest request) {
         if (urlGroups!=null) {
-            String uri = request.getRequestURI();
+            if (urlGroupMatcher != null) {
+                UrlGroup group = urlGroupMatcher.match(getRequestPath(request));
+                return group == null ? FALLBACK : group;
+            }
             for (Map.Entry<AntPathRequestMatcher, UrlGroup> entry : urlGroups.entrySet()) {
                 if (entry.getKey().matches(request)) {
                     UrlGroup group = entry.getValue();
-                    logger.debug(String.format("Successfully matched URI: %s to a group: %s", uri, group.getGroup()));
+                    if (logger.isDebugEnabled()) {
+                        logger.debug(String.format("Successfully matched URI: %s to a group: %s", request.getRequestURI(), group.getGroup()));
+                    }
                     return group;
                 }
             }
@@ -138,6 +193,18 @@ public class UaaMetricsFilter extends OncePerRequestFilter implements UaaMetrics
         }
     }
 
+    /**
+     * @return the path within the application, the same path an {@link AntPathRequestMatcher} matches against
+     */
+    private static String getRequestPath(HttpServletRequest request) {
+        String servletPath = request.getServletPath();
+        String pathInfo = request.getPathInfo();
+        if (pathInfo == null) {
+            return servletPath;
+        }
+        return StringUtils.hasLength(servletPath) ? servletPath + pathInfo : pathInfo;
+    }
+
     @Override
     @ManagedMetric(category = "performance", displayName = "Inflight Requests")
     public long getInflightCount() {
@@ -170,6 +237,29 @@ public class UaaMetricsFilter extends OncePerRequestFilter implements UaaMetrics
         return JsonUtils.writeValueAsString(perUriMetrics.get(MetricsUtil.GLOBAL_GROUP));
     }
 
+    @ManagedMetric(category = "performance", displayName = "Requests over the query limit of their URI Group")
+    public Map<String, Long> getQueryLimitViolations() {
+        Map<String, Long> data = new HashMap<>();
+        queryLimitViolations.forEach((group, count) -> data.put(group, count.sum()));
+        return data;
+    }
+
+    public Tracer getTracer() {
+        return tracer;
+    }
+
+    public void setTracer(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    public boolean isQueryLimitEnforced() {
+        return queryLimitEnforced;
+    }
+
+    public void setQueryLimitEnforced(boolean queryLimitEnforced) {
+        this.queryLimitEnforced = queryLimitEnforced;
+    }
+
     public TimeService getTimeService() {
         return timeService;
     }
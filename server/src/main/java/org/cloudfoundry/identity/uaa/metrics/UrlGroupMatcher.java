@@ -0,0 +1,179 @@
+/*
+ * ****************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ * ****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.metrics;
+
+import org.springframework.util.StringUtils;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds the {@link UrlGroup} of a request path with a segment trie that is
+ * built once from the group patterns, so a lookup walks the path once and
+ * does not allocate. Supports the subset of Ant patterns used by the url
+ * groups: literal segments, segments containing {@code *} and a trailing
+ * {@code /**}. When several patterns match, the one listed first wins, the
+ * same as testing each pattern in order with an {@code AntPathRequestMatcher}.
+ */
+public class UrlGroupMatcher {
+
+    private static final int NONE = Integer.MAX_VALUE;
+
+    private final UrlGroup[] groups;
+    private final Node root = new Node("");
+    private int matchAll = NONE;
+
+    private UrlGroupMatcher(List<UrlGroup> groups) {
+        this.groups = groups.toArray(new UrlGroup[0]);
+    }
+
+    /**
+     * @return the matcher, or null if one of the patterns uses syntax the matcher does not support
+     */
+    public static UrlGroupMatcher compile(List<UrlGroup> groups) {
+        UrlGroupMatcher matcher = new UrlGroupMatcher(groups);
+        for (int i = 0; i < groups.size(); i++) {
+            if (!matcher.add(groups.get(i).getPattern(), i)) {
+                return null;
+            }
+        }
+        return matcher;
+    }
+
+    private boolean add(String pattern, int priority) {
+        if (pattern == null || !pattern.startsWith("/") || pattern.indexOf('?') >= 0 || pattern.indexOf('{') >= 0) {
+            return false;
+        }
+        if ("/**".equals(pattern)) {
+            matchAll = Math.min(matchAll, priority);
+            return true;
+        }
+        String[] segments = StringUtils.tokenizeToStringArray(pattern, "/", false, true);
+        Node node = root;
+        node.first = Math.min(node.first, priority);
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            if ("**".equals(segment) && i == segments.length - 1) {
+                node.subtree = Math.min(node.subtree, priority);
+                return true;
+            }
+            if (segment.contains("**")) {
+                return false;
+            }
+            node = node.child(segment);
+            node.first = Math.min(node.first, priority);
+        }
+        if (pattern.endsWith("/")) {
+            node.exactWithSlash = Math.min(node.exactWithSlash, priority);
+        } else {
+            node.exact = Math.min(node.exact, priority);
+        }
+        return true;
+    }
+
+    /**
+     * @param path the request path within the application, without the context path
+     * @return the first group whose pattern matches the path, or null if none does
+     */
+    public UrlGroup match(String path) {
+        int best = matchAll;
+        if (path != null && path.startsWith("/")) {
+            best = match(root, path, 0, best);
+        }
+        return best == NONE ? null : groups[best];
+    }
+
+    private static int match(Node node, String path, int from, int best) {
+        best = Math.min(best, node.subtree);
+        int start = from;
+        while (start < path.length() && path.charAt(start) == '/') {
+            start++;
+        }
+        if (start == path.length()) {
+            return Math.min(best, path.endsWith("/") ? node.exactWithSlash : node.exact);
+        }
+        int end = path.indexOf('/', start);
+        if (end < 0) {
+            end = path.length();
+        }
+        for (Node child : node.children) {
+            if (child.first < best && child.matches(path, start, end)) {
+                best = match(child, path, end, best);
+            }
+        }
+        return best;
+    }
+
+    private static class Node {
+        private final String segment;
+        private final boolean wildcard;
+        private Node[] children = new Node[0];
+        //the lowest priority of any pattern that passes through this node
+        private int first = NONE;
+        private int exact = NONE;
+        private int exactWithSlash = NONE;
+        private int subtree = NONE;
+
+        Node(String segment) {
+            this.segment = segment;
+            this.wildcard = segment.indexOf('*') >= 0;
+        }
+
+        Node child(String segment) {
+            for (Node child : children) {
+                if (child.segment.equals(segment)) {
+                    return child;
+                }
+            }
+            Node child = new Node(segment);
+            children = Arrays.copyOf(children, children.length + 1);
+            children[children.length - 1] = child;
+            return child;
+        }
+
+        boolean matches(String path, int start, int end) {
+            if (!wildcard) {
+                return end - start == segment.length() && path.regionMatches(start, segment, 0, segment.length());
+            }
+            return matchesWildcard(path, start, end);
+        }
+
+        private boolean matchesWildcard(String path, int start, int end) {
+            int p = 0;
+            int s = start;
+            int star = -1;
+            int mark = start;
+            while (s < end) {
+                if (p < segment.length() && segment.charAt(p) == '*') {
+                    star = p++;
+                    mark = s;
+                } else if (p < segment.length() && segment.charAt(p) == path.charAt(s)) {
+                    p++;
+                    s++;
+                } else if (star >= 0) {
+                    p = star + 1;
+                    s = ++mark;
+                } else {
+                    return false;
+                }
+            }
+            while (p < segment.length() && segment.charAt(p) == '*') {
+                p++;
+            }
+            return p == segment.length();
+        }
+    }
+}
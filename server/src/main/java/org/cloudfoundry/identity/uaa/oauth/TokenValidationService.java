@@ -1,5 +1,8 @@
 package org.cloudfoundry.identity.uaa.oauth;
 
+import org.cloudfoundry.identity.uaa.metrics.Span;
+import org.cloudfoundry.identity.uaa.metrics.TokenMetrics;
+import org.cloudfoundry.identity.uaa.metrics.Tracer;
 import org.cloudfoundry.identity.uaa.oauth.token.RevocableToken;
 import org.cloudfoundry.identity.uaa.oauth.token.RevocableTokenProvisioning;
 import org.cloudfoundry.identity.uaa.user.UaaUser;
@@ -15,6 +18,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import static org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants.GRANT_TYPE;
 import static org.cloudfoundry.identity.uaa.util.TokenValidation.buildAccessTokenValidator;
 import static org.cloudfoundry.identity.uaa.util.TokenValidation.buildRefreshTokenValidator;
 
@@ -24,6 +28,7 @@ public class TokenValidationService {
     private UaaUserDatabase userDatabase;
     private MultitenantClientServices multitenantClientServices;
     private KeyInfoService keyInfoService;
+    private TokenMetrics tokenMetrics;
 
     public TokenValidationService(RevocableTokenProvisioning revocableTokenProvisioning,
                                   TokenEndpointBuilder tokenEndpointBuilder,
@@ -38,6 +43,24 @@ public class TokenValidationService {
     }
 
     public TokenValidation validateToken(String token, boolean isAccessToken) {
+        try (Span span = Tracer.span("token.validate")) {
+            if (tokenMetrics == null) {
+                return doValidateToken(token, isAccessToken);
+            }
+            TokenValidation tokenValidation;
+            try {
+                tokenValidation = doValidateToken(token, isAccessToken);
+            } catch (RuntimeException e) {
+                tokenMetrics.tokenValidationFailed();
+                throw e;
+            }
+            Object grantType = tokenValidation.getClaims().get(GRANT_TYPE);
+            tokenMetrics.tokenValidated(grantType == null ? null : grantType.toString());
+            return tokenValidation;
+        }
+    }
+
+    private TokenValidation doValidateToken(String token, boolean isAccessToken) {
         if (!UaaTokenUtils.isJwtToken(token)) {
             RevocableToken revocableToken;
             try {
@@ -79,4 +102,8 @@ public class TokenValidationService {
     public void setUserDatabase(UaaUserDatabase userDatabase) {
         this.userDatabase = userDatabase;
     }
+
+    public void setTokenMetrics(TokenMetrics tokenMetrics) {
+        this.tokenMetrics = tokenMetrics;
+    }
 }
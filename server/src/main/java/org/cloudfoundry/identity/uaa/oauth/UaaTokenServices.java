@@ -19,6 +19,9 @@ import org.cloudfoundry.identity.uaa.audit.event.TokenIssuedEvent;
 import org.cloudfoundry.identity.uaa.authentication.Origin;
 import org.cloudfoundry.identity.uaa.authentication.UaaAuthentication;
 import org.cloudfoundry.identity.uaa.authentication.UaaPrincipal;
+import org.cloudfoundry.identity.uaa.metrics.Span;
+import org.cloudfoundry.identity.uaa.metrics.TokenMetrics;
+import org.cloudfoundry.identity.uaa.metrics.Tracer;
 import org.cloudfoundry.identity.uaa.oauth.jwt.JwtHelper;
 import org.cloudfoundry.identity.uaa.oauth.openid.IdTokenCreationException;
 import org.cloudfoundry.identity.uaa.oauth.openid.IdTokenCreator;
@@ -161,6 +164,7 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
     private TokenValidationService tokenValidationService;
     private KeyInfoService keyInfoService;
     private IdTokenGranter idTokenGranter;
+    private TokenMetrics tokenMetrics;
 
     public UaaTokenServices(IdTokenCreator idTokenCreator,
                             TokenEndpointBuilder tokenEndpointBuilder,
@@ -440,26 +444,39 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
         } catch (JsonUtils.JsonUtilException e) {
             throw new IllegalStateException("Cannot convert access token to JSON", e);
         }
-        String token = JwtHelper.encode(content, getActiveKeyInfo()).getEncoded();
+        String token;
+        try (Span span = Tracer.span("token.sign")) {
+            token = JwtHelper.encode(content, getActiveKeyInfo()).getEncoded();
+        }
         compositeToken.setValue(token);
         BaseClientDetails clientDetails = (BaseClientDetails) clientDetailsService.loadClientByClientId(clientId);
 
         if (idTokenGranter.shouldSendIdToken(userId, clientDetails, requestedScopes, grantType)) {
-            String idTokenContent;
-            try {
-                idTokenContent = JsonUtils.writeValueAsString(idTokenCreator.create(clientId, userId, userAuthenticationData));
-            } catch (RuntimeException | IdTokenCreationException e) {
-                throw new IllegalStateException("Cannot convert id token to JSON");
+            try (Span span = Tracer.span("token.idToken")) {
+                compositeToken.setIdTokenValue(createIdToken(clientId, userId, userAuthenticationData));
             }
-            String encodedIdTokenContent = JwtHelper.encode(idTokenContent, keyInfoService.getActiveKey()).getEncoded();
-            compositeToken.setIdTokenValue(encodedIdTokenContent);
         }
 
-        publish(new TokenIssuedEvent(compositeToken, SecurityContextHolder.getContext().getAuthentication(), IdentityZoneHolder.getCurrentZoneId()));
+        if (tokenMetrics != null) {
+            tokenMetrics.tokenIssued(grantType);
+        }
+        try (Span span = Tracer.span("token.publishEvent")) {
+            publish(new TokenIssuedEvent(compositeToken, SecurityContextHolder.getContext().getAuthentication(), IdentityZoneHolder.getCurrentZoneId()));
+        }
 
         return compositeToken;
     }
 
+    private String createIdToken(String clientId, String userId, UserAuthenticationData userAuthenticationData) {
+        String idTokenContent;
+        try {
+            idTokenContent = JsonUtils.writeValueAsString(idTokenCreator.create(clientId, userId, userAuthenticationData));
+        } catch (RuntimeException | IdTokenCreationException e) {
+            throw new IllegalStateException("Cannot convert id token to JSON");
+        }
+        return JwtHelper.encode(idTokenContent, keyInfoService.getActiveKey()).getEncoded();
+    }
+
     private KeyInfo getActiveKeyInfo() {
         return ofNullable(keyInfoService.getActiveKey())
             .orElseThrow(() -> new InternalAuthenticationServiceException("Unable to sign token, misconfigured JWT signing keys"));
@@ -544,6 +561,12 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
 
     @Override
     public OAuth2AccessToken createAccessToken(OAuth2Authentication authentication) throws AuthenticationException {
+        try (Span span = Tracer.span("token.create")) {
+            return doCreateAccessToken(authentication);
+        }
+    }
+
+    private OAuth2AccessToken doCreateAccessToken(OAuth2Authentication authentication) throws AuthenticationException {
         String userId = null;
         Date userAuthenticationTime = null;
         UaaUser user = null;
@@ -552,22 +575,31 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
         Set<String> authNContextClassRef = null;
 
         OAuth2Request oAuth2Request = authentication.getOAuth2Request();
-        BaseClientDetails client = (BaseClientDetails) clientDetailsService.loadClientByClientId(oAuth2Request.getClientId(), IdentityZoneHolder.get().getId());
+        BaseClientDetails client;
+        try (Span span = Tracer.span("token.loadClient")) {
+            client = (BaseClientDetails) clientDetailsService.loadClientByClientId(oAuth2Request.getClientId(), IdentityZoneHolder.get().getId());
+        }
         Collection<GrantedAuthority> clientScopes = null;
 
         // Clients should really by different kinds of users
         if (authentication.isClientOnly()) {
             clientScopes = client.getAuthorities();
         } else {
-            clientScopes = getClientPermissions(client);
+            try (Span span = Tracer.span("token.clientAuthorities")) {
+                clientScopes = getClientPermissions(client);
+            }
             userId = getUserId(authentication);
-            user = userDatabase.retrieveUserById(userId);
+            try (Span span = Tracer.span("token.loadUser")) {
+                user = userDatabase.retrieveUserById(userId);
+            }
             if (authentication.getUserAuthentication() instanceof UaaAuthentication) {
                 userAuthenticationTime = new Date(((UaaAuthentication)authentication.getUserAuthentication()).getAuthenticatedTime());
                 authenticationMethods = ((UaaAuthentication) authentication.getUserAuthentication()).getAuthenticationMethods();
                 authNContextClassRef = ((UaaAuthentication) authentication.getUserAuthentication()).getAuthContextClassRef();
             }
-            validateRequiredUserGroups(user, client);
+            try (Span span = Tracer.span("token.requiredGroups")) {
+                validateRequiredUserGroups(user, client);
+            }
         }
 
 
@@ -602,7 +634,9 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
                 authNContextClassRef,
                 additionalRootClaims
             );
-            refreshToken = refreshTokenCreator.createRefreshToken(user, refreshTokenRequestData, revocableHashSignature);
+            try (Span span = Tracer.span("token.refreshToken")) {
+                refreshToken = refreshTokenCreator.createRefreshToken(user, refreshTokenRequestData, revocableHashSignature);
+            }
         }
 
         String clientId = oAuth2Request.getClientId();
@@ -654,7 +688,9 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
                         isAccessTokenRevocable,
                         authenticationData);
 
-        return persistRevocableToken(tokenId, accessToken, refreshToken, clientId, userId, isOpaque, isAccessTokenRevocable);
+        try (Span span = Tracer.span("token.persist")) {
+            return persistRevocableToken(tokenId, accessToken, refreshToken, clientId, userId, isOpaque, isAccessTokenRevocable);
+        }
     }
 
     private TokenPolicy getActiveTokenPolicy() {
@@ -910,6 +946,10 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
         this.tokenEndpointBuilder = tokenEndpointBuilder;
     }
 
+    public void setTokenMetrics(TokenMetrics tokenMetrics) {
+        this.tokenMetrics = tokenMetrics;
+    }
+
     public void setTimeService(TimeService timeService) {
         this.timeService = timeService;
     }
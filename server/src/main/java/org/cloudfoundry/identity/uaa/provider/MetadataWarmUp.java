@@ -0,0 +1,174 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.provider;
+
+import org.cloudfoundry.identity.uaa.constants.OriginKeys;
+import org.cloudfoundry.identity.uaa.provider.oauth.OidcMetadataFetcher;
+import org.cloudfoundry.identity.uaa.provider.saml.NonSnarlMetadataManager;
+import org.cloudfoundry.identity.uaa.provider.saml.idp.SamlServiceProviderConfigurator;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneProvisioning;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Loads the SAML and OIDC metadata of the providers of all zones into the
+ * metadata caches when the application context is refreshed, so that the
+ * first logins after a deploy do not fetch and parse metadata themselves.
+ * <p>
+ * Zones and OIDC discovery documents are loaded concurrently on a bounded
+ * pool of {@link #setThreads(int) threads}. The context refresh, and with it
+ * the node becoming healthy, waits for the warm-up for at most
+ * {@link #setTimeoutMillis(long) timeoutMillis}; whatever is not loaded by
+ * then is loaded on first use as before.
+ */
+public class MetadataWarmUp implements ApplicationListener<ContextRefreshedEvent> {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetadataWarmUp.class);
+
+    private final IdentityZoneProvisioning zoneProvisioning;
+    private final IdentityProviderProvisioning providerProvisioning;
+    private NonSnarlMetadataManager samlMetadataManager;
+    private SamlServiceProviderConfigurator samlServiceProviderConfigurator;
+    private OidcMetadataFetcher oidcMetadataFetcher;
+    private boolean enabled = true;
+    private int threads = 4;
+    private long timeoutMillis = 60 * 1000;
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    public MetadataWarmUp(IdentityZoneProvisioning zoneProvisioning, IdentityProviderProvisioning providerProvisioning) {
+        this.zoneProvisioning = zoneProvisioning;
+        this.providerProvisioning = providerProvisioning;
+    }
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        if (enabled && started.compareAndSet(false, true)) {
+            warmUp();
+        }
+    }
+
+    /**
+     * @return the number of warm-up tasks that completed in time
+     */
+    public int warmUp() {
+        long start = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "uaa-metadata-warm-up");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (IdentityZone zone : zoneProvisioning.retrieveAll()) {
+                if (samlMetadataManager != null || samlServiceProviderConfigurator != null) {
+                    tasks.add(executor.submit(() -> inZone(zone, this::warmUpSaml)));
+                }
+                if (oidcMetadataFetcher != null) {
+                    for (IdentityProvider provider : providerProvisioning.retrieveActive(zone.getId())) {
+                        if (OriginKeys.OIDC10.equals(provider.getType()) && provider.getConfig() instanceof OIDCIdentityProviderDefinition) {
+                            OIDCIdentityProviderDefinition definition = (OIDCIdentityProviderDefinition) provider.getConfig();
+                            tasks.add(executor.submit(() -> {
+                                oidcMetadataFetcher.fetchMetadataAndUpdateDefinition(definition);
+                                return null;
+                            }));
+                        }
+                    }
+                }
+            }
+            int completed = await(tasks, start + timeoutMillis);
+            logger.info("Metadata warm-up completed " + completed + " of " + tasks.size() + " tasks in " + (System.currentTimeMillis() - start) + "ms");
+            return completed;
+        } catch (RuntimeException e) {
+            logger.warn("Metadata warm-up failed", e);
+            return 0;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void warmUpSaml(IdentityZone zone) {
+        if (samlMetadataManager != null) {
+            samlMetadataManager.warmUp();
+        }
+        if (samlServiceProviderConfigurator != null) {
+            samlServiceProviderConfigurator.getSamlServiceProvidersForZone(zone);
+        }
+    }
+
+    private static void inZone(IdentityZone zone, Consumer<IdentityZone> task) {
+        IdentityZone current = IdentityZoneHolder.get();
+        try {
+            IdentityZoneHolder.set(zone);
+            task.accept(zone);
+        } finally {
+            IdentityZoneHolder.set(current);
+        }
+    }
+
+    private static int await(List<Future<?>> tasks, long deadline) {
+        int completed = 0;
+        for (Future<?> task : tasks) {
+            try {
+                task.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                completed++;
+            } catch (TimeoutException e) {
+                task.cancel(true);
+            } catch (ExecutionException e) {
+                logger.warn("Unable to warm up metadata", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                task.cancel(true);
+            }
+        }
+        return completed;
+    }
+
+    public void setSamlMetadataManager(NonSnarlMetadataManager samlMetadataManager) {
+        this.samlMetadataManager = samlMetadataManager;
+    }
+
+    public void setSamlServiceProviderConfigurator(SamlServiceProviderConfigurator samlServiceProviderConfigurator) {
+        this.samlServiceProviderConfigurator = samlServiceProviderConfigurator;
+    }
+
+    public void setOidcMetadataFetcher(OidcMetadataFetcher oidcMetadataFetcher) {
+        this.oidcMetadataFetcher = oidcMetadataFetcher;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    public void setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+}
@@ -63,6 +63,7 @@ public class SamlServiceProviderEndpoints {
         body.setIdentityZoneId(zoneId);
         samlConfigurator.validateSamlServiceProvider(body);
         SamlServiceProvider createdSp = serviceProviderProvisioning.create(body, zoneId);
+        samlConfigurator.invalidate(zoneId);
         return new ResponseEntity<>(createdSp, HttpStatus.CREATED);
     }
 
@@ -81,6 +82,7 @@ public class SamlServiceProviderEndpoints {
         samlConfigurator.validateSamlServiceProvider(body);
 
         SamlServiceProvider updatedSp = serviceProviderProvisioning.update(body, zoneId);
+        samlConfigurator.invalidate(zoneId);
         return new ResponseEntity<>(updatedSp, OK);
     }
 
@@ -104,6 +106,7 @@ public class SamlServiceProviderEndpoints {
     public ResponseEntity<SamlServiceProvider> deleteServiceProvider(@PathVariable String id) {
         SamlServiceProvider serviceProvider = serviceProviderProvisioning.retrieve(id, IdentityZoneHolder.get().getId());
         serviceProviderProvisioning.delete(id, IdentityZoneHolder.get().getId());
+        samlConfigurator.invalidate(IdentityZoneHolder.get().getId());
         return new ResponseEntity<>(serviceProvider, OK);
     }
 
@@ -15,9 +15,10 @@ public class ConfigMetadataProvider extends AbstractMetadataProvider implements
 
     private final Logger log = LoggerFactory.getLogger(ConfigMetadataProvider.class);
 
-    private final String metadata;
+    private volatile String metadata;
     private final String zoneId;
     private final String alias;
+    private volatile XMLObject parsed;
 
     public ConfigMetadataProvider(String zoneId, String alias, String metadata) {
         this.metadata = metadata;
@@ -26,16 +27,41 @@ public class ConfigMetadataProvider extends AbstractMetadataProvider implements
     }
 
     public byte[] fetchMetadata() throws MetadataProviderException {
-        return metadata.getBytes(StandardCharsets.UTF_8);
+        return getMetadataDocument().getBytes(StandardCharsets.UTF_8);
     }
 
+    /**
+     * @return the metadata document, or null once it has been released
+     */
+    protected String getMetadataDocument() {
+        return metadata;
+    }
+
+    /**
+     * Drops the reference to the metadata document, for subclasses that
+     * have read it into a more compact form and no longer need the text.
+     */
+    protected void releaseMetadataDocument() {
+        metadata = null;
+    }
+
+    /**
+     * The metadata is unmarshalled on first use and the result is kept, so
+     * that a provider held in a cache does not parse its XML on every lookup.
+     */
     @Override
     public XMLObject doGetMetadata() throws MetadataProviderException {
+        XMLObject result = parsed;
+        if (result != null) {
+            return result;
+        }
 
-        InputStream stream = new ByteArrayInputStream(metadata.getBytes(StandardCharsets.UTF_8));
+        InputStream stream = new ByteArrayInputStream(getMetadataDocument().getBytes(StandardCharsets.UTF_8));
 
         try {
-            return unmarshallMetadata(stream);
+            result = unmarshallMetadata(stream);
+            parsed = result;
+            return result;
         } catch (UnmarshallingException e) {
             log.error("Unable to unmarshall metadata", e);
             throw new MetadataProviderException(e);
@@ -0,0 +1,28 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.provider.saml;
+
+import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+
+/**
+ * Implemented by the zone aware metadata managers to tell which version of
+ * the metadata holds an entity, without resolving the entity's descriptor.
+ */
+public interface MetadataVersionProvider {
+
+    /**
+     * @return a key that changes whenever the metadata holding the entity in the
+     * current zone changes, or null if no metadata of the zone holds the entity
+     */
+    String getMetadataVersion(String entityID) throws MetadataProviderException;
+}
@@ -15,9 +15,12 @@
 
 package org.cloudfoundry.identity.uaa.provider.saml;
 
+import org.cloudfoundry.identity.uaa.audit.event.AbstractUaaEvent;
+import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
 import org.cloudfoundry.identity.uaa.provider.SamlIdentityProviderDefinition;
 import org.cloudfoundry.identity.uaa.zone.IdentityZone;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.cloudfoundry.identity.uaa.zone.event.IdentityZoneModifiedEvent;
 import org.joda.time.DateTime;
 import org.opensaml.common.xml.SAMLConstants;
 import org.opensaml.saml2.common.Extensions;
@@ -55,6 +58,7 @@ import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
 import org.springframework.security.saml.key.KeyManager;
 import org.springframework.security.saml.metadata.ExtendedMetadata;
 import org.springframework.security.saml.metadata.ExtendedMetadataDelegate;
@@ -65,21 +69,23 @@ import org.springframework.security.saml.trust.AllowAllSignatureTrustEngine;
 import org.springframework.security.saml.trust.httpclient.TLSProtocolConfigurer;
 import org.springframework.security.saml.util.SAMLUtil;
 import org.springframework.util.StringUtils;
-import org.springframework.web.client.RestClientException;
 import org.w3c.dom.Element;
 
 import javax.xml.namespace.QName;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 
-public class NonSnarlMetadataManager extends MetadataManager implements ExtendedMetadataProvider, InitializingBean, DisposableBean {
+public class NonSnarlMetadataManager extends MetadataManager implements ExtendedMetadataProvider, InitializingBean, DisposableBean, ApplicationListener<AbstractUaaEvent>, MetadataVersionProvider {
 
     // Class logger
     protected final Logger log = LoggerFactory.getLogger(NonSnarlMetadataManager.class);
@@ -91,10 +97,13 @@ public class NonSnarlMetadataManager extends MetadataManager implements Extended
 
     private final SamlIdentityProviderConfigurator configurator;
     private ZoneAwareMetadataGenerator generator;
+    private SamlMetadataProviderCache providerCache;
+    private final ConcurrentMap<String, LocalServiceProvider> localServiceProviders = new ConcurrentHashMap<>();
 
     public NonSnarlMetadataManager(SamlIdentityProviderConfigurator configurator) throws MetadataProviderException {
         super(Collections.EMPTY_LIST);
         this.configurator = configurator;
+        this.providerCache = new SamlMetadataProviderCache(configurator);
         this.defaultExtendedMetadata = new ExtendedMetadata();
         super.setRefreshCheckInterval(0);
     }
@@ -112,13 +121,37 @@ public class NonSnarlMetadataManager extends MetadataManager implements Extended
     public void refreshMetadata() {
     }
 
+    /**
+     * @return the local service provider of the current zone, generated again
+     * only when the zone's version or last modified time changed
+     */
     public ExtendedMetadataDelegate getLocalServiceProvider() throws MetadataProviderException {
+        IdentityZone zone = IdentityZoneHolder.get();
+        String version = SamlMetadataDocumentCache.getVersion(zone);
+        LocalServiceProvider cached = localServiceProviders.get(zone.getId());
+        if (cached != null && cached.version.equals(version)) {
+            return cached.delegate;
+        }
         EntityDescriptor descriptor = generator.generateMetadata();
         ExtendedMetadata extendedMetadata = generator.generateExtendedMetadata();
-        log.info("Initialized local service provider for entityID: " + descriptor.getEntityID());
+        log.debug("Initialized local service provider for entityID: " + descriptor.getEntityID());
         MetadataMemoryProvider memoryProvider = new MetadataMemoryProvider(descriptor);
         memoryProvider.initialize();
-        return new ExtendedMetadataDelegate(memoryProvider, extendedMetadata);
+        ExtendedMetadataDelegate delegate = new ExtendedMetadataDelegate(memoryProvider, extendedMetadata);
+        localServiceProviders.put(zone.getId(), new LocalServiceProvider(version, delegate));
+        return delegate;
+    }
+
+    @Override
+    public void onApplicationEvent(AbstractUaaEvent event) {
+        if (event instanceof IdentityZoneModifiedEvent) {
+            localServiceProviders.remove(((IdentityZone) event.getSource()).getId());
+        } else if (event instanceof EntityDeletedEvent) {
+            Object deleted = ((EntityDeletedEvent<?>) event).getDeleted();
+            if (deleted instanceof IdentityZone) {
+                localServiceProviders.remove(((IdentityZone) deleted).getId());
+            }
+        }
     }
 
     @Override
@@ -147,21 +180,54 @@ public class NonSnarlMetadataManager extends MetadataManager implements Extended
         } catch (MetadataProviderException e) {
             throw new IllegalStateException(e);
         }
-        for (SamlIdentityProviderDefinition definition : configurator.getIdentityProviderDefinitions()) {
-            log.info("Adding SAML IDP zone[" + zone.getId() + "] alias[" + definition.getIdpEntityAlias() + "]");
-            try {
-                ExtendedMetadataDelegate delegate = configurator.getExtendedMetadataDelegate(definition);
-                initializeProvider(delegate);
-                initializeProviderData(delegate);
-                initializeProviderFilters(delegate);
-                result.add(delegate);
-            } catch (RestClientException | MetadataProviderException e) {
-                log.error("Invalid SAML IDP zone[" + zone.getId() + "] alias[" + definition.getIdpEntityAlias() + "]", e);
-            }
-        }
+        result.addAll(providerCache.getProviders(zone.getId(), this::loadProvider));
         return result;
     }
 
+    protected SamlMetadataIndex getIndex() {
+        return providerCache.getIndex(IdentityZoneHolder.get().getId(), this::loadProvider);
+    }
+
+    /**
+     * @return the local service provider if it holds the entity, otherwise the
+     * identity provider holding it according to the zone's index, or null
+     */
+    protected ExtendedMetadataDelegate getProviderForEntity(String entityID) throws MetadataProviderException {
+        ExtendedMetadataDelegate local = getLocalServiceProvider();
+        if (entityID != null && local.getEntityDescriptor(entityID) != null) {
+            return local;
+        }
+        return getIndex().getProvider(entityID);
+    }
+
+    @Override
+    public String getMetadataVersion(String entityID) throws MetadataProviderException {
+        if (entityID == null) {
+            return null;
+        }
+        IdentityZone zone = IdentityZoneHolder.get();
+        if (getLocalServiceProvider().getEntityDescriptor(entityID) != null) {
+            return "local:" + SamlMetadataDocumentCache.getVersion(zone);
+        }
+        return providerCache.getMetadataVersion(zone.getId(), entityID, this::loadProvider);
+    }
+
+    /**
+     * Loads the identity providers of the current zone into the provider
+     * cache ahead of the first login request.
+     */
+    public void warmUp() {
+        providerCache.getProviders(IdentityZoneHolder.get().getId(), this::loadProvider);
+    }
+
+    protected ExtendedMetadataDelegate loadProvider(SamlIdentityProviderDefinition definition) throws MetadataProviderException {
+        ExtendedMetadataDelegate delegate = configurator.getExtendedMetadataDelegate(definition);
+        initializeProvider(delegate);
+        initializeProviderData(delegate);
+        initializeProviderFilters(delegate);
+        return delegate;
+    }
+
     @Override
     protected void initializeProvider(ExtendedMetadataDelegate provider) throws MetadataProviderException {
         // Initialize provider and perform signature verification
@@ -392,32 +458,30 @@ public class NonSnarlMetadataManager extends MetadataManager implements Extended
     @Override
     public Set<String> getIDPEntityNames() {
         Set<String> result = new HashSet<>();
-        for (ExtendedMetadataDelegate delegate : getAvailableProviders()) {
-            try {
-                String idp = getProviderIdpAlias(delegate);
-                if (StringUtils.hasText(idp)) {
-                    result.add(idp);
-                }
-            } catch (MetadataProviderException e) {
-                log.error("Unable to get IDP alias for:"+delegate, e);
+        try {
+            String idp = getProviderIdpAlias(getLocalServiceProvider());
+            if (StringUtils.hasText(idp)) {
+                result.add(idp);
             }
+        } catch (MetadataProviderException e) {
+            log.error("Unable to get IDP alias for the local service provider", e);
         }
+        result.addAll(getIndex().getIdpEntityNames());
         return result;
     }
 
     @Override
     public Set<String> getSPEntityNames() {
         Set<String> result = new HashSet<>();
-        for (ExtendedMetadataDelegate delegate : getAvailableProviders()) {
-            try {
-                String sp = getHostedSpName(delegate);
-                if (StringUtils.hasText(sp)) {
-                    result.add(sp);
-                }
-            } catch (MetadataProviderException e) {
-                log.error("Unable to get IDP alias for:"+delegate, e);
+        try {
+            String sp = getHostedSpName(getLocalServiceProvider());
+            if (StringUtils.hasText(sp)) {
+                result.add(sp);
             }
+        } catch (MetadataProviderException e) {
+            log.error("Unable to get SP name for the local service provider", e);
         }
+        result.addAll(getIndex().getSpEntityNames());
         return result;
     }
 
@@ -433,17 +497,16 @@ public class NonSnarlMetadataManager extends MetadataManager implements Extended
 
     @Override
     public String getHostedSPName() {
-        for (ExtendedMetadataDelegate delegate : getAvailableProviders()) {
-            try {
-                String spName = getHostedSpName(delegate);
-                if (StringUtils.hasText(spName)) {
-                    return spName;
-                }
-            } catch (MetadataProviderException e) {
-                log.error("Unable to find hosted SP name:"+delegate, e);
+        try {
+            String spName = getHostedSpName(getLocalServiceProvider());
+            if (StringUtils.hasText(spName)) {
+                return spName;
             }
+        } catch (MetadataProviderException e) {
+            log.error("Unable to find hosted SP name for the local service provider", e);
         }
-        return null;
+        Iterator<String> indexed = getIndex().getSpEntityNames().iterator();
+        return indexed.hasNext() ? indexed.next() : null;
     }
 
     @Override
@@ -468,7 +531,8 @@ public class NonSnarlMetadataManager extends MetadataManager implements Extended
 
     @Override
     public ExtendedMetadata getExtendedMetadata(String entityID) throws MetadataProviderException {
-        for (MetadataProvider provider : getProviders()) {
+        ExtendedMetadataDelegate provider = getProviderForEntity(entityID);
+        if (provider != null) {
             ExtendedMetadata extendedMetadata = getExtendedMetadata(entityID, provider);
             if (extendedMetadata != null) {
                 return extendedMetadata;
@@ -490,19 +554,14 @@ public class NonSnarlMetadataManager extends MetadataManager implements Extended
 
     @Override
     public EntityDescriptor getEntityDescriptor(byte[] hash) throws MetadataProviderException {
-        for (String idp : getIDPEntityNames()) {
-            if (SAMLUtil.compare(hash, idp)) {
-                return getEntityDescriptor(idp);
+        ExtendedMetadataDelegate local = getLocalServiceProvider();
+        for (String name : Arrays.asList(getProviderIdpAlias(local), getHostedSpName(local))) {
+            if (name != null && SAMLUtil.compare(hash, name)) {
+                return local.getEntityDescriptor(name);
             }
         }
-
-        for (String sp : getSPEntityNames()) {
-            if (SAMLUtil.compare(hash, sp)) {
-                return getEntityDescriptor(sp);
-            }
-        }
-
-        return null;
+        String entityId = getIndex().getEntityIdForHash(hash);
+        return entityId == null ? null : getEntityDescriptor(entityId);
     }
 
     @Override
@@ -513,26 +572,26 @@ public class NonSnarlMetadataManager extends MetadataManager implements Extended
 
         String entityId = null;
 
-        for (String idp : getIDPEntityNames()) {
-            ExtendedMetadata extendedMetadata = getExtendedMetadata(idp);
-            if (extendedMetadata.isLocal() && entityAlias.equals(extendedMetadata.getAlias())) {
-                if (entityId != null && !entityId.equals(idp)) {
-                    throw new MetadataProviderException("Alias " + entityAlias + " is used both for entity " + entityId + " and " + idp);
-                } else {
-                    entityId = idp;
+        ExtendedMetadataDelegate local = getLocalServiceProvider();
+        for (String name : Arrays.asList(getProviderIdpAlias(local), getHostedSpName(local))) {
+            if (name == null) {
+                continue;
+            }
+            ExtendedMetadata extendedMetadata = getExtendedMetadata(name, local);
+            if (extendedMetadata != null && extendedMetadata.isLocal() && entityAlias.equals(extendedMetadata.getAlias())) {
+                if (entityId != null && !entityId.equals(name)) {
+                    throw new MetadataProviderException("Alias " + entityAlias + " is used both for entity " + entityId + " and " + name);
                 }
+                entityId = name;
             }
         }
 
-        for (String sp : getSPEntityNames()) {
-            ExtendedMetadata extendedMetadata = getExtendedMetadata(sp);
-            if (extendedMetadata.isLocal() && entityAlias.equals(extendedMetadata.getAlias())) {
-                if (entityId != null && !entityId.equals(sp)) {
-                    throw new MetadataProviderException("Alias " + entityAlias + " is used both for entity " + entityId + " and " + sp);
-                } else {
-                    entityId = sp;
-                }
+        String indexed = getIndex().getEntityIdForAlias(entityAlias);
+        if (indexed != null) {
+            if (entityId != null && !entityId.equals(indexed)) {
+                throw new MetadataProviderException("Alias " + entityAlias + " is used both for entity " + entityId + " and " + indexed);
             }
+            entityId = indexed;
         }
 
         return entityId;
@@ -594,60 +653,45 @@ public class NonSnarlMetadataManager extends MetadataManager implements Extended
 
     /** {@inheritDoc} */
     public EntityDescriptor getEntityDescriptor(String entityID) throws MetadataProviderException {
-        EntityDescriptor descriptor = null;
-        for (MetadataProvider provider : getProviders()) {
-            log.debug("Checking child metadata provider for entity descriptor with entity ID: {}", entityID);
-            try {
-                descriptor = provider.getEntityDescriptor(entityID);
-                if (descriptor != null) {
-                    break;
-                }
-            } catch (MetadataProviderException e) {
-                log.warn("Error retrieving metadata from provider of type {}, proceeding to next provider",
-                         provider.getClass().getName(), e);
-                continue;
-            }
+        ExtendedMetadataDelegate provider = getProviderForEntity(entityID);
+        if (provider == null) {
+            return null;
+        }
+        try {
+            return provider.getEntityDescriptor(entityID);
+        } catch (MetadataProviderException e) {
+            log.warn("Error retrieving metadata from provider of type {}", provider.getClass().getName(), e);
+            return null;
         }
-        return descriptor;
     }
 
     /** {@inheritDoc} */
     public List<RoleDescriptor> getRole(String entityID, QName roleName) throws MetadataProviderException {
-        List<RoleDescriptor> roleDescriptors = null;
-        for (MetadataProvider provider : getProviders()) {
-            log.debug("Checking child metadata provider for entity descriptor with entity ID: {}", entityID);
-            try {
-                roleDescriptors = provider.getRole(entityID, roleName);
-                if (roleDescriptors != null && !roleDescriptors.isEmpty()) {
-                    break;
-                }
-            } catch (MetadataProviderException e) {
-                log.warn("Error retrieving metadata from provider of type {}, proceeding to next provider",
-                         provider.getClass().getName(), e);
-                continue;
-            }
+        ExtendedMetadataDelegate provider = getProviderForEntity(entityID);
+        if (provider == null) {
+            return null;
+        }
+        try {
+            return provider.getRole(entityID, roleName);
+        } catch (MetadataProviderException e) {
+            log.warn("Error retrieving metadata from provider of type {}", provider.getClass().getName(), e);
+            return null;
         }
-        return roleDescriptors;
     }
 
     /** {@inheritDoc} */
     public RoleDescriptor getRole(String entityID, QName roleName, String supportedProtocol)
         throws MetadataProviderException {
-        RoleDescriptor roleDescriptor = null;
-        for (MetadataProvider provider : getProviders()) {
-            log.debug("Checking child metadata provider for entity descriptor with entity ID: {}", entityID);
-            try {
-                roleDescriptor = provider.getRole(entityID, roleName, supportedProtocol);
-                if (roleDescriptor != null) {
-                    break;
-                }
-            } catch (MetadataProviderException e) {
-                log.warn("Error retrieving metadata from provider of type {}, proceeding to next provider",
-                         provider.getClass().getName(), e);
-                continue;
-            }
+        ExtendedMetadataDelegate provider = getProviderForEntity(entityID);
+        if (provider == null) {
+            return null;
+        }
+        try {
+            return provider.getRole(entityID, roleName, supportedProtocol);
+        } catch (MetadataProviderException e) {
+            log.warn("Error retrieving metadata from provider of type {}", provider.getClass().getName(), e);
+            return null;
         }
-        return roleDescriptor;
     }
 
     @Override
@@ -655,10 +699,28 @@ public class NonSnarlMetadataManager extends MetadataManager implements Extended
         return new ChainingEntitiesDescriptor();
     }
 
+    public void setProviderCache(SamlMetadataProviderCache providerCache) {
+        this.providerCache = providerCache;
+    }
+
+    public SamlMetadataProviderCache getProviderCache() {
+        return providerCache;
+    }
+
     public void setMetadataGenerator(ZoneAwareMetadataGenerator generator) throws BeansException {
         this.generator = generator;
     }
 
+    private static class LocalServiceProvider {
+        private final String version;
+        private final ExtendedMetadataDelegate delegate;
+
+        LocalServiceProvider(String version, ExtendedMetadataDelegate delegate) {
+            this.version = version;
+            this.delegate = delegate;
+        }
+    }
+
     public class ChainingEntitiesDescriptor implements EntitiesDescriptor {
 
         /** Metadata from the child metadata providers. */
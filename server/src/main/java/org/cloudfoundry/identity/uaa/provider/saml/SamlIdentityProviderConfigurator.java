@@ -13,6 +13,8 @@
 package org.cloudfoundry.identity.uaa.provider.saml;
 
 import org.apache.http.client.utils.URIBuilder;
+import org.cloudfoundry.identity.uaa.audit.event.AbstractUaaEvent;
+import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
 import org.cloudfoundry.identity.uaa.constants.OriginKeys;
 import org.cloudfoundry.identity.uaa.provider.IdentityProvider;
 import org.cloudfoundry.identity.uaa.provider.IdentityProviderProvisioning;
@@ -22,6 +24,7 @@ import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
 import org.opensaml.saml2.metadata.provider.MetadataProviderException;
 import org.opensaml.xml.parse.BasicParserPool;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.ApplicationListener;
 import org.springframework.security.saml.metadata.ExtendedMetadata;
 import org.springframework.security.saml.metadata.ExtendedMetadataDelegate;
 import org.springframework.util.StringUtils;
@@ -29,15 +32,23 @@ import org.springframework.util.StringUtils;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static org.springframework.util.StringUtils.hasText;
 
-public class SamlIdentityProviderConfigurator implements InitializingBean {
+public class SamlIdentityProviderConfigurator implements InitializingBean, ApplicationListener<AbstractUaaEvent> {
     private BasicParserPool parserPool;
     private IdentityProviderProvisioning providerProvisioning;
     private FixedHttpMetaDataProvider fixedHttpMetaDataProvider;
+    private int streamingMetadataThreshold = 1024 * 1024;
+    private final ConcurrentMap<String, ZoneEntityIds> entityIds = new ConcurrentHashMap<>();
 
     public SamlIdentityProviderConfigurator() {
     }
@@ -48,9 +59,21 @@ public class SamlIdentityProviderConfigurator implements InitializingBean {
 
     public List<SamlIdentityProviderDefinition> getIdentityProviderDefinitionsForZone(IdentityZone zone) {
         List<SamlIdentityProviderDefinition> result = new LinkedList<>();
-        for (IdentityProvider provider : providerProvisioning.retrieveActive(zone.getId())) {
+        for (IdentityProvider<SamlIdentityProviderDefinition> provider : getIdentityProvidersForZone(zone.getId())) {
+            result.add(provider.getConfig());
+        }
+        return result;
+    }
+
+    /**
+     * @return the active SAML identity providers of the zone, including their id and last modified date
+     */
+    @SuppressWarnings("unchecked")
+    public List<IdentityProvider<SamlIdentityProviderDefinition>> getIdentityProvidersForZone(String zoneId) {
+        List<IdentityProvider<SamlIdentityProviderDefinition>> result = new LinkedList<>();
+        for (IdentityProvider provider : providerProvisioning.retrieveActive(zoneId)) {
             if (OriginKeys.SAML.equals(provider.getType())) {
-                result.add((SamlIdentityProviderDefinition) provider.getConfig());
+                result.add(provider);
             }
         }
         return result;
@@ -72,12 +95,17 @@ public class SamlIdentityProviderConfigurator implements InitializingBean {
 
     /**
      * adds or replaces a SAML identity proviider
+     * <p>
+     * Duplicate entity ids are detected through an index of the entity ids of
+     * the zone's providers. The index only loads the metadata of providers
+     * that were added or changed since the last validation in the zone, and
+     * validations in different zones do not wait for each other.
      *
      * @param providerDefinition - the provider to be added
      * @throws MetadataProviderException if the system fails to fetch meta data for this provider
      */
-    public synchronized void validateSamlIdentityProviderDefinition(SamlIdentityProviderDefinition providerDefinition) throws MetadataProviderException {
-        ExtendedMetadataDelegate added, deleted = null;
+    public void validateSamlIdentityProviderDefinition(SamlIdentityProviderDefinition providerDefinition) throws MetadataProviderException {
+        ExtendedMetadataDelegate added;
         if (providerDefinition == null) {
             throw new NullPointerException();
         }
@@ -94,15 +122,12 @@ public class SamlIdentityProviderConfigurator implements InitializingBean {
             throw new MetadataProviderException("Emtpy entityID for SAML provider with zoneId:" + providerDefinition.getZoneId() + " and origin:" + providerDefinition.getIdpEntityAlias());
         }
 
-        boolean entityIDexists = false;
-
-        for (SamlIdentityProviderDefinition existing : getIdentityProviderDefinitions()) {
-            ConfigMetadataProvider existingProvider = (ConfigMetadataProvider) getExtendedMetadataDelegate(existing).getDelegate();
-            if (entityIDToBeAdded.equals(existingProvider.getEntityID()) &&
-              !(existing.getUniqueAlias().equals(clone.getUniqueAlias()))) {
-                entityIDexists = true;
-                break;
-            }
+        String zoneId = IdentityZoneHolder.get().getId();
+        ZoneEntityIds zone = entityIds.computeIfAbsent(zoneId, id -> new ZoneEntityIds());
+        boolean entityIDexists;
+        synchronized (zone) {
+            zone.refresh(getIdentityProvidersForZone(zoneId), this::loadEntityID);
+            entityIDexists = zone.isUsedByOtherProvider(entityIDToBeAdded, clone.getUniqueAlias());
         }
 
         if (entityIDexists) {
@@ -110,6 +135,10 @@ public class SamlIdentityProviderConfigurator implements InitializingBean {
         }
     }
 
+    private String loadEntityID(SamlIdentityProviderDefinition definition) throws MetadataProviderException {
+        return ((ConfigMetadataProvider) getExtendedMetadataDelegate(definition).getDelegate()).getEntityID();
+    }
+
     public ExtendedMetadataDelegate getExtendedMetadataDelegateFromCache(SamlIdentityProviderDefinition def) throws MetadataProviderException {
         return getExtendedMetadataDelegate(def);
     }
@@ -133,7 +162,9 @@ public class SamlIdentityProviderConfigurator implements InitializingBean {
     }
 
     protected ExtendedMetadataDelegate configureXMLMetadata(SamlIdentityProviderDefinition def) {
-        ConfigMetadataProvider configMetadataProvider = new ConfigMetadataProvider(def.getZoneId(), def.getIdpEntityAlias(), def.getMetaDataLocation());
+        ConfigMetadataProvider configMetadataProvider = isStreamed(def) ?
+            new StreamingMetadataProvider(def.getZoneId(), def.getIdpEntityAlias(), def.getMetaDataLocation()) :
+            new ConfigMetadataProvider(def.getZoneId(), def.getIdpEntityAlias(), def.getMetaDataLocation());
         configMetadataProvider.setParserPool(getParserPool());
         ExtendedMetadata extendedMetadata = new ExtendedMetadata();
         extendedMetadata.setLocal(false);
@@ -144,6 +175,16 @@ public class SamlIdentityProviderConfigurator implements InitializingBean {
         return delegate;
     }
 
+    /**
+     * Large metadata documents are streamed instead of unmarshalled as a whole,
+     * unless the signature of the document has to be verified.
+     */
+    protected boolean isStreamed(SamlIdentityProviderDefinition def) {
+        return streamingMetadataThreshold > 0 &&
+            !def.isMetadataTrustCheck() &&
+            def.getMetaDataLocation() != null &&
+            def.getMetaDataLocation().length() >= streamingMetadataThreshold;
+    }
 
     protected String adjustURIForPort(String uri) throws URISyntaxException {
         URI metadataURI = new URI(uri);
@@ -195,7 +236,75 @@ public class SamlIdentityProviderConfigurator implements InitializingBean {
     public void afterPropertiesSet() throws Exception {
     }
 
+    @Override
+    public void onApplicationEvent(AbstractUaaEvent event) {
+        if (event instanceof EntityDeletedEvent) {
+            Object deleted = ((EntityDeletedEvent<?>) event).getDeleted();
+            if (deleted instanceof IdentityZone) {
+                entityIds.remove(((IdentityZone) deleted).getId());
+            }
+        }
+    }
+
     public void setFixedHttpMetaDataProvider(FixedHttpMetaDataProvider fixedHttpMetaDataProvider) {
         this.fixedHttpMetaDataProvider = fixedHttpMetaDataProvider;
     }
+
+    /**
+     * @param streamingMetadataThreshold the size in characters from which metadata is streamed, 0 to never stream
+     */
+    public void setStreamingMetadataThreshold(int streamingMetadataThreshold) {
+        this.streamingMetadataThreshold = streamingMetadataThreshold;
+    }
+
+    private interface EntityIDLoader {
+        String load(SamlIdentityProviderDefinition definition) throws MetadataProviderException;
+    }
+
+    /**
+     * The entity ids of a zone's providers, keyed by provider id and reused
+     * for as long as the provider's version and last modified date do not change.
+     */
+    private static class ZoneEntityIds {
+        private Map<String, CachedEntityID> byProviderId = new HashMap<>();
+        private Map<String, Set<String>> uniqueAliasesByEntityID = new HashMap<>();
+
+        void refresh(List<IdentityProvider<SamlIdentityProviderDefinition>> providers, EntityIDLoader loader) throws MetadataProviderException {
+            Map<String, CachedEntityID> refreshed = new HashMap<>();
+            Map<String, Set<String>> aliases = new HashMap<>();
+            for (IdentityProvider<SamlIdentityProviderDefinition> provider : providers) {
+                String key = cacheKey(provider);
+                CachedEntityID cached = byProviderId.get(provider.getId());
+                if (cached == null || !cached.key.equals(key)) {
+                    cached = new CachedEntityID(key, loader.load(provider.getConfig()), provider.getConfig().getUniqueAlias());
+                }
+                refreshed.put(provider.getId(), cached);
+                aliases.computeIfAbsent(cached.entityID, id -> new HashSet<>()).add(cached.uniqueAlias);
+            }
+            byProviderId = refreshed;
+            uniqueAliasesByEntityID = aliases;
+        }
+
+        private static String cacheKey(IdentityProvider<SamlIdentityProviderDefinition> provider) {
+            long lastModified = provider.getLastModified() == null ? 0 : provider.getLastModified().getTime();
+            return provider.getId() + ":" + provider.getVersion() + ":" + lastModified;
+        }
+
+        boolean isUsedByOtherProvider(String entityID, String uniqueAlias) {
+            Set<String> aliases = uniqueAliasesByEntityID.get(entityID);
+            return aliases != null && (aliases.size() > 1 || !aliases.contains(uniqueAlias));
+        }
+    }
+
+    private static class CachedEntityID {
+        private final String key;
+        private final String entityID;
+        private final String uniqueAlias;
+
+        CachedEntityID(String key, String entityID, String uniqueAlias) {
+            this.key = key;
+            this.entityID = entityID;
+            this.uniqueAlias = uniqueAlias;
+        }
+    }
 }
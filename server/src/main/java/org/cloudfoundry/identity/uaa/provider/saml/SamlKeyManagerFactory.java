@@ -20,12 +20,19 @@ import org.slf4j.LoggerFactory;
 import org.springframework.security.saml.key.JKSKeyManager;
 import org.springframework.security.saml.key.KeyManager;
 
+import java.nio.charset.StandardCharsets;
 import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static java.util.Optional.ofNullable;
 
@@ -33,6 +40,8 @@ public final class SamlKeyManagerFactory {
 
     protected final static Logger logger = LoggerFactory.getLogger(SamlKeyManagerFactory.class);
 
+    private final ConcurrentMap<String, CachedKeyManager> keyManagers = new ConcurrentHashMap<>();
+
     public SamlKeyManagerFactory() {
     }
 
@@ -40,6 +49,70 @@ public final class SamlKeyManagerFactory {
         return getKeyManager(config.getKeys(), config.getActiveKeyId());
     }
 
+    /**
+     * Returns the key manager for the zone, building it only when the key
+     * material in the zone's SAML config differs from the one the cached key
+     * manager was built from.
+     */
+    public KeyManager getKeyManager(String zoneId, SamlConfig config) {
+        if (zoneId == null || config == null) {
+            return config == null ? null : getKeyManager(config);
+        }
+        Map<String, SamlKey> keys = config.getKeys();
+        String activeKeyId = config.getActiveKeyId();
+        byte[] hash = hash(keys, activeKeyId);
+        CachedKeyManager cached = keyManagers.get(zoneId);
+        if (cached != null && Arrays.equals(cached.hash, hash)) {
+            return cached.keyManager;
+        }
+        KeyManager keyManager = getKeyManager(keys, activeKeyId);
+        if (keyManager == null) {
+            keyManagers.remove(zoneId);
+        } else {
+            keyManagers.put(zoneId, new CachedKeyManager(hash, keyManager));
+        }
+        return keyManager;
+    }
+
+    public void invalidate(String zoneId) {
+        if (zoneId != null) {
+            keyManagers.remove(zoneId);
+        }
+    }
+
+    int size() {
+        return keyManagers.size();
+    }
+
+    static byte[] hash(Map<String, SamlKey> keys, String activeKeyId) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        update(digest, activeKeyId);
+        for (Map.Entry<String, SamlKey> entry : new TreeMap<>(keys).entrySet()) {
+            SamlKey key = entry.getValue();
+            update(digest, entry.getKey());
+            update(digest, key == null ? null : key.getKey());
+            update(digest, key == null ? null : key.getPassphrase());
+            update(digest, key == null ? null : key.getCertificate());
+        }
+        return digest.digest();
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        if (value == null) {
+            digest.update((byte) 0);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            digest.update((byte) 1);
+            digest.update(new byte[] {(byte) (bytes.length >>> 24), (byte) (bytes.length >>> 16), (byte) (bytes.length >>> 8), (byte) bytes.length});
+            digest.update(bytes);
+        }
+    }
+
     private KeyManager getKeyManager(Map<String, SamlKey> keys, String activeKeyId) {
         SamlKey activeKey = keys.get(activeKeyId);
 
@@ -81,4 +154,14 @@ public final class SamlKeyManagerFactory {
                     t);
         }
     }
+
+    private static final class CachedKeyManager {
+        private final byte[] hash;
+        private final KeyManager keyManager;
+
+        private CachedKeyManager(byte[] hash, KeyManager keyManager) {
+            this.hash = hash;
+            this.keyManager = keyManager;
+        }
+    }
 }
@@ -0,0 +1,176 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.provider.saml;
+
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Holds the generated, and possibly signed, metadata document of each zone.
+ * A document is reused for as long as the zone's version and last modified
+ * time are unchanged, which covers every change to the zone's SAML config.
+ */
+public class SamlMetadataDocumentCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(SamlMetadataDocumentCache.class);
+
+    public interface DocumentGenerator {
+        String generate() throws Exception;
+    }
+
+    private final ConcurrentMap<String, Document> documents = new ConcurrentHashMap<>();
+    private volatile Executor executor;
+
+    public Document getDocument(IdentityZone zone, DocumentGenerator generator) throws Exception {
+        String version = getVersion(zone);
+        Document document = documents.get(zone.getId());
+        if (document != null && document.version.equals(version)) {
+            return document;
+        }
+        document = new Document(version, generator.generate());
+        documents.put(zone.getId(), document);
+        return document;
+    }
+
+    /**
+     * Generates the document of a zone that was just created or updated on a
+     * background thread, so that the next metadata request finds it cached.
+     */
+    public void pregenerate(IdentityZone zone, DocumentGenerator generator) {
+        documents.remove(zone.getId());
+        getExecutor().execute(() -> {
+            IdentityZone current = IdentityZoneHolder.get();
+            try {
+                IdentityZoneHolder.set(zone);
+                getDocument(zone, generator);
+            } catch (Exception e) {
+                logger.warn("Unable to generate metadata for zone " + zone.getId(), e);
+            } finally {
+                IdentityZoneHolder.set(current);
+            }
+        });
+    }
+
+    public void remove(String zoneId) {
+        documents.remove(zoneId);
+    }
+
+    public int size() {
+        return documents.size();
+    }
+
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    private Executor getExecutor() {
+        if (executor == null) {
+            synchronized (this) {
+                if (executor == null) {
+                    executor = Executors.newSingleThreadExecutor(runnable -> {
+                        Thread thread = new Thread(runnable, "uaa-saml-metadata-generator");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return executor;
+    }
+
+    public static String getVersion(IdentityZone zone) {
+        long lastModified = zone.getLastModified() == null ? 0 : zone.getLastModified().getTime();
+        return zone.getVersion() + ":" + lastModified + ":" + zone.getSubdomain();
+    }
+
+    public static final class Document {
+        private final String version;
+        private final byte[] bytes;
+        private final String etag;
+
+        Document(String version, String metadata) {
+            this.version = version;
+            this.bytes = metadata.getBytes(StandardCharsets.UTF_8);
+            this.etag = "\"" + sha256(bytes) + "\"";
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        public String getETag() {
+            return etag;
+        }
+
+        /**
+         * Writes the document, or only a 304 status if the request already
+         * holds the current version.
+         */
+        public void write(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            response.setHeader("ETag", etag);
+            if (matches(request.getHeader("If-None-Match"))) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+            response.setContentType("application/samlmetadata+xml");
+            response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+            response.setContentLength(bytes.length);
+            response.getOutputStream().write(bytes);
+        }
+
+        /**
+         * @return true if the If-None-Match header value names this document
+         */
+        public boolean matches(String ifNoneMatch) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            for (String tag : ifNoneMatch.split(",")) {
+                String value = tag.trim();
+                if (value.startsWith("W/")) {
+                    value = value.substring(2);
+                }
+                if ("*".equals(value) || etag.equals(value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static String sha256(byte[] bytes) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+                StringBuilder hex = new StringBuilder(digest.length * 2);
+                for (byte b : digest) {
+                    hex.append(String.format("%02x", b));
+                }
+                return hex.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
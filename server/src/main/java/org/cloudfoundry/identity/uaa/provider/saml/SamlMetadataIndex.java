@@ -0,0 +1,216 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.provider.saml;
+
+import org.opensaml.common.xml.SAMLConstants;
+import org.opensaml.saml2.metadata.EntitiesDescriptor;
+import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml2.metadata.IDPSSODescriptor;
+import org.opensaml.saml2.metadata.SPSSODescriptor;
+import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+import org.opensaml.xml.XMLObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.saml.metadata.ExtendedMetadata;
+import org.springframework.security.saml.metadata.ExtendedMetadataDelegate;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maps the entity ids found in a list of metadata providers to the provider
+ * that holds them, so that descriptor, role and extended metadata lookups go
+ * straight to one provider instead of scanning all of them. The IDP and SP
+ * names are also indexed by the SHA-1 hash of the entity id, which is how
+ * SAML artifacts refer to their issuer, and local entities by alias.
+ * <p>
+ * When more than one provider holds an entity id the first one wins, the
+ * same result as scanning the providers in order. The index is immutable and
+ * is built once per load of the zone's providers.
+ */
+public class SamlMetadataIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(SamlMetadataIndex.class);
+
+    public static final SamlMetadataIndex EMPTY = build(Collections.emptyList());
+
+    private final Map<String, ExtendedMetadataDelegate> providers;
+    private final Set<String> idpEntityNames;
+    private final Set<String> spEntityNames;
+    private final Map<ByteBuffer, String> entityIdsByHash;
+    private final Map<String, String> entityIdsByAlias;
+
+    private SamlMetadataIndex(Map<String, ExtendedMetadataDelegate> providers,
+                              Set<String> idpEntityNames,
+                              Set<String> spEntityNames,
+                              Map<ByteBuffer, String> entityIdsByHash,
+                              Map<String, String> entityIdsByAlias) {
+        this.providers = providers;
+        this.idpEntityNames = idpEntityNames;
+        this.spEntityNames = spEntityNames;
+        this.entityIdsByHash = entityIdsByHash;
+        this.entityIdsByAlias = entityIdsByAlias;
+    }
+
+    public static SamlMetadataIndex build(List<ExtendedMetadataDelegate> delegates) {
+        Map<String, ExtendedMetadataDelegate> providers = new HashMap<>();
+        Set<String> idpEntityNames = new LinkedHashSet<>();
+        Set<String> spEntityNames = new LinkedHashSet<>();
+        Map<ByteBuffer, String> entityIdsByHash = new HashMap<>();
+        Map<String, String> entityIdsByAlias = new HashMap<>();
+        for (ExtendedMetadataDelegate delegate : delegates) {
+            try {
+                if (indexAggregate(delegate, providers, idpEntityNames, entityIdsByHash)) {
+                    continue;
+                }
+                String idpName = null;
+                String spName = null;
+                for (String entityId : entityIds(delegate.getMetadata())) {
+                    providers.putIfAbsent(entityId, delegate);
+                    if (idpName == null && delegate.getRole(entityId, IDPSSODescriptor.DEFAULT_ELEMENT_NAME, SAMLConstants.SAML20P_NS) != null) {
+                        idpName = entityId;
+                    }
+                    ExtendedMetadata extendedMetadata = delegate.getExtendedMetadata(entityId);
+                    if (extendedMetadata == null || !extendedMetadata.isLocal()) {
+                        continue;
+                    }
+                    if (spName == null && delegate.getRole(entityId, SPSSODescriptor.DEFAULT_ELEMENT_NAME, SAMLConstants.SAML20P_NS) != null) {
+                        spName = entityId;
+                    }
+                    if (extendedMetadata.getAlias() != null) {
+                        entityIdsByAlias.putIfAbsent(extendedMetadata.getAlias(), entityId);
+                    }
+                }
+                if (idpName != null) {
+                    idpEntityNames.add(idpName);
+                    entityIdsByHash.putIfAbsent(sha1(idpName), idpName);
+                }
+                if (spName != null) {
+                    spEntityNames.add(spName);
+                    entityIdsByHash.putIfAbsent(sha1(spName), spName);
+                }
+            } catch (MetadataProviderException e) {
+                logger.error("Unable to index metadata provider:" + delegate, e);
+            }
+        }
+        return new SamlMetadataIndex(
+            providers,
+            Collections.unmodifiableSet(idpEntityNames),
+            Collections.unmodifiableSet(spEntityNames),
+            entityIdsByHash,
+            entityIdsByAlias
+        );
+    }
+
+    /**
+     * Indexes all entities of a streamed aggregate without unmarshalling them.
+     *
+     * @return false if the delegate does not hold a streamed aggregate
+     */
+    private static boolean indexAggregate(ExtendedMetadataDelegate delegate,
+                                          Map<String, ExtendedMetadataDelegate> providers,
+                                          Set<String> idpEntityNames,
+                                          Map<ByteBuffer, String> entityIdsByHash) throws MetadataProviderException {
+        if (!(delegate.getDelegate() instanceof StreamingMetadataProvider)) {
+            return false;
+        }
+        StreamingMetadataProvider aggregate = (StreamingMetadataProvider) delegate.getDelegate();
+        List<String> entityIds = aggregate.getEntityIds();
+        if (entityIds == null) {
+            return false;
+        }
+        for (String entityId : entityIds) {
+            providers.putIfAbsent(entityId, delegate);
+        }
+        String idpName = aggregate.getIdentityProviderEntityId();
+        if (idpName != null) {
+            idpEntityNames.add(idpName);
+            entityIdsByHash.putIfAbsent(sha1(idpName), idpName);
+        }
+        return true;
+    }
+
+    private static List<String> entityIds(XMLObject metadata) {
+        List<String> result = new ArrayList<>();
+        addEntityIds(result, metadata);
+        return result;
+    }
+
+    private static void addEntityIds(List<String> result, XMLObject metadata) {
+        if (metadata instanceof EntityDescriptor) {
+            result.add(((EntityDescriptor) metadata).getEntityID());
+        } else if (metadata instanceof EntitiesDescriptor) {
+            EntitiesDescriptor descriptors = (EntitiesDescriptor) metadata;
+            if (descriptors.getEntitiesDescriptors() != null) {
+                for (EntitiesDescriptor descriptor : descriptors.getEntitiesDescriptors()) {
+                    addEntityIds(result, descriptor);
+                }
+            }
+            if (descriptors.getEntityDescriptors() != null) {
+                for (EntityDescriptor descriptor : descriptors.getEntityDescriptors()) {
+                    addEntityIds(result, descriptor);
+                }
+            }
+        }
+    }
+
+    static ByteBuffer sha1(String entityId) {
+        try {
+            return ByteBuffer.wrap(MessageDigest.getInstance("SHA-1").digest(entityId.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not supported", e);
+        }
+    }
+
+    /**
+     * @return the provider holding the entity, or null if no provider does
+     */
+    public ExtendedMetadataDelegate getProvider(String entityId) {
+        return entityId == null ? null : providers.get(entityId);
+    }
+
+    /**
+     * @return the IDP or SP entity id with the given SHA-1 hash, or null
+     */
+    public String getEntityIdForHash(byte[] hash) {
+        return hash == null ? null : entityIdsByHash.get(ByteBuffer.wrap(hash));
+    }
+
+    /**
+     * @return the id of the local entity with the given alias, or null
+     */
+    public String getEntityIdForAlias(String alias) {
+        return alias == null ? null : entityIdsByAlias.get(alias);
+    }
+
+    public Set<String> getIdpEntityNames() {
+        return idpEntityNames;
+    }
+
+    public Set<String> getSpEntityNames() {
+        return spEntityNames;
+    }
+
+    public int size() {
+        return providers.size();
+    }
+}
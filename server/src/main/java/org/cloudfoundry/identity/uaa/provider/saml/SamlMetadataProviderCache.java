@@ -0,0 +1,154 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.provider.saml;
+
+import org.cloudfoundry.identity.uaa.audit.event.AbstractUaaEvent;
+import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
+import org.cloudfoundry.identity.uaa.provider.IdentityProvider;
+import org.cloudfoundry.identity.uaa.provider.SamlIdentityProviderDefinition;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.cloudfoundry.identity.uaa.zone.event.IdentityProviderModifiedEvent;
+import org.cloudfoundry.identity.uaa.zone.event.IdentityZoneModifiedEvent;
+import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+import org.springframework.context.ApplicationListener;
+import org.springframework.security.saml.metadata.ExtendedMetadataDelegate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.cloudfoundry.identity.uaa.provider.SamlIdentityProviderDefinition.MetadataLocation.URL;
+
+/**
+ * Holds the initialized metadata providers of the active SAML identity
+ * providers per zone, so that metadata is not parsed and signature filters
+ * are not built on every call to the metadata manager.
+ * <p>
+ * A zone's providers are read from the database again when one of them is
+ * created, updated or deleted, or when the zone itself changes, and only the
+ * providers whose id, version or last modified date changed are loaded again.
+ * See {@link ZoneProviderCache} for revalidation and concurrent loading.
+ */
+public class SamlMetadataProviderCache
+    extends ZoneProviderCache<IdentityProvider<SamlIdentityProviderDefinition>, ExtendedMetadataDelegate, SamlMetadataProviderCache.ZoneIndex>
+    implements ApplicationListener<AbstractUaaEvent> {
+
+    public interface ProviderLoader {
+        ExtendedMetadataDelegate load(SamlIdentityProviderDefinition definition) throws MetadataProviderException;
+    }
+
+    private final SamlIdentityProviderConfigurator configurator;
+
+    public SamlMetadataProviderCache(SamlIdentityProviderConfigurator configurator) {
+        this.configurator = configurator;
+    }
+
+    /**
+     * @return the initialized providers of the zone, in the order returned by the database;
+     * providers that fail to load are logged and left out
+     */
+    public List<ExtendedMetadataDelegate> getProviders(String zoneId, ProviderLoader loader) {
+        return snapshot(zoneId, loader).getIndex().delegates;
+    }
+
+    /**
+     * @return the index over the entities of the zone's providers, built when the providers were loaded
+     */
+    public SamlMetadataIndex getIndex(String zoneId, ProviderLoader loader) {
+        return snapshot(zoneId, loader).getIndex().index;
+    }
+
+    /**
+     * @return a key that changes whenever the provider holding the entity is modified
+     * or loaded again, or null if no provider of the zone holds the entity
+     */
+    public String getMetadataVersion(String zoneId, String entityId, ProviderLoader loader) {
+        ZoneIndex zone = snapshot(zoneId, loader).getIndex();
+        ExtendedMetadataDelegate delegate = zone.index.getProvider(entityId);
+        Entry<IdentityProvider<SamlIdentityProviderDefinition>, ExtendedMetadataDelegate> entry = delegate == null ? null : zone.byDelegate.get(delegate);
+        return entry == null ? null : entry.getVersion();
+    }
+
+    private Snapshot<IdentityProvider<SamlIdentityProviderDefinition>, ExtendedMetadataDelegate, ZoneIndex> snapshot(String zoneId, ProviderLoader loader) {
+        return getSnapshot(zoneId, provider -> loader.load(provider.getConfig()));
+    }
+
+    @Override
+    protected List<IdentityProvider<SamlIdentityProviderDefinition>> retrieveActive(String zoneId) {
+        return configurator.getIdentityProvidersForZone(zoneId);
+    }
+
+    @Override
+    protected String getId(IdentityProvider<SamlIdentityProviderDefinition> provider) {
+        return provider.getId();
+    }
+
+    @Override
+    protected String cacheKey(IdentityProvider<SamlIdentityProviderDefinition> provider) {
+        long lastModified = provider.getLastModified() == null ? 0 : provider.getLastModified().getTime();
+        return provider.getId() + ":" + provider.getVersion() + ":" + lastModified;
+    }
+
+    @Override
+    protected boolean isReloadedOnRevalidate(IdentityProvider<SamlIdentityProviderDefinition> provider) {
+        return provider.getConfig().getType() == URL;
+    }
+
+    @Override
+    protected String describe(IdentityProvider<SamlIdentityProviderDefinition> provider) {
+        return "SAML IDP zone[" + provider.getIdentityZoneId() + "] alias[" + provider.getConfig().getIdpEntityAlias() + "]";
+    }
+
+    @Override
+    protected ZoneIndex index(List<Entry<IdentityProvider<SamlIdentityProviderDefinition>, ExtendedMetadataDelegate>> entries) {
+        List<ExtendedMetadataDelegate> delegates = new ArrayList<>();
+        Map<ExtendedMetadataDelegate, Entry<IdentityProvider<SamlIdentityProviderDefinition>, ExtendedMetadataDelegate>> byDelegate = new IdentityHashMap<>();
+        for (Entry<IdentityProvider<SamlIdentityProviderDefinition>, ExtendedMetadataDelegate> entry : entries) {
+            delegates.add(entry.getValue());
+            byDelegate.put(entry.getValue(), entry);
+        }
+        return new ZoneIndex(Collections.unmodifiableList(delegates), byDelegate, SamlMetadataIndex.build(delegates));
+    }
+
+    @Override
+    public void onApplicationEvent(AbstractUaaEvent event) {
+        if (event instanceof IdentityProviderModifiedEvent) {
+            invalidate(((IdentityProvider) event.getSource()).getIdentityZoneId());
+        } else if (event instanceof IdentityZoneModifiedEvent) {
+            invalidate(((IdentityZone) event.getSource()).getId());
+        } else if (event instanceof EntityDeletedEvent) {
+            Object deleted = ((EntityDeletedEvent<?>) event).getDeleted();
+            if (deleted instanceof IdentityProvider) {
+                invalidate(((IdentityProvider) deleted).getIdentityZoneId());
+            } else if (deleted instanceof IdentityZone) {
+                remove(((IdentityZone) deleted).getId());
+            }
+        }
+    }
+
+    static class ZoneIndex {
+        private final List<ExtendedMetadataDelegate> delegates;
+        private final Map<ExtendedMetadataDelegate, Entry<IdentityProvider<SamlIdentityProviderDefinition>, ExtendedMetadataDelegate>> byDelegate;
+        private final SamlMetadataIndex index;
+
+        ZoneIndex(List<ExtendedMetadataDelegate> delegates,
+                  Map<ExtendedMetadataDelegate, Entry<IdentityProvider<SamlIdentityProviderDefinition>, ExtendedMetadataDelegate>> byDelegate,
+                  SamlMetadataIndex index) {
+            this.delegates = delegates;
+            this.byDelegate = byDelegate;
+            this.index = index;
+        }
+    }
+}
@@ -0,0 +1,398 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.provider.saml;
+
+import org.opensaml.common.xml.SAMLConstants;
+import org.opensaml.saml2.metadata.EntitiesDescriptor;
+import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml2.metadata.IDPSSODescriptor;
+import org.opensaml.saml2.metadata.RoleDescriptor;
+import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+import org.opensaml.xml.Configuration;
+import org.opensaml.xml.XMLObject;
+import org.opensaml.xml.io.UnmarshallingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static javax.xml.stream.XMLStreamConstants.CDATA;
+import static javax.xml.stream.XMLStreamConstants.CHARACTERS;
+import static javax.xml.stream.XMLStreamConstants.COMMENT;
+import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
+import static javax.xml.stream.XMLStreamConstants.PROCESSING_INSTRUCTION;
+import static javax.xml.stream.XMLStreamConstants.SPACE;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+
+/**
+ * A {@link ConfigMetadataProvider} for large metadata aggregates. Instead of
+ * unmarshalling the whole document, the aggregate is read once with StAX and
+ * every {@code EntityDescriptor} is copied into a compact buffer, indexed by
+ * entity id and offset. Only the first entity with a SAML 2 IDP role, the one
+ * the identity provider definition stands for, is unmarshalled up front;
+ * other entities are unmarshalled the first time they are looked up. Once
+ * the buffer is built the metadata document itself is released, so only the
+ * buffer stays on the heap for the lifetime of the provider.
+ * <p>
+ * Documents whose root is not an {@code EntitiesDescriptor} are handled
+ * exactly like {@link ConfigMetadataProvider} does. The signature of the
+ * aggregate itself is not kept, so this provider must not be used when the
+ * metadata signature has to be verified.
+ */
+public class StreamingMetadataProvider extends ConfigMetadataProvider {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamingMetadataProvider.class);
+
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    static {
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+    }
+
+    private final ConcurrentMap<String, EntityDescriptor> materialized = new ConcurrentHashMap<>();
+    private volatile Aggregate aggregate;
+    private volatile boolean scanned;
+    private volatile EntitiesDescriptor selected;
+
+    public StreamingMetadataProvider(String zoneId, String alias, String metadata) {
+        super(zoneId, alias, metadata);
+    }
+
+    /**
+     * @return the entity this provider stands for as a standalone document, the
+     * same entity {@link #doGetMetadata()} holds, or an empty array if there is none
+     */
+    @Override
+    public byte[] fetchMetadata() throws MetadataProviderException {
+        Aggregate aggregate = getAggregate();
+        if (aggregate == null) {
+            return super.fetchMetadata();
+        }
+        if (aggregate.identityProvider == null) {
+            return new byte[0];
+        }
+        Entry entry = aggregate.entries.get(aggregate.identityProvider);
+        return Arrays.copyOfRange(aggregate.entities, entry.offset, entry.offset + entry.length);
+    }
+
+    /**
+     * @return an {@code EntitiesDescriptor} holding only the entity this provider stands for
+     */
+    @Override
+    public XMLObject doGetMetadata() throws MetadataProviderException {
+        Aggregate aggregate = getAggregate();
+        if (aggregate == null) {
+            return super.doGetMetadata();
+        }
+        if (selected == null) {
+            synchronized (this) {
+                if (selected == null) {
+                    EntitiesDescriptor descriptor = (EntitiesDescriptor) Configuration.getBuilderFactory()
+                        .getBuilder(EntitiesDescriptor.DEFAULT_ELEMENT_NAME)
+                        .buildObject(EntitiesDescriptor.DEFAULT_ELEMENT_NAME);
+                    descriptor.setName(aggregate.name);
+                    if (aggregate.identityProvider != null) {
+                        descriptor.getEntityDescriptors().add(materialize(aggregate, aggregate.identityProvider));
+                    }
+                    selected = descriptor;
+                }
+            }
+        }
+        return selected;
+    }
+
+    @Override
+    public EntityDescriptor getEntityDescriptor(String entityID) throws MetadataProviderException {
+        Aggregate aggregate = getAggregate();
+        if (aggregate == null) {
+            return super.getEntityDescriptor(entityID);
+        }
+        return aggregate.entries.containsKey(entityID) ? materialize(aggregate, entityID) : null;
+    }
+
+    @Override
+    public List<RoleDescriptor> getRole(String entityID, QName roleName) throws MetadataProviderException {
+        if (getAggregate() == null) {
+            return super.getRole(entityID, roleName);
+        }
+        EntityDescriptor descriptor = getEntityDescriptor(entityID);
+        return descriptor == null ? null : descriptor.getRoleDescriptors(roleName);
+    }
+
+    @Override
+    public RoleDescriptor getRole(String entityID, QName roleName, String supportedProtocol) throws MetadataProviderException {
+        if (getAggregate() == null) {
+            return super.getRole(entityID, roleName, supportedProtocol);
+        }
+        List<RoleDescriptor> roles = getRole(entityID, roleName);
+        if (roles != null) {
+            for (RoleDescriptor role : roles) {
+                if (role.isSupportedProtocol(supportedProtocol)) {
+                    return role;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the ids of all entities in the aggregate in document order, or null if the metadata is not an aggregate
+     */
+    public List<String> getEntityIds() throws MetadataProviderException {
+        Aggregate aggregate = getAggregate();
+        return aggregate == null ? null : Collections.unmodifiableList(new ArrayList<>(aggregate.entries.keySet()));
+    }
+
+    /**
+     * @return the id of the first entity with a SAML 2 IDP role, or null
+     */
+    public String getIdentityProviderEntityId() throws MetadataProviderException {
+        Aggregate aggregate = getAggregate();
+        return aggregate == null ? null : aggregate.identityProvider;
+    }
+
+    /**
+     * @return the number of entities that have been unmarshalled so far
+     */
+    public int getMaterializedCount() {
+        return materialized.size();
+    }
+
+    private Aggregate getAggregate() throws MetadataProviderException {
+        if (!scanned) {
+            synchronized (this) {
+                if (!scanned) {
+                    long start = System.currentTimeMillis();
+                    try {
+                        aggregate = scan(getMetadataDocument());
+                    } catch (XMLStreamException e) {
+                        throw new MetadataProviderException("Unable to read metadata for alias[" + getAlias() + "]", e);
+                    }
+                    scanned = true;
+                    if (aggregate != null) {
+                        releaseMetadataDocument();
+                        logger.info("Indexed " + aggregate.entries.size() + " entities in " + aggregate.entities.length +
+                                    " bytes for alias[" + getAlias() + "] in " + (System.currentTimeMillis() - start) + "ms");
+                    }
+                }
+            }
+        }
+        return aggregate;
+    }
+
+    private EntityDescriptor materialize(Aggregate aggregate, String entityID) throws MetadataProviderException {
+        EntityDescriptor descriptor = materialized.get(entityID);
+        if (descriptor != null) {
+            return descriptor;
+        }
+        Entry entry = aggregate.entries.get(entityID);
+        try {
+            descriptor = (EntityDescriptor) unmarshallMetadata(new ByteArrayInputStream(aggregate.entities, entry.offset, entry.length));
+        } catch (UnmarshallingException | ClassCastException e) {
+            throw new MetadataProviderException("Unable to unmarshall entity " + entityID + " for alias[" + getAlias() + "]", e);
+        }
+        EntityDescriptor existing = materialized.putIfAbsent(entityID, descriptor);
+        return existing == null ? descriptor : existing;
+    }
+
+    private static Aggregate scan(String metadata) throws XMLStreamException {
+        XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(new StringReader(metadata));
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(1024, metadata.length() / 2));
+            Map<String, Entry> entries = new LinkedHashMap<>();
+            Deque<Map<String, String>> namespaces = new ArrayDeque<>();
+            String name = null;
+            String identityProvider = null;
+            boolean root = true;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == START_ELEMENT) {
+                    if (root) {
+                        if (!isMetadataElement(reader, EntitiesDescriptor.DEFAULT_ELEMENT_LOCAL_NAME)) {
+                            return null;
+                        }
+                        name = reader.getAttributeValue(null, EntitiesDescriptor.NAME_ATTRIB_NAME);
+                        root = false;
+                    }
+                    if (isMetadataElement(reader, EntityDescriptor.DEFAULT_ELEMENT_LOCAL_NAME)) {
+                        String entityId = reader.getAttributeValue(null, EntityDescriptor.ENTITY_ID_ATTRIB_NAME);
+                        Entry entry = copyEntity(reader, namespaces, buffer);
+                        if (entityId != null && entries.putIfAbsent(entityId, entry) == null && identityProvider == null && entry.identityProvider) {
+                            identityProvider = entityId;
+                        }
+                        continue;
+                    }
+                    Map<String, String> declared = new HashMap<>();
+                    for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                        declared.put(prefix(reader.getNamespacePrefix(i)), reader.getNamespaceURI(i));
+                    }
+                    namespaces.push(declared);
+                } else if (event == END_ELEMENT) {
+                    namespaces.pop();
+                }
+            }
+            return root ? null : new Aggregate(name, buffer.toByteArray(), entries, identityProvider);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Copies the element the reader is positioned on, and everything in it,
+     * to the buffer as a standalone document. Namespaces declared by the
+     * enclosing elements are declared again on the copied element.
+     */
+    private static Entry copyEntity(XMLStreamReader reader, Deque<Map<String, String>> namespaces, ByteArrayOutputStream buffer) throws XMLStreamException {
+        int offset = buffer.size();
+        boolean identityProvider = false;
+        XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(buffer, "UTF-8");
+        int depth = 0;
+        int event = reader.getEventType();
+        while (true) {
+            switch (event) {
+                case START_ELEMENT:
+                    String namespace = reader.getNamespaceURI();
+                    if (namespace == null || namespace.isEmpty()) {
+                        writer.writeStartElement(reader.getLocalName());
+                    } else {
+                        writer.writeStartElement(prefix(reader.getPrefix()), reader.getLocalName(), namespace);
+                    }
+                    Map<String, String> declared = new HashMap<>();
+                    for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                        declared.put(prefix(reader.getNamespacePrefix(i)), reader.getNamespaceURI(i));
+                    }
+                    if (depth == 0) {
+                        Iterator<Map<String, String>> outermostFirst = namespaces.descendingIterator();
+                        Map<String, String> inherited = new HashMap<>();
+                        while (outermostFirst.hasNext()) {
+                            inherited.putAll(outermostFirst.next());
+                        }
+                        inherited.keySet().removeAll(declared.keySet());
+                        writeNamespaces(writer, inherited);
+                    }
+                    writeNamespaces(writer, declared);
+                    for (int i = 0; i < reader.getAttributeCount(); i++) {
+                        String attributeNamespace = reader.getAttributeNamespace(i);
+                        if (attributeNamespace == null || attributeNamespace.isEmpty()) {
+                            writer.writeAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                        } else {
+                            writer.writeAttribute(prefix(reader.getAttributePrefix(i)), attributeNamespace, reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                        }
+                    }
+                    if (depth == 1 && isMetadataElement(reader, IDPSSODescriptor.DEFAULT_ELEMENT_LOCAL_NAME) && supportsSaml2(reader)) {
+                        identityProvider = true;
+                    }
+                    depth++;
+                    break;
+                case END_ELEMENT:
+                    writer.writeEndElement();
+                    depth--;
+                    break;
+                case CHARACTERS:
+                case SPACE:
+                    writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                case CDATA:
+                    writer.writeCData(reader.getText());
+                    break;
+                case COMMENT:
+                    writer.writeComment(reader.getText());
+                    break;
+                case PROCESSING_INSTRUCTION:
+                    writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+                    break;
+                default:
+                    break;
+            }
+            if (depth == 0) {
+                break;
+            }
+            event = reader.next();
+        }
+        writer.flush();
+        writer.close();
+        return new Entry(offset, buffer.size() - offset, identityProvider);
+    }
+
+    private static void writeNamespaces(XMLStreamWriter writer, Map<String, String> namespaces) throws XMLStreamException {
+        for (Map.Entry<String, String> namespace : namespaces.entrySet()) {
+            if (namespace.getKey().isEmpty()) {
+                writer.writeDefaultNamespace(namespace.getValue());
+            } else {
+                writer.writeNamespace(namespace.getKey(), namespace.getValue());
+            }
+        }
+    }
+
+    private static boolean isMetadataElement(XMLStreamReader reader, String localName) {
+        return SAMLConstants.SAML20MD_NS.equals(reader.getNamespaceURI()) && localName.equals(reader.getLocalName());
+    }
+
+    private static boolean supportsSaml2(XMLStreamReader reader) {
+        String protocols = reader.getAttributeValue(null, RoleDescriptor.PROTOCOL_ENUMERATION_ATTRIB_NAME);
+        return protocols != null && protocols.contains(SAMLConstants.SAML20P_NS);
+    }
+
+    private static String prefix(String prefix) {
+        return prefix == null ? "" : prefix;
+    }
+
+    private static class Aggregate {
+        private final String name;
+        private final byte[] entities;
+        private final Map<String, Entry> entries;
+        private final String identityProvider;
+
+        Aggregate(String name, byte[] entities, Map<String, Entry> entries, String identityProvider) {
+            this.name = name;
+            this.entities = entities;
+            this.entries = entries;
+            this.identityProvider = identityProvider;
+        }
+    }
+
+    private static class Entry {
+        private final int offset;
+        private final int length;
+        private final boolean identityProvider;
+
+        Entry(int offset, int length, boolean identityProvider) {
+            this.offset = offset;
+            this.length = length;
+            this.identityProvider = identityProvider;
+        }
+    }
+}
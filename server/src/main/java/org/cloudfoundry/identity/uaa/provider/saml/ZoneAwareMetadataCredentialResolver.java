@@ -0,0 +1,159 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.provider.saml;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+import org.opensaml.xml.security.SecurityException;
+import org.opensaml.xml.security.credential.Credential;
+import org.opensaml.xml.security.credential.UsageType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.saml.key.KeyManager;
+import org.springframework.security.saml.metadata.MetadataManager;
+import org.springframework.security.saml.trust.MetadataCredentialResolver;
+
+import javax.xml.namespace.QName;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Objects;
+
+/**
+ * Caches the credentials resolved from metadata per zone and entity.
+ * The credential cache of the parent class is keyed by entity only and is
+ * therefore disabled. A cached entry stays valid for as long as the
+ * {@link MetadataVersionProvider#getMetadataVersion(String) metadata version}
+ * of the entity is unchanged, which is derived from the id, version and last
+ * modified time of the provider holding it. The least recently used entries
+ * are evicted once the cache holds {@link #setMaxEntries(int) maxEntries}.
+ */
+public class ZoneAwareMetadataCredentialResolver extends MetadataCredentialResolver {
+
+    private static final Logger logger = LoggerFactory.getLogger(ZoneAwareMetadataCredentialResolver.class);
+
+    private final MetadataManager metadataManager;
+    private volatile Cache<CredentialKey, CachedCredentials> credentials = buildCache(10000);
+
+    public ZoneAwareMetadataCredentialResolver(MetadataManager metadataProvider, KeyManager keyManager) {
+        super(metadataProvider, keyManager);
+        this.metadataManager = metadataProvider;
+    }
+
+    @Override
+    protected Collection<Credential> retrieveFromCache(MetadataCacheKey cacheKey) {
+        return null;
+    }
+
+    @Override
+    protected void cacheCredentials(MetadataCacheKey cacheKey, Collection<Credential> credentials) {
+        //cached per zone in retrieveFromMetadata
+    }
+
+    @Override
+    protected Collection<Credential> retrieveFromMetadata(String entityID, QName role, String protocol, UsageType usage) throws SecurityException {
+        String version = getMetadataVersion(entityID);
+        if (version == null) {
+            return loadFromMetadata(entityID, role, protocol, usage);
+        }
+        CredentialKey key = new CredentialKey(IdentityZoneHolder.get().getId(), entityID, role, protocol, usage);
+        Cache<CredentialKey, CachedCredentials> cache = credentials;
+        CachedCredentials cached = cache.getIfPresent(key);
+        if (cached != null && cached.version.equals(version)) {
+            return cached.credentials;
+        }
+        Collection<Credential> result = Collections.unmodifiableCollection(loadFromMetadata(entityID, role, protocol, usage));
+        cache.put(key, new CachedCredentials(version, result));
+        return result;
+    }
+
+    protected Collection<Credential> loadFromMetadata(String entityID, QName role, String protocol, UsageType usage) throws SecurityException {
+        return super.retrieveFromMetadata(entityID, role, protocol, usage);
+    }
+
+    private String getMetadataVersion(String entityID) {
+        if (!(metadataManager instanceof MetadataVersionProvider)) {
+            return null;
+        }
+        try {
+            return ((MetadataVersionProvider) metadataManager).getMetadataVersion(entityID);
+        } catch (MetadataProviderException e) {
+            logger.debug("Unable to retrieve metadata version for entity " + entityID, e);
+            return null;
+        }
+    }
+
+    private static Cache<CredentialKey, CachedCredentials> buildCache(int maxEntries) {
+        return CacheBuilder.newBuilder().maximumSize(maxEntries).build();
+    }
+
+    public void invalidate() {
+        credentials.invalidateAll();
+    }
+
+    public long size() {
+        return credentials.size();
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.credentials = buildCache(maxEntries);
+    }
+
+    private static final class CachedCredentials {
+        private final String version;
+        private final Collection<Credential> credentials;
+
+        private CachedCredentials(String version, Collection<Credential> credentials) {
+            this.version = version;
+            this.credentials = credentials;
+        }
+    }
+
+    private static final class CredentialKey {
+        private final String zoneId;
+        private final String entityID;
+        private final QName role;
+        private final String protocol;
+        private final UsageType usage;
+
+        private CredentialKey(String zoneId, String entityID, QName role, String protocol, UsageType usage) {
+            this.zoneId = zoneId;
+            this.entityID = entityID;
+            this.role = role;
+            this.protocol = protocol;
+            this.usage = usage;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CredentialKey)) {
+                return false;
+            }
+            CredentialKey that = (CredentialKey) o;
+            return Objects.equals(zoneId, that.zoneId) &&
+                    Objects.equals(entityID, that.entityID) &&
+                    Objects.equals(role, that.role) &&
+                    Objects.equals(protocol, that.protocol) &&
+                    usage == that.usage;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(zoneId, entityID, role, protocol, usage);
+        }
+    }
+}
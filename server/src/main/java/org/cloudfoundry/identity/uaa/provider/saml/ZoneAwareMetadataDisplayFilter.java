@@ -14,9 +14,14 @@
 
 package org.cloudfoundry.identity.uaa.provider.saml;
 
+import org.cloudfoundry.identity.uaa.audit.event.AbstractUaaEvent;
+import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.cloudfoundry.identity.uaa.zone.event.IdentityZoneModifiedEvent;
 import org.opensaml.saml2.metadata.EntityDescriptor;
 import org.opensaml.xml.io.MarshallingException;
+import org.springframework.context.ApplicationListener;
 import org.springframework.security.saml.metadata.MetadataDisplayFilter;
 import org.springframework.security.saml.metadata.MetadataGenerator;
 
@@ -26,10 +31,12 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.PrintWriter;
 
-public class ZoneAwareMetadataDisplayFilter extends MetadataDisplayFilter {
+public class ZoneAwareMetadataDisplayFilter extends MetadataDisplayFilter implements ApplicationListener<AbstractUaaEvent> {
 
     protected final MetadataGenerator generator;
 
+    private SamlMetadataDocumentCache documentCache = new SamlMetadataDocumentCache();
+
     public ZoneAwareMetadataDisplayFilter(MetadataGenerator generator) {
         this.generator = generator;
     }
@@ -38,22 +45,44 @@ public class ZoneAwareMetadataDisplayFilter extends MetadataDisplayFilter {
         return generator;
     }
 
+    public SamlMetadataDocumentCache getDocumentCache() {
+        return documentCache;
+    }
+
+    public void setDocumentCache(SamlMetadataDocumentCache documentCache) {
+        this.documentCache = documentCache;
+    }
+
     @Override
     protected void processMetadataDisplay(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
-        super.processMetadataDisplay(request, response);
+        SamlMetadataDocumentCache.Document document;
+        try {
+            document = documentCache.getDocument(IdentityZoneHolder.get(), this::generateMetadata);
+        } catch (ServletException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ServletException("Error retrieving metadata", e);
+        }
         response.setHeader("Content-Disposition", String.format("attachment; filename=\"saml-%ssp.xml\"",
                 !IdentityZoneHolder.isUaa() ? IdentityZoneHolder.get().getSubdomain() + "-" : ""));
+        document.write(request, response);
     }
 
     @Override
     protected void displayMetadata(String spEntityName, PrintWriter writer) throws ServletException {
+        writer.print(generateMetadata());
+    }
+
+    protected String generateMetadata() throws ServletException {
         try {
             EntityDescriptor descriptor = getGenerator().generateMetadata();
             if (descriptor == null) {
                 throw new ServletException("Metadata entity with ID " + manager.getHostedSPName() + " wasn't found");
             } else {
-                writer.print(getMetadataAsString(descriptor));
+                return getMetadataAsString(descriptor);
             }
+        } catch (ServletException e) {
+            throw e;
         } catch (MarshallingException e) {
             log.error("Error marshalling entity descriptor", e);
             throw new ServletException(e);
@@ -62,4 +91,16 @@ public class ZoneAwareMetadataDisplayFilter extends MetadataDisplayFilter {
             throw new ServletException("Error retrieving metadata", e);
         }
     }
+
+    @Override
+    public void onApplicationEvent(AbstractUaaEvent event) {
+        if (event instanceof IdentityZoneModifiedEvent) {
+            documentCache.pregenerate((IdentityZone) event.getSource(), this::generateMetadata);
+        } else if (event instanceof EntityDeletedEvent) {
+            Object deleted = ((EntityDeletedEvent<?>) event).getDeleted();
+            if (deleted instanceof IdentityZone) {
+                documentCache.remove(((IdentityZone) deleted).getId());
+            }
+        }
+    }
 }
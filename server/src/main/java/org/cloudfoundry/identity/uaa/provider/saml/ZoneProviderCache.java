@@ -0,0 +1,323 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.provider.saml;
+
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.cloudfoundry.identity.uaa.util.TimeServiceImpl;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.client.RestClientException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the loaded form of the active providers of each zone, so that
+ * metadata is not fetched, parsed and initialized on every request.
+ * <p>
+ * Each zone has a version that is incremented through {@link #invalidate(String)}
+ * whenever one of its providers is written. When the version has changed
+ * the zone's providers are read again, and only the providers whose
+ * {@link #cacheKey(Object) cache key} changed are loaded again. Changes made
+ * on other nodes are picked up the same way once the cached providers are
+ * older than the {@link #setRevalidateIntervalMillis(long) revalidate interval};
+ * at that point providers that are {@link #isReloadedOnRevalidate(Object)
+ * reloaded on revalidate}, such as the ones whose metadata is fetched from a
+ * URL, are loaded again too.
+ * <p>
+ * With {@link #setLoadThreads(int) loadThreads} above one, the providers that
+ * have to be loaded are loaded concurrently, bounded by the
+ * {@link #setLoadTimeoutMillis(long) load timeout}.
+ *
+ * @param <P> the provider as read from the database
+ * @param <T> the loaded provider
+ * @param <I> the index built over the loaded providers of a zone
+ */
+public abstract class ZoneProviderCache<P, T, I> {
+
+    private static final Logger logger = LoggerFactory.getLogger(ZoneProviderCache.class);
+
+    public interface Loader<P, T> {
+        T load(P provider) throws MetadataProviderException;
+    }
+
+    private final ConcurrentMap<String, ZoneProviders<P, T, I>> zones = new ConcurrentHashMap<>();
+    private TimeService timeService = new TimeServiceImpl();
+    private long revalidateIntervalMillis = 30 * 1000;
+    private int loadThreads = 1;
+    private long loadTimeoutMillis = 30 * 1000;
+    private volatile ExecutorService loadExecutor;
+
+    /**
+     * @return the active providers of the zone, in the order they are to be returned
+     */
+    protected abstract List<P> retrieveActive(String zoneId);
+
+    protected abstract String getId(P provider);
+
+    /**
+     * @return a key that changes whenever the provider is written
+     */
+    protected abstract String cacheKey(P provider);
+
+    /**
+     * @return true if the provider is loaded again once the cached providers are revalidated
+     */
+    protected abstract boolean isReloadedOnRevalidate(P provider);
+
+    /**
+     * @return the description of the provider used in log messages
+     */
+    protected abstract String describe(P provider);
+
+    /**
+     * @return the index over the loaded providers of a zone, built once per load of the zone
+     */
+    protected abstract I index(List<Entry<P, T>> entries);
+
+    /**
+     * @return the loaded providers of the zone, in the order returned by {@link #retrieveActive(String)};
+     * providers that fail to load are logged and left out
+     */
+    protected Snapshot<P, T, I> getSnapshot(String zoneId, Loader<P, T> loader) {
+        ZoneProviders<P, T, I> zone = zones.computeIfAbsent(zoneId, id -> new ZoneProviders<>());
+        Snapshot<P, T, I> snapshot = zone.snapshot;
+        long now = timeService.getCurrentTimeMillis();
+        if (snapshot != null && snapshot.version == zone.version.get() && !snapshot.isExpired(now, revalidateIntervalMillis)) {
+            return snapshot;
+        }
+        synchronized (zone) {
+            snapshot = zone.snapshot;
+            long version = zone.version.get();
+            if (snapshot == null || snapshot.version != version || snapshot.isExpired(now, revalidateIntervalMillis)) {
+                snapshot = load(zoneId, version, snapshot, now, loader);
+                zone.snapshot = snapshot;
+            }
+            return snapshot;
+        }
+    }
+
+    private Snapshot<P, T, I> load(String zoneId, long version, Snapshot<P, T, I> previous, long now, Loader<P, T> loader) {
+        boolean expired = previous != null && previous.isExpired(now, revalidateIntervalMillis);
+        List<P> active = retrieveActive(zoneId);
+        Map<String, Entry<P, T>> reused = new HashMap<>();
+        List<P> changed = new ArrayList<>();
+        for (P provider : active) {
+            Entry<P, T> cached = previous == null ? null : previous.byId.get(getId(provider));
+            boolean reusable = cached != null && cached.key.equals(cacheKey(provider)) && !(expired && isReloadedOnRevalidate(provider));
+            if (reusable) {
+                reused.put(getId(provider), cached);
+            } else {
+                changed.add(provider);
+            }
+        }
+        Map<P, Future<T>> pending = submit(changed, loader);
+
+        Map<String, Entry<P, T>> byId = new HashMap<>();
+        List<Entry<P, T>> entries = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(loadTimeoutMillis);
+        for (P provider : active) {
+            Entry<P, T> entry = reused.get(getId(provider));
+            if (entry == null) {
+                logger.info("Loading " + describe(provider));
+                try {
+                    Future<T> future = pending.get(provider);
+                    T value = future == null ? loader.load(provider) : await(future, deadline);
+                    entry = new Entry<>(cacheKey(provider), now, provider, value);
+                } catch (RestClientException | MetadataProviderException e) {
+                    logger.error("Unable to load " + describe(provider), e);
+                    continue;
+                }
+            }
+            byId.put(getId(provider), entry);
+            entries.add(entry);
+        }
+        return new Snapshot<>(version, now, byId, index(entries));
+    }
+
+    /**
+     * Starts loading the given providers on the load executor, in the zone of
+     * the calling thread. Nothing is submitted when the cache loads serially
+     * or only one provider changed.
+     */
+    private Map<P, Future<T>> submit(List<P> providers, Loader<P, T> loader) {
+        Map<P, Future<T>> pending = new IdentityHashMap<>();
+        if (loadThreads <= 1 || providers.size() <= 1) {
+            return pending;
+        }
+        IdentityZone zone = IdentityZoneHolder.get();
+        ExecutorService executor = getLoadExecutor();
+        for (P provider : providers) {
+            pending.put(provider, executor.submit(() -> {
+                IdentityZone current = IdentityZoneHolder.get();
+                try {
+                    IdentityZoneHolder.set(zone);
+                    return loader.load(provider);
+                } finally {
+                    IdentityZoneHolder.set(current);
+                }
+            }));
+        }
+        return pending;
+    }
+
+    private static <T> T await(Future<T> future, long deadline) throws MetadataProviderException {
+        try {
+            return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new MetadataProviderException("Timed out loading metadata", e);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new MetadataProviderException("Interrupted while loading metadata", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof MetadataProviderException) {
+                throw (MetadataProviderException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new MetadataProviderException(cause);
+        }
+    }
+
+    private ExecutorService getLoadExecutor() {
+        if (loadExecutor == null) {
+            synchronized (this) {
+                if (loadExecutor == null) {
+                    loadExecutor = Executors.newFixedThreadPool(loadThreads, runnable -> {
+                        Thread thread = new Thread(runnable, "uaa-saml-metadata-loader");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return loadExecutor;
+    }
+
+    /**
+     * Forces the providers of the zone to be read again on the next call.
+     */
+    public void invalidate(String zoneId) {
+        ZoneProviders<P, T, I> zone = zones.get(zoneId);
+        if (zone != null) {
+            zone.version.incrementAndGet();
+        }
+    }
+
+    public void remove(String zoneId) {
+        zones.remove(zoneId);
+    }
+
+    public void setTimeService(TimeService timeService) {
+        this.timeService = timeService;
+    }
+
+    public void setRevalidateIntervalMillis(long revalidateIntervalMillis) {
+        this.revalidateIntervalMillis = revalidateIntervalMillis;
+    }
+
+    /**
+     * @param loadThreads the number of providers of a zone that are loaded concurrently, 1 to load them one after another
+     */
+    public void setLoadThreads(int loadThreads) {
+        this.loadThreads = Math.max(1, loadThreads);
+    }
+
+    /**
+     * @param loadTimeoutMillis how long a zone load waits for concurrently loaded providers;
+     *                          providers that are not loaded in time are left out until the next load
+     */
+    public void setLoadTimeoutMillis(long loadTimeoutMillis) {
+        this.loadTimeoutMillis = loadTimeoutMillis;
+    }
+
+    public void setLoadExecutor(ExecutorService loadExecutor) {
+        this.loadExecutor = loadExecutor;
+    }
+
+    private static class ZoneProviders<P, T, I> {
+        private final AtomicLong version = new AtomicLong();
+        private volatile Snapshot<P, T, I> snapshot;
+    }
+
+    protected static class Snapshot<P, T, I> {
+        private final long version;
+        private final long loadedAt;
+        private final Map<String, Entry<P, T>> byId;
+        private final I index;
+
+        Snapshot(long version, long loadedAt, Map<String, Entry<P, T>> byId, I index) {
+            this.version = version;
+            this.loadedAt = loadedAt;
+            this.byId = byId;
+            this.index = index;
+        }
+
+        boolean isExpired(long now, long revalidateIntervalMillis) {
+            return now - loadedAt >= revalidateIntervalMillis;
+        }
+
+        public I getIndex() {
+            return index;
+        }
+    }
+
+    protected static class Entry<P, T> {
+        private final String key;
+        private final long loadedAt;
+        private final P provider;
+        private final T value;
+
+        Entry(String key, long loadedAt, P provider, T value) {
+            this.key = key;
+            this.loadedAt = loadedAt;
+            this.provider = provider;
+            this.value = value;
+        }
+
+        public P getProvider() {
+            return provider;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        /**
+         * @return a key that changes whenever the provider is written or loaded again
+         */
+        public String getVersion() {
+            return key + ":" + loadedAt;
+        }
+    }
+}
@@ -14,7 +14,14 @@
 
 package org.cloudfoundry.identity.uaa.provider.saml.idp;
 
+import org.cloudfoundry.identity.uaa.audit.event.AbstractUaaEvent;
+import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
+import org.cloudfoundry.identity.uaa.provider.saml.SamlMetadataDocumentCache;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.cloudfoundry.identity.uaa.zone.event.IdentityZoneModifiedEvent;
+import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.springframework.context.ApplicationListener;
 import org.springframework.security.saml.metadata.MetadataDisplayFilter;
 
 import javax.servlet.ServletException;
@@ -22,12 +29,61 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 
-public class IdpMetadataDisplayFilter extends MetadataDisplayFilter {
+public class IdpMetadataDisplayFilter extends MetadataDisplayFilter implements ApplicationListener<AbstractUaaEvent> {
 
+    private SamlMetadataDocumentCache documentCache = new SamlMetadataDocumentCache();
+
+    public SamlMetadataDocumentCache getDocumentCache() {
+        return documentCache;
+    }
+
+    public void setDocumentCache(SamlMetadataDocumentCache documentCache) {
+        this.documentCache = documentCache;
+    }
+
+    /**
+     * Metadata of the zone's default IdP is served from the document cache;
+     * requests for an explicit entity alias are generated as before.
+     */
     @Override
     protected void processMetadataDisplay(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
-        super.processMetadataDisplay(request, response);
-        response.setHeader("Content-Disposition", String.format("attachment; filename=\"saml-%sidp.xml\"",
-            !IdentityZoneHolder.isUaa() ? IdentityZoneHolder.get().getSubdomain() + "-" : ""));
+        String filename = String.format("attachment; filename=\"saml-%sidp.xml\"",
+            !IdentityZoneHolder.isUaa() ? IdentityZoneHolder.get().getSubdomain() + "-" : "");
+        if (request.getRequestURI() != null && request.getRequestURI().contains("/alias/")) {
+            super.processMetadataDisplay(request, response);
+            response.setHeader("Content-Disposition", filename);
+            return;
+        }
+        SamlMetadataDocumentCache.Document document;
+        try {
+            document = documentCache.getDocument(IdentityZoneHolder.get(), this::generateMetadata);
+        } catch (ServletException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ServletException("Error retrieving metadata", e);
+        }
+        response.setHeader("Content-Disposition", filename);
+        document.write(request, response);
+    }
+
+    protected String generateMetadata() throws Exception {
+        String entityId = manager.getDefaultIDP();
+        EntityDescriptor descriptor = manager.getEntityDescriptor(entityId);
+        if (descriptor == null) {
+            throw new ServletException("Metadata entity with ID " + entityId + " wasn't found");
+        }
+        return getMetadataAsString(descriptor);
+    }
+
+    @Override
+    public void onApplicationEvent(AbstractUaaEvent event) {
+        if (event instanceof IdentityZoneModifiedEvent) {
+            documentCache.pregenerate((IdentityZone) event.getSource(), this::generateMetadata);
+        } else if (event instanceof EntityDeletedEvent) {
+            Object deleted = ((EntityDeletedEvent<?>) event).getDeleted();
+            if (deleted instanceof IdentityZone) {
+                documentCache.remove(((IdentityZone) deleted).getId());
+            }
+        }
     }
 }
@@ -16,7 +16,8 @@ package org.cloudfoundry.identity.uaa.provider.saml.idp;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.cloudfoundry.identity.uaa.provider.saml.MetadataVersionProvider;
+import org.cloudfoundry.identity.uaa.provider.saml.SamlMetadataDocumentCache;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
 import org.opensaml.common.xml.SAMLConstants;
 import org.opensaml.saml2.metadata.EntityDescriptor;
@@ -49,7 +50,7 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 
-public class NonSnarlIdpMetadataManager extends IdpMetadataManager implements ExtendedMetadataProvider, InitializingBean, DisposableBean, BeanNameAware {
+public class NonSnarlIdpMetadataManager extends IdpMetadataManager implements ExtendedMetadataProvider, InitializingBean, DisposableBean, BeanNameAware, MetadataVersionProvider {
     private static final Logger logger = LoggerFactory.getLogger(NonSnarlIdpMetadataManager.class);
 
     private SamlServiceProviderConfigurator configurator;
@@ -104,9 +105,13 @@ public class NonSnarlIdpMetadataManager extends IdpMetadataManager implements Ex
         return result;
     }
 
+    /**
+     * Returns the local identity provider followed by the service providers of
+     * the current zone. The service provider delegates come from the
+     * configurator's per zone cache and are already initialized.
+     */
     @Override
     public List<ExtendedMetadataDelegate> getAvailableProviders() {
-        IdentityZone zone = IdentityZoneHolder.get();
         List<ExtendedMetadataDelegate> result = new ArrayList<>();
         try {
             result.add(getLocalIdp());
@@ -114,19 +119,39 @@ public class NonSnarlIdpMetadataManager extends IdpMetadataManager implements Ex
             throw new IllegalStateException(e);
         }
         for (SamlServiceProviderHolder holder : configurator.getSamlServiceProviders()) {
-            log.info("Adding SAML SP zone[" + zone.getId() + "] alias[" + holder.getSamlServiceProvider().getEntityId() + "]");
-            try {
-                ExtendedMetadataDelegate delegate = holder.getExtendedMetadataDelegate();
-                initializeProvider(delegate);
-                initializeProviderData(delegate);
-                initializeProviderFilters(delegate);
-                result.add(delegate);
-            } catch (MetadataProviderException e) {
-                log.error("Invalid SAML IDP zone[" + zone.getId() + "] alias[" + holder.getSamlServiceProvider().getEntityId() + "]", e);
-            }
+            result.add(holder.getExtendedMetadataDelegate());
         }
         return result;
+    }
+
+    /**
+     * Resolves the providers that can hold the given entity. A service provider
+     * is found through the configurator's entity id index, so a lookup does not
+     * walk every service provider of the zone.
+     */
+    protected List<ExtendedMetadataDelegate> getProviders(String entityID) throws MetadataProviderException {
+        if (entityID != null) {
+            SamlServiceProviderHolder holder = configurator.getSamlServiceProvider(entityID);
+            if (holder != null) {
+                return Collections.singletonList(holder.getExtendedMetadataDelegate());
+            }
+        }
+        return Collections.singletonList(getLocalIdp());
+    }
 
+    @Override
+    public String getMetadataVersion(String entityID) throws MetadataProviderException {
+        if (entityID == null) {
+            return null;
+        }
+        String version = configurator.getMetadataVersion(entityID);
+        if (version != null) {
+            return version;
+        }
+        if (entityID.equals(generator.getEntityId())) {
+            return "local:" + SamlMetadataDocumentCache.getVersion(IdentityZoneHolder.get());
+        }
+        return null;
     }
 
     public ExtendedMetadataDelegate getLocalIdp() throws MetadataProviderException {
@@ -230,7 +255,7 @@ public class NonSnarlIdpMetadataManager extends IdpMetadataManager implements Ex
      */
     public List<RoleDescriptor> getRole(String entityID, QName roleName) throws MetadataProviderException {
         List<RoleDescriptor> roleDescriptors = null;
-        for (MetadataProvider provider : getProviders()) {
+        for (MetadataProvider provider : getProviders(entityID)) {
             log.debug("Checking child metadata provider for entity descriptor with entity ID: {}", entityID);
             try {
                 roleDescriptors = provider.getRole(entityID, roleName);
@@ -253,7 +278,7 @@ public class NonSnarlIdpMetadataManager extends IdpMetadataManager implements Ex
     public RoleDescriptor getRole(String entityID, QName roleName, String supportedProtocol)
         throws MetadataProviderException {
         RoleDescriptor roleDescriptor = null;
-        for (MetadataProvider provider : getProviders()) {
+        for (MetadataProvider provider : getProviders(entityID)) {
             log.debug("Checking child metadata provider for entity descriptor with entity ID: {}", entityID);
             try {
                 roleDescriptor = provider.getRole(entityID, roleName, supportedProtocol);
@@ -324,7 +349,7 @@ public class NonSnarlIdpMetadataManager extends IdpMetadataManager implements Ex
     @Override
     public EntityDescriptor getEntityDescriptor(String entityID) throws MetadataProviderException {
         EntityDescriptor descriptor = null;
-        for (MetadataProvider provider : getProviders()) {
+        for (MetadataProvider provider : getProviders(entityID)) {
             log.debug("Checking child metadata provider for entity descriptor with entity ID: {}", entityID);
             try {
                 descriptor = provider.getEntityDescriptor(entityID);
@@ -427,7 +452,7 @@ public class NonSnarlIdpMetadataManager extends IdpMetadataManager implements Ex
 
     @Override
     public ExtendedMetadata getExtendedMetadata(String entityID) throws MetadataProviderException {
-        for (MetadataProvider provider : getAvailableProviders()) {
+        for (MetadataProvider provider : getProviders(entityID)) {
             ExtendedMetadata extendedMetadata = getExtendedMetadata(entityID, provider);
             if (extendedMetadata != null) {
                 return extendedMetadata;
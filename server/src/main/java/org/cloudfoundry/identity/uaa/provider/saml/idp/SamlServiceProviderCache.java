@@ -0,0 +1,147 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.provider.saml.idp;
+
+import org.cloudfoundry.identity.uaa.audit.event.AbstractUaaEvent;
+import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
+import org.cloudfoundry.identity.uaa.provider.saml.ZoneProviderCache;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+import org.springframework.context.ApplicationListener;
+import org.springframework.security.saml.metadata.ExtendedMetadataDelegate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.cloudfoundry.identity.uaa.provider.saml.idp.SamlServiceProviderDefinition.MetadataLocation.URL;
+
+/**
+ * Holds the active SAML service providers of each zone together with their
+ * initialized metadata, and an index from entity id to provider, so that
+ * IdP side SSO requests neither query the database nor parse metadata.
+ * <p>
+ * A zone's service providers are read from the database again after
+ * {@link #invalidate(String)} is called for the zone, and only the providers
+ * whose id, version or last modified date changed are loaded again.
+ * See {@link ZoneProviderCache} for revalidation.
+ */
+public class SamlServiceProviderCache
+    extends ZoneProviderCache<SamlServiceProvider, SamlServiceProviderHolder, SamlServiceProviderCache.ZoneIndex>
+    implements ApplicationListener<AbstractUaaEvent> {
+
+    public interface ProviderLoader {
+        ExtendedMetadataDelegate load(SamlServiceProvider provider) throws MetadataProviderException;
+    }
+
+    private final SamlServiceProviderProvisioning providerProvisioning;
+
+    public SamlServiceProviderCache(SamlServiceProviderProvisioning providerProvisioning) {
+        this.providerProvisioning = providerProvisioning;
+    }
+
+    /**
+     * @return the service providers of the zone, in the order returned by the database;
+     * providers that fail to load are logged and left out
+     */
+    public List<SamlServiceProviderHolder> getServiceProviders(String zoneId, ProviderLoader loader) {
+        return snapshot(zoneId, loader).getIndex().holders;
+    }
+
+    /**
+     * @return the service provider of the zone with the given entity id, or null
+     */
+    public SamlServiceProviderHolder getServiceProvider(String zoneId, String entityId, ProviderLoader loader) {
+        Entry<SamlServiceProvider, SamlServiceProviderHolder> entry = getEntry(zoneId, entityId, loader);
+        return entry == null ? null : entry.getValue();
+    }
+
+    /**
+     * @return a key that changes whenever the service provider with the given entity id
+     * is modified or loaded again, or null if the zone has no such service provider
+     */
+    public String getMetadataVersion(String zoneId, String entityId, ProviderLoader loader) {
+        Entry<SamlServiceProvider, SamlServiceProviderHolder> entry = getEntry(zoneId, entityId, loader);
+        return entry == null ? null : entry.getVersion();
+    }
+
+    private Entry<SamlServiceProvider, SamlServiceProviderHolder> getEntry(String zoneId, String entityId, ProviderLoader loader) {
+        if (entityId == null) {
+            return null;
+        }
+        return snapshot(zoneId, loader).getIndex().byEntityId.get(entityId);
+    }
+
+    private Snapshot<SamlServiceProvider, SamlServiceProviderHolder, ZoneIndex> snapshot(String zoneId, ProviderLoader loader) {
+        return getSnapshot(zoneId, provider -> new SamlServiceProviderHolder(loader.load(provider), provider));
+    }
+
+    @Override
+    protected List<SamlServiceProvider> retrieveActive(String zoneId) {
+        return providerProvisioning.retrieveActive(zoneId);
+    }
+
+    @Override
+    protected String getId(SamlServiceProvider provider) {
+        return provider.getId();
+    }
+
+    @Override
+    protected String cacheKey(SamlServiceProvider provider) {
+        long lastModified = provider.getLastModified() == null ? 0 : provider.getLastModified().getTime();
+        return provider.getId() + ":" + provider.getVersion() + ":" + lastModified;
+    }
+
+    @Override
+    protected boolean isReloadedOnRevalidate(SamlServiceProvider provider) {
+        return provider.getConfig().getType() == URL;
+    }
+
+    @Override
+    protected String describe(SamlServiceProvider provider) {
+        return "SAML SP zone[" + provider.getIdentityZoneId() + "] alias[" + provider.getEntityId() + "]";
+    }
+
+    @Override
+    protected ZoneIndex index(List<Entry<SamlServiceProvider, SamlServiceProviderHolder>> entries) {
+        List<SamlServiceProviderHolder> holders = new ArrayList<>();
+        Map<String, Entry<SamlServiceProvider, SamlServiceProviderHolder>> byEntityId = new HashMap<>();
+        for (Entry<SamlServiceProvider, SamlServiceProviderHolder> entry : entries) {
+            holders.add(entry.getValue());
+            byEntityId.putIfAbsent(entry.getProvider().getEntityId(), entry);
+        }
+        return new ZoneIndex(Collections.unmodifiableList(holders), byEntityId);
+    }
+
+    @Override
+    public void onApplicationEvent(AbstractUaaEvent event) {
+        if (event instanceof EntityDeletedEvent) {
+            Object deleted = ((EntityDeletedEvent<?>) event).getDeleted();
+            if (deleted instanceof IdentityZone) {
+                remove(((IdentityZone) deleted).getId());
+            }
+        }
+    }
+
+    static class ZoneIndex {
+        private final List<SamlServiceProviderHolder> holders;
+        private final Map<String, Entry<SamlServiceProvider, SamlServiceProviderHolder>> byEntityId;
+
+        ZoneIndex(List<SamlServiceProviderHolder> holders, Map<String, Entry<SamlServiceProvider, SamlServiceProviderHolder>> byEntityId) {
+            this.holders = holders;
+            this.byEntityId = byEntityId;
+        }
+    }
+}
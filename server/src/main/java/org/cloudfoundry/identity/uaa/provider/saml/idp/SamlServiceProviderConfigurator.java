@@ -23,8 +23,6 @@ import org.opensaml.saml2.core.NameIDType;
 import org.opensaml.saml2.metadata.SPSSODescriptor;
 import org.opensaml.saml2.metadata.provider.MetadataProviderException;
 import org.opensaml.xml.parse.BasicParserPool;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.security.saml.metadata.ExtendedMetadata;
 import org.springframework.security.saml.metadata.ExtendedMetadataDelegate;
 import org.springframework.util.StringUtils;
@@ -33,9 +31,7 @@ import org.springframework.web.client.RestClientException;
 import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
@@ -43,11 +39,10 @@ import java.util.Set;
  * Holds internal state of available SAML Service Providers.
  */
 public class SamlServiceProviderConfigurator {
-    private static final Logger LOG = LoggerFactory.getLogger(SamlServiceProviderConfigurator.class);
-
     private FixedHttpMetaDataProvider fixedHttpMetaDataProvider;
     private BasicParserPool parserPool;
     private SamlServiceProviderProvisioning providerProvisioning;
+    private volatile SamlServiceProviderCache serviceProviderCache;
     private Set<String> supportedNameIDs = new HashSet<>(Arrays.asList(NameIDType.EMAIL, NameIDType.PERSISTENT, NameIDType.UNSPECIFIED));
 
     public SamlServiceProviderConfigurator() {
@@ -57,18 +52,39 @@ public class SamlServiceProviderConfigurator {
         return getSamlServiceProvidersForZone(IdentityZoneHolder.get());
     }
 
+    /**
+     * @return the active service providers of the zone with initialized metadata, from the service provider cache
+     */
     public List<SamlServiceProviderHolder> getSamlServiceProvidersForZone(IdentityZone zone) {
-        List<SamlServiceProviderHolder> result = new LinkedList<>();
-        for (SamlServiceProvider provider : providerProvisioning.retrieveActive(zone.getId())) {
-            try {
-                SamlServiceProviderHolder samlServiceProviderHolder =
-                  new SamlServiceProviderHolder(getExtendedMetadataDelegate(provider), provider);
-                result.add(samlServiceProviderHolder);
-            } catch (MetadataProviderException e) {
-                LOG.error("Unable to configure SAML SP Metadata for ServiceProvider:" + provider.getEntityId(), e);
-            }
-        }
-        return Collections.unmodifiableList(result);
+        return getServiceProviderCache().getServiceProviders(zone.getId(), this::loadExtendedMetadataDelegate);
+    }
+
+    /**
+     * @return the active service provider of the current zone with the given entity id, or null
+     */
+    public SamlServiceProviderHolder getSamlServiceProvider(String entityId) {
+        return getServiceProviderCache().getServiceProvider(IdentityZoneHolder.get().getId(), entityId, this::loadExtendedMetadataDelegate);
+    }
+
+    /**
+     * @return a key that changes whenever the active service provider of the current zone
+     * with the given entity id is modified or loaded again, or null if there is no such provider
+     */
+    public String getMetadataVersion(String entityId) {
+        return getServiceProviderCache().getMetadataVersion(IdentityZoneHolder.get().getId(), entityId, this::loadExtendedMetadataDelegate);
+    }
+
+    /**
+     * Must be called after a service provider of the zone was created, updated or deleted.
+     */
+    public void invalidate(String zoneId) {
+        getServiceProviderCache().invalidate(zoneId);
+    }
+
+    protected ExtendedMetadataDelegate loadExtendedMetadataDelegate(SamlServiceProvider provider) throws MetadataProviderException {
+        ExtendedMetadataDelegate delegate = getExtendedMetadataDelegate(provider);
+        delegate.initialize();
+        return delegate;
     }
 
     /**
@@ -81,7 +97,7 @@ public class SamlServiceProviderConfigurator {
         validateSamlServiceProvider(provider, IdentityZoneHolder.get());
     }
 
-    synchronized void validateSamlServiceProvider(SamlServiceProvider provider, IdentityZone zone)
+    void validateSamlServiceProvider(SamlServiceProvider provider, IdentityZone zone)
       throws MetadataProviderException {
 
         if (provider == null) {
@@ -119,8 +135,6 @@ public class SamlServiceProviderConfigurator {
                     + provider.getEntityId());
             }
         }
-        List<SamlServiceProviderHolder> serviceProviders = getSamlServiceProvidersForZone(zone);
-
     }
 
     public ExtendedMetadataDelegate getExtendedMetadataDelegate(SamlServiceProvider provider)
@@ -181,6 +195,21 @@ public class SamlServiceProviderConfigurator {
         this.providerProvisioning = providerProvisioning;
     }
 
+    public SamlServiceProviderCache getServiceProviderCache() {
+        if (serviceProviderCache == null) {
+            synchronized (this) {
+                if (serviceProviderCache == null) {
+                    serviceProviderCache = new SamlServiceProviderCache(providerProvisioning);
+                }
+            }
+        }
+        return serviceProviderCache;
+    }
+
+    public void setServiceProviderCache(SamlServiceProviderCache serviceProviderCache) {
+        this.serviceProviderCache = serviceProviderCache;
+    }
+
     public BasicParserPool getParserPool() {
         return parserPool;
     }
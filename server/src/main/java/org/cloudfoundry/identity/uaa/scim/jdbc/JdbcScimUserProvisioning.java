@@ -88,6 +88,8 @@ public class JdbcScimUserProvisioning extends AbstractQueryable<ScimUser>
 
     public static final String CHANGE_PASSWORD_SQL = "update users set lastModified=?, password=?, passwd_lastmodified=? where id=? and identity_zone_id=?";
 
+    public static final String REHASH_PASSWORD_SQL = "update users set password=? where id=? and identity_zone_id=? and password=?";
+
     public static final String READ_PASSWORD_SQL = "select password from users where id=? and identity_zone_id=?";
 
     public static final String UPDATE_PASSWORD_CHANGE_REQUIRED_SQL = "update users set passwd_change_required=? where id=? and identity_zone_id=?";
@@ -302,6 +304,20 @@ public class JdbcScimUserProvisioning extends AbstractQueryable<ScimUser>
         }
     }
 
+    /**
+     * Replaces the stored hash of an unchanged password, for example after the
+     * password encoder strength has been raised. The update only applies if the
+     * stored hash still equals {@code currentEncodedPassword}, so a concurrent
+     * password change is never overwritten. The password modification time is
+     * left untouched as the password itself has not changed.
+     *
+     * @return true if the stored hash was replaced
+     */
+    public boolean updatePasswordHash(String id, String currentEncodedPassword, String newEncodedPassword, String zoneId) {
+        int updated = jdbcTemplate.update(REHASH_PASSWORD_SQL, newEncodedPassword, id, zoneId, currentEncodedPassword);
+        return updated == 1;
+    }
+
     // Checks the existing password for a user
     public boolean checkPasswordMatches(String id, String password, String zoneId) {
         String currentPassword;
@@ -2,13 +2,28 @@ package org.cloudfoundry.identity.uaa.util;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.security.crypto.bcrypt.BCrypt;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 public class PasswordEncoderFactory {
 
+    public static final int DEFAULT_STRENGTH = 10;
+    public static final int MAX_STRENGTH = 31;
+
+    private static final int CALIBRATION_STRENGTH = 6;
+    private static final int CALIBRATION_ROUNDS = 3;
+    private static final Pattern BCRYPT_PREFIX = Pattern.compile("^\\$2[aby]?\\$(\\d\\d)\\$");
+
     private static Logger logger = LoggerFactory.getLogger(PasswordEncoderFactory.class);
 
+    private long targetVerificationMillis = 0;
+    private int minimumStrength = DEFAULT_STRENGTH;
+    private volatile Integer strength;
+
     public PasswordEncoder get() {
         try {
             return createFakePasswordEncoder();
@@ -28,8 +43,75 @@ public class PasswordEncoderFactory {
 
     PasswordEncoder createRealPasswordEncoder() {
         // This Spring library class should always be used in production
-        logger.info("Created instance of BCryptPasswordEncoder");
-        return new BCryptPasswordEncoder();
+        int strength = getStrength();
+        logger.info("Created instance of BCryptPasswordEncoder with strength " + strength);
+        return new BCryptPasswordEncoder(strength);
+    }
+
+    /**
+     * Returns the BCrypt cost factor used for new password hashes. When a target
+     * verification time is configured, the cost is measured once on first use and
+     * chosen as the highest strength whose verification stays within the target,
+     * but never below the configured minimum.
+     */
+    public int getStrength() {
+        if (strength == null) {
+            synchronized (this) {
+                if (strength == null) {
+                    strength = targetVerificationMillis > 0 ? calibrateStrength() : minimumStrength;
+                }
+            }
+        }
+        return strength;
+    }
+
+    int calibrateStrength() {
+        long bestNanos = Long.MAX_VALUE;
+        for (int i = 0; i < CALIBRATION_ROUNDS; i++) {
+            bestNanos = Math.min(bestNanos, measureNanos(CALIBRATION_STRENGTH));
+        }
+        double measuredMillis = Math.max(bestNanos, 1) / 1_000_000.0;
+        // every increment of the BCrypt cost factor doubles the work
+        int calibrated = CALIBRATION_STRENGTH + (int) Math.floor(Math.log(targetVerificationMillis / measuredMillis) / Math.log(2));
+        int result = Math.min(MAX_STRENGTH, Math.max(minimumStrength, calibrated));
+        logger.info(String.format("Calibrated BCrypt strength %d for target verification time of %dms (cost %d took %.3fms)",
+                                  result, targetVerificationMillis, CALIBRATION_STRENGTH, measuredMillis));
+        return result;
+    }
+
+    long measureNanos(int strength) {
+        String salt = BCrypt.gensalt(strength);
+        long start = System.nanoTime();
+        BCrypt.hashpw("calibration-password", salt);
+        return System.nanoTime() - start;
+    }
+
+    public long getTargetVerificationMillis() {
+        return targetVerificationMillis;
+    }
+
+    public void setTargetVerificationMillis(long targetVerificationMillis) {
+        this.targetVerificationMillis = targetVerificationMillis;
+    }
+
+    public int getMinimumStrength() {
+        return minimumStrength;
+    }
+
+    public void setMinimumStrength(int minimumStrength) {
+        this.minimumStrength = minimumStrength;
+    }
+
+    /**
+     * @param encodedPassword a stored password hash
+     * @return the BCrypt cost factor of the hash, or -1 if it is not a BCrypt hash
+     */
+    public static int getBcryptStrength(String encodedPassword) {
+        if (encodedPassword == null) {
+            return -1;
+        }
+        Matcher matcher = BCRYPT_PREFIX.matcher(encodedPassword);
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) : -1;
     }
 
 }
@@ -12,7 +12,11 @@
  *******************************************************************************/
 package org.cloudfoundry.identity.uaa.zone;
 
+import org.cloudfoundry.identity.uaa.audit.event.AbstractUaaEvent;
+import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
 import org.cloudfoundry.identity.uaa.provider.saml.SamlKeyManagerFactory;
+import org.cloudfoundry.identity.uaa.zone.event.IdentityZoneModifiedEvent;
+import org.springframework.context.ApplicationListener;
 import org.springframework.security.saml.key.KeyManager;
 
 /*
@@ -44,13 +48,15 @@ public class IdentityZoneHolder {
             return keyManager;
         }
 
-        keyManager = samlKeyManagerFactory.getKeyManager(IDENTITY_ZONE_THREAD_LOCAL.get().getConfig().getSamlConfig());
+        IdentityZone zone = IDENTITY_ZONE_THREAD_LOCAL.get();
+        keyManager = samlKeyManagerFactory.getKeyManager(zone.getId(), zone.getConfig().getSamlConfig());
         if (keyManager != null) {
             KEY_MANAGER_THREAD_LOCAL.set(keyManager);
             return keyManager;
         }
 
-        keyManager = samlKeyManagerFactory.getKeyManager(getUaaZone(provisioning).getConfig().getSamlConfig());
+        IdentityZone uaaZone = getUaaZone(provisioning);
+        keyManager = samlKeyManagerFactory.getKeyManager(uaaZone.getId(), uaaZone.getConfig().getSamlConfig());
         KEY_MANAGER_THREAD_LOCAL.set(keyManager);
         return keyManager;
     }
@@ -84,7 +90,7 @@ public class IdentityZoneHolder {
         return IDENTITY_ZONE_THREAD_LOCAL.get().getId();
     }
 
-    public static class Initializer {
+    public static class Initializer implements ApplicationListener<AbstractUaaEvent> {
         public Initializer(IdentityZoneProvisioning provisioning) {
             IdentityZoneHolder.setProvisioning(provisioning);
         }
@@ -92,5 +98,21 @@ public class IdentityZoneHolder {
         public void reset() {
             IdentityZoneHolder.setProvisioning(null);
         }
+
+        /**
+         * Drops the cached SAML key manager of a zone that was updated or
+         * deleted, so that the next request builds it from the new keys.
+         */
+        @Override
+        public void onApplicationEvent(AbstractUaaEvent event) {
+            if (event instanceof IdentityZoneModifiedEvent) {
+                samlKeyManagerFactory.invalidate(((IdentityZone) event.getSource()).getId());
+            } else if (event instanceof EntityDeletedEvent) {
+                Object deleted = ((EntityDeletedEvent<?>) event).getDeleted();
+                if (deleted instanceof IdentityZone) {
+                    samlKeyManagerFactory.invalidate(((IdentityZone) deleted).getId());
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,16 @@
+-- every unique key of a partitioned table has to include the partitioning column.
+-- p_future catches rows until AuditPartitionManager splits daily partitions off it.
+CREATE TABLE sec_audit_daily (
+  id INT(11) UNSIGNED NOT NULL AUTO_INCREMENT,
+  principal_id VARCHAR(255) NOT NULL,
+  event_type INTEGER NOT NULL,
+  origin VARCHAR(255) NOT NULL,
+  event_data VARCHAR(255),
+  created TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  identity_zone_id VARCHAR(36) DEFAULT 'uaa',
+  PRIMARY KEY (id, created),
+  KEY sec_audit_daily_principal_idx (principal_id, identity_zone_id, created)
+)
+PARTITION BY RANGE (UNIX_TIMESTAMP(created)) (
+  PARTITION p_future VALUES LESS THAN MAXVALUE
+);
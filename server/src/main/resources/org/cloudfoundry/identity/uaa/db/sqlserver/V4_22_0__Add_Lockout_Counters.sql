@@ -0,0 +1,13 @@
+CREATE TABLE lockout_counters (
+  principal_id NVARCHAR(255) NOT NULL,
+  identity_zone_id NVARCHAR(36) NOT NULL,
+  event_type INTEGER NOT NULL,
+  node_id NVARCHAR(36) NOT NULL,
+  buckets NVARCHAR(4000) NOT NULL,
+  last_failure BIGINT NOT NULL,
+  reset_at BIGINT NOT NULL,
+  updated BIGINT NOT NULL,
+  PRIMARY KEY (principal_id, identity_zone_id, event_type, node_id)
+);
+
+CREATE INDEX idx_lockout_counters_updated ON lockout_counters(updated);
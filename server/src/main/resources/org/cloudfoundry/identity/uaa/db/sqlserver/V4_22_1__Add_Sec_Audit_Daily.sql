@@ -0,0 +1,14 @@
+-- sec_audit_daily is partitioned by day on PostgreSQL and MySQL; elsewhere it is a plain table
+CREATE TABLE sec_audit_daily (
+  id INTEGER IDENTITY (1,1),
+  principal_id NVARCHAR(255) NOT NULL,
+  event_type INTEGER NOT NULL,
+  origin NVARCHAR(255) NOT NULL,
+  event_data NVARCHAR(255),
+  created DATETIME DEFAULT CURRENT_TIMESTAMP NOT NULL,
+  identity_zone_id NVARCHAR(36) DEFAULT 'uaa',
+  PRIMARY KEY (id, created)
+);
+
+CREATE INDEX sec_audit_daily_principal_idx ON sec_audit_daily(principal_id, identity_zone_id, created);
+CREATE INDEX sec_audit_daily_created_idx ON sec_audit_daily(created);
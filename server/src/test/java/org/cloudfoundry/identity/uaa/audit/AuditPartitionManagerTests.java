@@ -0,0 +1,135 @@
+package org.cloudfoundry.identity.uaa.audit;
+
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+class AuditPartitionManagerTests {
+
+    // 2019-03-10T12:00:00Z
+    private static final long NOW = 1552219200000L;
+    private static final long DAY = 24 * 3600 * 1000L;
+
+    private JdbcTemplate jdbcTemplate;
+    private TimeService timeService;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        timeService = mock(TimeService.class);
+        when(timeService.getCurrentTimeMillis()).thenReturn(NOW);
+    }
+
+    @Test
+    void unsupportedPlatformFallsBackToRowDeletes() {
+        AuditPartitionManager manager = createManager("hsqldb");
+
+        assertFalse(manager.periodicMaintenance(DAY));
+        verifyZeroInteractions(jdbcTemplate);
+    }
+
+    @Test
+    void postgresCreatesUpcomingAndDropsExpiredPartitions() {
+        AuditPartitionManager manager = createManager("postgresql");
+        when(jdbcTemplate.queryForObject(contains("pg_partitioned_table"), eq(Integer.class), eq(AuditPartitionManager.TABLE_NAME))).thenReturn(1);
+        when(jdbcTemplate.queryForList(contains("pg_inherits"), eq(String.class), eq(AuditPartitionManager.TABLE_NAME)))
+            .thenReturn(Arrays.asList("sec_audit_daily_default", "sec_audit_daily_p20190307", "sec_audit_daily_p20190308", "sec_audit_daily_p20190310"));
+
+        assertTrue(manager.periodicMaintenance(DAY));
+
+        verify(jdbcTemplate).execute(contains("attach partition sec_audit_daily_p20190311 for values from ('2019-03-11') to ('2019-03-12')"));
+        verify(jdbcTemplate).execute(contains("attach partition sec_audit_daily_p20190317 for values from ('2019-03-17') to ('2019-03-18')"));
+        verify(jdbcTemplate, never()).execute(contains("attach partition sec_audit_daily_p20190310"));
+        verify(jdbcTemplate, never()).execute(contains("sec_audit_daily_p20190318"));
+        verify(jdbcTemplate).execute("drop table if exists sec_audit_daily_p20190307");
+        verify(jdbcTemplate).execute("drop table if exists sec_audit_daily_p20190308");
+        verify(jdbcTemplate, never()).execute(contains("drop table if exists sec_audit_daily_default"));
+    }
+
+    @Test
+    void postgresMovesRowsOutOfDefaultPartitionBeforeAttaching() {
+        AuditPartitionManager manager = createManager("postgresql");
+        manager.setDaysAhead(0);
+        when(jdbcTemplate.queryForObject(contains("pg_partitioned_table"), eq(Integer.class), eq(AuditPartitionManager.TABLE_NAME))).thenReturn(1);
+        when(jdbcTemplate.queryForList(contains("pg_inherits"), eq(String.class), eq(AuditPartitionManager.TABLE_NAME)))
+            .thenReturn(Arrays.asList("sec_audit_daily_default"));
+        when(jdbcTemplate.queryForObject(contains("from sec_audit_daily_default"), eq(Integer.class))).thenReturn(3);
+
+        manager.periodicMaintenance(DAY);
+
+        verify(jdbcTemplate).queryForObject("select count(*) from sec_audit_daily_default where created >= '2019-03-10' and created < '2019-03-11'", Integer.class);
+        verify(jdbcTemplate).execute("do $$ begin " +
+            "if not exists (select 1 from pg_class where relname = 'sec_audit_daily_p20190310') then " +
+            "create table sec_audit_daily_p20190310 (like sec_audit_daily including defaults including constraints); " +
+            "with moved as (delete from sec_audit_daily_default where created >= '2019-03-10' and created < '2019-03-11' returning *) insert into sec_audit_daily_p20190310 select * from moved; " +
+            "alter table sec_audit_daily attach partition sec_audit_daily_p20190310 for values from ('2019-03-10') to ('2019-03-11'); " +
+            "end if; " +
+            "end $$");
+    }
+
+    @Test
+    void postgresCanDetachInsteadOfDrop() {
+        AuditPartitionManager manager = createManager("postgresql");
+        manager.setDetachOnly(true);
+        when(jdbcTemplate.queryForObject(contains("pg_partitioned_table"), eq(Integer.class), eq(AuditPartitionManager.TABLE_NAME))).thenReturn(1);
+        when(jdbcTemplate.queryForList(contains("pg_inherits"), eq(String.class), eq(AuditPartitionManager.TABLE_NAME)))
+            .thenReturn(Arrays.asList("sec_audit_daily_p20190301"));
+
+        manager.periodicMaintenance(DAY);
+
+        verify(jdbcTemplate).execute("alter table sec_audit_daily detach partition sec_audit_daily_p20190301");
+        verify(jdbcTemplate, never()).execute(contains("drop table"));
+    }
+
+    @Test
+    void mysqlSplitsFuturePartition() {
+        AuditPartitionManager manager = createManager("mysql");
+        manager.setDaysAhead(0);
+        when(jdbcTemplate.queryForList(contains("information_schema.partitions"), eq(String.class), eq(AuditPartitionManager.TABLE_NAME)))
+            .thenReturn(Arrays.asList("p20190301", "p_future"));
+
+        assertTrue(manager.periodicMaintenance(DAY));
+
+        verify(jdbcTemplate).execute("alter table sec_audit_daily reorganize partition p_future into (partition p20190310 values less than (1552262400), partition p_future values less than maxvalue)");
+        verify(jdbcTemplate).execute("alter table sec_audit_daily drop partition p20190301");
+        verify(jdbcTemplate, never()).execute("alter table sec_audit_daily drop partition p_future");
+    }
+
+    @Test
+    void maintenanceRunsOncePerInterval() {
+        AuditPartitionManager manager = createManager("mysql");
+        manager.setDaysAhead(0);
+        when(jdbcTemplate.queryForList(contains("information_schema.partitions"), eq(String.class), eq(AuditPartitionManager.TABLE_NAME)))
+            .thenReturn(Arrays.asList("p_future"));
+
+        for (int i = 0; i < 5; i++) {
+            manager.periodicMaintenance(DAY);
+        }
+        verify(jdbcTemplate, times(1)).execute(anyString());
+
+        when(timeService.getCurrentTimeMillis()).thenReturn(NOW + 3601 * 1000);
+        manager.periodicMaintenance(DAY);
+        verify(jdbcTemplate, times(2)).execute(anyString());
+    }
+
+    private AuditPartitionManager createManager(String platform) {
+        AuditPartitionManager manager = new AuditPartitionManager(jdbcTemplate, platform);
+        manager.setTimeService(timeService);
+        return manager;
+    }
+}
@@ -0,0 +1,191 @@
+package org.cloudfoundry.identity.uaa.audit;
+
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.cloudfoundry.identity.uaa.audit.AuditEventType.PrincipalAuthenticationFailure;
+import static org.cloudfoundry.identity.uaa.audit.AuditEventType.UserAuthenticationFailure;
+import static org.cloudfoundry.identity.uaa.audit.AuditEventType.UserAuthenticationSuccess;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class FileAuditServiceTests {
+
+    private File directory;
+    private TimeService timeService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        directory = Files.createTempDirectory("uaa-audit").toFile();
+        timeService = mock(TimeService.class);
+        when(timeService.getCurrentTimeMillis()).thenReturn(1000L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @ParameterizedTest
+    @EnumSource(AuditRecordFormat.class)
+    void eventsRoundTrip(AuditRecordFormat format) {
+        FileAuditService service = createService(format);
+        service.log(new AuditEvent(UserAuthenticationFailure, "user-1", "1.1.1.1", "joe é", 2000L, "uaa", "password", "bad password"), "uaa");
+        service.log(new AuditEvent(UserAuthenticationSuccess, "user-1", "1.1.1.1", null, 3000L, "uaa", null, null), "uaa");
+        service.log(new AuditEvent(UserAuthenticationFailure, "user-1", "1.1.1.1", null, 4000L, "other-zone", null, null), "other-zone");
+        service.log(new AuditEvent(PrincipalAuthenticationFailure, "client", "1.1.1.1", null, 5000L, "uaa", null, null), "uaa");
+        service.close();
+
+        List<AuditEvent> events = service.find("user-1", 0, "uaa");
+        assertEquals(2, events.size());
+        assertEquals(UserAuthenticationSuccess, events.get(0).getType());
+        assertNull(events.get(0).getData());
+        AuditEvent failure = events.get(1);
+        assertEquals(UserAuthenticationFailure, failure.getType());
+        assertEquals("user-1", failure.getPrincipalId());
+        assertEquals("1.1.1.1", failure.getOrigin());
+        assertEquals("joe é", failure.getData());
+        assertEquals(2000L, failure.getTime());
+        assertEquals("uaa", failure.getIdentityZoneId());
+        assertEquals("password", failure.getAuthenticationType());
+        assertEquals("bad password", failure.getDescription());
+    }
+
+    @Test
+    void findFiltersByTimeRange() {
+        FileAuditService service = createService(AuditRecordFormat.BINARY);
+        for (long time = 1000; time <= 5000; time += 1000) {
+            service.log(event("user-1", time), "uaa");
+        }
+
+        assertEquals(3, service.getReader().find("user-1", 1000, 4000, "uaa").size());
+        assertEquals(2, service.find("user-1", 3000, "uaa").size());
+    }
+
+    @Test
+    void rollsFilesAndSkipsFilesOutsideTheRange() {
+        FileAuditService service = createService(AuditRecordFormat.NDJSON);
+        service.setMaxFileBytes(1);
+        service.getReader().setClockSkewMillis(0);
+        for (long time = 1000; time <= 5000; time += 1000) {
+            when(timeService.getCurrentTimeMillis()).thenReturn(time);
+            service.log(event("user-1", time), "uaa");
+        }
+
+        assertEquals(5, service.getReader().listFiles().size());
+        List<AuditEvent> replayed = new ArrayList<>();
+        service.getReader().replay(3500, Long.MAX_VALUE, replayed::add);
+        assertEquals(2, replayed.size());
+        assertEquals(4000L, replayed.get(0).getTime());
+    }
+
+    @Test
+    void restartAppendsToNewFile() {
+        FileAuditService first = createService(AuditRecordFormat.BINARY);
+        first.log(event("user-1", 1000), "uaa");
+        first.close();
+
+        FileAuditService second = createService(AuditRecordFormat.BINARY);
+        second.log(event("user-1", 2000), "uaa");
+
+        assertEquals(2, second.getReader().listFiles().size());
+        assertTrue(second.getCurrentFile().getName().startsWith(FileAuditService.FILE_PREFIX + "0000000001-"));
+        assertEquals(2, second.find("user-1", 0, "uaa").size());
+    }
+
+    @ParameterizedTest
+    @EnumSource(AuditRecordFormat.class)
+    void tornRecordAtEndOfFileIsIgnored(AuditRecordFormat format) throws Exception {
+        FileAuditService service = createService(format);
+        service.log(event("user-1", 1000), "uaa");
+        service.close();
+        byte[] record = format.encode(event("user-1", 2000), "uaa");
+        try (FileOutputStream out = new FileOutputStream(service.getCurrentFile(), true)) {
+            out.write(record, 0, record.length / 2);
+        }
+
+        assertEquals(1, service.find("user-1", 0, "uaa").size());
+    }
+
+    @Test
+    void concurrentWritersShareSyncs() throws Exception {
+        FileAuditService service = createService(AuditRecordFormat.BINARY);
+        service.setSyncOnLog(true);
+        int threads = 4;
+        int perThread = 250;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            String principal = "user-" + t;
+            executor.execute(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    service.log(event(principal, 1000 + i), "uaa");
+                }
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        for (int t = 0; t < threads; t++) {
+            assertEquals(perThread, service.find("user-" + t, 0, "uaa").size());
+        }
+    }
+
+    @Test
+    void recordsAreSyncedInTheBackground() throws Exception {
+        FileAuditService service = createService(AuditRecordFormat.BINARY);
+        service.setSyncIntervalMillis(10);
+        service.start();
+        try {
+            service.log(event("user-1", 1000), "uaa");
+            service.log(event("user-2", 1000), "uaa");
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (service.getUnsyncedBytes() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, service.getUnsyncedBytes());
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    void recordsAreNotSyncedWithoutBackgroundSync() {
+        FileAuditService service = createService(AuditRecordFormat.BINARY);
+        service.log(event("user-1", 1000), "uaa");
+
+        assertTrue(service.getUnsyncedBytes() > 0);
+        service.flush();
+        assertEquals(0, service.getUnsyncedBytes());
+    }
+
+    private FileAuditService createService(AuditRecordFormat format) {
+        FileAuditService service = new FileAuditService(directory, format);
+        service.setTimeService(timeService);
+        return service;
+    }
+
+    private static AuditEvent event(String principal, long time) {
+        return new AuditEvent(UserAuthenticationFailure, principal, "1.1.1.1", null, time, "uaa", null, null);
+    }
+}
@@ -0,0 +1,90 @@
+package org.cloudfoundry.identity.uaa.audit;
+
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.cloudfoundry.identity.uaa.audit.AuditEventType.MfaAuthenticationFailure;
+import static org.cloudfoundry.identity.uaa.audit.AuditEventType.UserAuthenticationFailure;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class InMemoryLockoutCounterStoreTests {
+
+    private InMemoryLockoutCounterStore store;
+    private TimeService timeService;
+
+    @BeforeEach
+    void setUp() {
+        timeService = mock(TimeService.class);
+        store = new InMemoryLockoutCounterStore();
+        store.setTimeService(timeService);
+        store.setBucketMillis(1000);
+    }
+
+    @Test
+    void countsFailuresPerPrincipalZoneAndType() {
+        store.recordFailure("user", UserAuthenticationFailure, 10000, "uaa");
+        store.recordFailure("user", UserAuthenticationFailure, 10500, "uaa");
+        store.recordFailure("user", UserAuthenticationFailure, 12000, "uaa");
+        store.recordFailure("user", MfaAuthenticationFailure, 12000, "uaa");
+        store.recordFailure("user", UserAuthenticationFailure, 12000, "other-zone");
+        store.recordFailure("other-user", UserAuthenticationFailure, 12000, "uaa");
+
+        LockoutCounterStore.FailureCount failures = store.getFailures("user", UserAuthenticationFailure, 0, "uaa");
+        assertEquals(3, failures.getCount());
+        assertEquals(12000, failures.getLastFailure());
+        assertEquals(1, store.getFailures("user", MfaAuthenticationFailure, 0, "uaa").getCount());
+        assertEquals(1, store.getFailures("user", UserAuthenticationFailure, 0, "other-zone").getCount());
+        assertEquals(0, store.getFailures("unknown", UserAuthenticationFailure, 0, "uaa").getCount());
+    }
+
+    @Test
+    void onlyCountsFailuresWithinWindow() {
+        store.recordFailure("user", UserAuthenticationFailure, 10000, "uaa");
+        store.recordFailure("user", UserAuthenticationFailure, 20000, "uaa");
+        store.recordFailure("user", UserAuthenticationFailure, 30000, "uaa");
+
+        assertEquals(2, store.getFailures("user", UserAuthenticationFailure, 15000, "uaa").getCount());
+        assertEquals(0, store.getFailures("user", UserAuthenticationFailure, 31000, "uaa").getCount());
+    }
+
+    @Test
+    void resetDiscardsEarlierFailures() {
+        store.recordFailure("user", UserAuthenticationFailure, 10000, "uaa");
+        store.recordFailure("user", UserAuthenticationFailure, 11000, "uaa");
+        store.reset("user", UserAuthenticationFailure, 12000, "uaa");
+
+        assertEquals(0, store.getFailures("user", UserAuthenticationFailure, 0, "uaa").getCount());
+
+        store.recordFailure("user", UserAuthenticationFailure, 13000, "uaa");
+        assertEquals(1, store.getFailures("user", UserAuthenticationFailure, 0, "uaa").getCount());
+    }
+
+    @Test
+    void mergesOldestBucketsWithoutLosingFailures() {
+        store.setMaxBuckets(4);
+        for (int i = 0; i < 10; i++) {
+            store.recordFailure("user", UserAuthenticationFailure, 10000 + i * 1000, "uaa");
+        }
+
+        LockoutCounterStore.FailureCount failures = store.getFailures("user", UserAuthenticationFailure, 0, "uaa");
+        assertEquals(10, failures.getCount());
+        assertEquals(19000, failures.getLastFailure());
+    }
+
+    @Test
+    void purgesExpiredCounters() {
+        store.setRetentionMillis(60000);
+        when(timeService.getCurrentTimeMillis()).thenReturn(100000L);
+        store.recordFailure("old-user", UserAuthenticationFailure, 10000, "uaa");
+        assertEquals(1, store.size());
+
+        when(timeService.getCurrentTimeMillis()).thenReturn(200000L);
+        store.recordFailure("user", UserAuthenticationFailure, 200000, "uaa");
+
+        assertEquals(1, store.size());
+        assertEquals(0, store.getFailures("old-user", UserAuthenticationFailure, 0, "uaa").getCount());
+    }
+}
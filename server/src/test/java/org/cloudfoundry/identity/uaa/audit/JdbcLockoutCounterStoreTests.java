@@ -0,0 +1,148 @@
+package org.cloudfoundry.identity.uaa.audit;
+
+import org.cloudfoundry.identity.uaa.test.JdbcTestBase;
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.cloudfoundry.identity.uaa.audit.AuditEventType.UserAuthenticationFailure;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class JdbcLockoutCounterStoreTests extends JdbcTestBase {
+
+    private JdbcLockoutCounterStore node1;
+    private JdbcLockoutCounterStore node2;
+    private TimeService timeService;
+
+    @Before
+    public void createStores() {
+        jdbcTemplate.update("delete from lockout_counters");
+        timeService = mock(TimeService.class);
+        node1 = createStore("node-1");
+        node2 = createStore("node-2");
+    }
+
+    private JdbcLockoutCounterStore createStore(String nodeId) {
+        return configure(new JdbcLockoutCounterStore(jdbcTemplate, nodeId));
+    }
+
+    private JdbcLockoutCounterStore configure(JdbcLockoutCounterStore store) {
+        store.setTimeService(timeService);
+        store.setBucketMillis(1000);
+        store.setClockSkewMillis(0);
+        return store;
+    }
+
+    @Test
+    public void checkpointWritesOneRowPerPrincipalAndNode() {
+        now(100000L);
+        node1.recordFailure("user", UserAuthenticationFailure, 100000L, "uaa");
+        now(101000L);
+        node1.recordFailure("user", UserAuthenticationFailure, 101000L, "uaa");
+        now(102000L);
+        node1.checkpoint();
+
+        assertThat(jdbcTemplate.queryForObject("select count(*) from lockout_counters where principal_id='user' and node_id='node-1'", Integer.class), is(1));
+        assertThat(jdbcTemplate.queryForObject("select buckets from lockout_counters where principal_id='user' and node_id='node-1'", String.class), is("100000:1,101000:1"));
+    }
+
+    @Test
+    public void failuresAreAggregatedAcrossNodes() {
+        now(100000L);
+        node1.recordFailure("user", UserAuthenticationFailure, 100000L, "uaa");
+        now(101000L);
+        node1.recordFailure("user", UserAuthenticationFailure, 101000L, "uaa");
+        node1.checkpoint();
+        now(102000L);
+        node2.recordFailure("user", UserAuthenticationFailure, 102000L, "uaa");
+        node2.checkpoint();
+
+        LockoutCounterStore.FailureCount failures = node2.getFailures("user", UserAuthenticationFailure, 0, "uaa");
+        assertEquals(3, failures.getCount());
+        assertEquals(102000L, failures.getLastFailure());
+    }
+
+    @Test
+    public void resetOnOneNodeDiscardsFailuresOnAllNodes() {
+        now(100000L);
+        node1.recordFailure("user", UserAuthenticationFailure, 100000L, "uaa");
+        node1.checkpoint();
+        now(101000L);
+        node2.recordFailure("user", UserAuthenticationFailure, 101000L, "uaa");
+        node2.checkpoint();
+        now(102000L);
+        node1.checkpoint();
+
+        now(110000L);
+        node1.reset("user", UserAuthenticationFailure, 110000L, "uaa");
+
+        assertEquals(0, node1.getFailures("user", UserAuthenticationFailure, 0, "uaa").getCount());
+        now(111000L);
+        node2.checkpoint();
+        assertEquals(0, node2.getFailures("user", UserAuthenticationFailure, 0, "uaa").getCount());
+
+        now(112000L);
+        node2.recordFailure("user", UserAuthenticationFailure, 112000L, "uaa");
+        node2.checkpoint();
+        now(113000L);
+        node1.checkpoint();
+        assertEquals(1, node1.getFailures("user", UserAuthenticationFailure, 0, "uaa").getCount());
+    }
+
+    @Test
+    public void expiredRowsAreDeleted() {
+        node1.setRetentionMillis(60000L);
+        now(100000L);
+        node1.recordFailure("user", UserAuthenticationFailure, 100000L, "uaa");
+        node1.checkpoint();
+        assertThat(jdbcTemplate.queryForObject("select count(*) from lockout_counters", Integer.class), is(1));
+
+        now(200000L);
+        node1.recordFailure("other-user", UserAuthenticationFailure, 200000L, "uaa");
+        node1.checkpoint();
+
+        assertThat(jdbcTemplate.queryForObject("select count(*) from lockout_counters where principal_id='user'", Integer.class), is(0));
+    }
+
+    @Test
+    public void failuresAreNotWrittenUntilCheckpoint() {
+        now(100000L);
+        node1.recordFailure("user", UserAuthenticationFailure, 100000L, "uaa");
+        node1.getFailures("user", UserAuthenticationFailure, 0, "uaa");
+
+        assertThat(jdbcTemplate.queryForObject("select count(*) from lockout_counters", Integer.class), is(0));
+    }
+
+    @Test
+    public void counterIsWrittenByNextCheckpointAfterFailedWrite() {
+        AtomicBoolean fail = new AtomicBoolean(true);
+        JdbcLockoutCounterStore store = configure(new JdbcLockoutCounterStore(jdbcTemplate, "node-1") {
+            @Override
+            protected void write(CounterKey key, Counter counter, long now) {
+                if (fail.getAndSet(false)) {
+                    throw new DataAccessResourceFailureException("database unavailable");
+                }
+                super.write(key, counter, now);
+            }
+        });
+        now(100000L);
+        store.recordFailure("user", UserAuthenticationFailure, 100000L, "uaa");
+        store.checkpoint();
+        assertThat(jdbcTemplate.queryForObject("select count(*) from lockout_counters", Integer.class), is(0));
+
+        now(101000L);
+        store.checkpoint();
+        assertThat(jdbcTemplate.queryForObject("select buckets from lockout_counters where principal_id='user' and node_id='node-1'", String.class), is("100000:1"));
+    }
+
+    private void now(long time) {
+        when(timeService.getCurrentTimeMillis()).thenReturn(time);
+    }
+}
@@ -40,6 +40,7 @@ import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
@@ -57,6 +58,7 @@ public class JdbcUnsuccessfulLoginCountingAuditServiceTests extends JdbcTestBase
         template = spy(jdbcTemplate);
         auditService = new JdbcUnsuccessfulLoginCountingAuditService(template);
         jdbcTemplate.execute("DELETE FROM sec_audit WHERE principal_id='1' or principal_id='clientA' or principal_id='clientB'");
+        jdbcTemplate.execute("DELETE FROM sec_audit_daily WHERE principal_id='1'");
         authDetails = "1.1.1.1";
     }
 
@@ -136,6 +138,42 @@ public class JdbcUnsuccessfulLoginCountingAuditServiceTests extends JdbcTestBase
         assertThat(jdbcTemplate.queryForObject("select count(*) from sec_audit where principal_id='1'", Integer.class), is(0));
     }
 
+    @Test
+    public void lockoutCounterStoreReplacesSecAuditRows() {
+        InMemoryLockoutCounterStore counterStore = new InMemoryLockoutCounterStore();
+        auditService.setLockoutCounterStore(counterStore);
+        String zoneId = IdentityZoneHolder.get().getId();
+
+        auditService.log(getAuditEvent(UserAuthenticationFailure, "1", "joe"), zoneId);
+        auditService.log(getAuditEvent(UserAuthenticationFailure, "1", "joe"), zoneId);
+        assertThat(jdbcTemplate.queryForObject("select count(*) from sec_audit where principal_id='1'", Integer.class), is(0));
+        assertEquals(2, counterStore.getFailures("1", UserAuthenticationFailure, 0, zoneId).getCount());
+
+        auditService.log(getAuditEvent(UserAuthenticationSuccess, "1", "joe"), zoneId);
+        assertEquals(0, counterStore.getFailures("1", UserAuthenticationFailure, 0, zoneId).getCount());
+    }
+
+    @Test
+    public void partitionedLayoutUsesDailyTable() {
+        auditService.setAuditPartitionManager(new AuditPartitionManager(template, "hsqldb"));
+        String zoneId = IdentityZoneHolder.get().getId();
+
+        auditService.log(getAuditEvent(UserAuthenticationFailure, "1", "joe"), zoneId);
+        assertThat(jdbcTemplate.queryForObject("select count(*) from sec_audit_daily where principal_id='1'", Integer.class), is(1));
+        assertThat(jdbcTemplate.queryForObject("select count(*) from sec_audit where principal_id='1'", Integer.class), is(0));
+        assertThat(auditService.find("1", 0, zoneId), hasSize(1));
+
+        auditService.log(getAuditEvent(UserAuthenticationSuccess, "1", "joe"), zoneId);
+        assertThat(jdbcTemplate.queryForObject("select count(*) from sec_audit_daily where principal_id='1'", Integer.class), is(0));
+    }
+
+    @Test
+    public void partitionedLayoutFallsBackToRowDeletesWithoutPartitions() {
+        auditService.setAuditPartitionManager(new AuditPartitionManager(template, "hsqldb"));
+        auditService.periodicDelete();
+        verify(template, times(1)).update(eq("delete from sec_audit_daily where created < ?"), any(Timestamp.class));
+    }
+
     @Test
     public void findMethodOnlyReturnsEventsWithinRequestedPeriod() {
         long now = System.currentTimeMillis();
@@ -58,6 +58,7 @@ import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isA;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -129,6 +130,28 @@ class AuthzAuthenticationManagerTests {
         assertEquals("auser", ((IdentityProviderAuthenticationSuccessEvent) events.get(0)).getUser().getUsername());
     }
 
+    @Test
+    void successfulAuthenticationRequestsPasswordRehash() {
+        PasswordRehasher rehasher = mock(PasswordRehasher.class);
+        mgr.setPasswordRehasher(rehasher);
+        when(db.retrieveUserByName("auser", OriginKeys.UAA)).thenReturn(user);
+
+        mgr.authenticate(createAuthRequest("auser", "password"));
+
+        verify(rehasher).rehashIfOutdated(user.getId(), "password", user.getPassword(), IdentityZoneHolder.getCurrentZoneId());
+    }
+
+    @Test
+    void unsuccessfulAuthenticationDoesNotRequestPasswordRehash() {
+        PasswordRehasher rehasher = mock(PasswordRehasher.class);
+        mgr.setPasswordRehasher(rehasher);
+        when(db.retrieveUserByName("auser", OriginKeys.UAA)).thenReturn(user);
+
+        assertThrows(BadCredentialsException.class, () -> mgr.authenticate(createAuthRequest("auser", "wrong")));
+
+        verify(rehasher, never()).rehashIfOutdated(anyString(), any(), anyString(), anyString());
+    }
+
     @Test
     void unsuccessfulPasswordExpired() {
         IdentityProvider<UaaIdentityProviderDefinition> provider = new IdentityProvider<>();
@@ -2,6 +2,7 @@ package org.cloudfoundry.identity.uaa.authentication.manager;
 
 import org.cloudfoundry.identity.uaa.audit.AuditEvent;
 import org.cloudfoundry.identity.uaa.audit.AuditEventType;
+import org.cloudfoundry.identity.uaa.audit.LockoutCounterStore;
 import org.cloudfoundry.identity.uaa.audit.UaaAuditService;
 import org.cloudfoundry.identity.uaa.provider.LockoutPolicy;
 import org.cloudfoundry.identity.uaa.util.TimeService;
@@ -16,6 +17,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
@@ -90,4 +92,47 @@ public class CommonLoginPolicyTest {
         assertTrue(result.isAllowed());
         assertEquals(1, result.getFailureCount());
     }
+
+    @Test
+    public void isAllowed_withLockoutCounterStore_returnsFalseIfTooManyRecentFailures() {
+        LockoutCounterStore counterStore = mock(LockoutCounterStore.class);
+        commonLoginPolicy.setLockoutCounterStore(counterStore);
+        when(timeService.getCurrentTimeMillis()).thenReturn(100000L);
+        when(lockoutPolicyRetriever.getLockoutPolicy()).thenReturn(new LockoutPolicy(60, 2, 300));
+        String zoneId = IdentityZoneHolder.get().getId();
+        when(counterStore.getFailures("principal", failureEventType, 40000L, zoneId)).thenReturn(new LockoutCounterStore.FailureCount(2, 99000L));
+
+        LoginPolicy.Result result = commonLoginPolicy.isAllowed("principal");
+
+        assertFalse(result.isAllowed());
+        assertEquals(2, result.getFailureCount());
+        verifyZeroInteractions(auditService);
+    }
+
+    @Test
+    public void isAllowed_withLockoutCounterStore_returnsTrueIfLockoutPeriodHasPassed() {
+        LockoutCounterStore counterStore = mock(LockoutCounterStore.class);
+        commonLoginPolicy.setLockoutCounterStore(counterStore);
+        when(timeService.getCurrentTimeMillis()).thenReturn(1000000L);
+        when(lockoutPolicyRetriever.getLockoutPolicy()).thenReturn(new LockoutPolicy(3600, 2, 300));
+        when(counterStore.getFailures(eq("principal"), eq(failureEventType), anyLong(), anyString())).thenReturn(new LockoutCounterStore.FailureCount(3, 500000L));
+
+        LoginPolicy.Result result = commonLoginPolicy.isAllowed("principal");
+
+        assertTrue(result.isAllowed());
+        assertEquals(3, result.getFailureCount());
+    }
+
+    @Test
+    public void isAllowed_withLockoutCounterStore_whenLockoutAfterFailuresIsNegative_returnsTrue() {
+        LockoutCounterStore counterStore = mock(LockoutCounterStore.class);
+        commonLoginPolicy.setLockoutCounterStore(counterStore);
+        when(lockoutPolicyRetriever.getLockoutPolicy()).thenReturn(new LockoutPolicy(-1, -1, 300));
+        when(counterStore.getFailures(eq("principal"), eq(failureEventType), anyLong(), anyString())).thenReturn(LockoutCounterStore.FailureCount.NONE);
+
+        LoginPolicy.Result result = commonLoginPolicy.isAllowed("principal");
+
+        assertTrue(result.isAllowed());
+        assertEquals(0, result.getFailureCount());
+    }
 }
@@ -0,0 +1,77 @@
+package org.cloudfoundry.identity.uaa.authentication.manager;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.cloudfoundry.identity.uaa.scim.jdbc.JdbcScimUserProvisioning;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.security.crypto.bcrypt.BCrypt;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PasswordRehasherTests {
+
+    private JdbcScimUserProvisioning userProvisioning;
+    private PasswordRehasher rehasher;
+
+    @BeforeEach
+    void setUp() {
+        userProvisioning = mock(JdbcScimUserProvisioning.class);
+        rehasher = new PasswordRehasher(userProvisioning, new BCryptPasswordEncoder(5), 5);
+        rehasher.setExecutor(MoreExecutors.newDirectExecutorService());
+    }
+
+    @Test
+    void isOutdated() {
+        assertTrue(rehasher.isOutdated(new BCryptPasswordEncoder(4).encode("password")));
+        assertFalse(rehasher.isOutdated(new BCryptPasswordEncoder(5).encode("password")));
+        assertFalse(rehasher.isOutdated(new BCryptPasswordEncoder(6).encode("password")));
+        assertFalse(rehasher.isOutdated("fakeEncodedPassword:plaintext=password"));
+    }
+
+    @Test
+    void isOutdated_whenDisabled() {
+        rehasher.setEnabled(false);
+        assertFalse(rehasher.isOutdated(new BCryptPasswordEncoder(4).encode("password")));
+    }
+
+    @Test
+    void rehashesOutdatedPassword() {
+        String outdated = new BCryptPasswordEncoder(4).encode("password");
+        when(userProvisioning.updatePasswordHash(eq("user-id"), eq(outdated), anyString(), eq("zone-id"))).thenReturn(true);
+
+        rehasher.rehashIfOutdated("user-id", "password", outdated, "zone-id");
+
+        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+        verify(userProvisioning).updatePasswordHash(eq("user-id"), eq(outdated), captor.capture(), eq("zone-id"));
+        assertTrue(BCrypt.checkpw("password", captor.getValue()));
+        assertTrue(captor.getValue().startsWith("$2a$05$"));
+    }
+
+    @Test
+    void doesNotRehashCurrentPassword() {
+        rehasher.rehashIfOutdated("user-id", "password", new BCryptPasswordEncoder(5).encode("password"), "zone-id");
+
+        verify(userProvisioning, never()).updatePasswordHash(anyString(), anyString(), anyString(), anyString());
+    }
+
+    @Test
+    void failedRehashIsNotPropagated() {
+        String outdated = new BCryptPasswordEncoder(4).encode("password");
+        when(userProvisioning.updatePasswordHash(anyString(), anyString(), anyString(), anyString())).thenThrow(new RuntimeException("db down"));
+
+        rehasher.rehashIfOutdated("user-id", "password", outdated, "zone-id");
+        rehasher.rehashIfOutdated("user-id", "password", outdated, "zone-id");
+
+        verify(userProvisioning, times(2)).updatePasswordHash(anyString(), anyString(), anyString(), anyString());
+    }
+}
@@ -19,15 +19,21 @@ import org.cloudfoundry.identity.uaa.impl.config.RestTemplateConfig;
 import org.cloudfoundry.identity.uaa.provider.SlowHttpServer;
 import org.cloudfoundry.identity.uaa.util.TimeService;
 import org.junit.jupiter.api.*;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.RequestEntity;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
-import java.net.URI;
 import java.net.URISyntaxException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -50,14 +56,14 @@ class ExpiringUrlCacheTests {
         when(mockTimeService.getCurrentTimeMillis()).thenAnswer(e -> System.currentTimeMillis());
         cache = new ExpiringUrlCache(CACHE_EXPIRATION, mockTimeService, 2);
         template = mock(RestTemplate.class);
-        when(template.getForObject(any(URI.class), any())).thenReturn(content, new byte[1024]);
+        when(template.exchange(any(RequestEntity.class), eq(byte[].class))).thenReturn(ResponseEntity.ok(content), ResponseEntity.ok(new byte[1024]));
         uri = "http://localhost:8080/uaa/.well-known/openid-configuration";
     }
 
     @Test
     void correct_method_invoked_on_rest_template() throws URISyntaxException {
         cache.getUrlContent(uri, template);
-        verify(template, times(1)).getForObject(eq(new URI(uri)), same((new byte[0]).getClass()));
+        verify(template, times(1)).exchange(argThat(request -> request.getMethod() == HttpMethod.GET && request.getUrl().toString().equals(uri)), same((new byte[0]).getClass()));
     }
 
     @Test
@@ -69,7 +75,7 @@ class ExpiringUrlCacheTests {
     @Test
     void rest_client_exception_is_propagated() {
         template = mock(RestTemplate.class);
-        when(template.getForObject(any(URI.class), any())).thenThrow(new RestClientException("mock"));
+        when(template.exchange(any(RequestEntity.class), eq(byte[].class))).thenThrow(new RestClientException("mock"));
         assertThrows(RestClientException.class, () -> cache.getUrlContent(uri, template));
     }
 
@@ -77,7 +83,7 @@ class ExpiringUrlCacheTests {
     void calling_twice_uses_cache() throws Exception {
         byte[] c1 = cache.getUrlContent(uri, template);
         byte[] c2 = cache.getUrlContent(uri, template);
-        verify(template, times(1)).getForObject(eq(new URI(uri)), same((new byte[0]).getClass()));
+        verify(template, times(1)).exchange(any(RequestEntity.class), eq(byte[].class));
         assertSame(c1, c2);
         assertEquals(1, cache.size());
     }
@@ -95,10 +101,117 @@ class ExpiringUrlCacheTests {
                 );
         byte[] c1 = cache.getUrlContent(uri, template);
         byte[] c2 = cache.getUrlContent(uri, template);
-        verify(template, times(2)).getForObject(eq(new URI(uri)), same((new byte[0]).getClass()));
+        verify(template, times(2)).exchange(any(RequestEntity.class), eq(byte[].class));
         assertNotSame(c1, c2);
     }
 
+    @Test
+    void stale_entry_is_served_while_it_is_refreshed() {
+        cache = new ExpiringUrlCache(CACHE_EXPIRATION, Duration.ofMinutes(30), mockTimeService, 2);
+        cache.setRefreshExecutor(Runnable::run);
+        long start = Instant.now().toEpochMilli();
+        when(mockTimeService.getCurrentTimeMillis()).thenReturn(start);
+        byte[] c1 = cache.getUrlContent(uri, template);
+
+        when(mockTimeService.getCurrentTimeMillis()).thenReturn(start + CACHE_EXPIRATION.plus(Duration.ofMinutes(5)).toMillis());
+        byte[] c2 = cache.getUrlContent(uri, template);
+        byte[] c3 = cache.getUrlContent(uri, template);
+
+        assertSame(c1, c2);
+        assertNotSame(c1, c3);
+        assertEquals(1, cache.getStaleHitCount());
+        verify(template, times(2)).exchange(any(RequestEntity.class), eq(byte[].class));
+    }
+
+    @Test
+    void burst_of_stale_hits_queues_a_single_refresh() {
+        cache = new ExpiringUrlCache(CACHE_EXPIRATION, Duration.ofMinutes(30), mockTimeService, 2);
+        List<Runnable> queued = new ArrayList<>();
+        cache.setRefreshExecutor(queued::add);
+        long start = Instant.now().toEpochMilli();
+        when(mockTimeService.getCurrentTimeMillis()).thenReturn(start);
+        byte[] c1 = cache.getUrlContent(uri, template);
+
+        when(mockTimeService.getCurrentTimeMillis()).thenReturn(start + CACHE_EXPIRATION.plus(Duration.ofMinutes(5)).toMillis());
+        for (int i = 0; i < 5; i++) {
+            assertSame(c1, cache.getUrlContent(uri, template));
+        }
+        assertEquals(1, queued.size());
+
+        queued.get(0).run();
+        assertNotSame(c1, cache.getUrlContent(uri, template));
+        verify(template, times(2)).exchange(any(RequestEntity.class), eq(byte[].class));
+    }
+
+    @Test
+    void stale_entry_is_served_after_shutdown() {
+        cache = new ExpiringUrlCache(CACHE_EXPIRATION, Duration.ofMinutes(30), mockTimeService, 2);
+        long start = Instant.now().toEpochMilli();
+        when(mockTimeService.getCurrentTimeMillis()).thenReturn(start);
+        byte[] c1 = cache.getUrlContent(uri, template);
+        cache.shutdown();
+
+        when(mockTimeService.getCurrentTimeMillis()).thenReturn(start + CACHE_EXPIRATION.plus(Duration.ofMinutes(5)).toMillis());
+        assertSame(c1, cache.getUrlContent(uri, template));
+        assertSame(c1, cache.getUrlContent(uri, template));
+        verify(template, times(1)).exchange(any(RequestEntity.class), eq(byte[].class));
+    }
+
+    @Test
+    void entry_is_refreshed_ahead_of_expiration() {
+        cache.setRefreshAhead(Duration.ofMinutes(1));
+        cache.setRefreshExecutor(Runnable::run);
+        long start = Instant.now().toEpochMilli();
+        when(mockTimeService.getCurrentTimeMillis()).thenReturn(start);
+        byte[] c1 = cache.getUrlContent(uri, template);
+
+        when(mockTimeService.getCurrentTimeMillis()).thenReturn(start + CACHE_EXPIRATION.minus(Duration.ofSeconds(30)).toMillis());
+        assertSame(c1, cache.getUrlContent(uri, template));
+        assertNotSame(c1, cache.getUrlContent(uri, template));
+        verify(template, times(2)).exchange(any(RequestEntity.class), eq(byte[].class));
+    }
+
+    @Test
+    void refresh_sends_validators_and_keeps_content_when_not_modified() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag("\"v1\"");
+        headers.setLastModified(1000000L);
+        template = mock(RestTemplate.class);
+        when(template.exchange(any(RequestEntity.class), eq(byte[].class))).thenReturn(
+            new ResponseEntity<>(content, headers, HttpStatus.OK),
+            new ResponseEntity<>(HttpStatus.NOT_MODIFIED)
+        );
+        long start = Instant.now().toEpochMilli();
+        when(mockTimeService.getCurrentTimeMillis()).thenReturn(start);
+        byte[] c1 = cache.getUrlContent(uri, template);
+
+        when(mockTimeService.getCurrentTimeMillis()).thenReturn(start + CACHE_EXPIRATION.plus(Duration.ofMinutes(1)).toMillis());
+        byte[] c2 = cache.getUrlContent(uri, template);
+
+        assertSame(c1, c2);
+        assertEquals(1, cache.getNotModifiedCount());
+        verify(template).exchange(argThat(request -> "\"v1\"".equals(request.getHeaders().getFirst(HttpHeaders.IF_NONE_MATCH)) &&
+                                                      request.getHeaders().getIfModifiedSince() == 1000000L), eq(byte[].class));
+    }
+
+    @Test
+    void last_good_copy_is_served_when_refresh_fails() {
+        template = mock(RestTemplate.class);
+        when(template.exchange(any(RequestEntity.class), eq(byte[].class)))
+            .thenReturn(ResponseEntity.ok(content))
+            .thenThrow(new RestClientException("mock"));
+        long start = Instant.now().toEpochMilli();
+        when(mockTimeService.getCurrentTimeMillis()).thenReturn(start);
+        byte[] c1 = cache.getUrlContent(uri, template);
+
+        when(mockTimeService.getCurrentTimeMillis()).thenReturn(start + CACHE_EXPIRATION.plus(Duration.ofMinutes(1)).toMillis());
+        assertSame(c1, cache.getUrlContent(uri, template));
+        assertSame(c1, cache.getUrlContent(uri, template));
+
+        assertEquals(1, cache.getFailureCount());
+        verify(template, times(2)).exchange(any(RequestEntity.class), eq(byte[].class));
+    }
+
 
     @Test
     void test_google_returns_same_array() {
@@ -123,14 +236,14 @@ class ExpiringUrlCacheTests {
         byte[] c2 = new byte[1024];
         byte[] c3 = new byte[1024];
         template = mock(RestTemplate.class);
-        when(template.getForObject(eq(new URI(uri1)), any())).thenReturn(c1);
-        when(template.getForObject(eq(new URI(uri2)), any())).thenReturn(c2);
-        when(template.getForObject(eq(new URI(uri3)), any())).thenReturn(c3);
+        when(template.exchange(argThat(request -> request != null && request.getUrl().toString().equals(uri1)), eq(byte[].class))).thenReturn(ResponseEntity.ok(c1));
+        when(template.exchange(argThat(request -> request != null && request.getUrl().toString().equals(uri2)), eq(byte[].class))).thenReturn(ResponseEntity.ok(c2));
+        when(template.exchange(argThat(request -> request != null && request.getUrl().toString().equals(uri3)), eq(byte[].class))).thenReturn(ResponseEntity.ok(c3));
         for (String uri : Arrays.asList(uri1, uri1, uri2, uri2, uri3, uri3)) {
             cache.getUrlContent(uri, template);
         }
         for (String uri : Arrays.asList(uri1, uri2, uri3)) {
-            verify(template, times(1)).getForObject(eq(new URI(uri)), same((new byte[0]).getClass()));
+            verify(template, times(1)).exchange(argThat(request -> request.getUrl().toString().equals(uri)), eq(byte[].class));
         }
         assertEquals(2, cache.size());
     }
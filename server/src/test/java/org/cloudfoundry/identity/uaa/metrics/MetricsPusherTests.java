@@ -0,0 +1,121 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.metrics;
+
+import org.cloudfoundry.identity.uaa.audit.LoggingAuditService;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.FilterChain;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class MetricsPusherTests {
+
+    private UaaMetricsFilter filter;
+    private RecordingSink sink;
+    private MetricsPusher pusher;
+
+    @Before
+    public void setup() throws Exception {
+        filter = new UaaMetricsFilter();
+        sink = new RecordingSink();
+        pusher = new MetricsPusher(filter, sink);
+        pusher.setAuditService(new LoggingAuditService());
+    }
+
+    @Test
+    public void counters_are_pushed_as_deltas() throws Exception {
+        performRequest("/oauth/token");
+        performRequest("/oauth/token");
+        pusher.push();
+        assertEquals(Long.valueOf(2), sink.counts.get("requests.global.completed.count"));
+        assertEquals(Long.valueOf(2), sink.counts.get("requests.global.status_2xx.count"));
+        assertEquals(Long.valueOf(2), sink.gauges.get("requests.oauth-oidc.completed.count"));
+        assertEquals(1, sink.flushes);
+
+        sink.clear();
+        performRequest("/oauth/token");
+        pusher.push();
+        assertEquals(Long.valueOf(1), sink.counts.get("requests.global.completed.count"));
+        assertEquals(Long.valueOf(3), sink.gauges.get("requests.oauth-oidc.completed.count"));
+    }
+
+    @Test
+    public void latency_percentiles_cover_the_interval() throws Exception {
+        performRequest("/oauth/token");
+        pusher.push();
+        assertTrue(sink.times.containsKey("requests.oauth-oidc.status_2xx.latency.p99"));
+
+        sink.clear();
+        pusher.push();
+        assertFalse(sink.times.containsKey("requests.oauth-oidc.status_2xx.latency.p99"));
+    }
+
+    @Test
+    public void server_audit_and_vitals_are_pushed() {
+        pusher.push();
+        assertTrue(sink.gauges.containsKey("server.inflight.count"));
+        assertTrue(sink.gauges.containsKey("audit_service.user_authentication_count"));
+        assertTrue(sink.gauges.containsKey("vitals.jvm.heap.used"));
+        assertTrue(sink.gauges.containsKey("vitals.vm.cpu.count"));
+    }
+
+    private void performRequest(String path) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/uaa" + path);
+        request.setPathInfo(path);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        response.setStatus(200);
+        filter.doFilterInternal(request, response, mock(FilterChain.class));
+    }
+
+    private static class RecordingSink implements MetricsSink {
+        private final Map<String, Long> gauges = new LinkedHashMap<>();
+        private final Map<String, Long> counts = new LinkedHashMap<>();
+        private final Map<String, Long> times = new LinkedHashMap<>();
+        private int flushes = 0;
+
+        @Override
+        public void gauge(String name, long value) {
+            gauges.put(name, value);
+        }
+
+        @Override
+        public void count(String name, long delta) {
+            counts.put(name, delta);
+        }
+
+        @Override
+        public void time(String name, long millis) {
+            times.put(name, millis);
+        }
+
+        @Override
+        public void flush() {
+            flushes++;
+        }
+
+        private void clear() {
+            gauges.clear();
+            counts.clear();
+            times.clear();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * ****************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ * ****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.metrics;
+
+import org.cloudfoundry.identity.uaa.authentication.manager.CommonLoginPolicy;
+import org.cloudfoundry.identity.uaa.cache.CacheStatistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.FilterChain;
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class OpenMetricsEndpointTests {
+
+    private UaaMetricsFilter filter;
+    private TokenMetrics tokenMetrics;
+    private OpenMetricsEndpoint endpoint;
+
+    @Before
+    public void setup() throws Exception {
+        filter = new UaaMetricsFilter();
+        tokenMetrics = new TokenMetrics();
+        endpoint = new OpenMetricsEndpoint(filter);
+        endpoint.setEnabled(true);
+        endpoint.setTokenMetrics(tokenMetrics);
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setServletPath("/oauth/token");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        response.setStatus(200);
+        filter.doFilterInternal(request, response, mock(FilterChain.class));
+    }
+
+    @Test
+    public void disabled_by_default() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        new OpenMetricsEndpoint(filter).getMetrics(null, response);
+        assertEquals(404, response.getStatus());
+    }
+
+    @Test
+    public void openmetrics_when_requested() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        endpoint.getMetrics("application/openmetrics-text; version=1.0.0,text/plain;q=0.5", response);
+        assertThat(response.getContentType(), containsString("application/openmetrics-text"));
+        String body = response.getContentAsString();
+        assertThat(body, containsString("# TYPE uaa_tokens_issued counter\n"));
+        assertThat(body, endsWith("# EOF\n"));
+    }
+
+    @Test
+    public void prometheus_text_format_by_default() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        endpoint.getMetrics("text/plain", response);
+        assertThat(response.getContentType(), containsString("text/plain"));
+        String body = response.getContentAsString();
+        assertThat(body, containsString("# TYPE uaa_tokens_issued_total counter\n"));
+        assertThat(body, not(containsString("# EOF")));
+    }
+
+    @Test
+    public void request_histograms_per_group() {
+        String body = endpoint.write(new OpenMetricsWriter(true));
+        assertThat(body, containsString("uaa_http_server_requests_seconds_bucket{group=\"/oauth-oidc\",status=\"2xx\",le=\"+Inf\"} 1\n"));
+        assertThat(body, containsString("uaa_http_server_requests_seconds_count{group=\"/oauth-oidc\",status=\"2xx\"} 1\n"));
+        assertThat(body, containsString("uaa_database_queries_seconds_count{group=\"/oauth-oidc\"} 0\n"));
+        assertThat(body, containsString("uaa_http_server_inflight_requests 0\n"));
+        assertThat(body, not(containsString(MetricsUtil.GLOBAL_GROUP)));
+    }
+
+    @Test
+    public void tokens_caches_and_lockouts() {
+        tokenMetrics.tokenIssued("password");
+        tokenMetrics.tokenIssued("password");
+        tokenMetrics.tokenIssued(null);
+        tokenMetrics.tokenValidated("client_credentials");
+        tokenMetrics.tokenValidationFailed();
+        CacheStatistics cache = mock(CacheStatistics.class);
+        when(cache.getHitCount()).thenReturn(7L);
+        when(cache.getMissCount()).thenReturn(3L);
+        when(cache.size()).thenReturn(2L);
+        endpoint.setCaches(Collections.singletonMap("url", cache));
+        CommonLoginPolicy policy = mock(CommonLoginPolicy.class);
+        when(policy.getLockedOutCount()).thenReturn(4L);
+        endpoint.setLoginPolicies(Collections.singletonMap("user", policy));
+
+        String body = endpoint.write(new OpenMetricsWriter(true));
+        assertThat(body, containsString("uaa_tokens_issued_total{grant_type=\"password\"} 2\n"));
+        assertThat(body, containsString("uaa_tokens_issued_total{grant_type=\"unknown\"} 1\n"));
+        assertThat(body, containsString("uaa_tokens_validated_total{grant_type=\"client_credentials\"} 1\n"));
+        assertThat(body, containsString("uaa_token_validation_failures_total 1\n"));
+        assertThat(body, containsString("uaa_cache_hits_total{cache=\"url\"} 7\n"));
+        assertThat(body, containsString("uaa_cache_misses_total{cache=\"url\"} 3\n"));
+        assertThat(body, containsString("uaa_cache_entries{cache=\"url\"} 2\n"));
+        assertThat(body, containsString("uaa_lockouts_total{policy=\"user\"} 4\n"));
+    }
+
+    @Test
+    public void label_values_are_escaped() {
+        String body = new OpenMetricsWriter(true).gauge("test", "help").sample("test", 1, "label", "a\"b\\c\nd").finish();
+        assertThat(body, containsString("test{label=\"a\\\"b\\\\c\\nd\"} 1\n"));
+    }
+
+    @Test
+    public void grant_types_are_bounded() {
+        for (int i = 0; i < TokenMetrics.MAX_GRANT_TYPES + 10; i++) {
+            tokenMetrics.tokenIssued("grant-" + i);
+        }
+        assertEquals(TokenMetrics.MAX_GRANT_TYPES + 1, tokenMetrics.getIssued().size());
+        assertEquals(10L, (long) tokenMetrics.getIssued().get(TokenMetrics.OTHER_GRANT_TYPE));
+    }
+}
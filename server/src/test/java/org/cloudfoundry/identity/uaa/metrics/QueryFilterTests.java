@@ -19,10 +19,17 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
-import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class QueryFilterTests {
 
@@ -39,6 +46,8 @@ public class QueryFilterTests {
     @After
     public void clear() {
         MetricsAccessor.clear();
+        QueryFingerprints.getInstance().reset();
+        QueryFingerprints.getInstance().setCountingRows(false);
     }
 
 
@@ -46,34 +55,84 @@ public class QueryFilterTests {
     public void reportUnsuccessfulQuery() throws Exception {
         long start = System.currentTimeMillis();
         filter.reportFailedQuery("query", null, "name", start, null);
-        assertNotNull(metric.getQueries());
-        assertEquals(1, metric.getQueries().size());
-        assertEquals("query", metric.getQueries().get(0).getQuery());
-        assertEquals(start, metric.getQueries().get(0).getRequestStartTime());
-        assertFalse(metric.getQueries().get(0).isIntolerable());
+        assertEquals(1, metric.getNrOfDatabaseQueries());
+        assertEquals(0, metric.getIntolerableQueryCount());
     }
 
     @Test
     public void reportQuery() throws Exception {
         filter.reportQuery("query", null, "name", 0, 1);
-        assertNotNull(metric.getQueries());
-        assertEquals(1, metric.getQueries().size());
-        assertEquals("query", metric.getQueries().get(0).getQuery());
-        assertEquals(0, metric.getQueries().get(0).getRequestStartTime());
-        assertEquals(1, metric.getQueries().get(0).getRequestCompleteTime());
-        assertFalse(metric.getQueries().get(0).isIntolerable());
+        assertEquals(1, metric.getNrOfDatabaseQueries());
+        assertEquals(1, metric.getQueryTime(0));
+        assertEquals(1, metric.getDatabaseQueryTime());
+        assertEquals(0, metric.getIntolerableQueryCount());
     }
 
     @Test
     public void reportSlowQuery() throws Exception {
         long delta = filter.getThreshold() + 10;
         filter.reportSlowQuery("query", null, "name", 0, delta);
-        assertNotNull(metric.getQueries());
-        assertEquals(1, metric.getQueries().size());
-        assertEquals("query", metric.getQueries().get(0).getQuery());
-        assertEquals(0, metric.getQueries().get(0).getRequestStartTime());
-        assertEquals(delta, metric.getQueries().get(0).getRequestCompleteTime());
-        assertTrue(metric.getQueries().get(0).isIntolerable());
+        assertEquals(1, metric.getNrOfDatabaseQueries());
+        assertEquals(delta, metric.getQueryTime(0));
+        assertEquals(1, metric.getIntolerableQueryCount());
+        assertEquals(delta, metric.getIntolerableQueryTime());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void statementBeyondEnforcedQueryLimitIsRejectedBeforeItRuns() throws Exception {
+        metric.restart("/uaa/Users", new UrlGroup().setGroup("/Users").setQueryLimit(1), 0);
+        MetricsAccessor.setQueryLimitEnforced(true);
+        filter.reportQuery("select 1", null, "name", 0, 1);
+        PreparedStatement delegate = mock(PreparedStatement.class);
+
+        try {
+            filter.createStatement(null, Connection.class.getMethod("prepareStatement", String.class), new Object[] {"select 2"}, delegate, 0);
+            fail("Expected the query limit to be enforced");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("limit of 1 database queries"));
+            assertTrue(e.getMessage().contains("select 2"));
+        }
+        verify(delegate).close();
+        assertTrue(metric.isQueryLimitExceeded());
+    }
+
+    @Test
+    public void statementsAreNotWrappedByDefault() throws Exception {
+        PreparedStatement delegate = mock(PreparedStatement.class);
+        Object statement = filter.createStatement(
+            null,
+            Connection.class.getMethod("prepareStatement", String.class),
+            new Object[] {"select 1"},
+            delegate,
+            0
+        );
+
+        assertFalse(Proxy.isProxyClass(statement.getClass()) && Proxy.getInvocationHandler(statement) instanceof QueryFilter.StatementResultHandler);
+    }
+
+    @Test
+    public void rowsAffectedAreRecordedPerFingerprint() throws Exception {
+        QueryFingerprints.getInstance().setCountingRows(true);
+        String sql = "update users set active=? where id=?";
+        PreparedStatement delegate = mock(PreparedStatement.class);
+        when(delegate.executeUpdate()).thenReturn(3);
+        when(delegate.executeBatch()).thenReturn(new int[] {1, 1});
+        PreparedStatement statement = (PreparedStatement) filter.createStatement(
+            null,
+            Connection.class.getMethod("prepareStatement", String.class),
+            new Object[] {sql},
+            delegate,
+            0
+        );
+
+        statement.setBoolean(1, true);
+        statement.setString(2, "id");
+        assertEquals(3, statement.executeUpdate());
+        statement.executeBatch();
+
+        QueryStatistics statistics = QueryFingerprints.getInstance().getStatistics().get(sql);
+        assertEquals(2, statistics.getCount());
+        assertEquals(5, statistics.getRowsAffected());
+        assertEquals(2, metric.getNrOfDatabaseQueries());
+    }
+}
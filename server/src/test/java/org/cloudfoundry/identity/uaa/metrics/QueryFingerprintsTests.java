@@ -0,0 +1,134 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.metrics;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class QueryFingerprintsTests {
+
+    private QueryFingerprints fingerprints;
+
+    @Before
+    public void setup() {
+        fingerprints = new QueryFingerprints();
+    }
+
+    @Test
+    public void literals_are_replaced() {
+        assertEquals("select * from users where username = ? and identity_zone_id = ?",
+                     QueryFingerprints.fingerprint("SELECT * FROM users WHERE username = 'marissa' AND identity_zone_id='it''s'"));
+        assertEquals("select id from t where n=? and c=a-? limit ?",
+                     QueryFingerprints.fingerprint("select id from t where n=-5 and c=a-1 limit 10"));
+        assertEquals("select col1 from t2 where \"Col\" = ?",
+                     QueryFingerprints.fingerprint("select col1 from t2 where \"Col\" = 1.5"));
+    }
+
+    @Test
+    public void whitespace_and_placeholder_lists_are_collapsed() {
+        assertEquals("select * from t where id in (?) and zone = ?",
+                     QueryFingerprints.fingerprint("select *\n  from t\twhere id in (?, ?,?) and zone = ? "));
+        assertEquals(QueryFingerprints.fingerprint("delete from t where id in (1,2,3)"),
+                     QueryFingerprints.fingerprint("delete from t where id in (4)"));
+    }
+
+    @Test
+    public void statements_with_the_same_shape_are_aggregated() {
+        fingerprints.record("select * from users where id='a'", 10, false, false);
+        fingerprints.record("select * from users where id='b'", 30, false, false);
+        fingerprints.record("select * from users where id='b'", 5, true, false);
+        fingerprints.record("select * from groups", 1, false, false);
+
+        assertEquals(2, fingerprints.getFingerprintCount());
+        QueryStatistics statistics = fingerprints.getStatistics().get("select * from users where id=?");
+        assertEquals(3, statistics.getCount());
+        assertEquals(45, statistics.getTotalTime());
+        assertEquals(30, statistics.getMaxTime());
+        assertEquals(1, statistics.getFailures());
+    }
+
+    @Test
+    public void rows_are_added_to_last_recorded_statement() {
+        fingerprints.record("update users set active=true where id=?", 2, false, false);
+        fingerprints.addRowsAffected(3);
+        fingerprints.addRowsAffected(5);
+
+        assertEquals(3, fingerprints.getStatistics().get("update users set active=true where id=?").getRowsAffected());
+    }
+
+    @Test
+    public void top_queries_are_ordered_by_total_time() {
+        fingerprints.record("select 1 from a", 5, false, false);
+        fingerprints.record("select 1 from b", 50, false, false);
+        fingerprints.record("select 1 from c", 20, false, false);
+        fingerprints.record("select 1 from c", 20, false, false);
+
+        List<QueryStatistics> top = fingerprints.getTopQueries(2);
+        assertEquals(2, top.size());
+        assertEquals("select ? from b", top.get(0).getFingerprint());
+        assertEquals("select ? from c", top.get(1).getFingerprint());
+    }
+
+    @Test
+    public void fingerprints_are_bounded() {
+        fingerprints.setMaxFingerprints(2);
+        fingerprints.record("select * from a", 1, false, false);
+        fingerprints.record("select * from b", 1, false, false);
+        fingerprints.record("select * from c", 1, false, false);
+        fingerprints.record("select * from d", 1, false, false);
+
+        assertEquals(3, fingerprints.getFingerprintCount());
+        assertEquals(2, fingerprints.getStatistics().get(QueryFingerprints.OTHER_FINGERPRINT).getCount());
+    }
+
+    @Test
+    public void only_slow_queries_are_explained() {
+        QueryExplainer explainer = mock(QueryExplainer.class);
+        fingerprints.setExplainer(explainer);
+        fingerprints.record("select * from a", 1, false, false);
+        verify(explainer, never()).explain(any(), anyString(), any());
+
+        fingerprints.record("select * from a", 5000, false, true);
+        verify(explainer).explain(any(QueryStatistics.class), eq("select * from a"), any());
+    }
+
+    @Test
+    public void explain_is_sampled_once_per_interval() {
+        QueryStatistics statistics = new QueryStatistics("select ?");
+        assertTrue(statistics.claimExplain(1000, 600000));
+        assertFalse(statistics.claimExplain(2000, 600000));
+        assertTrue(statistics.claimExplain(700000, 600000));
+    }
+
+    @Test
+    public void disabled_fingerprints_record_nothing() {
+        fingerprints.setEnabled(false);
+        fingerprints.record("select * from a", 1, false, false);
+        assertEquals(0, fingerprints.getFingerprintCount());
+        assertNull(fingerprints.getStatistics().get("select * from a"));
+    }
+}
@@ -0,0 +1,75 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class StatsdMetricsSinkTests {
+
+    private DatagramSocket server;
+
+    @Before
+    public void setup() throws Exception {
+        server = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        server.setSoTimeout(5000);
+    }
+
+    @After
+    public void close() {
+        server.close();
+    }
+
+    @Test
+    public void metrics_are_sent_in_one_packet() throws Exception {
+        StatsdMetricsSink sink = new StatsdMetricsSink("uaa", new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()), 1432);
+        sink.gauge("server.inflight.count", 3);
+        sink.count("requests.global.completed.count", 10);
+        sink.time("requests.api.status_2xx.latency.p99", 25);
+        sink.flush();
+
+        assertEquals("uaa.server.inflight.count:3|g\n" +
+                     "uaa.requests.global.completed.count:10|c\n" +
+                     "uaa.requests.api.status_2xx.latency.p99:25|ms", receive());
+        sink.close();
+    }
+
+    @Test
+    public void packets_are_split_at_line_boundaries() throws Exception {
+        StatsdMetricsSink sink = new StatsdMetricsSink(null, new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()), 20);
+        sink.gauge("first", 1);
+        sink.gauge("second", 2);
+        sink.gauge("third", 3);
+        sink.flush();
+
+        assertEquals("first:1|g\nsecond:2|g", receive());
+        assertEquals("third:3|g", receive());
+        sink.close();
+    }
+
+    private String receive() throws Exception {
+        byte[] buffer = new byte[2048];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        server.receive(packet);
+        return new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
+    }
+}
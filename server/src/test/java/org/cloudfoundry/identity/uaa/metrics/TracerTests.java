@@ -0,0 +1,169 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.FilterChain;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+public class TracerTests {
+
+    private static final String TRACEPARENT = "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01";
+
+    private Tracer tracer;
+    private MockHttpServletRequest request;
+
+    @Before
+    public void setup() {
+        tracer = new Tracer();
+        request = new MockHttpServletRequest("GET", "/uaa/oauth/token");
+    }
+
+    @After
+    public void clear() {
+        MetricsAccessor.clearTrace();
+    }
+
+    @Test
+    public void not_sampled_by_default() {
+        assertNull(tracer.begin(request, 0));
+        assertSame(Span.NOOP, Tracer.span("token.create"));
+    }
+
+    @Test
+    public void spans_are_nested() {
+        tracer.setSampleRate(1);
+        Trace trace = tracer.begin(request, 0);
+        assertNotNull(trace);
+        MetricsAccessor.setCurrentTrace(trace);
+        try (Span create = Tracer.span("token.create")) {
+            try (Span loadUser = Tracer.span("token.loadUser")) {
+                assertSame(trace, loadUser);
+            }
+            try (Span sign = Tracer.span("token.sign")) {
+            }
+        }
+        try (Span publish = Tracer.span("token.publishEvent")) {
+        }
+        tracer.end(trace);
+
+        List<Map<String, Object>> spans = trace.getSpans();
+        assertEquals(4, spans.size());
+        assertEquals("token.create", spans.get(0).get("name"));
+        assertEquals(-1, spans.get(0).get("parent"));
+        assertEquals(0, spans.get(1).get("parent"));
+        assertEquals(0, spans.get(2).get("parent"));
+        assertEquals(-1, spans.get(3).get("parent"));
+        assertEquals(32, trace.getTraceId().length());
+        assertEquals(16, trace.getSpanId().length());
+        assertEquals(1, tracer.getTraces().size());
+    }
+
+    @Test
+    public void open_spans_are_ended_with_the_trace() {
+        tracer.setSampleRate(1);
+        Trace trace = tracer.begin(request, 0);
+        trace.start("unfinished", System.nanoTime());
+        tracer.end(trace);
+        assertTrue((Long) trace.getSpans().get(0).get("duration") >= 0);
+    }
+
+    @Test
+    public void spans_beyond_the_limit_are_dropped() {
+        tracer.setSampleRate(1);
+        Trace trace = tracer.begin(request, 0);
+        trace.start("root", System.nanoTime());
+        for (int i = 0; i < Trace.MAX_SPANS + 10; i++) {
+            trace.start("child", System.nanoTime()).close();
+        }
+        trace.close();
+        tracer.end(trace);
+        assertEquals(Trace.MAX_SPANS, trace.getSpanCount());
+        assertEquals(11, trace.getDroppedSpans());
+        assertTrue((Long) trace.getSpans().get(0).get("duration") >= 0);
+    }
+
+    @Test
+    public void traceparent_is_continued_when_propagation_is_enabled() {
+        request.addHeader(Tracer.TRACEPARENT_HEADER, TRACEPARENT);
+        assertNull(tracer.begin(request, 0));
+
+        tracer.setPropagation(true);
+        Trace trace = tracer.begin(request, 0);
+        assertEquals("4bf92f3577b34da6a3ce929d0e0e4736", trace.getTraceId());
+        assertEquals("00f067aa0ba902b7", trace.getParentId());
+    }
+
+    @Test
+    public void traceparent_validation() {
+        assertTrue(Tracer.isSampledTraceparent(TRACEPARENT));
+        assertFalse(Tracer.isSampledTraceparent("00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-00"));
+        assertFalse(Tracer.isSampledTraceparent("00-00000000000000000000000000000000-00f067aa0ba902b7-01"));
+        assertFalse(Tracer.isSampledTraceparent("00-4bf92f3577b34da6a3ce929d0e0e4736-0000000000000000-01"));
+        assertFalse(Tracer.isSampledTraceparent("00-4BF92F3577B34DA6A3CE929D0E0E4736-00f067aa0ba902b7-01"));
+        assertFalse(Tracer.isSampledTraceparent("01-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01"));
+        assertFalse(Tracer.isSampledTraceparent(null));
+    }
+
+    @Test
+    public void only_the_most_recent_traces_are_kept() {
+        tracer.setSampleRate(1);
+        tracer.setCapacity(2);
+        for (int i = 0; i < 3; i++) {
+            tracer.end(tracer.begin(new MockHttpServletRequest("GET", "/uaa/" + i), 0));
+        }
+        List<Trace> traces = tracer.getTraces();
+        assertEquals(2, traces.size());
+        assertEquals("/uaa/1", traces.get(0).getUri());
+        assertEquals("/uaa/2", traces.get(1).getUri());
+        assertEquals(3, tracer.getSampledCount());
+    }
+
+    @Test
+    public void metrics_filter_traces_requests() throws Exception {
+        tracer.setSampleRate(1);
+        UaaMetricsFilter filter = new UaaMetricsFilter();
+        filter.setTracer(tracer);
+        request.setPathInfo("/oauth/token");
+        FilterChain chain = mock(FilterChain.class);
+        doAnswer(invocation -> {
+            try (Span span = Tracer.span("token.create")) {
+                return null;
+            }
+        }).when(chain).doFilter(any(), any());
+
+        filter.doFilterInternal(request, new MockHttpServletResponse(), chain);
+
+        assertNull(MetricsAccessor.getCurrentTrace());
+        assertEquals(1, tracer.getTraces().size());
+        Trace trace = tracer.getTraces().get(0);
+        assertEquals("/uaa/oauth/token", trace.getUri());
+        assertEquals("token.create", trace.getSpans().get(0).get("name"));
+    }
+}
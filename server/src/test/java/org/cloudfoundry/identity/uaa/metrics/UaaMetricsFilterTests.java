@@ -33,6 +33,7 @@ import javax.management.Notification;
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -41,6 +42,7 @@ import static org.cloudfoundry.identity.uaa.metrics.UaaMetricsFilter.FALLBACK;
 import static org.cloudfoundry.identity.uaa.util.JsonUtils.readValue;
 import static org.hamcrest.Matchers.greaterThan;
 import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.same;
@@ -185,6 +187,69 @@ public class UaaMetricsFilterTests {
         }
     }
 
+    @Test
+    public void last_requests_are_not_changed_by_later_requests() throws Exception {
+        for (String path : Arrays.asList("/authenticate/test", "/oauth/token")) {
+            setRequestData(path);
+            filter.doFilterInternal(request, response, chain);
+        }
+        List<RequestMetric> lastRequests = new ArrayList<>(filter.getMetricsQueue(MetricsUtil.GLOBAL_GROUP).getLastRequests());
+        assertEquals(2, lastRequests.size());
+        assertEquals("/uaa/authenticate/test", lastRequests.get(0).getUri());
+        assertEquals("/api", lastRequests.get(0).getUriGroup().getGroup());
+        assertEquals("/uaa/oauth/token", lastRequests.get(1).getUri());
+        assertEquals("/oauth-oidc", lastRequests.get(1).getUriGroup().getGroup());
+    }
+
+    @Test
+    public void query_limit_exceeded() throws Exception {
+        setRequestData("/authenticate/test");
+        filter.getUriGroup(request).setQueryLimit(2);
+        doAnswer(invocation -> {
+            for (int i = 0; i < 3; i++) {
+                MetricsAccessor.getCurrent().addQuery(0, 1, false, "select * from users where id=?");
+            }
+            return null;
+        }).when(chain).doFilter(any(), any());
+
+        filter.doFilterInternal(request, response, chain);
+        assertEquals(Long.valueOf(1), filter.getQueryLimitViolations().get("/api"));
+
+        filter.setQueryLimitEnforced(true);
+        filter.doFilterInternal(request, response, chain);
+        assertEquals(Long.valueOf(2), filter.getQueryLimitViolations().get("/api"));
+        assertEquals(2, filter.getMetricsQueue("/api").getTotals().getCount());
+    }
+
+    @Test
+    public void query_limit_enforcement_is_passed_to_the_query_filter() throws Exception {
+        setRequestData("/authenticate/test");
+        boolean[] enforced = new boolean[1];
+        doAnswer(invocation -> enforced[0] = MetricsAccessor.isQueryLimitEnforced()).when(chain).doFilter(any(), any());
+
+        filter.setQueryLimitEnforced(true);
+        filter.doFilterInternal(request, response, chain);
+
+        assertTrue(enforced[0]);
+        assertFalse(MetricsAccessor.isQueryLimitEnforced());
+    }
+
+    @Test
+    public void query_limit_not_exceeded() throws Exception {
+        filter.setQueryLimitEnforced(true);
+        setRequestData("/authenticate/test");
+        filter.getUriGroup(request).setQueryLimit(3);
+        doAnswer(invocation -> {
+            for (int i = 0; i < 3; i++) {
+                MetricsAccessor.getCurrent().addQuery(0, 1, false);
+            }
+            return null;
+        }).when(chain).doFilter(any(), any());
+
+        filter.doFilterInternal(request, response, chain);
+        assertTrue(filter.getQueryLimitViolations().isEmpty());
+    }
+
     @Test
     public void idle_counter() throws Exception {
         IdleTimer mockIdleTimer = mock(IdleTimer.class);
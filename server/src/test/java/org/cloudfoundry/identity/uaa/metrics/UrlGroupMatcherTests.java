@@ -0,0 +1,121 @@
+/*
+ * ****************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ * ****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.metrics;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class UrlGroupMatcherTests {
+
+    private List<UrlGroup> groups;
+    private UrlGroupMatcher matcher;
+
+    @Before
+    public void setup() throws Exception {
+        groups = new UaaMetricsFilter().getUrlGroups();
+        matcher = UrlGroupMatcher.compile(groups);
+    }
+
+    @Test
+    public void matches_like_ant_path_request_matchers() {
+        for (String path : Arrays.asList(
+            "/",
+            "/authenticate",
+            "/authenticate/test",
+            "/oauth/clients/some-client/secret",
+            "/oauth/clients/some-client/secret/change",
+            "/oauth/clients/some-client/meta",
+            "/oauth/clients/tx/secret",
+            "/oauth/clients/tx/modify",
+            "/oauth/clients/restricted",
+            "/oauth/clients",
+            "/oauth/clients/some-client",
+            "/Groups",
+            "/Groups/",
+            "/Groups/some-group/members",
+            "/Groups/some-group/members/some-member",
+            "/Groups/External",
+            "/Groups/external",
+            "/Groups/some-group",
+            "/error",
+            "/error404",
+            "/errors/some-error",
+            "/login",
+            "/login.do",
+            "/login/callback/origin",
+            "/login_implicit",
+            "/oauth/token",
+            "/oauth/token/list/user/some-user",
+            "/oauth/token/.well-known/openid-configuration",
+            "/.well-known/openid-configuration",
+            "/saml/idp/initiate",
+            "/saml/idp/other",
+            "/change_email.do",
+            "/change_emailXdo",
+            "/vendor/font.css",
+            "/some/unknown/path",
+            "")) {
+            assertSame("Testing URL: " + path, antPathGroup(path), matcher.match(path));
+        }
+    }
+
+    @Test
+    public void first_matching_pattern_wins() {
+        UrlGroup specific = group("/specific", "/a/b/**");
+        UrlGroup general = group("/general", "/a/**");
+        assertSame(specific, UrlGroupMatcher.compile(Arrays.asList(specific, general)).match("/a/b/c"));
+        assertSame(general, UrlGroupMatcher.compile(Arrays.asList(general, specific)).match("/a/b/c"));
+    }
+
+    @Test
+    public void no_match_without_catch_all() {
+        UrlGroupMatcher matcher = UrlGroupMatcher.compile(Collections.singletonList(group("/a", "/a/**")));
+        assertNull(matcher.match("/b"));
+        assertNull(matcher.match(""));
+    }
+
+    @Test
+    public void unsupported_patterns_are_not_compiled() {
+        for (String pattern : Arrays.asList("/a/?", "/a/{id}", "/**/a", "a/**")) {
+            assertNull(pattern, UrlGroupMatcher.compile(Collections.singletonList(group("/a", pattern))));
+        }
+    }
+
+    private UrlGroup antPathGroup(String path) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setServletPath(path);
+        for (UrlGroup group : groups) {
+            if (new AntPathRequestMatcher(group.getPattern()).matches(request)) {
+                return group;
+            }
+        }
+        return null;
+    }
+
+    private static UrlGroup group(String name, String pattern) {
+        return new UrlGroup().setGroup(name).setPattern(pattern).setCategory("test").setLimit(1000);
+    }
+}
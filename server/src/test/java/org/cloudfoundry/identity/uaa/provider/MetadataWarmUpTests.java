@@ -0,0 +1,102 @@
+package org.cloudfoundry.identity.uaa.provider;
+
+import org.cloudfoundry.identity.uaa.constants.OriginKeys;
+import org.cloudfoundry.identity.uaa.provider.oauth.OidcMetadataFetcher;
+import org.cloudfoundry.identity.uaa.provider.saml.NonSnarlMetadataManager;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneProvisioning;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.event.ContextRefreshedEvent;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MetadataWarmUpTests {
+
+    private NonSnarlMetadataManager samlMetadataManager;
+    private OidcMetadataFetcher oidcMetadataFetcher;
+    private MetadataWarmUp warmUp;
+    private Set<String> warmedUpZones;
+
+    @BeforeEach
+    void setUp() {
+        IdentityZoneHolder.clear();
+        IdentityZoneProvisioning zoneProvisioning = mock(IdentityZoneProvisioning.class);
+        IdentityProviderProvisioning providerProvisioning = mock(IdentityProviderProvisioning.class);
+        when(zoneProvisioning.retrieveAll()).thenReturn(Arrays.asList(zone("zone-1"), zone("zone-2")));
+        when(providerProvisioning.retrieveActive("zone-1")).thenReturn(Collections.singletonList(oidcProvider()));
+        when(providerProvisioning.retrieveActive("zone-2")).thenReturn(Collections.emptyList());
+
+        samlMetadataManager = mock(NonSnarlMetadataManager.class);
+        warmedUpZones = ConcurrentHashMap.newKeySet();
+        doAnswer(invocation -> warmedUpZones.add(IdentityZoneHolder.get().getId())).when(samlMetadataManager).warmUp();
+        oidcMetadataFetcher = mock(OidcMetadataFetcher.class);
+
+        warmUp = new MetadataWarmUp(zoneProvisioning, providerProvisioning);
+        warmUp.setSamlMetadataManager(samlMetadataManager);
+        warmUp.setOidcMetadataFetcher(oidcMetadataFetcher);
+        warmUp.setThreads(2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        IdentityZoneHolder.clear();
+    }
+
+    @Test
+    void loadsMetadataOfAllZonesOnce() throws Exception {
+        warmUp.onApplicationEvent(mock(ContextRefreshedEvent.class));
+        warmUp.onApplicationEvent(mock(ContextRefreshedEvent.class));
+
+        assertEquals(2, warmedUpZones.size());
+        verify(samlMetadataManager, times(2)).warmUp();
+        verify(oidcMetadataFetcher, times(1)).fetchMetadataAndUpdateDefinition(any());
+        assertEquals(IdentityZone.getUaaZoneId(), IdentityZoneHolder.get().getId());
+    }
+
+    @Test
+    void stopsWaitingAfterTimeout() {
+        CountDownLatch never = new CountDownLatch(1);
+        doAnswer(invocation -> never.await(5, TimeUnit.SECONDS)).when(samlMetadataManager).warmUp();
+        warmUp.setTimeoutMillis(100);
+
+        assertEquals(1, warmUp.warmUp());
+    }
+
+    @Test
+    void disabledWarmUpDoesNothing() {
+        warmUp.setEnabled(false);
+        warmUp.onApplicationEvent(mock(ContextRefreshedEvent.class));
+
+        verify(samlMetadataManager, times(0)).warmUp();
+    }
+
+    private static IdentityZone zone(String id) {
+        IdentityZone zone = new IdentityZone();
+        zone.setId(id);
+        zone.setSubdomain(id);
+        return zone;
+    }
+
+    private static IdentityProvider oidcProvider() {
+        IdentityProvider<OIDCIdentityProviderDefinition> provider = new IdentityProvider<>();
+        provider.setType(OriginKeys.OIDC10);
+        provider.setConfig(new OIDCIdentityProviderDefinition());
+        return provider;
+    }
+}
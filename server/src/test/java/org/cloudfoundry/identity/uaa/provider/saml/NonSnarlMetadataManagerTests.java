@@ -0,0 +1,100 @@
+package org.cloudfoundry.identity.uaa.provider.saml;
+
+import org.cloudfoundry.identity.uaa.security.PollutionPreventionExtension;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.cloudfoundry.identity.uaa.zone.MultitenancyFixture;
+import org.cloudfoundry.identity.uaa.zone.event.IdentityZoneModifiedEvent;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.opensaml.DefaultBootstrap;
+import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+import org.opensaml.xml.Configuration;
+import org.springframework.security.saml.metadata.ExtendedMetadata;
+import org.springframework.security.saml.metadata.ExtendedMetadataDelegate;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(PollutionPreventionExtension.class)
+class NonSnarlMetadataManagerTests {
+
+    private ZoneAwareMetadataGenerator generator;
+    private NonSnarlMetadataManager manager;
+    private IdentityZone zone;
+
+    @BeforeAll
+    static void bootstrap() throws Exception {
+        DefaultBootstrap.bootstrap();
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        generator = mock(ZoneAwareMetadataGenerator.class);
+        when(generator.generateMetadata()).thenAnswer(invocation -> entityDescriptor("zone.cloudfoundry-saml-login"));
+        when(generator.generateExtendedMetadata()).thenAnswer(invocation -> new ExtendedMetadata());
+        manager = new NonSnarlMetadataManager(mock(SamlIdentityProviderConfigurator.class));
+        manager.setMetadataGenerator(generator);
+        zone = MultitenancyFixture.identityZone("zone-id", "zone");
+        zone.setLastModified(new Date(1000));
+        IdentityZoneHolder.set(zone);
+    }
+
+    @Test
+    void localServiceProviderIsReusedUntilZoneChanges() throws Exception {
+        ExtendedMetadataDelegate first = manager.getLocalServiceProvider();
+        assertSame(first, manager.getLocalServiceProvider());
+        verify(generator, times(1)).generateMetadata();
+
+        zone.setVersion(1);
+        zone.setLastModified(new Date(2000));
+        assertNotSame(first, manager.getLocalServiceProvider());
+        verify(generator, times(2)).generateMetadata();
+    }
+
+    @Test
+    void localServiceProviderIsDiscardedWhenZoneIsModified() throws Exception {
+        ExtendedMetadataDelegate first = manager.getLocalServiceProvider();
+
+        manager.onApplicationEvent(new IdentityZoneModifiedEvent(zone, null, null, zone.getId()));
+
+        assertNotSame(first, manager.getLocalServiceProvider());
+        verify(generator, times(2)).generateMetadata();
+    }
+
+    @Test
+    void aliasUsedByLocalIdpAndSpIsRejected() throws Exception {
+        NonSnarlMetadataManager spied = spy(manager);
+        ExtendedMetadataDelegate local = mock(ExtendedMetadataDelegate.class);
+        ExtendedMetadata extendedMetadata = new ExtendedMetadata();
+        extendedMetadata.setLocal(true);
+        extendedMetadata.setAlias("alias");
+        when(local.getExtendedMetadata(anyString())).thenReturn(extendedMetadata);
+        doReturn(local).when(spied).getLocalServiceProvider();
+        doReturn("idp.example.com").when(spied).getProviderIdpAlias(local);
+        doReturn("sp.example.com").when(spied).getHostedSpName(local);
+
+        assertThrows(MetadataProviderException.class, () -> spied.getEntityIdForAlias("alias"));
+    }
+
+    private static EntityDescriptor entityDescriptor(String entityID) {
+        EntityDescriptor descriptor = (EntityDescriptor) Configuration.getBuilderFactory()
+            .getBuilder(EntityDescriptor.DEFAULT_ELEMENT_NAME)
+            .buildObject(EntityDescriptor.DEFAULT_ELEMENT_NAME);
+        descriptor.setEntityID(entityID);
+        return descriptor;
+    }
+}
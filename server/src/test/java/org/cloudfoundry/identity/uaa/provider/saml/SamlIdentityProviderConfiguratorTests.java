@@ -16,6 +16,7 @@
 package org.cloudfoundry.identity.uaa.provider.saml;
 
 
+import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
 import org.cloudfoundry.identity.uaa.constants.OriginKeys;
 import org.cloudfoundry.identity.uaa.provider.IdentityProvider;
 import org.cloudfoundry.identity.uaa.provider.IdentityProviderProvisioning;
@@ -26,12 +27,14 @@ import org.junit.Rule;
 import org.junit.jupiter.api.*;
 import org.junit.rules.ExpectedException;
 import org.opensaml.DefaultBootstrap;
+import org.opensaml.saml2.metadata.provider.MetadataProviderException;
 import org.opensaml.xml.parse.BasicParserPool;
 import org.springframework.security.oauth2.common.util.RandomValueStringGenerator;
 import org.springframework.security.saml.trust.httpclient.TLSProtocolSocketFactory;
 
 import java.time.Duration;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 import java.util.Timer;
 
@@ -45,6 +48,9 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class SamlIdentityProviderConfiguratorTests {
@@ -260,6 +266,61 @@ public class SamlIdentityProviderConfiguratorTests {
         assertEquals(0, clientIdps.size());
     }
 
+    @Test
+    public void duplicateEntityIdInZoneIsRejected() throws Exception {
+        when(provisioning.retrieveActive("uaa")).thenReturn(asList(identityProvider("idp-1", "existing-alias", xml, 1000L)));
+        SamlIdentityProviderDefinition duplicate = singleAdd.clone().setMetaDataLocation(xml);
+
+        Assertions.assertThrows(MetadataProviderException.class, () -> configurator.validateSamlIdentityProviderDefinition(duplicate));
+        configurator.validateSamlIdentityProviderDefinition(duplicate.clone().setIdpEntityAlias("existing-alias"));
+        configurator.validateSamlIdentityProviderDefinition(singleAdd);
+    }
+
+    @Test
+    public void entityIdsOfUnchangedProvidersAreNotLoadedAgain() throws Exception {
+        configurator = spy(configurator);
+        IdentityProvider<SamlIdentityProviderDefinition> existing = identityProvider("idp-1", "existing-alias", xml, 1000L);
+        when(provisioning.retrieveActive("uaa")).thenReturn(asList(existing));
+
+        configurator.validateSamlIdentityProviderDefinition(singleAdd);
+        configurator.validateSamlIdentityProviderDefinition(singleAdd);
+        verify(configurator, times(1)).getExtendedMetadataDelegate(existing.getConfig());
+
+        existing.setLastModified(new Date(2000L));
+        configurator.validateSamlIdentityProviderDefinition(singleAdd);
+        verify(configurator, times(2)).getExtendedMetadataDelegate(existing.getConfig());
+
+        existing.setVersion(1);
+        configurator.validateSamlIdentityProviderDefinition(singleAdd);
+        verify(configurator, times(3)).getExtendedMetadataDelegate(existing.getConfig());
+    }
+
+    @Test
+    public void entityIdsOfDeletedZoneAreDiscarded() throws Exception {
+        configurator = spy(configurator);
+        IdentityProvider<SamlIdentityProviderDefinition> existing = identityProvider("idp-1", "existing-alias", xml, 1000L);
+        when(provisioning.retrieveActive("uaa")).thenReturn(asList(existing));
+
+        configurator.validateSamlIdentityProviderDefinition(singleAdd);
+        configurator.onApplicationEvent(new EntityDeletedEvent<>(IdentityZoneHolder.get(), null, IdentityZoneHolder.get().getId()));
+        configurator.validateSamlIdentityProviderDefinition(singleAdd);
+        verify(configurator, times(2)).getExtendedMetadataDelegate(existing.getConfig());
+    }
+
+    private static IdentityProvider<SamlIdentityProviderDefinition> identityProvider(String id, String alias, String metadata, long lastModified) {
+        SamlIdentityProviderDefinition definition = new SamlIdentityProviderDefinition()
+            .setMetaDataLocation(metadata)
+            .setIdpEntityAlias(alias)
+            .setZoneId("uaa");
+        IdentityProvider<SamlIdentityProviderDefinition> provider = new IdentityProvider<>();
+        provider.setId(id);
+        provider.setType(OriginKeys.SAML);
+        provider.setIdentityZoneId("uaa");
+        provider.setLastModified(new Date(lastModified));
+        provider.setConfig(definition);
+        return provider;
+    }
+
     @Rule
     public ExpectedException expectedException = ExpectedException.none();
 
@@ -10,6 +10,7 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.security.saml.key.JKSKeyManager;
+import org.springframework.security.saml.key.KeyManager;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import java.security.KeyStore;
@@ -262,4 +263,34 @@ public class SamlKeyManagerFactoryTests {
         assertNotNull(manager1.getDefaultCredential().getPublicKey());
         assertNull(manager1.getDefaultCredential().getPrivateKey());
     }
+
+    @Test
+    void keyManagerIsCachedPerZone() {
+        KeyManager manager1 = samlKeyManagerFactory.getKeyManager("zone-1", config);
+        assertSame(manager1, samlKeyManagerFactory.getKeyManager("zone-1", config));
+        assertNotSame(manager1, samlKeyManagerFactory.getKeyManager("zone-2", config));
+        assertEquals(2, samlKeyManagerFactory.size());
+    }
+
+    @Test
+    void keyManagerIsRebuiltWhenKeysChange() {
+        KeyManager manager1 = samlKeyManagerFactory.getKeyManager("zone-1", config);
+        config.setActiveKeyId("key-2");
+        KeyManager manager2 = samlKeyManagerFactory.getKeyManager("zone-1", config);
+        assertNotSame(manager1, manager2);
+        assertEquals("key-2", manager2.getDefaultCredentialName());
+
+        config.addKey("key-2", new SamlKey(key1, passphrase1, certificate1));
+        KeyManager manager3 = samlKeyManagerFactory.getKeyManager("zone-1", config);
+        assertNotSame(manager2, manager3);
+        assertEquals(1, samlKeyManagerFactory.size());
+    }
+
+    @Test
+    void invalidateDropsCachedKeyManager() {
+        KeyManager manager1 = samlKeyManagerFactory.getKeyManager("zone-1", config);
+        samlKeyManagerFactory.invalidate("zone-1");
+        assertEquals(0, samlKeyManagerFactory.size());
+        assertNotSame(manager1, samlKeyManagerFactory.getKeyManager("zone-1", config));
+    }
 }
@@ -0,0 +1,97 @@
+package org.cloudfoundry.identity.uaa.provider.saml;
+
+import org.cloudfoundry.identity.uaa.security.PollutionPreventionExtension;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.cloudfoundry.identity.uaa.zone.MultitenancyFixture;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(PollutionPreventionExtension.class)
+class SamlMetadataDocumentCacheTests {
+
+    private SamlMetadataDocumentCache cache;
+    private IdentityZone zone;
+    private AtomicInteger generated;
+
+    @BeforeEach
+    void setUp() {
+        cache = new SamlMetadataDocumentCache();
+        cache.setExecutor(Runnable::run);
+        zone = MultitenancyFixture.identityZone("zone-id", "zone");
+        zone.setLastModified(new Date(1000));
+        generated = new AtomicInteger();
+    }
+
+    private String generate() {
+        return "<md:EntityDescriptor version=\"" + generated.incrementAndGet() + "\"/>";
+    }
+
+    @Test
+    void documentIsReusedUntilZoneChanges() throws Exception {
+        SamlMetadataDocumentCache.Document first = cache.getDocument(zone, this::generate);
+        assertSame(first, cache.getDocument(zone, this::generate));
+        assertEquals(1, generated.get());
+
+        zone.setVersion(1);
+        zone.setLastModified(new Date(2000));
+        assertNotSame(first, cache.getDocument(zone, this::generate));
+        assertEquals(2, generated.get());
+    }
+
+    @Test
+    void pregenerateRunsWithTheZoneSet() throws Exception {
+        IdentityZone current = IdentityZoneHolder.get();
+        cache.pregenerate(zone, () -> {
+            assertEquals("zone-id", IdentityZoneHolder.getCurrentZoneId());
+            return generate();
+        });
+        assertEquals(1, generated.get());
+        assertSame(current, IdentityZoneHolder.get());
+
+        cache.getDocument(zone, this::generate);
+        assertEquals(1, generated.get());
+    }
+
+    @Test
+    void removeDropsDocument() throws Exception {
+        cache.getDocument(zone, this::generate);
+        cache.remove("zone-id");
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void writeReturnsNotModifiedForMatchingETag() throws Exception {
+        SamlMetadataDocumentCache.Document document = cache.getDocument(zone, this::generate);
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        document.write(new MockHttpServletRequest(), response);
+        assertEquals(200, response.getStatus());
+        assertEquals(document.getETag(), response.getHeader("ETag"));
+        assertEquals("<md:EntityDescriptor version=\"1\"/>", response.getContentAsString());
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("If-None-Match", "\"other\", " + document.getETag());
+        response = new MockHttpServletResponse();
+        document.write(request, response);
+        assertEquals(304, response.getStatus());
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void weakETagsMatch() throws Exception {
+        SamlMetadataDocumentCache.Document document = cache.getDocument(zone, this::generate);
+        assertTrue(document.matches("W/" + document.getETag()));
+    }
+}
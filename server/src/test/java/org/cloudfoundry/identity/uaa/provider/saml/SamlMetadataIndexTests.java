@@ -0,0 +1,72 @@
+package org.cloudfoundry.identity.uaa.provider.saml;
+
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opensaml.DefaultBootstrap;
+import org.opensaml.xml.parse.BasicParserPool;
+import org.springframework.security.saml.metadata.ExtendedMetadata;
+import org.springframework.security.saml.metadata.ExtendedMetadataDelegate;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Scanner;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SamlMetadataIndexTests {
+
+    private static final String ENTITY_ID = "http://openam.example.com:8181/openam";
+
+    @BeforeAll
+    static void bootstrap() throws Exception {
+        DefaultBootstrap.bootstrap();
+    }
+
+    @Test
+    void indexesIdpEntityIdsAndHashes() throws Exception {
+        ExtendedMetadataDelegate delegate = delegate("first", false);
+        SamlMetadataIndex index = SamlMetadataIndex.build(Collections.singletonList(delegate));
+
+        assertSame(delegate, index.getProvider(ENTITY_ID));
+        assertEquals(Collections.singleton(ENTITY_ID), index.getIdpEntityNames());
+        assertTrue(index.getSpEntityNames().isEmpty());
+        assertEquals(ENTITY_ID, index.getEntityIdForHash(SamlMetadataIndex.sha1(ENTITY_ID).array()));
+        assertNull(index.getEntityIdForHash(SamlMetadataIndex.sha1("http://unknown.example.com").array()));
+        assertNull(index.getProvider("http://unknown.example.com"));
+        assertNull(index.getEntityIdForAlias("first"));
+    }
+
+    @Test
+    void firstProviderWins() throws Exception {
+        ExtendedMetadataDelegate first = delegate("first", false);
+        ExtendedMetadataDelegate second = delegate("second", false);
+        SamlMetadataIndex index = SamlMetadataIndex.build(Arrays.asList(first, second));
+
+        assertSame(first, index.getProvider(ENTITY_ID));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    void indexesLocalAliases() throws Exception {
+        SamlMetadataIndex index = SamlMetadataIndex.build(Collections.singletonList(delegate("local", true)));
+
+        assertEquals(ENTITY_ID, index.getEntityIdForAlias("local"));
+    }
+
+    private static ExtendedMetadataDelegate delegate(String alias, boolean local) throws Exception {
+        String metadata = new Scanner(new File("../uaa/src/main/resources/idp.xml")).useDelimiter("\\Z").next();
+        ConfigMetadataProvider provider = new ConfigMetadataProvider(IdentityZone.getUaaZoneId(), alias, metadata);
+        provider.setParserPool(new BasicParserPool());
+        ExtendedMetadata extendedMetadata = new ExtendedMetadata();
+        extendedMetadata.setLocal(local);
+        extendedMetadata.setAlias(alias);
+        ExtendedMetadataDelegate delegate = new ExtendedMetadataDelegate(provider, extendedMetadata);
+        delegate.initialize();
+        return delegate;
+    }
+}
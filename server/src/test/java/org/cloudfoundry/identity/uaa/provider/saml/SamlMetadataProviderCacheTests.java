@@ -0,0 +1,115 @@
+package org.cloudfoundry.identity.uaa.provider.saml;
+
+import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
+import org.cloudfoundry.identity.uaa.provider.IdentityProvider;
+import org.cloudfoundry.identity.uaa.provider.SamlIdentityProviderDefinition;
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.cloudfoundry.identity.uaa.zone.event.IdentityProviderModifiedEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.saml.metadata.ExtendedMetadataDelegate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SamlMetadataProviderCacheTests {
+
+    private SamlIdentityProviderConfigurator configurator;
+    private TimeService timeService;
+    private SamlMetadataProviderCache cache;
+    private List<IdentityProvider<SamlIdentityProviderDefinition>> providers;
+    private AtomicInteger loads;
+
+    @BeforeEach
+    void setUp() {
+        configurator = mock(SamlIdentityProviderConfigurator.class);
+        timeService = mock(TimeService.class);
+        providers = new ArrayList<>(Arrays.asList(provider("idp-1", 1000L), provider("idp-2", 1000L)));
+        when(configurator.getIdentityProvidersForZone("zone")).thenAnswer(invocation -> providers);
+        cache = new SamlMetadataProviderCache(configurator);
+        cache.setTimeService(timeService);
+        cache.setRevalidateIntervalMillis(30000);
+        loads = new AtomicInteger();
+        now(100000L);
+    }
+
+    @Test
+    void onlyChangedProvidersAreLoadedAfterModifiedEvent() {
+        List<ExtendedMetadataDelegate> first = cache.getProviders("zone", this::load);
+        IdentityProvider<SamlIdentityProviderDefinition> modified = provider("idp-2", 2000L);
+        providers.set(1, modified);
+        cache.onApplicationEvent(new IdentityProviderModifiedEvent(modified, null, null, "zone"));
+
+        List<ExtendedMetadataDelegate> second = cache.getProviders("zone", this::load);
+
+        assertEquals(3, loads.get());
+        assertSame(first.get(0), second.get(0));
+        assertNotSame(first.get(1), second.get(1));
+    }
+
+    @Test
+    void providerUpdatedWithinTheSameSecondIsLoadedAgain() {
+        List<ExtendedMetadataDelegate> first = cache.getProviders("zone", this::load);
+        IdentityProvider<SamlIdentityProviderDefinition> modified = provider("idp-2", 1000L);
+        modified.setVersion(1);
+        providers.set(1, modified);
+        cache.onApplicationEvent(new IdentityProviderModifiedEvent(modified, null, null, "zone"));
+
+        List<ExtendedMetadataDelegate> second = cache.getProviders("zone", this::load);
+
+        assertEquals(3, loads.get());
+        assertNotSame(first.get(1), second.get(1));
+    }
+
+    @Test
+    void deletedProviderIsRemoved() {
+        cache.getProviders("zone", this::load);
+        IdentityProvider<SamlIdentityProviderDefinition> deleted = providers.remove(0);
+        cache.onApplicationEvent(new EntityDeletedEvent<>(deleted, null, "zone"));
+
+        assertEquals(1, cache.getProviders("zone", this::load).size());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void revalidatesAndReloadsUrlMetadataAfterInterval() {
+        cache.getProviders("zone", this::load);
+        providers.add(provider("idp-3", 1000L));
+        assertEquals(2, cache.getProviders("zone", this::load).size());
+
+        now(130000L);
+        assertEquals(3, cache.getProviders("zone", this::load).size());
+        assertEquals(5, loads.get());
+    }
+
+    private ExtendedMetadataDelegate load(SamlIdentityProviderDefinition definition) {
+        loads.incrementAndGet();
+        return mock(ExtendedMetadataDelegate.class);
+    }
+
+    private void now(long time) {
+        when(timeService.getCurrentTimeMillis()).thenReturn(time);
+    }
+
+    private static IdentityProvider<SamlIdentityProviderDefinition> provider(String id, long lastModified) {
+        SamlIdentityProviderDefinition definition = new SamlIdentityProviderDefinition()
+            .setIdpEntityAlias(id)
+            .setMetaDataLocation("https://" + id + ".example.com/saml/metadata")
+            .setZoneId("zone");
+        IdentityProvider<SamlIdentityProviderDefinition> provider = new IdentityProvider<>();
+        provider.setId(id);
+        provider.setIdentityZoneId("zone");
+        provider.setLastModified(new Date(lastModified));
+        provider.setConfig(definition);
+        return provider;
+    }
+}
@@ -0,0 +1,120 @@
+package org.cloudfoundry.identity.uaa.provider.saml;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opensaml.DefaultBootstrap;
+import org.opensaml.common.xml.SAMLConstants;
+import org.opensaml.saml2.metadata.EntitiesDescriptor;
+import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml2.metadata.IDPSSODescriptor;
+import org.opensaml.saml2.metadata.SPSSODescriptor;
+import org.opensaml.xml.XMLObject;
+import org.opensaml.xml.parse.BasicParserPool;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Scanner;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StreamingMetadataProviderTests {
+
+    private static final String IDP_ENTITY_ID = "http://openam.example.com:8181/openam";
+    private static final String SP_ENTITY_ID = "http://sp.example.com";
+    private static final String OTHER_IDP_ENTITY_ID = "http://other-idp.example.com";
+
+    private static String aggregate;
+    private StreamingMetadataProvider provider;
+
+    @BeforeAll
+    static void bootstrap() throws Exception {
+        DefaultBootstrap.bootstrap();
+        String idp = new Scanner(new File("../uaa/src/main/resources/idp.xml")).useDelimiter("\\Z").next();
+        idp = idp.substring(idp.indexOf("?>") + 2);
+        aggregate = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<md:EntitiesDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\" Name=\"federation\">\n" +
+            "  <md:EntityDescriptor entityID=\"" + SP_ENTITY_ID + "\">\n" +
+            "    <md:SPSSODescriptor protocolSupportEnumeration=\"urn:oasis:names:tc:SAML:2.0:protocol\">\n" +
+            "      <md:AssertionConsumerService Binding=\"urn:oasis:names:tc:SAML:2.0:bindings:HTTP-POST\" Location=\"http://sp.example.com/acs\" index=\"0\"/>\n" +
+            "    </md:SPSSODescriptor>\n" +
+            "  </md:EntityDescriptor>\n" +
+            "  <md:EntitiesDescriptor Name=\"nested\">\n" +
+            idp +
+            "  </md:EntitiesDescriptor>\n" +
+            "  <md:EntityDescriptor entityID=\"" + OTHER_IDP_ENTITY_ID + "\">\n" +
+            "    <md:IDPSSODescriptor protocolSupportEnumeration=\"urn:oasis:names:tc:SAML:2.0:protocol\">\n" +
+            "      <md:SingleSignOnService Binding=\"urn:oasis:names:tc:SAML:2.0:bindings:HTTP-Redirect\" Location=\"http://other-idp.example.com/sso\"/>\n" +
+            "    </md:IDPSSODescriptor>\n" +
+            "  </md:EntityDescriptor>\n" +
+            "</md:EntitiesDescriptor>";
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        provider = new StreamingMetadataProvider("uaa", "federation", aggregate);
+        provider.setParserPool(new BasicParserPool());
+        provider.initialize();
+    }
+
+    @Test
+    void indexesEveryEntityWithoutUnmarshallingThem() throws Exception {
+        assertEquals(Arrays.asList(SP_ENTITY_ID, IDP_ENTITY_ID, OTHER_IDP_ENTITY_ID), provider.getEntityIds());
+        assertEquals(IDP_ENTITY_ID, provider.getIdentityProviderEntityId());
+    }
+
+    @Test
+    void metadataHoldsOnlyTheFirstIdentityProvider() throws Exception {
+        XMLObject metadata = provider.doGetMetadata();
+
+        assertTrue(metadata instanceof EntitiesDescriptor);
+        assertEquals(1, ((EntitiesDescriptor) metadata).getEntityDescriptors().size());
+        assertEquals(IDP_ENTITY_ID, provider.getEntityID());
+        assertEquals(1, provider.getMaterializedCount());
+    }
+
+    @Test
+    void entitiesAreUnmarshalledOnFirstLookup() throws Exception {
+        provider.doGetMetadata();
+        EntityDescriptor sp = provider.getEntityDescriptor(SP_ENTITY_ID);
+
+        assertNotNull(sp);
+        assertNotNull(provider.getRole(SP_ENTITY_ID, SPSSODescriptor.DEFAULT_ELEMENT_NAME, SAMLConstants.SAML20P_NS));
+        assertNotNull(provider.getRole(OTHER_IDP_ENTITY_ID, IDPSSODescriptor.DEFAULT_ELEMENT_NAME, SAMLConstants.SAML20P_NS));
+        assertNull(provider.getRole(SP_ENTITY_ID, IDPSSODescriptor.DEFAULT_ELEMENT_NAME, SAMLConstants.SAML20P_NS));
+        assertSame(sp, provider.getEntityDescriptor(SP_ENTITY_ID));
+        assertNull(provider.getEntityDescriptor("http://unknown.example.com"));
+        assertEquals(3, provider.getMaterializedCount());
+    }
+
+    @Test
+    void metadataDocumentIsReleasedOnceTheAggregateIsIndexed() throws Exception {
+        provider.getEntityIds();
+
+        assertNull(provider.getMetadataDocument());
+        assertEquals(IDP_ENTITY_ID, provider.getEntityID());
+        assertNotNull(provider.getEntityDescriptor(SP_ENTITY_ID));
+        String fetched = new String(provider.fetchMetadata(), StandardCharsets.UTF_8);
+        assertTrue(fetched.contains(IDP_ENTITY_ID));
+        assertFalse(fetched.contains(SP_ENTITY_ID));
+    }
+
+    @Test
+    void singleEntityIsNotStreamed() throws Exception {
+        String idp = new Scanner(new File("../uaa/src/main/resources/idp.xml")).useDelimiter("\\Z").next();
+        StreamingMetadataProvider single = new StreamingMetadataProvider("uaa", "single", idp);
+        single.setParserPool(new BasicParserPool());
+        single.initialize();
+
+        assertNull(single.getEntityIds());
+        assertTrue(single.doGetMetadata() instanceof EntityDescriptor);
+        assertEquals(IDP_ENTITY_ID, single.getEntityID());
+        assertNotNull(single.getMetadataDocument());
+    }
+}
@@ -0,0 +1,106 @@
+package org.cloudfoundry.identity.uaa.provider.saml;
+
+import org.cloudfoundry.identity.uaa.security.PollutionPreventionExtension;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.cloudfoundry.identity.uaa.zone.MultitenancyFixture;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.opensaml.saml2.metadata.SPSSODescriptor;
+import org.opensaml.xml.security.credential.Credential;
+import org.opensaml.xml.security.credential.UsageType;
+import org.springframework.security.saml.key.KeyManager;
+import org.springframework.security.saml.metadata.MetadataManager;
+
+import javax.xml.namespace.QName;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+import static org.opensaml.common.xml.SAMLConstants.SAML20P_NS;
+
+@ExtendWith(PollutionPreventionExtension.class)
+class ZoneAwareMetadataCredentialResolverTests {
+
+    private static final String ENTITY_ID = "http://sp.example.com";
+    private static final QName ROLE = SPSSODescriptor.DEFAULT_ELEMENT_NAME;
+
+    private MetadataManager metadataManager;
+    private AtomicInteger loads;
+    private ZoneAwareMetadataCredentialResolver resolver;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        metadataManager = mock(MetadataManager.class, withSettings().extraInterfaces(MetadataVersionProvider.class));
+        version("sp-1:1:1000");
+        loads = new AtomicInteger();
+        resolver = new ZoneAwareMetadataCredentialResolver(metadataManager, mock(KeyManager.class)) {
+            @Override
+            protected Collection<Credential> loadFromMetadata(String entityID, QName role, String protocol, UsageType usage) {
+                loads.incrementAndGet();
+                return new ArrayList<>();
+            }
+        };
+    }
+
+    @Test
+    void credentialsAreCachedWhileMetadataIsUnchanged() throws Exception {
+        Collection<Credential> first = resolver.retrieveFromMetadata(ENTITY_ID, ROLE, SAML20P_NS, UsageType.SIGNING);
+        assertSame(first, resolver.retrieveFromMetadata(ENTITY_ID, ROLE, SAML20P_NS, UsageType.SIGNING));
+        assertEquals(1, loads.get());
+
+        resolver.retrieveFromMetadata(ENTITY_ID, ROLE, SAML20P_NS, UsageType.ENCRYPTION);
+        assertEquals(2, loads.get());
+        verify(metadataManager, never()).getEntityDescriptor(anyString());
+    }
+
+    @Test
+    void credentialsAreReloadedWhenMetadataChanges() throws Exception {
+        Collection<Credential> first = resolver.retrieveFromMetadata(ENTITY_ID, ROLE, SAML20P_NS, UsageType.SIGNING);
+        version("sp-1:2:2000");
+        assertNotSame(first, resolver.retrieveFromMetadata(ENTITY_ID, ROLE, SAML20P_NS, UsageType.SIGNING));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void credentialsAreCachedPerZone() throws Exception {
+        resolver.retrieveFromMetadata(ENTITY_ID, ROLE, SAML20P_NS, UsageType.SIGNING);
+        IdentityZone zone = MultitenancyFixture.identityZone("other-zone", "other-zone");
+        IdentityZoneHolder.set(zone);
+        resolver.retrieveFromMetadata(ENTITY_ID, ROLE, SAML20P_NS, UsageType.SIGNING);
+        assertEquals(2, loads.get());
+        assertEquals(2, resolver.size());
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvicted() throws Exception {
+        resolver.setMaxEntries(1);
+        resolver.retrieveFromMetadata(ENTITY_ID, ROLE, SAML20P_NS, UsageType.SIGNING);
+        Collection<Credential> encryption = resolver.retrieveFromMetadata(ENTITY_ID, ROLE, SAML20P_NS, UsageType.ENCRYPTION);
+        assertEquals(1, resolver.size());
+        assertSame(encryption, resolver.retrieveFromMetadata(ENTITY_ID, ROLE, SAML20P_NS, UsageType.ENCRYPTION));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void unknownEntitiesAreNotCached() throws Exception {
+        resolver.retrieveFromMetadata("unknown", ROLE, SAML20P_NS, UsageType.SIGNING);
+        resolver.retrieveFromMetadata("unknown", ROLE, SAML20P_NS, UsageType.SIGNING);
+        assertEquals(2, loads.get());
+        assertEquals(0, resolver.size());
+    }
+
+    private void version(String version) throws Exception {
+        when(((MetadataVersionProvider) metadataManager).getMetadataVersion(ENTITY_ID)).thenReturn(version);
+    }
+}
@@ -0,0 +1,220 @@
+package org.cloudfoundry.identity.uaa.provider.saml;
+
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ZoneProviderCacheTests {
+
+    private TimeService timeService;
+    private TestCache cache;
+    private List<Provider> providers;
+    private AtomicInteger loads;
+
+    @BeforeEach
+    void setUp() {
+        timeService = mock(TimeService.class);
+        providers = new ArrayList<>(Arrays.asList(new Provider("p-1", 1, true), new Provider("p-2", 1, false)));
+        cache = new TestCache();
+        cache.setTimeService(timeService);
+        cache.setRevalidateIntervalMillis(30000);
+        loads = new AtomicInteger();
+        now(100000L);
+    }
+
+    @Test
+    void loadsProvidersOnce() {
+        List<ZoneProviderCache.Entry<Provider, Object>> first = entries();
+        List<ZoneProviderCache.Entry<Provider, Object>> second = entries();
+
+        assertEquals(2, first.size());
+        assertSame(first, second);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void onlyChangedProvidersAreLoadedAfterInvalidate() {
+        List<ZoneProviderCache.Entry<Provider, Object>> first = entries();
+        providers.set(1, new Provider("p-2", 2, false));
+        cache.invalidate("zone");
+
+        List<ZoneProviderCache.Entry<Provider, Object>> second = entries();
+
+        assertEquals(3, loads.get());
+        assertSame(first.get(0).getValue(), second.get(0).getValue());
+        assertNotSame(first.get(1).getValue(), second.get(1).getValue());
+    }
+
+    @Test
+    void revalidatesAndReloadsProvidersReloadedOnRevalidate() {
+        List<ZoneProviderCache.Entry<Provider, Object>> first = entries();
+        providers.add(new Provider("p-3", 1, false));
+        assertEquals(2, entries().size());
+
+        now(130000L);
+        List<ZoneProviderCache.Entry<Provider, Object>> second = entries();
+        assertEquals(3, second.size());
+        assertNotSame(first.get(0).getValue(), second.get(0).getValue());
+        assertSame(first.get(1).getValue(), second.get(1).getValue());
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    void versionChangesWhenProviderIsLoadedAgain() {
+        String first = entries().get(0).getVersion();
+        assertEquals(first, entries().get(0).getVersion());
+
+        now(130000L);
+        assertNotEquals(first, entries().get(0).getVersion());
+    }
+
+    @Test
+    void removedZoneIsLoadedAgain() {
+        cache.getSnapshot("zone", this::load);
+        cache.remove("zone");
+
+        cache.getSnapshot("zone", this::load);
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    void failedProvidersAreLeftOut() {
+        List<ZoneProviderCache.Entry<Provider, Object>> result = cache.getSnapshot("zone", provider -> {
+            if ("p-1".equals(provider.id)) {
+                throw new MetadataProviderException("invalid metadata");
+            }
+            return load(provider);
+        }).getIndex();
+
+        assertEquals(1, result.size());
+    }
+
+    @Test
+    void loadsChangedProvidersConcurrently() {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            cache.setLoadThreads(2);
+            cache.setLoadExecutor(executor);
+            CountDownLatch bothStarted = new CountDownLatch(2);
+
+            List<ZoneProviderCache.Entry<Provider, Object>> result = cache.getSnapshot("zone", provider -> {
+                bothStarted.countDown();
+                if (!await(bothStarted)) {
+                    throw new MetadataProviderException("not loaded concurrently");
+                }
+                return load(provider);
+            }).getIndex();
+
+            assertEquals(2, result.size());
+            assertEquals(2, loads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void providersNotLoadedInTimeAreLeftOut() {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            cache.setLoadThreads(2);
+            cache.setLoadExecutor(executor);
+            cache.setLoadTimeoutMillis(100);
+
+            List<ZoneProviderCache.Entry<Provider, Object>> result = cache.getSnapshot("zone", provider -> {
+                if ("p-1".equals(provider.id)) {
+                    await(new CountDownLatch(1));
+                }
+                return load(provider);
+            }).getIndex();
+
+            assertEquals(1, result.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<ZoneProviderCache.Entry<Provider, Object>> entries() {
+        return cache.getSnapshot("zone", this::load).getIndex();
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        try {
+            return latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private Object load(Provider provider) {
+        loads.incrementAndGet();
+        return new Object();
+    }
+
+    private void now(long time) {
+        when(timeService.getCurrentTimeMillis()).thenReturn(time);
+    }
+
+    private static class Provider {
+        private final String id;
+        private final int version;
+        private final boolean url;
+
+        Provider(String id, int version, boolean url) {
+            this.id = id;
+            this.version = version;
+            this.url = url;
+        }
+    }
+
+    private class TestCache extends ZoneProviderCache<Provider, Object, List<ZoneProviderCache.Entry<Provider, Object>>> {
+
+        @Override
+        protected List<Provider> retrieveActive(String zoneId) {
+            return providers;
+        }
+
+        @Override
+        protected String getId(Provider provider) {
+            return provider.id;
+        }
+
+        @Override
+        protected String cacheKey(Provider provider) {
+            return provider.id + ":" + provider.version;
+        }
+
+        @Override
+        protected boolean isReloadedOnRevalidate(Provider provider) {
+            return provider.url;
+        }
+
+        @Override
+        protected String describe(Provider provider) {
+            return provider.id;
+        }
+
+        @Override
+        protected List<Entry<Provider, Object>> index(List<Entry<Provider, Object>> entries) {
+            return Collections.unmodifiableList(new ArrayList<>(entries));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.cloudfoundry.identity.uaa.provider.saml.idp;
+
+import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.saml.metadata.ExtendedMetadataDelegate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SamlServiceProviderCacheTests {
+
+    private TimeService timeService;
+    private SamlServiceProviderCache cache;
+    private List<SamlServiceProvider> providers;
+    private AtomicInteger loads;
+
+    @BeforeEach
+    void setUp() {
+        SamlServiceProviderProvisioning provisioning = mock(SamlServiceProviderProvisioning.class);
+        timeService = mock(TimeService.class);
+        providers = new ArrayList<>(Arrays.asList(provider("sp-1", 1), provider("sp-2", 1)));
+        when(provisioning.retrieveActive("zone")).thenAnswer(invocation -> providers);
+        cache = new SamlServiceProviderCache(provisioning);
+        cache.setTimeService(timeService);
+        cache.setRevalidateIntervalMillis(30000);
+        loads = new AtomicInteger();
+        now(100000L);
+    }
+
+    @Test
+    void findsProviderByEntityId() {
+        SamlServiceProviderHolder holder = cache.getServiceProvider("zone", "sp-2.example.com", this::load);
+
+        assertEquals("sp-2", holder.getSamlServiceProvider().getId());
+        assertNull(cache.getServiceProvider("zone", "unknown.example.com", this::load));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void onlyChangedProvidersAreLoadedAfterInvalidate() {
+        List<SamlServiceProviderHolder> first = cache.getServiceProviders("zone", this::load);
+        providers.set(1, provider("sp-2", 2));
+        cache.invalidate("zone");
+
+        List<SamlServiceProviderHolder> second = cache.getServiceProviders("zone", this::load);
+
+        assertEquals(3, loads.get());
+        assertSame(first.get(0), second.get(0));
+        assertNotSame(first.get(1), second.get(1));
+    }
+
+    @Test
+    void metadataVersionChangesWhenProviderIsModified() {
+        String first = cache.getMetadataVersion("zone", "sp-1.example.com", this::load);
+        assertEquals(first, cache.getMetadataVersion("zone", "sp-1.example.com", this::load));
+        assertNull(cache.getMetadataVersion("zone", "unknown.example.com", this::load));
+
+        providers.set(0, provider("sp-1", 2));
+        cache.invalidate("zone");
+
+        assertNotEquals(first, cache.getMetadataVersion("zone", "sp-1.example.com", this::load));
+    }
+
+    @Test
+    void deletedZoneIsRemoved() {
+        cache.getServiceProviders("zone", this::load);
+        IdentityZone zone = new IdentityZone();
+        zone.setId("zone");
+        cache.onApplicationEvent(new EntityDeletedEvent<>(zone, null, "zone"));
+
+        cache.getServiceProviders("zone", this::load);
+        assertEquals(4, loads.get());
+    }
+
+    private ExtendedMetadataDelegate load(SamlServiceProvider provider) {
+        loads.incrementAndGet();
+        return mock(ExtendedMetadataDelegate.class);
+    }
+
+    private void now(long time) {
+        when(timeService.getCurrentTimeMillis()).thenReturn(time);
+    }
+
+    private static SamlServiceProvider provider(String id, int version) {
+        SamlServiceProviderDefinition definition = SamlServiceProviderDefinition.Builder.get()
+            .setMetaDataLocation("https://" + id + ".example.com/saml/metadata")
+            .build();
+        return new SamlServiceProvider()
+            .setId(id)
+            .setEntityId(id + ".example.com")
+            .setIdentityZoneId("zone")
+            .setVersion(version)
+            .setLastModified(new Date(1000L))
+            .setConfig(definition);
+    }
+}
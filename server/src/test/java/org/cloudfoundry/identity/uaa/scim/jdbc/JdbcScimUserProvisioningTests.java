@@ -563,6 +563,25 @@ public class JdbcScimUserProvisioningTests extends JdbcTestBase {
         assertTrue(BCrypt.checkpw("koala123$marissa", storedPassword));
     }
 
+    @Test
+    public void canUpdatePasswordHashWhenStoredHashIsUnchanged() {
+        String storedPassword = jdbcTemplate.queryForObject("SELECT password from users where ID=?", String.class, JOE_ID);
+        String rehashed = new BCryptPasswordEncoder(5).encode("joespassword");
+        assertTrue(db.updatePasswordHash(JOE_ID, storedPassword, rehashed, IdentityZoneHolder.get().getId()));
+        String updatedPassword = jdbcTemplate.queryForObject("SELECT password from users where ID=?", String.class, JOE_ID);
+        assertEquals(rehashed, updatedPassword);
+        assertTrue(BCrypt.checkpw("joespassword", updatedPassword));
+    }
+
+    @Test
+    public void cannotUpdatePasswordHashWhenStoredHashHasChanged() {
+        String storedPassword = jdbcTemplate.queryForObject("SELECT password from users where ID=?", String.class, JOE_ID);
+        db.changePassword(JOE_ID, null, "koala123$marissa", IdentityZoneHolder.get().getId());
+        assertFalse(db.updatePasswordHash(JOE_ID, storedPassword, new BCryptPasswordEncoder(5).encode("joespassword"), IdentityZoneHolder.get().getId()));
+        String updatedPassword = jdbcTemplate.queryForObject("SELECT password from users where ID=?", String.class, JOE_ID);
+        assertTrue(BCrypt.checkpw("koala123$marissa", updatedPassword));
+    }
+
     @Test(expected = BadCredentialsException.class)
     public void cannotChangePasswordNonexistentUser() {
         db.changePassword(JOE_ID, "notjoespassword", "newpassword", IdentityZoneHolder.get().getId());
@@ -5,6 +5,8 @@ import org.junit.jupiter.api.Test;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.*;
 
 class PasswordEncoderFactoryTest {
@@ -27,4 +29,39 @@ class PasswordEncoderFactoryTest {
         verify(spySubject, times(1)).createRealPasswordEncoder();
     }
 
+    @Test
+    void getStrength_usesMinimumStrength_whenNoTargetVerificationTimeIsConfigured() {
+        assertThat(subject.getStrength(), is(PasswordEncoderFactory.DEFAULT_STRENGTH));
+    }
+
+    @Test
+    void getStrength_calibratesToTargetVerificationTime() {
+        PasswordEncoderFactory spySubject = spy(subject);
+        spySubject.setTargetVerificationMillis(400);
+        // cost 6 measured at 1.5ms, so cost 14 takes ~384ms and cost 15 ~768ms
+        doReturn(1_500_000L).when(spySubject).measureNanos(anyInt());
+
+        assertThat(spySubject.getStrength(), is(14));
+        assertThat(spySubject.getStrength(), is(14));
+        verify(spySubject, times(1)).calibrateStrength();
+    }
+
+    @Test
+    void getStrength_neverCalibratesBelowMinimumStrength() {
+        PasswordEncoderFactory spySubject = spy(subject);
+        spySubject.setTargetVerificationMillis(1);
+        spySubject.setMinimumStrength(11);
+        doReturn(5_000_000L).when(spySubject).measureNanos(anyInt());
+
+        assertThat(spySubject.getStrength(), is(11));
+    }
+
+    @Test
+    void getBcryptStrength() {
+        assertThat(PasswordEncoderFactory.getBcryptStrength(new BCryptPasswordEncoder(5).encode("password")), is(5));
+        assertThat(PasswordEncoderFactory.getBcryptStrength("$2a$12$abcdefghijklmnopqrstuv"), is(12));
+        assertThat(PasswordEncoderFactory.getBcryptStrength(new FakePasswordEncoder().encode("password")), is(-1));
+        assertThat(PasswordEncoderFactory.getBcryptStrength(null), is(-1));
+    }
+
 }
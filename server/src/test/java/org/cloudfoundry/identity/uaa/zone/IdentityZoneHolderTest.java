@@ -128,7 +128,7 @@ class IdentityZoneHolderTest {
             when(mockIdentityZoneConfiguration.getSamlConfig()).thenReturn(mockSamlConfig);
 
             KeyManager expectedKeyManager = mock(KeyManager.class);
-            when(mockSamlKeyManagerFactory.getKeyManager(any()))
+            when(mockSamlKeyManagerFactory.getKeyManager(any(), any()))
                     .thenReturn(null)
                     .thenReturn(expectedKeyManager);
 
@@ -139,8 +139,8 @@ class IdentityZoneHolderTest {
             assertThat(IdentityZoneHolder.getSamlSPKeyManager(), is(expectedKeyManager));
             assertThat(IdentityZoneHolder.getSamlSPKeyManager(), is(expectedKeyManager));
 
-            verify(mockSamlKeyManagerFactory).getKeyManager(mockSamlConfig);
-            verify(mockSamlKeyManagerFactory, times(2)).getKeyManager(any());
+            verify(mockSamlKeyManagerFactory).getKeyManager(any(), eq(mockSamlConfig));
+            verify(mockSamlKeyManagerFactory, times(2)).getKeyManager(any(), any());
         }
     }
 
@@ -184,12 +184,12 @@ class IdentityZoneHolderTest {
             SamlConfig mockSamlConfig = mock(SamlConfig.class);
             when(mockIdentityZone.getConfig()).thenReturn(mockIdentityZoneConfiguration);
             when(mockIdentityZoneConfiguration.getSamlConfig()).thenReturn(mockSamlConfig);
-            when(mockSamlKeyManagerFactory.getKeyManager(mockSamlConfig))
+            when(mockSamlKeyManagerFactory.getKeyManager(any(), eq(mockSamlConfig)))
                     .thenReturn(null);
             IdentityZoneHolder.set(mockIdentityZone);
 
             KeyManager expectedKeyManager = mock(KeyManager.class);
-            when(mockSamlKeyManagerFactory.getKeyManager(mockSamlConfigFromProvisioning))
+            when(mockSamlKeyManagerFactory.getKeyManager(any(), eq(mockSamlConfigFromProvisioning)))
                     .thenReturn(expectedKeyManager);
 
             // Call several times! The value is cached in KEY_MANAGER_THREAD_LOCAL
@@ -201,9 +201,9 @@ class IdentityZoneHolderTest {
 
             InOrder inOrder = inOrder(mockSamlKeyManagerFactory);
 
-            inOrder.verify(mockSamlKeyManagerFactory).getKeyManager(mockSamlConfig);
-            inOrder.verify(mockSamlKeyManagerFactory).getKeyManager(mockSamlConfigFromProvisioning);
-            verify(mockSamlKeyManagerFactory, times(2)).getKeyManager(any());
+            inOrder.verify(mockSamlKeyManagerFactory).getKeyManager(any(), eq(mockSamlConfig));
+            inOrder.verify(mockSamlKeyManagerFactory).getKeyManager(any(), eq(mockSamlConfigFromProvisioning));
+            verify(mockSamlKeyManagerFactory, times(2)).getKeyManager(any(), any());
         }
     }
 
@@ -219,7 +219,7 @@ class IdentityZoneHolderTest {
         assertThat(IdentityZoneHolder.getSamlSPKeyManager(), is(expectedKeyManager));
         assertThat(IdentityZoneHolder.getSamlSPKeyManager(), is(expectedKeyManager));
 
-        verify(mockSamlKeyManagerFactory, never()).getKeyManager(any());
+        verify(mockSamlKeyManagerFactory, never()).getKeyManager(any(), any());
     }
 
     @Test
@@ -234,7 +234,7 @@ class IdentityZoneHolderTest {
         when(mockIdentityZoneConfiguration.getSamlConfig()).thenReturn(mockSamlConfig);
 
         KeyManager expectedKeyManager = mock(KeyManager.class);
-        when(mockSamlKeyManagerFactory.getKeyManager(any())).thenReturn(expectedKeyManager);
+        when(mockSamlKeyManagerFactory.getKeyManager(any(), any())).thenReturn(expectedKeyManager);
 
         // Call several times! The value is cached in KEY_MANAGER_THREAD_LOCAL
         assertThat(IdentityZoneHolder.getSamlSPKeyManager(), is(expectedKeyManager));
@@ -243,8 +243,8 @@ class IdentityZoneHolderTest {
         assertThat(IdentityZoneHolder.getSamlSPKeyManager(), is(expectedKeyManager));
         assertThat(IdentityZoneHolder.getSamlSPKeyManager(), is(expectedKeyManager));
 
-        verify(mockSamlKeyManagerFactory).getKeyManager(mockSamlConfig);
-        verify(mockSamlKeyManagerFactory, times(1)).getKeyManager(any());
+        verify(mockSamlKeyManagerFactory).getKeyManager(any(), eq(mockSamlConfig));
+        verify(mockSamlKeyManagerFactory, times(1)).getKeyManager(any(), any());
     }
 
     @Test
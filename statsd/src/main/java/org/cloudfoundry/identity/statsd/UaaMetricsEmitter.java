@@ -13,6 +13,7 @@
 package org.cloudfoundry.identity.statsd;
 
 import com.timgroup.statsd.StatsDClient;
+import org.cloudfoundry.identity.uaa.metrics.LatencyHistogram;
 import org.cloudfoundry.identity.uaa.metrics.MetricsQueue;
 import org.cloudfoundry.identity.uaa.metrics.RequestMetricSummary;
 import org.cloudfoundry.identity.uaa.metrics.StatusCodeGroup;
@@ -42,6 +43,11 @@ import java.util.function.Function;
 import static java.util.Optional.ofNullable;
 import static org.springframework.util.ReflectionUtils.findMethod;
 
+/**
+ * Polls the UAA MBeans and emits their values to statsd. A UAA server can
+ * instead push the same metrics itself, once per interval, by setting
+ * {@code metrics.push.enabled}, in which case this application is not needed.
+ */
 public class UaaMetricsEmitter {
     private static Logger logger = LoggerFactory.getLogger(UaaMetricsEmitter.class);
 
@@ -52,6 +58,7 @@ public class UaaMetricsEmitter {
     private NotificationEmitter emitter;
     private boolean notificationsEnabled;
     private ConcurrentMap<String, Long> delta = new ConcurrentHashMap<>();
+    private ConcurrentMap<String, LatencyHistogram> histogramDelta = new ConcurrentHashMap<>();
 
     public UaaMetricsEmitter(MetricsUtils metricsUtils, StatsDClient statsDClient, MBeanServerConnection server) {
         this.statsDClient = statsDClient;
@@ -111,9 +118,38 @@ public class UaaMetricsEmitter {
             RequestMetricSummary metricTotals = metric.getTotals();
             statsDClient.gauge(String.format(prefix + "completed.count", prefixName), metricTotals.getCount());
             statsDClient.gauge(String.format(prefix + "completed.time", prefixName), (long) metricTotals.getAverageTime());
+            emitLatencyPercentiles(prefixName, metric);
         }
     }
 
+    /**
+     * Emits the latency percentiles of the requests completed since the
+     * previous call as timers, per status code family, along with the
+     * percentiles of their database queries.
+     */
+    public void emitLatencyPercentiles(String prefixName, MetricsQueue metric) {
+        for (Map.Entry<StatusCodeGroup, LatencyHistogram> entry : metric.getLatency().entrySet()) {
+            String aspect = String.format("requests.%s.status_%s.latency", prefixName, entry.getKey().getName());
+            emitPercentiles(aspect, getHistogramDelta(aspect, entry.getValue()));
+        }
+        String aspect = String.format("database.%s.latency", prefixName);
+        emitPercentiles(aspect, getHistogramDelta(aspect, metric.getDatabaseLatency()));
+    }
+
+    private void emitPercentiles(String aspect, LatencyHistogram interval) {
+        if (interval.getCount() <= 0) {
+            return;
+        }
+        for (double percentile : LatencyHistogram.PERCENTILES) {
+            statsDClient.time(aspect + "." + LatencyHistogram.percentileName(percentile), interval.getValueAtPercentile(percentile));
+        }
+    }
+
+    public LatencyHistogram getHistogramDelta(String name, LatencyHistogram cumulative) {
+        LatencyHistogram previous = histogramDelta.put(name, cumulative);
+        return cumulative.minus(previous);
+    }
+
     public void emitGlobalServerStats(UaaMetrics metrics) {
         //server statistics
         statsDClient.gauge("server.inflight.count", metrics.getInflightCount());
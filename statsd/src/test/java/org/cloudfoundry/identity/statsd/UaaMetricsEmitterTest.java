@@ -2,7 +2,12 @@ package org.cloudfoundry.identity.statsd;
 
 import com.timgroup.statsd.ConvenienceMethodProvidingStatsDClient;
 import com.timgroup.statsd.StatsDClient;
+import org.cloudfoundry.identity.uaa.metrics.MetricsQueue;
+import org.cloudfoundry.identity.uaa.metrics.QueryMetric;
+import org.cloudfoundry.identity.uaa.metrics.RequestMetric;
 import org.cloudfoundry.identity.uaa.metrics.UaaMetrics;
+import org.cloudfoundry.identity.uaa.metrics.UrlGroup;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
@@ -19,6 +24,7 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
 import static org.mockito.Mockito.*;
 
 class UaaMetricsEmitterTest {
@@ -141,6 +147,35 @@ class UaaMetricsEmitterTest {
         assertEquals(3L, uaaMetricsEmitter.getMetricDelta(name, 8L));
     }
 
+    @Test
+    void latency_percentiles_emitted_per_interval() {
+        UrlGroup group = new UrlGroup().setGroup("/ui").setLimit(3000).setPattern("/ui/**").setCategory("test");
+        MetricsQueue queue = new MetricsQueue();
+        for (int i = 1; i <= 100; i++) {
+            RequestMetric metric = RequestMetric.start("/ui", group, 0);
+            metric.addQuery(new QueryMetric("query", 0, 2, false));
+            metric.stop(200, i);
+            queue.offer(metric);
+        }
+        uaaMetricsEmitter.emitLatencyPercentiles("ui", JsonUtils.readValue(JsonUtils.writeValueAsString(queue), MetricsQueue.class));
+
+        verify(statsDClient).time("requests.ui.status_2xx.latency.p50", 50L);
+        verify(statsDClient).time("requests.ui.status_2xx.latency.p90", 91L);
+        verify(statsDClient).time("requests.ui.status_2xx.latency.p99", 99L);
+        verify(statsDClient).time("requests.ui.status_2xx.latency.p999", 100L);
+        verify(statsDClient).time("database.ui.latency.p99", 2L);
+
+        reset(statsDClient);
+        RequestMetric slow = RequestMetric.start("/ui", group, 0);
+        slow.stop(500, 1000);
+        queue.offer(slow);
+        uaaMetricsEmitter.emitLatencyPercentiles("ui", JsonUtils.readValue(JsonUtils.writeValueAsString(queue), MetricsQueue.class));
+
+        verify(statsDClient).time("requests.ui.status_5xx.latency.p50", 1000L);
+        verify(statsDClient, never()).time(startsWith("requests.ui.status_2xx"), anyLong());
+        verify(statsDClient, never()).time(startsWith("database.ui"), anyLong());
+    }
+
     @Test
     void vm_vitals() {
         uaaMetricsEmitter.emitVmVitals();
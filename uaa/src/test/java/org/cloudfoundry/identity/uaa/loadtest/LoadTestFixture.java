@@ -0,0 +1,273 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.loadtest;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.cloudfoundry.identity.uaa.authentication.UaaAuthentication;
+import org.cloudfoundry.identity.uaa.authentication.UaaPrincipal;
+import org.cloudfoundry.identity.uaa.constants.OriginKeys;
+import org.cloudfoundry.identity.uaa.scim.ScimGroup;
+import org.cloudfoundry.identity.uaa.scim.ScimGroupMember;
+import org.cloudfoundry.identity.uaa.scim.ScimGroupMembershipManager;
+import org.cloudfoundry.identity.uaa.scim.ScimGroupProvisioning;
+import org.cloudfoundry.identity.uaa.scim.ScimUser;
+import org.cloudfoundry.identity.uaa.scim.jdbc.JdbcScimUserProvisioning;
+import org.cloudfoundry.identity.uaa.user.UaaAuthority;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
+import org.cloudfoundry.identity.uaa.util.SetServerNameRequestPostProcessor;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextImpl;
+import org.springframework.security.oauth2.provider.client.BaseClientDetails;
+import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.cloudfoundry.identity.uaa.mock.util.MockMvcUtils.createClient;
+import static org.cloudfoundry.identity.uaa.mock.util.MockMvcUtils.createOtherIdentityZone;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.httpBasic;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+/**
+ * Seeds the zones, users, nested groups and clients a load test runs
+ * against, and a pool of tokens per zone for the operations that need one.
+ * Users and clients are created through the provisioning beans rather than
+ * the endpoints, so seeding large populations stays fast.
+ */
+public class LoadTestFixture {
+
+    public static final String PASSWORD = "loadtest-password";
+    public static final String CLIENT_SECRET = "loadtest-secret";
+    public static final String REDIRECT_URI = "http://localhost/loadtest/callback";
+
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<Map<String, Object>>() {};
+    private static final int TOKENS_PER_ZONE = 10;
+
+    public static class SeededZone {
+        private final IdentityZone zone;
+        private final List<String> userIds = new ArrayList<>();
+        private final List<String> usernames = new ArrayList<>();
+        private final List<String> clientIds = new ArrayList<>();
+        private final List<String> accessTokens = new ArrayList<>();
+        private final List<String> refreshTokens = new ArrayList<>();
+        private final List<String> tokenClientIds = new ArrayList<>();
+        private String scimToken;
+
+        SeededZone(IdentityZone zone) {
+            this.zone = zone;
+        }
+
+        public IdentityZone getZone() {
+            return zone;
+        }
+
+        public String getHost() {
+            return zone.getSubdomain() + ".localhost";
+        }
+
+        public List<String> getUserIds() {
+            return userIds;
+        }
+
+        public List<String> getUsernames() {
+            return usernames;
+        }
+
+        public List<String> getClientIds() {
+            return clientIds;
+        }
+
+        public List<String> getAccessTokens() {
+            return accessTokens;
+        }
+
+        public List<String> getRefreshTokens() {
+            return refreshTokens;
+        }
+
+        /**
+         * @return the client each of the pooled access and refresh tokens was issued to
+         */
+        public List<String> getTokenClientIds() {
+            return tokenClientIds;
+        }
+
+        public String getScimToken() {
+            return scimToken;
+        }
+    }
+
+    private final WebApplicationContext context;
+    private final MockMvc mockMvc;
+    private final List<SeededZone> zones = new ArrayList<>();
+
+    public LoadTestFixture(WebApplicationContext context, MockMvc mockMvc) {
+        this.context = context;
+        this.mockMvc = mockMvc;
+    }
+
+    public List<SeededZone> getZones() {
+        return Collections.unmodifiableList(zones);
+    }
+
+    public void seed(LoadTestSettings settings) throws Exception {
+        JdbcScimUserProvisioning userProvisioning = context.getBean(JdbcScimUserProvisioning.class);
+        ScimGroupProvisioning groupProvisioning = context.getBean(ScimGroupProvisioning.class);
+        ScimGroupMembershipManager membershipManager = context.getBean(ScimGroupMembershipManager.class);
+        for (int z = 0; z < settings.getZones(); z++) {
+            IdentityZone zone = createOtherIdentityZone("loadtest-" + z, mockMvc, context, false);
+            String zoneId = zone.getId();
+            SeededZone seeded = new SeededZone(zone);
+
+            // users are members of the first group, which is a member of the next one and so on
+            List<ScimGroup> groups = new ArrayList<>();
+            for (int d = 0; d < settings.getGroupDepth(); d++) {
+                ScimGroup group = groupProvisioning.create(new ScimGroup(null, "loadtest.group" + d, zoneId), zoneId);
+                if (d > 0) {
+                    membershipManager.addMember(group.getId(), new ScimGroupMember(groups.get(d - 1).getId(), ScimGroupMember.Type.GROUP), zoneId);
+                }
+                groups.add(group);
+            }
+
+            for (int u = 0; u < settings.getUsers(); u++) {
+                String username = "loadtest-user-" + u;
+                ScimUser user = new ScimUser(null, username, "Load", "User " + u);
+                user.addEmail(username + "@example.org");
+                user.setVerified(true);
+                user = userProvisioning.createUser(user, PASSWORD, zoneId);
+                if (!groups.isEmpty()) {
+                    membershipManager.addMember(groups.get(0).getId(), new ScimGroupMember(user.getId(), ScimGroupMember.Type.USER), zoneId);
+                }
+                seeded.userIds.add(user.getId());
+                seeded.usernames.add(username);
+            }
+
+            for (int c = 0; c < settings.getClients(); c++) {
+                BaseClientDetails client = new BaseClientDetails(
+                    "loadtest-client-" + c,
+                    null,
+                    "openid,loadtest.*",
+                    "password,client_credentials,refresh_token,authorization_code",
+                    "scim.read,uaa.resource",
+                    REDIRECT_URI);
+                client.setClientSecret(CLIENT_SECRET);
+                client.setAutoApproveScopes(Collections.singleton("true"));
+                createClient(context, client, zone);
+                seeded.clientIds.add(client.getClientId());
+            }
+
+            for (int t = 0; t < Math.min(TOKENS_PER_ZONE, settings.getUsers()); t++) {
+                String clientId = seeded.clientIds.get(t % seeded.clientIds.size());
+                Map<String, Object> token = passwordGrant(seeded, clientId, seeded.usernames.get(t));
+                seeded.tokenClientIds.add(clientId);
+                seeded.accessTokens.add((String) token.get("access_token"));
+                seeded.refreshTokens.add((String) token.get("refresh_token"));
+            }
+            seeded.scimToken = (String) clientCredentialsGrant(seeded, seeded.clientIds.get(0)).get("access_token");
+            zones.add(seeded);
+        }
+    }
+
+    public Map<String, Object> passwordGrant(SeededZone zone, String clientId, String username) throws Exception {
+        return token(zone, clientId, post("/oauth/token")
+            .param("grant_type", "password")
+            .param("username", username)
+            .param("password", PASSWORD));
+    }
+
+    public Map<String, Object> clientCredentialsGrant(SeededZone zone, String clientId) throws Exception {
+        return token(zone, clientId, post("/oauth/token")
+            .param("grant_type", "client_credentials"));
+    }
+
+    public Map<String, Object> refreshGrant(SeededZone zone, String clientId, String refreshToken) throws Exception {
+        return token(zone, clientId, post("/oauth/token")
+            .param("grant_type", "refresh_token")
+            .param("refresh_token", refreshToken));
+    }
+
+    public Map<String, Object> authorizationCodeGrant(SeededZone zone, String clientId, String code) throws Exception {
+        return token(zone, clientId, post("/oauth/token")
+            .param("grant_type", "authorization_code")
+            .param("code", code)
+            .param("redirect_uri", REDIRECT_URI));
+    }
+
+    /**
+     * Starts an authorization code flow with a session for the user, as if
+     * they had logged in, and returns the code the client is redirected with.
+     */
+    public String authorizationCode(SeededZone zone, String clientId, int user, String state) throws Exception {
+        UaaPrincipal principal = new UaaPrincipal(zone.userIds.get(user), zone.usernames.get(user), zone.usernames.get(user) + "@example.org", OriginKeys.UAA, null, zone.getZone().getId());
+        SecurityContext securityContext = new SecurityContextImpl();
+        securityContext.setAuthentication(new UaaAuthentication(principal, UaaAuthority.USER_AUTHORITIES, null));
+        MockHttpSession session = new MockHttpSession();
+        session.setAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY, securityContext);
+        MvcResult result = mockMvc.perform(get("/oauth/authorize")
+            .session(session)
+            .with(new SetServerNameRequestPostProcessor(zone.getHost()))
+            .param("response_type", "code")
+            .param("client_id", clientId)
+            .param("redirect_uri", REDIRECT_URI)
+            .param("state", state))
+            .andReturn();
+        String location = result.getResponse().getRedirectedUrl();
+        String code = location == null ? null : UriComponentsBuilder.fromUriString(location).build().getQueryParams().getFirst("code");
+        if (code == null) {
+            throw new IllegalStateException("/oauth/authorize returned " + result.getResponse().getStatus() + " without a code, redirect: " + location);
+        }
+        return code;
+    }
+
+    public Map<String, Object> checkToken(SeededZone zone, String clientId, String token) throws Exception {
+        return perform(zone, post("/check_token").param("token", token).with(httpBasic(clientId, CLIENT_SECRET)));
+    }
+
+    public Map<String, Object> searchUsers(SeededZone zone, String filter) throws Exception {
+        return perform(zone, get("/Users")
+            .param("filter", filter)
+            .param("count", "50")
+            .header("Authorization", "Bearer " + zone.getScimToken()));
+    }
+
+    private Map<String, Object> token(SeededZone zone, String clientId, MockHttpServletRequestBuilder request) throws Exception {
+        return perform(zone, request.param("client_id", clientId).with(httpBasic(clientId, CLIENT_SECRET)));
+    }
+
+    /**
+     * Performs a request to the zone and returns the JSON response. Fails
+     * unless the response status is 200.
+     */
+    private Map<String, Object> perform(SeededZone zone, MockHttpServletRequestBuilder request) throws Exception {
+        MvcResult result = mockMvc.perform(request
+            .with(new SetServerNameRequestPostProcessor(zone.getHost()))
+            .accept(MediaType.APPLICATION_JSON))
+            .andReturn();
+        int status = result.getResponse().getStatus();
+        if (status != 200) {
+            throw new IllegalStateException(result.getRequest().getRequestURI() + " returned " + status + ": " + result.getResponse().getContentAsString());
+        }
+        return JsonUtils.readValue(result.getResponse().getContentAsString(), MAP_TYPE);
+    }
+}
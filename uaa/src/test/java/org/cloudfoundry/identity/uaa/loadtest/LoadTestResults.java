@@ -0,0 +1,146 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.loadtest;
+
+import org.cloudfoundry.identity.uaa.metrics.LatencyHistogram;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput and latency of each operation of a load test run, and the
+ * number of database queries the server made per request in each url group.
+ */
+public class LoadTestResults {
+
+    private final Map<Operation, LatencyHistogram> latency = new ConcurrentHashMap<>();
+    private final Map<Operation, LongAdder> errors = new ConcurrentHashMap<>();
+    private final Map<Operation, String> firstErrors = new ConcurrentHashMap<>();
+    private final Map<String, long[]> databaseQueries = new TreeMap<>();
+    private volatile long elapsedNanos;
+
+    void success(Operation operation, long millis) {
+        latency.computeIfAbsent(operation, k -> new LatencyHistogram()).record(millis);
+    }
+
+    void failure(Operation operation, long millis, Throwable error) {
+        success(operation, millis);
+        errors.computeIfAbsent(operation, k -> new LongAdder()).increment();
+        firstErrors.putIfAbsent(operation, String.valueOf(error));
+    }
+
+    void setElapsedNanos(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @param group the url group of {@code UaaMetricsFilter}
+     * @param requests the number of requests made to the group during the run
+     * @param queries the number of database queries made by those requests
+     */
+    public void addDatabaseQueries(String group, long requests, long queries) {
+        databaseQueries.put(group, new long[] {requests, queries});
+    }
+
+    public long getCount(Operation operation) {
+        LatencyHistogram histogram = latency.get(operation);
+        return histogram == null ? 0 : histogram.getCount();
+    }
+
+    public long getErrors(Operation operation) {
+        LongAdder count = errors.get(operation);
+        return count == null ? 0 : count.sum();
+    }
+
+    public double getThroughput(Operation operation) {
+        return elapsedNanos == 0 ? 0 : getCount(operation) * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    public Map<String, Object> toMap(LoadTestSettings settings) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("settings", settings.toString());
+        result.put("elapsedMillis", TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        Map<String, Object> operations = new LinkedHashMap<>();
+        for (Operation operation : new EnumMap<>(latency).keySet()) {
+            LatencyHistogram histogram = latency.get(operation);
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("count", histogram.getCount());
+            values.put("errors", getErrors(operation));
+            values.put("throughput", getThroughput(operation));
+            values.put("averageMillis", histogram.getCount() == 0 ? 0 : (double) histogram.getSum() / histogram.getCount());
+            values.put("maxMillis", histogram.getMax());
+            values.put("percentileMillis", histogram.getPercentiles());
+            values.put("histogram", histogram);
+            if (firstErrors.containsKey(operation)) {
+                values.put("firstError", firstErrors.get(operation));
+            }
+            operations.put(operation.getName(), values);
+        }
+        result.put("operations", operations);
+        Map<String, Object> groups = new LinkedHashMap<>();
+        for (Map.Entry<String, long[]> entry : databaseQueries.entrySet()) {
+            long requests = entry.getValue()[0];
+            long queries = entry.getValue()[1];
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("requests", requests);
+            values.put("databaseQueries", queries);
+            values.put("databaseQueriesPerRequest", requests == 0 ? 0 : (double) queries / requests);
+            groups.put(entry.getKey(), values);
+        }
+        result.put("urlGroups", groups);
+        return result;
+    }
+
+    public void write(File file, LoadTestSettings settings) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create " + parent);
+        }
+        Files.write(file.toPath(), JsonUtils.writeValueAsBytes(toMap(settings)));
+    }
+
+    public String format() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-20s %8s %7s %9s %8s %8s %8s %8s %8s%n",
+            "operation", "count", "errors", "ops/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+        for (Operation operation : new EnumMap<>(latency).keySet()) {
+            LatencyHistogram histogram = latency.get(operation);
+            report.append(String.format("%-20s %8d %7d %9.1f %8d %8d %8d %8d %8d%n",
+                operation.getName(), histogram.getCount(), getErrors(operation), getThroughput(operation),
+                histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90),
+                histogram.getValueAtPercentile(99), histogram.getValueAtPercentile(99.9), histogram.getMax()));
+        }
+        report.append(String.format("%n%-36s %10s %12s %14s%n", "url group", "requests", "db queries", "queries/req"));
+        for (Map.Entry<String, long[]> entry : databaseQueries.entrySet()) {
+            long requests = entry.getValue()[0];
+            long queries = entry.getValue()[1];
+            report.append(String.format("%-36s %10d %12d %14.2f%n",
+                entry.getKey(), requests, queries, requests == 0 ? 0 : (double) queries / requests));
+        }
+        return report.toString();
+    }
+
+    @Override
+    public String toString() {
+        return format();
+    }
+}
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.loadtest;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * The shape of a load test run, read from {@code loadtest.*} system
+ * properties so runs can be repeated with the same settings:
+ * <pre>
+ * ./gradlew :cloudfoundry-identity-uaa:loadTest -Dloadtest.rate=200 -Dloadtest.duration=60 \
+ *     -Dloadtest.mix=password=10,check_token=60,scim_search=30
+ * </pre>
+ */
+public class LoadTestSettings {
+
+    public static final String DEFAULT_MIX = "password=20,client_credentials=20,refresh=10,check_token=30,authorization_code=10,scim_search=10";
+
+    private final int zones;
+    private final int users;
+    private final int groupDepth;
+    private final int clients;
+    private final int rate;
+    private final int warmupSeconds;
+    private final int durationSeconds;
+    private final int threads;
+    private final long seed;
+    private final Map<Operation, Integer> mix;
+    private final String reportFile;
+
+    public LoadTestSettings() {
+        zones = Integer.getInteger("loadtest.zones", 2);
+        users = Integer.getInteger("loadtest.users", 100);
+        groupDepth = Integer.getInteger("loadtest.groupDepth", 3);
+        clients = Integer.getInteger("loadtest.clients", 5);
+        rate = Integer.getInteger("loadtest.rate", 50);
+        warmupSeconds = Integer.getInteger("loadtest.warmup", 10);
+        durationSeconds = Integer.getInteger("loadtest.duration", 30);
+        threads = Integer.getInteger("loadtest.threads", 32);
+        seed = Long.getLong("loadtest.seed", 42L);
+        mix = parseMix(System.getProperty("loadtest.mix", DEFAULT_MIX));
+        reportFile = System.getProperty("loadtest.report", "build/reports/loadtest/results.json");
+    }
+
+    static Map<Operation, Integer> parseMix(String mix) {
+        Map<Operation, Integer> result = new EnumMap<>(Operation.class);
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid load test mix entry: " + entry);
+            }
+            int weight = Integer.parseInt(parts[1].trim());
+            if (weight > 0) {
+                result.put(Operation.fromName(parts[0].trim()), weight);
+            }
+        }
+        if (result.isEmpty()) {
+            throw new IllegalArgumentException("Load test mix is empty: " + mix);
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of identity zones created, each with its own users, groups and clients
+     */
+    public int getZones() {
+        return zones;
+    }
+
+    /**
+     * @return the number of users created in each zone
+     */
+    public int getUsers() {
+        return users;
+    }
+
+    /**
+     * @return the length of the chain of nested groups every user is a member of
+     */
+    public int getGroupDepth() {
+        return groupDepth;
+    }
+
+    /**
+     * @return the number of clients created in each zone
+     */
+    public int getClients() {
+        return clients;
+    }
+
+    /**
+     * @return the number of operations started per second, regardless of how long they take
+     */
+    public int getRate() {
+        return rate;
+    }
+
+    public int getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public Map<Operation, Integer> getMix() {
+        return mix;
+    }
+
+    public String getReportFile() {
+        return reportFile;
+    }
+
+    @Override
+    public String toString() {
+        return "zones=" + zones + ", users=" + users + ", groupDepth=" + groupDepth + ", clients=" + clients +
+            ", rate=" + rate + "/s, warmup=" + warmupSeconds + "s, duration=" + durationSeconds + "s, threads=" + threads +
+            ", seed=" + seed + ", mix=" + mix;
+    }
+}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.loadtest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Starts operations at a fixed rate on a pool of worker threads, whether or
+ * not earlier operations have completed. Latency is measured from the time an
+ * operation was scheduled to start, so time spent waiting for a free worker
+ * counts and a slow server cannot hide its latency by slowing down the load.
+ * The sequence of operations and the random choices they make only depend on
+ * the seed.
+ */
+public class OpenLoopGenerator {
+
+    private static final Logger logger = LoggerFactory.getLogger(OpenLoopGenerator.class);
+
+    public interface Task {
+        void perform(Operation operation, Random random) throws Exception;
+    }
+
+    private final ExecutorService workers;
+    private final Random random;
+    private final AtomicLong outstanding = new AtomicLong();
+
+    public OpenLoopGenerator(int threads, long seed) {
+        this.workers = Executors.newFixedThreadPool(threads);
+        this.random = new Random(seed);
+    }
+
+    public LoadTestResults run(Map<Operation, Integer> mix, int rate, long durationMillis, Task task) throws InterruptedException {
+        Operation[] operations = weighted(mix);
+        LoadTestResults results = new LoadTestResults();
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long arrivals = durationMillis * rate / 1000;
+        long start = System.nanoTime();
+        for (long i = 0; i < arrivals; i++) {
+            long scheduled = start + i * intervalNanos;
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Operation operation = operations[random.nextInt(operations.length)];
+            long operationSeed = random.nextLong();
+            outstanding.incrementAndGet();
+            workers.execute(() -> {
+                try {
+                    task.perform(operation, new Random(operationSeed));
+                    results.success(operation, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - scheduled));
+                } catch (Throwable e) {
+                    results.failure(operation, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - scheduled), e);
+                    logger.debug("Load test operation " + operation.getName() + " failed", e);
+                } finally {
+                    outstanding.decrementAndGet();
+                }
+            });
+        }
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        while (outstanding.get() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        results.setElapsedNanos(System.nanoTime() - start);
+        return results;
+    }
+
+    private static Operation[] weighted(Map<Operation, Integer> mix) {
+        int total = mix.values().stream().mapToInt(Integer::intValue).sum();
+        Operation[] operations = new Operation[total];
+        int i = 0;
+        for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+            for (int j = 0; j < entry.getValue(); j++) {
+                operations[i++] = entry.getKey();
+            }
+        }
+        return operations;
+    }
+
+    public void shutdown() throws InterruptedException {
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.MINUTES);
+    }
+}
@@ -0,0 +1,44 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.loadtest;
+
+/**
+ * The operations a load test mix is made of.
+ */
+public enum Operation {
+    PASSWORD("password"),
+    CLIENT_CREDENTIALS("client_credentials"),
+    REFRESH("refresh"),
+    CHECK_TOKEN("check_token"),
+    AUTHORIZATION_CODE("authorization_code"),
+    SCIM_SEARCH("scim_search");
+
+    private final String name;
+
+    Operation(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public static Operation fromName(String name) {
+        for (Operation operation : values()) {
+            if (operation.name.equals(name)) {
+                return operation;
+            }
+        }
+        throw new IllegalArgumentException("Unknown load test operation: " + name);
+    }
+}
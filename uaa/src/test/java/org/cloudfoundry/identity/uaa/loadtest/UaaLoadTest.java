@@ -0,0 +1,154 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2019] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.loadtest;
+
+import org.cloudfoundry.identity.uaa.SpringServletAndHoneycombTestConfig;
+import org.cloudfoundry.identity.uaa.TestClientAndMockMvcTestConfig;
+import org.cloudfoundry.identity.uaa.loadtest.LoadTestFixture.SeededZone;
+import org.cloudfoundry.identity.uaa.metrics.MetricsQueue;
+import org.cloudfoundry.identity.uaa.metrics.RequestMetricSummary;
+import org.cloudfoundry.identity.uaa.metrics.UaaMetricsFilter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Drives a mix of token, check_token, authorization code and SCIM search
+ * operations against the full UAA web application with an open-loop load
+ * generator, and reports throughput, latency percentiles and the database
+ * queries made per request. It is excluded from the unit tests; run it with
+ * the {@code loadTest} task and configure it with the properties read by
+ * {@link LoadTestSettings}. The database is HSQLDB unless another one is
+ * selected with {@code spring.profiles.active}.
+ * <p>
+ * Unlike the mock MVC tests, the real password encoder is used, so password
+ * and client authentication cost what they cost in production.
+ */
+@ExtendWith(SpringExtension.class)
+@WebAppConfiguration
+@ContextConfiguration(classes = {
+        SpringServletAndHoneycombTestConfig.class,
+        TestClientAndMockMvcTestConfig.class
+})
+class UaaLoadTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(UaaLoadTest.class);
+
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    private LoadTestFixture fixture;
+
+    @Test
+    void run() throws Exception {
+        LoadTestSettings settings = new LoadTestSettings();
+        logger.info("Seeding load test data: " + settings);
+        fixture = new LoadTestFixture(webApplicationContext, mockMvc);
+        fixture.seed(settings);
+
+        UaaMetricsFilter metricsFilter = webApplicationContext.getBean("metricsFilter", UaaMetricsFilter.class);
+        OpenLoopGenerator generator = new OpenLoopGenerator(settings.getThreads(), settings.getSeed());
+        LoadTestResults results;
+        try {
+            if (settings.getWarmupSeconds() > 0) {
+                logger.info("Warming up for " + settings.getWarmupSeconds() + "s");
+                generator.run(settings.getMix(), settings.getRate(), settings.getWarmupSeconds() * 1000L, this::perform);
+            }
+            logger.info("Running for " + settings.getDurationSeconds() + "s");
+            Map<String, long[]> before = databaseQueries(metricsFilter);
+            results = generator.run(settings.getMix(), settings.getRate(), settings.getDurationSeconds() * 1000L, this::perform);
+            Map<String, long[]> after = databaseQueries(metricsFilter);
+            for (Map.Entry<String, long[]> entry : after.entrySet()) {
+                long[] start = before.getOrDefault(entry.getKey(), new long[2]);
+                long requests = entry.getValue()[0] - start[0];
+                if (requests > 0) {
+                    results.addDatabaseQueries(entry.getKey(), requests, entry.getValue()[1] - start[1]);
+                }
+            }
+        } finally {
+            generator.shutdown();
+        }
+
+        logger.info("Load test results (" + settings + ")\n" + results.format());
+        File report = new File(settings.getReportFile());
+        results.write(report, settings);
+        logger.info("Load test report written to " + report.getAbsolutePath());
+
+        for (Operation operation : settings.getMix().keySet()) {
+            assertTrue(results.getCount(operation) > 0, "no " + operation.getName() + " operations were run");
+            assertEquals(0, results.getErrors(operation), operation.getName() + " operations failed, see the report for the first error");
+        }
+    }
+
+    private void perform(Operation operation, Random random) throws Exception {
+        List<SeededZone> zones = fixture.getZones();
+        SeededZone zone = zones.get(random.nextInt(zones.size()));
+        String clientId = zone.getClientIds().get(random.nextInt(zone.getClientIds().size()));
+        int user = random.nextInt(zone.getUsernames().size());
+        int token = random.nextInt(zone.getAccessTokens().size());
+        switch (operation) {
+            case PASSWORD:
+                fixture.passwordGrant(zone, clientId, zone.getUsernames().get(user));
+                break;
+            case CLIENT_CREDENTIALS:
+                fixture.clientCredentialsGrant(zone, clientId);
+                break;
+            case REFRESH:
+                fixture.refreshGrant(zone, zone.getTokenClientIds().get(token), zone.getRefreshTokens().get(token));
+                break;
+            case CHECK_TOKEN:
+                fixture.checkToken(zone, clientId, zone.getAccessTokens().get(token));
+                break;
+            case AUTHORIZATION_CODE:
+                String code = fixture.authorizationCode(zone, clientId, user, Long.toHexString(random.nextLong()));
+                fixture.authorizationCodeGrant(zone, clientId, code);
+                break;
+            case SCIM_SEARCH:
+                fixture.searchUsers(zone, "userName sw \"loadtest-user-" + random.nextInt(10) + "\"");
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported operation: " + operation);
+        }
+    }
+
+    /**
+     * @return the number of requests and of database queries per url group, as counted by the metrics filter
+     */
+    private static Map<String, long[]> databaseQueries(UaaMetricsFilter metricsFilter) {
+        Map<String, long[]> result = new HashMap<>();
+        for (Map.Entry<String, MetricsQueue> entry : metricsFilter.getMetricsQueues().entrySet()) {
+            RequestMetricSummary totals = entry.getValue().getTotals();
+            result.put(entry.getKey(), new long[] {totals.getCount(), totals.getDatabaseQueryCount()});
+        }
+        return result;
+    }
+}